@@ -15,8 +15,11 @@
  */
 package com.thesett.catalogue.generator;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.thesett.aima.state.Type;
 import com.thesett.catalogue.model.EntityType;
 import com.thesett.catalogue.model.impl.Relationship;
 
@@ -29,6 +32,7 @@ import com.thesett.catalogue.model.impl.Relationship;
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Decorate a component type, and the types of all of its fields.
  *     <td> {@link TypeDecoratorFactory}, {@link com.thesett.aima.state.ComponentType}.
+ * <tr><td> Name the unique keys and database indexes that each field of the entity belongs to.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -52,9 +56,106 @@ public class EntityTypeDecorator extends ComponentTypeDecorator implements Entit
         return ((EntityType) type).isExternalId();
     }
 
+    /** {@inheritDoc} */
+    public boolean isCached()
+    {
+        return ((EntityType) type).isCached();
+    }
+
+    /** {@inheritDoc} */
+    public int getFetchBatchSize()
+    {
+        return ((EntityType) type).getFetchBatchSize();
+    }
+
+    /** {@inheritDoc} */
+    public String getFetchMode()
+    {
+        return ((EntityType) type).getFetchMode();
+    }
+
+    /** {@inheritDoc} */
+    public boolean isLazyFetch()
+    {
+        return ((EntityType) type).isLazyFetch();
+    }
+
+    /** {@inheritDoc} */
+    public Map<String, List<String>> getQueryIndexes()
+    {
+        return ((EntityType) type).getQueryIndexes();
+    }
+
+    /**
+     * Provides the names of the unique keys that each field of the entity belongs to, one per unique grouping of the
+     * fields. Fields that are not in any unique grouping are not included.
+     *
+     * @return The comma separated names of the unique keys of each field in a unique grouping, by field name.
+     */
+    public Map<String, String> getUniqueKeysByProperty()
+    {
+        Map<String, String> uniqueKeys = new LinkedHashMap<String, String>();
+
+        for (Map.Entry<String, List<String>> grouping : getPropertiesByUniqueGrouping().entrySet())
+        {
+            String group = grouping.getKey();
+
+            // The empty grouping holds the fields that are not unique.
+            if ("".equals(group))
+            {
+                continue;
+            }
+
+            for (String fieldName : grouping.getValue())
+            {
+                addName(uniqueKeys, fieldName, getName() + "_unique_" + group);
+            }
+        }
+
+        return uniqueKeys;
+    }
+
+    /**
+     * Provides the names of the database indexes that each field of the entity belongs to. Fields that reference
+     * hierarchies, enumerations or other entities through a foreign key are indexed on their own. The query indexes
+     * declared on the entity are not included, as they are created separately, to keep the order of their fields.
+     *
+     * @return The comma separated names of the indexes of each indexed field, by field name.
+     */
+    public Map<String, String> getIndexesByProperty()
+    {
+        Map<String, String> indexes = new LinkedHashMap<String, String>();
+
+        for (Map.Entry<String, Type> field : getAllPropertyTypes().entrySet())
+        {
+            String fieldName = field.getKey();
+            TypeDecorator fieldType = (TypeDecorator) field.getValue();
+
+            if (fieldType.isHierarchyType() || fieldType.isEnumerationType() || fieldType.isEntitySubType())
+            {
+                addName(indexes, fieldName, getName() + "_" + fieldName + "_fk_idx");
+            }
+        }
+
+        return indexes;
+    }
+
     /** {@inheritDoc} */
     public Map<String, Relationship> getRelationships()
     {
         return ((EntityType) type).getRelationships();
     }
+
+    /**
+     * Adds a name to the comma separated list of names held against a field.
+     *
+     * @param names     The comma separated names by field name.
+     * @param fieldName The name of the field.
+     * @param name      The name to add.
+     */
+    private void addName(Map<String, String> names, String fieldName, String name)
+    {
+        String existing = names.get(fieldName);
+        names.put(fieldName, (existing == null) ? name : (existing + ", " + name));
+    }
 }
@@ -47,10 +47,26 @@ import com.thesett.common.util.FileUtils;
  * uses a customized template output handler, that retains the output for all of the fragments of configuration XML, and
  * then outputs all of the fragments in the correct order during the post-processing step.
  *
+ * <p/>The mappings of hierarchy and enumeration tables, external ids, and entities marked as cached in the model
+ * declare second level cache regions. Hierarchies, enumerations and external ids are cached read only, as they are
+ * never updated, and cached entities are cached read write. If a cache region file name is set, an EhCache
+ * configuration is also output for all of the declared regions, and for the query cache regions.
+ *
+ * <p/>Collections and references to hierarchies and enumerations are fetched as set up by the fetch strategy of each
+ * entity in the model. If a fetch test output directory is set, a JUnit test is also output for each entity, that
+ * checks that loading a batch of the entities does not issue further queries per entity.
+ *
+ * <p/>The online tables are given unique constraints from the unique groupings of the fields of entities, which
+ * include their natural keys, and indexes on their foreign key columns. The query indexes declared on entities in the
+ * model are created as database objects at the end of the mapping, so that their columns are indexed in the order they
+ * were declared in.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Generate hibernate configuration for a catalogue model.
  * <tr><td> Generate hibernate custom user types as required for a catalogue model.
+ * <tr><td> Generate the second level cache region configuration for a catalogue model.
+ * <tr><td> Generate tests of the number of queries issued to load entities.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -70,6 +86,15 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
     /** Defines the name of the template group for creating Hibernate configurations. */
     private static final String HIBERNATE_USERTYPE_TEMPLATES_GROUP = "HibernateUserType";
 
+    /** Defines the name of the template group for creating second level cache region configurations. */
+    private static final String HIBERNATE_CACHE_REGIONS_TEMPLATES_GROUP = "HibernateCacheRegions";
+
+    /** Defines the name of the template group for creating fetch query count tests. */
+    private static final String HIBERNATE_FETCH_TEST_TEMPLATES_GROUP = "HibernateFetchTest";
+
+    /** Defines the name of the template for creating the query indexes of an entity. */
+    private static final String QUERY_INDEXES_TEMPLATE = "query_indexes";
+
     /** Holds the string template group to generate Hibernate online configurations from. */
     private final STGroup hibernateOnlineTemplates;
 
@@ -82,12 +107,27 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
     /** Holds the string template group to generate user types from. */
     private final STGroup hibernateUserTypeTemplates;
 
+    /** Holds the string template group to generate second level cache region configurations from. */
+    private final STGroup hibernateCacheRegionTemplates;
+
+    /** Holds the string template group to generate fetch query count tests from. */
+    private final STGroup hibernateFetchTestTemplates;
+
     /** The name of the directory to output hibernate mappings to. */
     private String mappingDirName;
 
     /** Holds the name of the file to output the hibernate mapping to. */
     private String mappingFileName;
 
+    /** Holds the name of the file to output the cache region configuration to, or <tt>null</tt> to output none. */
+    private String cacheRegionFileName;
+
+    /** Holds the name of the directory to output fetch tests to, or <tt>null</tt> to output none. */
+    private String fetchTestOutputDir;
+
+    /** Flag set when external ids are to be allocated from a sequence and rendered compactly, instead of as UUIDs. */
+    private boolean compactExternalIds;
+
     /** Output handler used to build up custom user type def configurations in. */
     private final RenderTemplateHandler userTypeDefHandler = new BufferingTemplateHandler();
 
@@ -100,6 +140,12 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
     /** Output handler used to build up the warehouse database mapping configuration in. */
     private final RenderTemplateHandler warehouseMappingHandler = new BufferingTemplateHandler();
 
+    /** Output handler used to build up the database objects creating the query indexes in. */
+    private final RenderTemplateHandler queryIndexHandler = new BufferingTemplateHandler();
+
+    /** Output handler used to build up the second level cache region configuration in. */
+    private final RenderTemplateHandler cacheRegionHandler = new BufferingTemplateHandler();
+
     /**
      * Creates a generator for hibernate configuration XML and custom user types to output to the specified directory
      * root.
@@ -122,6 +168,13 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
 
         hibernateUserTypeTemplates = new STGroupFile(templateGroupToFileName(HIBERNATE_USERTYPE_TEMPLATES_GROUP));
         hibernateUserTypeTemplates.registerRenderer(String.class, new CamelCaseRenderer());
+
+        hibernateCacheRegionTemplates =
+            new STGroupFile(templateGroupToFileName(HIBERNATE_CACHE_REGIONS_TEMPLATES_GROUP));
+        hibernateCacheRegionTemplates.registerRenderer(String.class, new CamelCaseRenderer());
+
+        hibernateFetchTestTemplates = new STGroupFile(templateGroupToFileName(HIBERNATE_FETCH_TEST_TEMPLATES_GROUP));
+        hibernateFetchTestTemplates.registerRenderer(String.class, new CamelCaseRenderer());
     }
 
     /**
@@ -144,6 +197,44 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
         this.mappingFileName = mappingFileName;
     }
 
+    /**
+     * Establishes the name of the second level cache region configuration file, output to the mapping directory. If
+     * this is not set, no cache region configuration is output.
+     *
+     * @param cacheRegionFileName The name of the file to output the cache region configuration to.
+     */
+    public void setCacheRegionFileName(String cacheRegionFileName)
+    {
+        this.cacheRegionFileName = cacheRegionFileName;
+    }
+
+    /**
+     * Establishes the directory to output the fetch query count tests to. If this is not set, no tests are output.
+     *
+     * <p/>The tests extend <tt>ModelTestBase</tt> from the catalogue-manager test jar, and configure the catalogue
+     * from a <tt>testconfig.xml</tt> resource. To run them, the directory must be added as a test source directory of
+     * a module that compiles the generated model, depends on that test jar, and provides the configuration.
+     *
+     * @param fetchTestOutputDir The root directory to output the fetch tests to.
+     */
+    public void setFetchTestOutputDir(String fetchTestOutputDir)
+    {
+        this.fetchTestOutputDir = fetchTestOutputDir;
+    }
+
+    /**
+     * Selects the scheme used to allocate external ids. By default these are 32 character UUIDs. When compact external
+     * ids are selected, they are allocated from a database sequence in blocks, and rendered as 13 character base-32
+     * strings, by <tt>CompactExternalIdGenerator</tt>. Existing catalogues may be switched over without re-keying their
+     * external ids, as described on that generator.
+     *
+     * @param compactExternalIds <tt>true</tt> to use compact external ids, <tt>false</tt> to use UUIDs.
+     */
+    public void setCompactExternalIds(boolean compactExternalIds)
+    {
+        this.compactExternalIds = compactExternalIds;
+    }
+
     /** Creates the opening section of a hibernate configuration file. */
     public void generateHibernateConfigOpening()
     {
@@ -156,13 +247,24 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
         fileOutputHandlerOverwrite.render(stringTemplate, outputFileName);
     }
 
-    /** Creates the closing section of a hibnerate configuration file. */
+    /**
+     * Creates the closing section of a hibnerate configuration file, including the database objects creating the query
+     * indexes built up in their output buffer.
+     */
     public void generateHibernateConfigClosing()
     {
         String outputFileName = nameToFileNameInRootGenerationDir(mappingFileName, mappingDirName);
 
         // Instantiate the template to generate from.
         ST stringTemplate = hibernateOnlineTemplates.getInstanceOf(FILE_CLOSE_TEMPLATE);
+        stringTemplate.add("compactExternalIds", compactExternalIds);
+
+        String queryIndexes = queryIndexHandler.toString();
+
+        if (queryIndexes.length() > 0)
+        {
+            stringTemplate.add("queryIndexes", queryIndexes);
+        }
 
         fileOutputHandlerAppend.render(stringTemplate, outputFileName);
     }
@@ -205,6 +307,21 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
         FileUtils.writeObjectToFile(outputFileName, warehouseMappingHandler, true);
 
         generateHibernateConfigClosing();
+
+        // Output the cache regions built up in the output buffer, if a cache region configuration is being generated.
+        if (cacheRegionFileName != null)
+        {
+            String cacheRegionOutputFileName = nameToFileNameInRootGenerationDir(cacheRegionFileName, mappingDirName);
+
+            ST openTemplate = hibernateCacheRegionTemplates.getInstanceOf(FILE_OPEN_TEMPLATE);
+            openTemplate.add("catalogue", model);
+            fileOutputHandlerOverwrite.render(openTemplate, cacheRegionOutputFileName);
+
+            FileUtils.writeObjectToFile(cacheRegionOutputFileName, cacheRegionHandler, true);
+
+            ST closeTemplate = hibernateCacheRegionTemplates.getInstanceOf(FILE_CLOSE_TEMPLATE);
+            fileOutputHandlerAppend.render(closeTemplate, cacheRegionOutputFileName);
+        }
     }
 
     /**
@@ -254,6 +371,7 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
             new RenderTemplateHandler[] { normalizedTypeDefHandler, userTypeDefHandler, fileOutputHandlerOverwrite };
 
         generate(model, decoratedType, templates, names, fields, extraFields, handlers);
+        generateCacheRegions(decoratedType);
     }
 
     /**
@@ -351,6 +469,7 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
             new RenderTemplateHandler[] { normalizedTypeDefHandler, userTypeDefHandler, fileOutputHandlerOverwrite };
 
         generate(model, decoratedType, templates, names, fields, extraFields, handlers);
+        generateCacheRegions(decoratedType);
     }
 
     /**
@@ -377,5 +496,47 @@ public class HibernateGenerator extends BaseGenerator implements HierarchyTypeVi
             new RenderTemplateHandler[] { onlineMappingHandler, warehouseMappingHandler };
 
         generate(model, decoratedType, templates, names, fields, extraFields, handlers);
+        generateCacheRegions(decoratedType);
+
+        // Build up the query indexes of the entity, to output after all of the class mappings.
+        if (!type.getQueryIndexes().isEmpty())
+        {
+            generate(model, decoratedType, new STGroup[] { hibernateOnlineTemplates }, new String[] { names[0] },
+                fields, extraFields, new RenderTemplateHandler[] { queryIndexHandler }, QUERY_INDEXES_TEMPLATE);
+        }
+
+        // Output a fetch query count test for the entity, if fetch tests are being generated.
+        if (fetchTestOutputDir != null)
+        {
+            STGroup[] testTemplates = { hibernateFetchTestTemplates };
+            String[] testNames =
+                new String[]
+                {
+                    nameToJavaFileName(fetchTestOutputDir, model.getModelPackage(), "", type.getName(), "FetchTest")
+                };
+            RenderTemplateHandler[] testHandlers = new RenderTemplateHandler[] { fileOutputHandlerOverwrite };
+
+            generate(model, decoratedType, testTemplates, testNames, null, null, testHandlers);
+        }
+    }
+
+    /**
+     * Generates the second level cache regions for a type into the cache region output buffer, if a cache region
+     * configuration is being generated.
+     *
+     * @param decoratedType The decorated type to generate the cache regions for.
+     */
+    private void generateCacheRegions(Type decoratedType)
+    {
+        if (cacheRegionFileName == null)
+        {
+            return;
+        }
+
+        STGroup[] templates = { hibernateCacheRegionTemplates };
+        String[] names = new String[] { nameToFileNameInRootGenerationDir(cacheRegionFileName, mappingDirName) };
+        RenderTemplateHandler[] handlers = new RenderTemplateHandler[] { cacheRegionHandler };
+
+        generate(model, decoratedType, templates, names, null, null, handlers);
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.generator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+import com.thesett.catalogue.config.ModelLoaderConfigBean;
+import com.thesett.catalogue.model.Catalogue;
+
+/**
+ * Tests that the {@link HibernateGenerator} renders a fetch query count test for each entity in a model, when a fetch
+ * test output directory is set, and none otherwise.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that a fetch test is output for each entity, in the model package.
+ * <tr><td> Check that the fetch test loads one fetch batch of the entity and checks the query count.
+ * <tr><td> Check that no fetch tests are output when no fetch test output directory is set.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class HibernateGeneratorTest extends TestCase
+{
+    /** The resource name of the model to generate from. */
+    private static final String MODEL_RESOURCE = "test-catalogue.xml";
+
+    /** The directory, relative to the output root, that the model package is output to. */
+    private static final String PACKAGE_DIR = "com/thesett/catalogue/example";
+
+    /** Holds the model to generate from, loaded once for all tests. */
+    private static Catalogue catalogue;
+
+    /** Holds the root directory that each test generates to. */
+    private File outputDir;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public HibernateGeneratorTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that a fetch test is output for each entity, in the model package, that loads one fetch batch of the
+     * entity and checks the number of queries issued.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFetchTestRenderedForEachEntity() throws Exception
+    {
+        File fetchTestDir = new File(outputDir, "fetchtests");
+        generate(fetchTestDir.getPath());
+
+        String[][] entities = { { "simple_entity", "SimpleEntity" }, { "basic_type_entity", "BasicTypeEntity" } };
+
+        for (String[] entity : entities)
+        {
+            File testFile = new File(fetchTestDir, PACKAGE_DIR + "/" + entity[1] + "FetchTest.java");
+            assertTrue("Expected a fetch test to be output to " + testFile + ".", testFile.exists());
+
+            String source = readFile(testFile);
+
+            assertTrue("Expected the fetch test to be in the model package.",
+                source.startsWith("package com.thesett.catalogue.example;"));
+            assertTrue("Expected the fetch test to extend the model test base.",
+                source.contains("public class " + entity[1] + "FetchTest extends ModelTestBase"));
+            assertTrue("Expected the fetch test to load one fetch batch of the entity.",
+                source.contains("private static final int NUM_ENTITIES = 16;"));
+            assertTrue("Expected the fetch test to look up the entity type by name.",
+                source.contains("getComponentType(\"" + entity[0] + "\")"));
+            assertTrue("Expected the fetch test to check the query count.",
+                source.contains("checkFetchQueryCount(testEntities);"));
+            assertTrue("Expected the template generic types to be rendered.",
+                source.contains("List<EntityInstanceBase> testEntities = new ArrayList<EntityInstanceBase>();"));
+            assertFalse("Expected no file sections in the fetch test.", source.contains("file_open"));
+        }
+
+        // Only entities have fetch tests.
+        assertFalse("Expected no fetch test for a component.",
+            new File(fetchTestDir, PACKAGE_DIR + "/SimpleComponentFetchTest.java").exists());
+    }
+
+    /**
+     * Check that no fetch tests are output when no fetch test output directory is set.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testNoFetchTestsWithoutOutputDir() throws Exception
+    {
+        generate(null);
+
+        assertEquals("Expected no fetch tests to be output.", 0, countFetchTests(outputDir));
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        if (catalogue == null)
+        {
+            ModelLoaderConfigBean modelBean = new ModelLoaderConfigBean();
+            modelBean.setModelResource(MODEL_RESOURCE);
+            modelBean.doConfigure(false, null);
+            catalogue = modelBean.getCatalogue();
+        }
+
+        outputDir = new File(System.getProperty("java.io.tmpdir"), "hibernate-generator-test-" + System.nanoTime());
+        outputDir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        delete(outputDir);
+
+        NDC.pop();
+    }
+
+    /**
+     * Runs a hibernate generator over the test model, outputting to the test output directory.
+     *
+     * @param fetchTestOutputDir The directory to output the fetch tests to, or <tt>null</tt> to output none.
+     */
+    private void generate(String fetchTestOutputDir)
+    {
+        HibernateGenerator generator = new HibernateGenerator(null);
+        generator.setOutputDir(new File(outputDir, "source").getPath());
+        generator.setMappingOutputDir(new File(outputDir, "mapping").getPath());
+        generator.setMappingFileName("test_catalogue.hbm.xml");
+        generator.setFetchTestOutputDir(fetchTestOutputDir);
+
+        generator.apply(catalogue);
+    }
+
+    /**
+     * Counts the fetch tests under a directory.
+     *
+     * @param  dir The directory to count under.
+     *
+     * @return The number of fetch tests found.
+     */
+    private int countFetchTests(File dir)
+    {
+        int count = 0;
+
+        for (File file : dir.listFiles())
+        {
+            if (file.isDirectory())
+            {
+                count += countFetchTests(file);
+            }
+            else if (file.getName().endsWith("FetchTest.java"))
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the contents of a file.
+     *
+     * @param  file The file to read.
+     *
+     * @return The contents of the file.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    private String readFile(File file) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try
+        {
+            StringBuilder contents = new StringBuilder();
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                contents.append(line).append('\n');
+            }
+
+            return contents.toString();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything under it.
+     *
+     * @param file The file or directory to delete.
+     */
+    private void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -15,8 +15,11 @@
  */
 package com.thesett.catalogue.config;
 
+import java.util.concurrent.ExecutorService;
+
 import com.thesett.catalogue.model.Catalogue;
 import com.thesett.common.config.ConfigBean;
+import com.thesett.index.IndexStore;
 
 /**
  * CatalogueConfigBean performs application start-up time configurations to prepare a catalogue model for use. It loads
@@ -51,4 +54,44 @@ public interface CatalogueConfigBean extends ConfigBean
      * @param packageName The package name under which the model has been generated.
      */
     void setModelPackage(String packageName);
+
+    /**
+     * Gets the index store holding the catalogue indexes.
+     *
+     * @return The index store holding the catalogue indexes.
+     */
+    IndexStore getIndexStore();
+
+    /**
+     * Gets the background re-indexing of the catalogue, which can be used to check how complete the indexes are.
+     *
+     * @return The background re-indexing of the catalogue, or <tt>null</tt> if none was started.
+     */
+    IndexWarmUp getIndexWarmUp();
+
+    /**
+     * Gets the background indexing of changes to entities, which applies them to the indexes after they commit.
+     *
+     * @return The background indexing of changes to entities, or <tt>null</tt> if index write-behind is not enabled.
+     */
+    IndexWriteBehind getIndexWriteBehind();
+
+    /**
+     * Checks whether the index store is a replication follower, whose indexes are only filled by replication from the
+     * leader, and so must not be changed locally.
+     *
+     * @return <tt>true</tt> if the index store is a replication follower.
+     */
+    boolean isIndexFollower();
+
+    /**
+     * Gets the pool of threads to browse entity types on in parallel. The pool has a bounded queue, and rejects work
+     * when it is full.
+     *
+     * @return The pool of threads to browse entity types on, or <tt>null</tt> if none has been created.
+     */
+    ExecutorService getBrowseExecutor();
+
+    /** Stops the background work started by this config bean, and shuts down its pool of browse threads. */
+    void shutdown();
 }
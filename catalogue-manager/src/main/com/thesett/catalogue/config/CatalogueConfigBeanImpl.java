@@ -21,10 +21,18 @@ import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.hibernate.jdbc.Work;
@@ -40,6 +48,7 @@ import com.thesett.common.config.ConfigBeanContext;
 import com.thesett.common.config.ConfigException;
 import com.thesett.common.util.ReflectionUtils;
 import com.thesett.common.util.StringUtils;
+import com.thesett.index.IndexStore;
 import com.thesett.index.config.IndexStoreConfigBean;
 
 /**
@@ -61,7 +70,9 @@ import com.thesett.index.config.IndexStoreConfigBean;
  *
  * <ul>
  * <li>In development mode the database is created (by {@link HibernateConfigBean}) and any reference types, are
- * populated by this bean. The database will always be empty at the end of the catalogue configuration.
+ * populated by this bean. The database will always be empty at the end of the catalogue configuration. Each reference
+ * table is filled in one transaction using JDBC batches, and is only rewritten if a checksum of its rows differs from
+ * that of the reference data in the model.
  * <li>In production mode the database schema is verified against the catalogue model and reference type data is
  * verified against the catalogue model and loaded into memory by this bean. At the moment the free text search
  * {@link com.thesett.index.Index} implementations used do not persist their data so all the data in the database is
@@ -69,11 +80,25 @@ import com.thesett.index.config.IndexStoreConfigBean;
  * verification step that checks that the indexes and database are in synch and corrects any mismatches.</li>
  * </ul>
  *
+ * <p/>Re-indexing is done in the background by an {@link IndexWarmUp}, so that configuration does not wait for it to
+ * complete. The entity types to index first may be given as a comma separated list of type names. Re-indexing is
+ * skipped when the index store is a replication follower, as its indexes are filled from the replication leader. For
+ * the same reason, index write-behind is not started on a follower, and changes to entities are not indexed locally.
+ *
+ * <p/>Index write-behind may be switched on, in which case an {@link IndexWriteBehind} is started to apply changes to
+ * entities to the indexes in the background, once the transactions making them have committed.
+ *
+ * <p/>A pool of threads is created to browse entity types on in parallel, sized by the 'browseThreads' property, with
+ * a queue for up to 'browseQueueSize' entity types waiting for a thread. The pool and any index write-behind run until
+ * {@link #shutdown} is called.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Transform the raw catalogue model into the knowledge level catalogue model.
  * <tr><td> Verify or populate the database reference types.
- * <tr><td> Re-index all text search indexes.
+ * <tr><td> Re-index all text search indexes in the background. <td> {@link IndexWarmUp}
+ * <tr><td> Optionally index changes to entities in the background. <td> {@link IndexWriteBehind}
+ * <tr><td> Provide a pool of threads to browse entity types on in parallel.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -83,6 +108,12 @@ public class CatalogueConfigBeanImpl implements Serializable, CatalogueConfigBea
     /** Used for logging. */
     private static final Logger log = Logger.getLogger(CatalogueConfigBeanImpl.class);
 
+    /** Defines the default number of threads to browse entity types on in parallel. */
+    public static final int DEFAULT_BROWSE_THREADS = 4;
+
+    /** Defines the default maximum number of entity types that may be waiting for a browse thread. */
+    public static final int DEFAULT_BROWSE_QUEUE_SIZE = 64;
+
     /** Flag used to indicate that this config bean has been succesfully run. */
     private final boolean configured = false;
 
@@ -95,6 +126,33 @@ public class CatalogueConfigBeanImpl implements Serializable, CatalogueConfigBea
     /** Holds a referece to the hibernate config bean to get hibernate sessions from. */
     protected HibernateConfigBean hibernateBean;
 
+    /** Holds the index store holding the catalogue indexes. */
+    private transient IndexStore indexStore;
+
+    /** Holds the comma separated names of the entity types to index first. */
+    private String indexWarmUpOrder;
+
+    /** Holds the background re-indexing of the catalogue, if one has been started. */
+    private transient IndexWarmUp indexWarmUp;
+
+    /** Flag used to indicate that changes to entities should be indexed in the background, after they commit. */
+    private boolean indexWriteBehindEnabled;
+
+    /** Holds the background indexing of changes to entities, if it has been started. */
+    private transient IndexWriteBehind writeBehind;
+
+    /** Flag used to indicate that the index store is a replication follower. */
+    private boolean indexFollower;
+
+    /** Holds the number of threads to browse entity types on in parallel. */
+    private int browseThreads = DEFAULT_BROWSE_THREADS;
+
+    /** Holds the maximum number of entity types that may be waiting for a browse thread. */
+    private int browseQueueSize = DEFAULT_BROWSE_QUEUE_SIZE;
+
+    /** Holds the pool of threads to browse entity types on in parallel, once it has been created. */
+    private transient ExecutorService browseExecutor;
+
     /**
      * Checks whether or not the config bean has been succesfully run and is in a configured state.
      *
@@ -123,6 +181,134 @@ public class CatalogueConfigBeanImpl implements Serializable, CatalogueConfigBea
         this.modelPackage = packageName;
     }
 
+    /** {@inheritDoc} */
+    public IndexStore getIndexStore()
+    {
+        return indexStore;
+    }
+
+    /** {@inheritDoc} */
+    public IndexWarmUp getIndexWarmUp()
+    {
+        return indexWarmUp;
+    }
+
+    /** {@inheritDoc} */
+    public IndexWriteBehind getIndexWriteBehind()
+    {
+        return writeBehind;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isIndexFollower()
+    {
+        return indexFollower;
+    }
+
+    /** {@inheritDoc} */
+    public ExecutorService getBrowseExecutor()
+    {
+        return browseExecutor;
+    }
+
+    /**
+     * Gets the number of threads to browse entity types on in parallel.
+     *
+     * @return The number of threads to browse entity types on in parallel.
+     */
+    public int getBrowseThreads()
+    {
+        return browseThreads;
+    }
+
+    /**
+     * Sets the number of threads to browse entity types on in parallel.
+     *
+     * @param browseThreads The number of threads to browse entity types on in parallel.
+     */
+    public void setBrowseThreads(int browseThreads)
+    {
+        this.browseThreads = browseThreads;
+    }
+
+    /**
+     * Gets the maximum number of entity types that may be waiting for a browse thread.
+     *
+     * @return The maximum number of entity types that may be waiting for a browse thread.
+     */
+    public int getBrowseQueueSize()
+    {
+        return browseQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of entity types that may be waiting for a browse thread. Any more are browsed on the
+     * threads asking for them.
+     *
+     * @param browseQueueSize The maximum number of entity types that may be waiting for a browse thread.
+     */
+    public void setBrowseQueueSize(int browseQueueSize)
+    {
+        this.browseQueueSize = browseQueueSize;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void shutdown()
+    {
+        if (writeBehind != null)
+        {
+            writeBehind.stop();
+            writeBehind = null;
+        }
+
+        if (browseExecutor != null)
+        {
+            browseExecutor.shutdown();
+            browseExecutor = null;
+        }
+    }
+
+    /**
+     * Gets the comma separated names of the entity types to index first.
+     *
+     * @return The comma separated names of the entity types to index first.
+     */
+    public String getIndexWarmUpOrder()
+    {
+        return indexWarmUpOrder;
+    }
+
+    /**
+     * Sets the comma separated names of the entity types to index first, when re-indexing in production mode.
+     *
+     * @param indexWarmUpOrder The comma separated names of the entity types to index first.
+     */
+    public void setIndexWarmUpOrder(String indexWarmUpOrder)
+    {
+        this.indexWarmUpOrder = indexWarmUpOrder;
+    }
+
+    /**
+     * Checks whether changes to entities are indexed in the background, after they commit.
+     *
+     * @return <tt>true</tt> if changes to entities are indexed in the background.
+     */
+    public boolean isIndexWriteBehindEnabled()
+    {
+        return indexWriteBehindEnabled;
+    }
+
+    /**
+     * Sets whether changes to entities are indexed in the background, after they commit, rather than within the
+     * transactions making them.
+     *
+     * @param indexWriteBehindEnabled <tt>true</tt> to index changes to entities in the background.
+     */
+    public void setIndexWriteBehindEnabled(boolean indexWriteBehindEnabled)
+    {
+        this.indexWriteBehindEnabled = indexWriteBehindEnabled;
+    }
+
     /**
      * Ensures that all hierarchy attribute classes are established in the database and in memory.
      *
@@ -154,6 +340,12 @@ public class CatalogueConfigBeanImpl implements Serializable, CatalogueConfigBea
         ModeConfigBean modeBean =
             (ModeConfigBean) configBeanContext.getConfiguredBean("com.thesett.catalogue.config.ModeConfigBean");
 
+        // Ensure that the index store config bean has been set up, and get a reference to the index store.
+        IndexStoreConfigBean indexStoreBean =
+            (IndexStoreConfigBean) configBeanContext.getConfiguredBean(IndexStoreConfigBean.class.getName());
+        indexStore = indexStoreBean.getIndexStore();
+        indexFollower = IndexStoreConfigBean.FOLLOWER_ROLE.equals(indexStoreBean.getReplicationRole());
+
         // Create the catalogue logical model from the raw model.
         model = loaderBean.getCatalogue();
 
@@ -174,11 +366,82 @@ public class CatalogueConfigBeanImpl implements Serializable, CatalogueConfigBea
             log.warn("Todo: In production mode, loading and checking reference types from the database.");
         }
 
-        // Rebuild the indexes from the database if necessary.
+        // Rebuild the indexes from the database in the background if necessary.
         if (!modeBean.isDevMode())
         {
-            log.warn("Todo: In production mode, re-building indexes from the database.");
+            startIndexWarmUp();
+        }
+
+        // Start indexing changes to entities in the background if required.
+        if (indexWriteBehindEnabled && indexFollower)
+        {
+            log.info("The index store is a replication follower, so changes to entities are not indexed locally.");
         }
+        else if (indexWriteBehindEnabled)
+        {
+            startIndexWriteBehind();
+        }
+
+        startBrowseExecutor();
+    }
+
+    /**
+     * Creates the pool of threads to browse entity types on in parallel, shutting down any created by an earlier
+     * configuration. The pool has a bounded queue, and rejects work when it is full.
+     */
+    private synchronized void startBrowseExecutor()
+    {
+        if (browseExecutor != null)
+        {
+            browseExecutor.shutdown();
+        }
+
+        browseExecutor =
+            new ThreadPoolExecutor(browseThreads, browseThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(browseQueueSize), new BrowseThreadFactory());
+    }
+
+    /** Starts indexing changes to entities in the background, after the transactions making them have committed. */
+    private void startIndexWriteBehind()
+    {
+        if (writeBehind != null)
+        {
+            writeBehind.stop();
+        }
+
+        writeBehind = new IndexWriteBehind(model, indexStore);
+        writeBehind.start();
+    }
+
+    /**
+     * Starts re-indexing the catalogue from the database in the background, unless the index store is a replication
+     * follower.
+     */
+    private void startIndexWarmUp()
+    {
+        if (indexFollower)
+        {
+            log.info("The index store is a replication follower, so its indexes are not re-built from the database.");
+
+            return;
+        }
+
+        // Extract the priority order of the types to index.
+        List<String> priorityTypes = new ArrayList<String>();
+
+        if (indexWarmUpOrder != null)
+        {
+            for (String typeName : indexWarmUpOrder.split(","))
+            {
+                if (!"".equals(typeName.trim()))
+                {
+                    priorityTypes.add(typeName.trim());
+                }
+            }
+        }
+
+        indexWarmUp = new IndexWarmUp(model, indexStore, hibernateBean, priorityTypes);
+        indexWarmUp.start();
     }
 
     /**
@@ -246,98 +509,305 @@ public class CatalogueConfigBeanImpl implements Serializable, CatalogueConfigBea
         createEnumerationReferenceTypes();
     }
 
-    /** Initializes all hierarchy reference types in the database. */
+    /**
+     * Initializes all hierarchy reference types in the database. Each hierarchy type is written in a single
+     * transaction, with the hierarchy beans flushed to the database in JDBC batches. A hierarchy table that already
+     * holds exactly the values in the model is left as it is.
+     */
     private void createHierarchyReferenceTypes()
     {
         log.debug("private void createHierarchyReferenceTypes(): called");
 
+        int batchSize = hibernateBean.getJdbcBatchSize();
+
         for (HierarchyType hierarchyType : model.getAllHierarchyTypes())
         {
             String hierarchyName = hierarchyType.getName();
             String hierarchyClassName = StringUtils.toCamelCaseUpper(hierarchyName);
+            final String tableName = hierarchyName + "_hierarchy";
+            final int levels = hierarchyType.getLevelNames().length;
+
+            // The level values are held in columns named after the levels.
+            String[] valueColumns = new String[levels];
+
+            for (int i = 0; i < levels; i++)
+            {
+                valueColumns[i] = StringUtils.toCamelCase(hierarchyType.getLevelNames()[i]);
+            }
 
             Class theBeanClass = ReflectionUtils.forName(model.getModelPackage() + "." + hierarchyClassName);
 
+            // Gather the hierarchy values to store, and checksum them as rows of the hierarchy table.
+            List<HierarchyAttribute> hierarchyValues = new ArrayList<HierarchyAttribute>();
+            ReferenceTableChecksum modelChecksum = new ReferenceTableChecksum();
+
             for (Iterator<HierarchyAttribute> hierarchyIterator = hierarchyType.getAllPossibleValuesIterator(false);
                     hierarchyIterator.hasNext();)
             {
                 HierarchyAttribute hierarchyAttribute = hierarchyIterator.next();
+                hierarchyValues.add(hierarchyAttribute);
+
+                String[] values = new String[levels];
+
+                for (int i = 0; i < levels; i++)
+                {
+                    values[i] = hierarchyAttribute.getValueAtLevel(i);
+                }
+
+                modelChecksum.addRow(hierarchyAttribute.getId(), values);
+            }
+
+            Session session = hibernateBean.getSecondarySession();
+            Transaction transaction = session.beginTransaction();
 
-                Session session = hibernateBean.getSecondarySession();
-                Transaction transaction = session.beginTransaction();
+            try
+            {
+                // Fill in the table again, unless it already holds the values in the model.
+                if (replaceReferenceTable(session, tableName, valueColumns, modelChecksum))
+                {
+                    // Create an instance of the hierarchy bean class using a constructor on the hierarchy value.
+                    Class[] arguments = new Class[] { HierarchyAttribute.class };
+                    Constructor beanConstructor = ReflectionUtils.getConstructor(theBeanClass, arguments);
 
-                // Create an instance of the hierarchy bean class using a constructor on the hierarchy value.
-                Class[] arguments = new Class[] { HierarchyAttribute.class };
-                Constructor beanConstructor = ReflectionUtils.getConstructor(theBeanClass, arguments);
+                    int count = 0;
 
-                Object theBean = ReflectionUtils.newInstance(beanConstructor, new Object[] { hierarchyAttribute });
+                    for (HierarchyAttribute hierarchyAttribute : hierarchyValues)
+                    {
+                        Object theBean =
+                            ReflectionUtils.newInstance(beanConstructor, new Object[] { hierarchyAttribute });
 
-                log.debug("Created hierarchy bean: " + theBean);
+                        // Store the hierarchy value in the database, flushing to the database in JDBC batches.
+                        session.save(theBean);
 
-                // Store the hierarchy value in the database.
-                session.save(theBean);
+                        if ((++count % batchSize) == 0)
+                        {
+                            session.flush();
+                            session.clear();
+                        }
+                    }
+
+                    session.flush();
+                    session.clear();
+                }
 
                 transaction.commit();
+            }
+            catch (RuntimeException e)
+            {
+                rollback(transaction, tableName);
+                throw e;
+            }
+            finally
+            {
                 session.close();
             }
         }
     }
 
-    /** Initializes all enumeration reference types in the database. */
+    /**
+     * Initializes all enumeration reference types in the database. Each enumeration type is written in a single
+     * transaction, with its values inserted in JDBC batches. An enumeration table that already holds exactly the values
+     * in the model is left as it is.
+     *
+     * <p/>Enumeration ids are allocated in sequence across all enumeration types, in the order that the types and their
+     * values are held in the model. The ids are set on the in-memory enumeration values whether or not their table is
+     * written.
+     */
     private void createEnumerationReferenceTypes()
     {
         log.debug("private void createEnumerationReferenceTypes(): called");
 
-        final AtomicLong id = new AtomicLong();
+        final int batchSize = hibernateBean.getJdbcBatchSize();
+        long id = 0;
 
         for (EnumeratedStringAttribute.EnumeratedStringType enumType : model.getAllEnumTypes())
         {
-            Session session = hibernateBean.getSecondarySession();
-            Transaction transaction = session.beginTransaction();
+            final String tableName = StringUtils.toCamelCaseUpper(enumType.getName()) + "_enumeration";
+
+            // The values are held in a column named after the enumeration.
+            final String valueColumn = enumType.getName();
+
+            // Allocate ids to the enumeration values, and checksum them as rows of the enumeration table.
+            final List<EnumeratedStringAttribute> enumValues = new ArrayList<EnumeratedStringAttribute>();
+            ReferenceTableChecksum modelChecksum = new ReferenceTableChecksum();
 
             for (Iterator<EnumeratedStringAttribute> enumIterator = enumType.getAllPossibleValuesIterator(false);
                     enumIterator.hasNext();)
             {
-                final EnumeratedStringAttribute enumAttribute = enumIterator.next();
-                String enumName = enumAttribute.getType().getName();
-                String enumClassName = StringUtils.toCamelCaseUpper(enumName);
+                EnumeratedStringAttribute enumAttribute = enumIterator.next();
+                enumAttribute.setId(id++);
+                enumValues.add(enumAttribute);
 
-                // Create an instance of the enumeration bean class using a constructor on the enumeration value.
-                Class theBeanClass = ReflectionUtils.forName(model.getModelPackage() + "." + enumClassName);
+                modelChecksum.addRow(enumAttribute.getId(), new String[] { enumAttribute.getStringValue() });
+            }
 
-                Class[] arguments = new Class[] { EnumeratedStringAttribute.class };
-                Constructor beanConstructor = ReflectionUtils.getConstructor(theBeanClass, arguments);
+            Session session = hibernateBean.getSecondarySession();
+            Transaction transaction = session.beginTransaction();
 
-                enumAttribute.setId(id.get());
+            try
+            {
+                // Fill in the table again, unless it already holds the values in the model.
+                if (replaceReferenceTable(session, tableName, new String[] { valueColumn }, modelChecksum))
+                {
+                    // Store the enumeration values in the database, in JDBC batches.
+                    session.doWork(new Work()
+                        {
+                            public void execute(Connection connection) throws SQLException
+                            {
+                                PreparedStatement sql =
+                                    connection.prepareStatement("INSERT INTO " + tableName + " (" +
+                                        ReferenceTableChecksum.ID_COLUMN + ", " + valueColumn + ") VALUES (?, ?)");
+
+                                try
+                                {
+                                    int count = 0;
+
+                                    for (EnumeratedStringAttribute enumAttribute : enumValues)
+                                    {
+                                        sql.setLong(1, enumAttribute.getId());
+                                        sql.setString(2, enumAttribute.getStringValue());
+                                        sql.addBatch();
+
+                                        if ((++count % batchSize) == 0)
+                                        {
+                                            sql.executeBatch();
+                                        }
+                                    }
+
+                                    sql.executeBatch();
+                                }
+                                finally
+                                {
+                                    sql.close();
+                                }
+                            }
+                        });
+                }
 
-                Object theBean = ReflectionUtils.newInstance(beanConstructor, new Object[] { enumAttribute });
+                transaction.commit();
+            }
+            catch (RuntimeException e)
+            {
+                rollback(transaction, tableName);
+                throw e;
+            }
+            finally
+            {
+                session.close();
+            }
+        }
+    }
 
-                log.debug("Created enum bean: " + theBean);
+    /**
+     * Checks a reference table over the connection of a session, clearing it if it does not hold the rows that the
+     * model expects, as described in {@link #clearIfOutOfDate}.
+     *
+     * @param  session       The session to access the reference table through.
+     * @param  tableName     The name of the reference table.
+     * @param  valueColumns  The names of the value columns of the table.
+     * @param  modelChecksum The checksum of the rows that the model expects the table to hold.
+     *
+     * @return <tt>true</tt> if the table was cleared and needs to be filled in, <tt>false</tt> if it is up to date.
+     */
+    private boolean replaceReferenceTable(Session session, final String tableName, final String[] valueColumns,
+        final ReferenceTableChecksum modelChecksum)
+    {
+        final boolean[] replace = new boolean[1];
 
-                // Store the hierarchy value in the database.
-                final String tableName = enumClassName + "_enumeration";
+        session.doWork(new Work()
+            {
+                public void execute(Connection connection) throws SQLException
+                {
+                    replace[0] = clearIfOutOfDate(connection, tableName, valueColumns, modelChecksum);
+                }
+            });
 
-                session.doWork(new Work()
-                    {
-                        public void execute(Connection connection) throws SQLException
-                        {
-                            PreparedStatement sql = null;
+        return replace[0];
+    }
 
-                            sql = connection.prepareStatement("DELETE FROM " + tableName);
-                            sql.execute();
+    /**
+     * Compares the rows in a reference table against the checksum of the rows that the model expects it to hold. If
+     * they differ, all rows are deleted from the table, so that it can be filled in again from the model.
+     *
+     * @param  connection    The connection to access the reference table over.
+     * @param  tableName     The name of the reference table.
+     * @param  valueColumns  The names of the value columns of the table.
+     * @param  modelChecksum The checksum of the rows that the model expects the table to hold.
+     *
+     * @return <tt>true</tt> if the table was cleared and needs to be filled in, <tt>false</tt> if it is up to date.
+     *
+     * @throws SQLException If the table cannot be read or cleared.
+     */
+    static boolean clearIfOutOfDate(Connection connection, String tableName, String[] valueColumns,
+        ReferenceTableChecksum modelChecksum) throws SQLException
+    {
+        ReferenceTableChecksum tableChecksum = ReferenceTableChecksum.read(connection, tableName, valueColumns);
 
-                            String value = enumAttribute.getStringValue();
+        if (tableChecksum.matches(modelChecksum))
+        {
+            log.debug("Reference table " + tableName + " is up to date, " + modelChecksum + ".");
 
-                            sql = connection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-                            sql.setLong(1, id.getAndIncrement());
-                            sql.setString(2, value);
-                            sql.execute();
-                        }
-                    });
+            return false;
+        }
+
+        log.debug("Reference table " + tableName + " is out of date, " + tableChecksum + ", expected " +
+            modelChecksum + ".");
+
+        if (tableChecksum.getRowCount() > 0)
+        {
+            PreparedStatement sql = connection.prepareStatement("DELETE FROM " + tableName);
+
+            try
+            {
+                sql.execute();
             }
+            finally
+            {
+                sql.close();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Rolls back the transaction writing a reference table, after it has failed. A failure to roll back is logged,
+     * so that it does not hide the failure that caused the rollback.
+     *
+     * @param transaction The transaction to roll back.
+     * @param tableName   The name of the reference table being written.
+     */
+    private static void rollback(Transaction transaction, String tableName)
+    {
+        try
+        {
+            transaction.rollback();
+        }
+        catch (HibernateException e)
+        {
+            log.warn("Failed to roll back writing reference table " + tableName + ".", e);
+        }
+    }
+
+    /** BrowseThreadFactory creates daemon threads to browse entity types on, named so that they can be identified. */
+    private static class BrowseThreadFactory implements ThreadFactory
+    {
+        /** Used to number the browse threads. */
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        /**
+         * Creates a new daemon browse thread.
+         *
+         * @param  runnable The work for the thread to run.
+         *
+         * @return A new daemon browse thread.
+         */
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "catalogue-browse-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
 
-            transaction.commit();
-            session.close();
+            return thread;
         }
     }
 }
@@ -17,6 +17,8 @@ package com.thesett.catalogue.config;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import org.hibernate.HibernateException;
@@ -24,6 +26,7 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 
+import com.thesett.catalogue.hibernate.ReplicaRouter;
 import com.thesett.common.config.ConfigBean;
 import com.thesett.common.config.ConfigBeanContext;
 import com.thesett.common.config.ConfigException;
@@ -39,6 +42,23 @@ import com.thesett.common.util.PropertiesHelper;
  * against the hibernate mapping. This is done by setting the value of the 'hibernate.hbm2ddl.auto' property to
  * 'create-drop' for development mode, and to 'validate' for production mode.
  *
+ * <p/>JDBC batching is turned on, with the batch size set by the 'jdbcBatchSize' property, unless the hibernate
+ * properties already set 'hibernate.jdbc.batch_size', in which case that size is used. Inserts and updates are ordered
+ * by entity, so that runs of the same entity type can be batched together.
+ *
+ * <p/>The generated mappings declare second level cache regions for hierarchies, enumerations, external ids and
+ * entities marked as cached. If the 'cacheRegionsResource' property names the generated EhCache region configuration,
+ * the second level and query caches are turned on using it, unless the hibernate properties already configure them.
+ * Statistics are turned on along with the caches, unless the hibernate properties set them, so that the hit rates of
+ * the cache regions of cached entity types can be read. Otherwise the second level cache is turned off, unless the
+ * hibernate properties turn it on, so that the cache declarations in the mappings are ignored. The cache regions of
+ * the secondary session factory are prefixed, to keep them apart from those of the primary.
+ *
+ * <p/>Read replicas may be set up by listing their hibernate properties resources, separated by commas, in the
+ * 'replicaPropertiesResources' property. A session factory is built for each, which never creates or drops the schema,
+ * and a {@link ReplicaRouter} is built over them, choosing replicas as set by the 'replicaSelection' property, either
+ * 'RoundRobin' or 'LeastLoaded', and with read-your-writes consistency as set by the 'readYourWrites' property.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * </table></pre>
@@ -47,6 +67,12 @@ import com.thesett.common.util.PropertiesHelper;
  */
 public class HibernateConfigBean implements ConfigBean, Serializable
 {
+    /** Defines the default JDBC batch size. */
+    public static final int DEFAULT_JDBC_BATCH_SIZE = 50;
+
+    /** Defines the prefix given to the cache region names of the secondary session factory. */
+    private static final String SECONDARY_REGION_PREFIX = "secondary";
+
     /** Holds a reference to the hibernate session. */
     private SessionFactory factory;
 
@@ -65,6 +91,24 @@ public class HibernateConfigBean implements ConfigBean, Serializable
     /** Holds the resource name of the optional secondary hibernate configuration properties to use. */
     private String secondaryPropertiesResource;
 
+    /** Holds the JDBC batch size. */
+    private int jdbcBatchSize = DEFAULT_JDBC_BATCH_SIZE;
+
+    /** Holds the resource name of the optional second level cache region configuration to use. */
+    private String cacheRegionsResource;
+
+    /** Holds the comma separated resource names of the hibernate configuration properties of the read replicas. */
+    private String replicaPropertiesResources;
+
+    /** Holds the way of choosing read replicas. */
+    private ReplicaRouter.Selection replicaSelection = ReplicaRouter.Selection.RoundRobin;
+
+    /** Flag set when reads following writes in a unit of work are made on the primary. */
+    private boolean readYourWrites = true;
+
+    /** Holds the router onto the read replicas, if there are any. */
+    private transient ReplicaRouter replicaRouter;
+
     /**
      * Checks whether or not the config bean has been succesfully run and is in a configured state.
      *
@@ -98,6 +142,16 @@ public class HibernateConfigBean implements ConfigBean, Serializable
             factory.close();
         }
 
+        if (replicaRouter != null)
+        {
+            for (SessionFactory replica : replicaRouter.getReplicas())
+            {
+                replica.close();
+            }
+
+            replicaRouter = null;
+        }
+
         // Ensure that the mode config bean has been set up, and get a reference to it.
         ModeConfigBean modeBean =
             (ModeConfigBean) configBeanContext.getConfiguredBean("com.thesett.catalogue.config.ModeConfigBean");
@@ -105,6 +159,8 @@ public class HibernateConfigBean implements ConfigBean, Serializable
         // Create the primary hibernate configuration using the defined properties and catalogue model.
         Properties configProperties = extractProperties(getPropertiesResource());
         configProperties = modifyPropertiesForMode(configProperties, modeBean);
+        configProperties = modifyPropertiesForBatching(configProperties, true);
+        configProperties = modifyPropertiesForCaching(configProperties, null);
         factory = createSessionFactory(configProperties);
 
         // If an optional secondary resource was specified, create a secondary session factory for it.
@@ -112,9 +168,27 @@ public class HibernateConfigBean implements ConfigBean, Serializable
         {
             configProperties = extractProperties(getSecondaryPropertiesResource());
             configProperties = modifyPropertiesForMode(configProperties, modeBean);
+            configProperties = modifyPropertiesForBatching(configProperties, false);
+            configProperties = modifyPropertiesForCaching(configProperties, SECONDARY_REGION_PREFIX);
             secondaryFactory = createSessionFactory(configProperties);
         }
 
+        // If read replicas were specified, create a session factory for each, and a router to read from them.
+        if (replicaPropertiesResources != null)
+        {
+            List<SessionFactory> replicas = new ArrayList<SessionFactory>();
+
+            for (String resource : replicaPropertiesResources.split(","))
+            {
+                configProperties = extractProperties(resource.trim());
+                configProperties = modifyPropertiesForReplica(configProperties, modeBean);
+                configProperties = modifyPropertiesForCaching(configProperties, null);
+                replicas.add(createSessionFactory(configProperties));
+            }
+
+            replicaRouter = new ReplicaRouter(replicas, replicaSelection, readYourWrites);
+        }
+
         // Configuration succesfull so set the flag.
         configured = true;
     }
@@ -179,6 +253,100 @@ public class HibernateConfigBean implements ConfigBean, Serializable
         return secondaryPropertiesResource;
     }
 
+    /**
+     * Sets the JDBC batch size, used when the hibernate properties do not set one.
+     *
+     * @param jdbcBatchSize The JDBC batch size.
+     */
+    public void setJdbcBatchSize(int jdbcBatchSize)
+    {
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * Gets the JDBC batch size. Once configured, this is the batch size that the primary session factory was set up
+     * with. Bulk writers should flush and clear their sessions at intervals of this many entities. A batch size of
+     * less than one turns batching off, which is the same as batching one statement at a time, so one is given.
+     *
+     * @return The JDBC batch size, at least one.
+     */
+    public int getJdbcBatchSize()
+    {
+        return Math.max(1, jdbcBatchSize);
+    }
+
+    /**
+     * Sets the second level cache region configuration resource name. If this is not set, the second level cache is
+     * turned off.
+     *
+     * @param resourceName The second level cache region configuration resource name.
+     */
+    public void setCacheRegionsResource(String resourceName)
+    {
+        this.cacheRegionsResource = resourceName;
+    }
+
+    /**
+     * Gets the second level cache region configuration resource name.
+     *
+     * @return The second level cache region configuration resource name, or <tt>null</tt> if none is set.
+     */
+    public String getCacheRegionsResource()
+    {
+        return cacheRegionsResource;
+    }
+
+    /**
+     * Sets the resource names of the hibernate configuration properties of the read replicas.
+     *
+     * @param resourceNames The comma separated resource names of the read replica properties.
+     */
+    public void setReplicaPropertiesResources(String resourceNames)
+    {
+        this.replicaPropertiesResources = resourceNames;
+    }
+
+    /**
+     * Gets the resource names of the hibernate configuration properties of the read replicas.
+     *
+     * @return The comma separated resource names of the read replica properties.
+     */
+    public String getReplicaPropertiesResources()
+    {
+        return replicaPropertiesResources;
+    }
+
+    /**
+     * Sets the way of choosing read replicas, 'RoundRobin' or 'LeastLoaded'.
+     *
+     * @param replicaSelection The name of the way of choosing read replicas.
+     */
+    public void setReplicaSelection(String replicaSelection)
+    {
+        this.replicaSelection = ReplicaRouter.Selection.valueOf(replicaSelection);
+    }
+
+    /**
+     * Sets whether reads following use of the primary session in a unit of work are made on the primary, so that they
+     * see the writes made in it.
+     *
+     * @param readYourWrites <tt>true</tt> for read-your-writes consistency.
+     */
+    public void setReadYourWrites(boolean readYourWrites)
+    {
+        this.readYourWrites = readYourWrites;
+    }
+
+    /**
+     * Provides the router onto the read replicas.
+     *
+     * @return The router onto the read replicas, or <tt>null</tt> if there are none.
+     */
+    public ReplicaRouter getReplicaRouter()
+    {
+        return replicaRouter;
+    }
+
     /**
      * Obtains a hibernate session for the hibernate configuration and session factory set up by this config bean.
      *
@@ -309,4 +477,137 @@ public class HibernateConfigBean implements ConfigBean, Serializable
 
         return properties;
     }
+
+    /**
+     * Modifies the hibernate properties of a read replica, so that it never creates or drops the schema. In production
+     * mode the schema of the replica is still validated against the hibernate mapping.
+     *
+     * @param  properties The properties hibernate session factory is being configured with.
+     * @param  modeBean   A reference to the mode configuration bean.
+     *
+     * @return The properties modified for a read replica.
+     */
+    private Properties modifyPropertiesForReplica(Properties properties, ModeConfigBean modeBean)
+    {
+        modifyPropertiesForMode(properties, modeBean);
+
+        if (modeBean.isDevMode())
+        {
+            properties.remove("hibernate.hbm2ddl.auto");
+        }
+
+        return properties;
+    }
+
+    /**
+     * Modifies the hibernate properties to turn on JDBC batching, with inserts and updates ordered by entity so that
+     * they batch well. A batch size already set in the properties takes precedence over the one set on this bean, and
+     * if it is the primary session factory being configured, replaces it on this bean.
+     *
+     * @param  properties The properties hibernate session factory is being configured with.
+     * @param  primary    <tt>true</tt> if the properties are for the primary session factory.
+     *
+     * @return The properties modified for JDBC batching.
+     *
+     * @throws ConfigException If the batch size set in the properties is not an integer.
+     */
+    private Properties modifyPropertiesForBatching(Properties properties, boolean primary) throws ConfigException
+    {
+        String batchSize = properties.getProperty("hibernate.jdbc.batch_size");
+
+        if (batchSize == null)
+        {
+            properties.setProperty("hibernate.jdbc.batch_size", Integer.toString(jdbcBatchSize));
+        }
+        else if (primary)
+        {
+            try
+            {
+                jdbcBatchSize = Integer.parseInt(batchSize.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                throw new ConfigException("The hibernate property 'hibernate.jdbc.batch_size', " + batchSize +
+                    ", is not an integer.", e, null, null);
+            }
+        }
+
+        if (properties.getProperty("hibernate.order_inserts") == null)
+        {
+            properties.setProperty("hibernate.order_inserts", "true");
+        }
+
+        if (properties.getProperty("hibernate.order_updates") == null)
+        {
+            properties.setProperty("hibernate.order_updates", "true");
+        }
+
+        return properties;
+    }
+
+    /**
+     * Modifies the hibernate properties to turn on the second level and query caches, backed by EhCache with the
+     * region configuration named by the 'cacheRegionsResource' property, and statistics with them. Cache settings
+     * already in the properties take precedence. If no region configuration is set, the caches default to off.
+     *
+     * <p/>The EhCache region factory is a singleton shared by all session factories, so a session factory onto a
+     * different database must be given a region prefix, to keep its cached data apart from that of the primary.
+     *
+     * @param  properties   The properties hibernate session factory is being configured with.
+     * @param  regionPrefix The prefix to give the cache region names, or <tt>null</tt> to use them as they are.
+     *
+     * @return The properties modified for caching.
+     */
+    private Properties modifyPropertiesForCaching(Properties properties, String regionPrefix)
+    {
+        if ((regionPrefix != null) && (properties.getProperty("hibernate.cache.region_prefix") == null))
+        {
+            properties.setProperty("hibernate.cache.region_prefix", regionPrefix);
+        }
+
+        if (cacheRegionsResource == null)
+        {
+            if (properties.getProperty("hibernate.cache.use_second_level_cache") == null)
+            {
+                properties.setProperty("hibernate.cache.use_second_level_cache", "false");
+            }
+
+            if (properties.getProperty("hibernate.cache.use_query_cache") == null)
+            {
+                properties.setProperty("hibernate.cache.use_query_cache", "false");
+            }
+
+            return properties;
+        }
+
+        if (properties.getProperty("hibernate.cache.use_second_level_cache") == null)
+        {
+            properties.setProperty("hibernate.cache.use_second_level_cache", "true");
+        }
+
+        if (properties.getProperty("hibernate.cache.use_query_cache") == null)
+        {
+            properties.setProperty("hibernate.cache.use_query_cache", "true");
+        }
+
+        if (properties.getProperty("hibernate.generate_statistics") == null)
+        {
+            properties.setProperty("hibernate.generate_statistics", "true");
+        }
+
+        if (properties.getProperty("hibernate.cache.region.factory_class") == null)
+        {
+            properties.setProperty("hibernate.cache.region.factory_class",
+                "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory");
+        }
+
+        if (properties.getProperty("net.sf.ehcache.configurationResourceName") == null)
+        {
+            String resourceName =
+                cacheRegionsResource.startsWith("/") ? cacheRegionsResource : ("/" + cacheRegionsResource);
+            properties.setProperty("net.sf.ehcache.configurationResourceName", resourceName);
+        }
+
+        return properties;
+    }
 }
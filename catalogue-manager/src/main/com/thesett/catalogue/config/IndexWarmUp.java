@@ -0,0 +1,506 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import com.thesett.aima.state.ComponentType;
+import com.thesett.catalogue.core.CatalogueManipulatorBase;
+import com.thesett.catalogue.core.IndexRebuildProgress;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.ExternalId;
+import com.thesett.catalogue.model.ExternallyIdentified;
+import com.thesett.index.IndexMappingException;
+import com.thesett.index.IndexStore;
+import com.thesett.index.IndexUnknownKeyException;
+import com.thesett.index.tx.IndexTxManager;
+
+/**
+ * IndexWarmUp rebuilds the free text search indexes of a catalogue from the database in the background, so that
+ * start-up does not have to wait for every index to be fully built before the catalogue can serve requests. Searches
+ * may be run against the indexes whilst they are being warmed up, and will find entities of the types that have been
+ * indexed so far. The completeness of the warm-up can be checked, so that callers can tell when search results may be
+ * missing some entities.
+ *
+ * <p/>Entity types are indexed one at a time, in priority order. Types named in the priority list are indexed first,
+ * in the order given, followed by all other indexed types in model order. Each type is read within its own database
+ * transaction, and is committed to the indexes a chunk of rows at a time, so that the index write lock is not held
+ * against other writers for the whole of a type. A type only counts as indexed once all of its chunks are committed.
+ *
+ * <p/>Changes to entities made whilst the warm-up runs are applied to the indexes through it. Until every type has
+ * been indexed, an entity that is updated may not be in the indexes yet, so it is added instead, and an entity that is
+ * deleted may not be there to remove, so that is ignored. The external ids of the changed entities are recorded, and
+ * the warm-up leaves them out of the chunks that it indexes, as the rows it read for them may be older than the
+ * changes. A chunk checks for changed entities again once it holds the index write locks, and starts again if any
+ * were changed in between, as their newer entries may already have been committed. Any change recorded after that
+ * waits for the chunk to commit, so is applied over it.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Rebuild the catalogue indexes in the background, one entity type at a time. <td> {@link HibernateConfigBean}
+ * <tr><td> Index the most important entity types first.
+ * <tr><td> Report on the completeness of the warm-up. <td> {@link IndexRebuildProgress}
+ * <tr><td> Apply changes to entities without losing them to stale chunks.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexWarmUp extends CatalogueManipulatorBase implements Runnable
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(IndexWarmUp.class);
+
+    /** Holds the hibernate config bean to open database sessions with. */
+    private final HibernateConfigBean hibernateBean;
+
+    /** Holds the indexed component types, in the order in which they are to be indexed. */
+    private final List<ComponentType> typesToIndex;
+
+    /** Holds the number of entities indexed so far for each type that has been completely indexed. */
+    private final Map<String, Integer> indexedTypes = Collections.synchronizedMap(new LinkedHashMap<String, Integer>());
+
+    /** Holds the names of the types that could not be indexed. */
+    private final Collection<String> failedTypes = Collections.synchronizedList(new ArrayList<String>());
+
+    /** Used to signal when the warm-up has finished. */
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /** Flag used to indicate that every type has been indexed. */
+    private volatile boolean complete;
+
+    /** Holds the external ids of the entities changed since the indexes were cleared, whilst the warm-up runs. */
+    private final ConcurrentMap<ExternalId, Boolean> changedKeys = new ConcurrentHashMap<ExternalId, Boolean>();
+
+    /**
+     * Creates a warm-up for the indexes of a catalogue.
+     *
+     * @param catalogue     The catalogue to build the indexes for.
+     * @param indexStore    The index store holding the catalogue indexes.
+     * @param hibernateBean The hibernate config bean to open database sessions with.
+     * @param priorityTypes The names of the types to index first, in the order in which to index them. May be empty.
+     */
+    public IndexWarmUp(Catalogue catalogue, IndexStore indexStore, HibernateConfigBean hibernateBean,
+        List<String> priorityTypes)
+    {
+        setCatalogue(catalogue);
+        setIndexStore(indexStore);
+        setCommitIndexChunks(true);
+        this.hibernateBean = hibernateBean;
+
+        // Order the indexed types with the named priority types first, followed by the rest in model order.
+        typesToIndex = new ArrayList<ComponentType>();
+
+        for (String typeName : priorityTypes)
+        {
+            ComponentType type = catalogue.getComponentType(typeName);
+
+            if (type == null)
+            {
+                log.warn("The index warm-up priority type, " + typeName + ", is not in the catalogue.");
+            }
+            else if (isIndexed(type) && !typesToIndex.contains(type))
+            {
+                typesToIndex.add(type);
+            }
+        }
+
+        for (ComponentType type : catalogue.getAllComponentTypes())
+        {
+            if (isIndexed(type) && !typesToIndex.contains(type))
+            {
+                typesToIndex.add(type);
+            }
+        }
+    }
+
+    /** Starts the warm-up on a background thread. */
+    public void start()
+    {
+        Thread thread = new Thread(this, "catalogue-index-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Clears all the catalogue indexes, then indexes each type in priority order. */
+    public void run()
+    {
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            log.info("Warming up catalogue indexes for " + typesToIndex.size() + " entity types.");
+
+            // Empty all the indexes, within an index transaction in case they are in a transactional mode.
+            IndexTxManager.createTxIdToThread();
+
+            try
+            {
+                for (String indexName : getCatalogue().getAllIndexes())
+                {
+                    clearIndex(indexName);
+                    getIndexStore().getNamedIndex(indexName).commit();
+                }
+            }
+            finally
+            {
+                IndexTxManager.removeTxIdFromThread();
+            }
+
+            // Changes made before the indexes were cleared were cleared with them, so their rows must be indexed.
+            changedKeys.clear();
+
+            // Count the rows to index up front, so that the time remaining can be estimated.
+            IndexRebuildProgress progress = startRebuildProgress();
+            countRowsToIndex();
+
+            for (ComponentType type : typesToIndex)
+            {
+                warmUpType(type);
+            }
+
+            progress.finished();
+            complete = failedTypes.isEmpty();
+
+            log.info("Catalogue index warm-up finished in " + (System.currentTimeMillis() - start) + " ms, " +
+                (complete ? "all types indexed." : ("failed to index types " + failedTypes + ".")));
+        }
+        finally
+        {
+            finished.countDown();
+            changedKeys.clear();
+        }
+    }
+
+    /**
+     * Checks whether every indexed type has been completely indexed, so that searches will find all entities.
+     *
+     * @return <tt>true</tt> if every indexed type has been completely indexed.
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    /**
+     * Gets the fraction of the indexed types that have been completely indexed so far.
+     *
+     * @return The fraction of the indexed types that have been completely indexed so far, from zero to one.
+     */
+    public float getCompleteness()
+    {
+        return typesToIndex.isEmpty() ? 1.0f : ((float) indexedTypes.size() / typesToIndex.size());
+    }
+
+    /**
+     * Gets the number of entities indexed for each type that has been completely indexed so far, in the order in
+     * which they were indexed.
+     *
+     * @return The number of entities indexed for each type that has been completely indexed so far.
+     */
+    public Map<String, Integer> getIndexedTypes()
+    {
+        synchronized (indexedTypes)
+        {
+            return new LinkedHashMap<String, Integer>(indexedTypes);
+        }
+    }
+
+    /**
+     * Gets the names of the types that could not be indexed.
+     *
+     * @return The names of the types that could not be indexed.
+     */
+    public Collection<String> getFailedTypes()
+    {
+        synchronized (failedTypes)
+        {
+            return new ArrayList<String>(failedTypes);
+        }
+    }
+
+    /**
+     * Waits for the warm-up to finish, whether or not every type could be indexed.
+     *
+     * @param  timeout The maximum time to wait in milliseconds.
+     *
+     * @return <tt>true</tt> if the warm-up finished within the timeout.
+     *
+     * @throws InterruptedException If interrupted whilst waiting.
+     */
+    public boolean awaitFinished(long timeout) throws InterruptedException
+    {
+        return finished.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records that an entity has been changed, so that the warm-up does not overwrite its index entries with an older
+     * row. Changes applied to the indexes through the warm-up are recorded already; this is for changes that are
+     * applied to the indexes in some other way, such as by write-behind. Nothing is recorded once the warm-up has
+     * finished.
+     *
+     * @param key The external id of the changed entity.
+     */
+    public void recordChange(ExternalId key)
+    {
+        if ((key != null) && (finished.getCount() > 0))
+        {
+            changedKeys.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Adds new entities to an index.
+     *
+     * @param  indexName   The name of the index to add the entities to.
+     * @param  fullRecords The entities to add, which must be externally identified.
+     *
+     * @throws IndexMappingException If an entity cannot be added to the index because no mapping exists for it or if a
+     *                               field specified in a matching mapping cannot be found on it.
+     */
+    public void add(String indexName, Collection<? extends EntityInstance> fullRecords) throws IndexMappingException
+    {
+        recordChanges(fullRecords);
+        addAllToIndex(indexName, fullRecords);
+    }
+
+    /**
+     * Updates entities in an index. Until every type has been indexed, the entities are added to the index instead,
+     * replacing any entries that they already have, as they may not have been indexed yet.
+     *
+     * @param  indexName   The name of the index to update the entities in.
+     * @param  fullRecords The entities to update, which must be externally identified.
+     *
+     * @throws IndexMappingException    If an entity cannot be added to the index because no mapping exists for it or if
+     *                                  a field specified in a matching mapping cannot be found on it.
+     * @throws IndexUnknownKeyException When every type has been indexed, and an entity is not in the index.
+     */
+    public void update(String indexName, Collection<? extends EntityInstance> fullRecords)
+        throws IndexMappingException, IndexUnknownKeyException
+    {
+        recordChanges(fullRecords);
+
+        if (complete)
+        {
+            updateAllInIndex(indexName, fullRecords);
+        }
+        else
+        {
+            addAllToIndex(indexName, fullRecords);
+        }
+    }
+
+    /**
+     * Removes an entity from an index. Until every type has been indexed, an entity that is not in the index is
+     * ignored, as it may not have been indexed yet.
+     *
+     * @param  indexName The name of the index to remove the entity from.
+     * @param  key       The external id of the entity to remove.
+     *
+     * @throws IndexUnknownKeyException When every type has been indexed, and the entity is not in the index.
+     */
+    public void remove(String indexName, ExternalId key) throws IndexUnknownKeyException
+    {
+        recordChange(key);
+
+        try
+        {
+            removeFromIndex(indexName, key);
+        }
+        catch (IndexUnknownKeyException e)
+        {
+            if (complete)
+            {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Adds a chunk of rows to the indexes, leaving out the rows of entities that have been changed during the
+     * warm-up. The changed entities are checked again once the index write locks are held, and the chunk is rolled
+     * back and started again if any more of its entities were changed in between.
+     *
+     * @param  indexNames The names of the indexes to add the rows to.
+     * @param  chunk      The rows to index.
+     *
+     * @throws IndexMappingException If a row cannot be added to an index because no mapping exists for it or if a field
+     *                               specified in a matching mapping cannot be found on it.
+     */
+    protected void indexRebuildChunk(List<String> indexNames, List<EntityInstance> chunk) throws IndexMappingException
+    {
+        List<EntityInstance> unchanged = withoutChanges(chunk);
+
+        while (true)
+        {
+            for (String indexName : indexNames)
+            {
+                addAllToIndex(indexName, unchanged);
+            }
+
+            // Any entity changed from here on waits for the index write locks, so it is indexed after this chunk.
+            List<EntityInstance> stillUnchanged = withoutChanges(unchanged);
+
+            if (stillUnchanged.size() == unchanged.size())
+            {
+                break;
+            }
+
+            for (String indexName : indexNames)
+            {
+                getIndexStore().getNamedIndex(indexName).rollback();
+            }
+
+            unchanged = stillUnchanged;
+        }
+
+        for (String indexName : indexNames)
+        {
+            getIndexStore().getNamedIndex(indexName).commit();
+        }
+    }
+
+    /**
+     * Records that some entities have been changed.
+     *
+     * @param fullRecords The changed entities, which must be externally identified.
+     */
+    private void recordChanges(Collection<? extends EntityInstance> fullRecords)
+    {
+        for (EntityInstance fullRecord : fullRecords)
+        {
+            recordChange(((ExternallyIdentified) fullRecord).getExternalId());
+        }
+    }
+
+    /**
+     * Leaves out the rows of entities that have been changed during the warm-up.
+     *
+     * @param  rows The rows to check.
+     *
+     * @return The rows of entities that have not been changed.
+     */
+    private List<EntityInstance> withoutChanges(List<EntityInstance> rows)
+    {
+        List<EntityInstance> unchanged = new ArrayList<EntityInstance>(rows.size());
+
+        for (EntityInstance row : rows)
+        {
+            if (!changedKeys.containsKey(((ExternallyIdentified) row).getExternalId()))
+            {
+                unchanged.add(row);
+            }
+        }
+
+        return unchanged;
+    }
+
+    /**
+     * Indexes all entities of a single type, within one database transaction, committing them to the indexes a chunk
+     * at a time. A failure to index the type is logged and recorded, and the warm-up moves on to the next type. Chunks
+     * of a failed type that were committed before the failure remain searchable.
+     *
+     * @param type The type to index.
+     */
+    private void warmUpType(ComponentType type)
+    {
+        Session session = hibernateBean.getSession();
+        Transaction transaction = null;
+
+        try
+        {
+            transaction = session.beginTransaction();
+
+            int count = rebuildIndexesForType(session, type);
+
+            transaction.commit();
+            indexedTypes.put(type.getName(), count);
+
+            log.debug("Warmed up " + count + " entities of type " + type.getName() + ".");
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Failed to warm up the indexes for the type " + type.getName() + ".", e);
+            failedTypes.add(type.getName());
+
+            if (transaction != null)
+            {
+                transaction.rollback();
+            }
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Counts the rows of all the types to index, within a database transaction of its own. A failure to count them is
+     * logged, and the warm-up goes ahead without an estimate of the time remaining.
+     */
+    private void countRowsToIndex()
+    {
+        Session session = hibernateBean.getSession();
+        Transaction transaction = null;
+
+        try
+        {
+            transaction = session.beginTransaction();
+            expectRows(session, typesToIndex);
+            transaction.commit();
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Failed to count the rows to index, the time remaining will not be estimated.", e);
+
+            if (transaction != null)
+            {
+                transaction.rollback();
+            }
+        }
+        finally
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Checks if a component type is indexed in any index.
+     *
+     * @param  type The component type to check.
+     *
+     * @return <tt>true</tt> if the type is indexed in at least one index.
+     */
+    private boolean isIndexed(ComponentType type)
+    {
+        List<String> indexNames = getCatalogue().getIndexesForDimension(type.getName());
+
+        return (indexNames != null) && !indexNames.isEmpty();
+    }
+}
@@ -0,0 +1,780 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+
+import com.thesett.catalogue.core.CatalogueManipulatorBase;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.ExternalId;
+import com.thesett.index.IndexStore;
+import com.thesett.index.IndexUnknownKeyException;
+import com.thesett.index.TransactionalIndex;
+import com.thesett.index.tx.IndexTxManager;
+
+/**
+ * IndexWriteBehind keeps the free text search indexes of a catalogue up to date with changes to entities, after the
+ * database transactions making the changes have committed, rather than within them. This takes the index work out of
+ * the latency of every write, and means that a database transaction that rolls back leaves the indexes unchanged.
+ *
+ * <p/>Index operations are collected against the hibernate transaction that they are made in, by a transaction
+ * synchronization that is registered with it. When the transaction commits they are placed on a queue, and they are
+ * dropped if it rolls back. A background worker takes the operations off the queue in batches and applies them to the
+ * indexes, one index transaction per index per batch. The lazily loaded associations of each entity are loaded when
+ * its operation is recorded, whilst its session is still open, so that the worker can read its indexed fields.
+ *
+ * <p/>Operations waiting on the queue, or within the same transaction, on the same entity are coalesced by external
+ * id, so that an entity that is changed many times in quick succession is only indexed once. Searches may therefore
+ * lag behind the database; the depth of the queue and the age of its oldest operation are available as metrics. The
+ * queue is bounded, and committing transactions wait for space on it when the worker falls behind. When stopped, the
+ * worker applies everything still waiting on the queue before it finishes.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Collect index operations against the transaction they are made in. <td> {@link Synchronization}
+ * <tr><td> Queue index operations once their transaction commits.
+ * <tr><td> Coalesce queued operations on the same entity.
+ * <tr><td> Apply queued operations in batches in the background. <td> {@link IndexStore}
+ * <tr><td> Report the depth and lag of the queue.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexWriteBehind extends CatalogueManipulatorBase implements Runnable
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(IndexWriteBehind.class);
+
+    /** Defines the default maximum number of operations to apply in each batch. */
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /** Defines the default maximum number of operations that may wait on the queue. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /** Holds the index operations of the transaction in progress on each thread. */
+    private final ThreadLocal<PendingOperations> pendingOperations = new ThreadLocal<PendingOperations>();
+
+    /** Holds the queued index operations, in the order they were queued, by the external id of their entity. */
+    private final LinkedHashMap<ExternalId, IndexOperation> queue = new LinkedHashMap<ExternalId, IndexOperation>();
+
+    /** Holds the maximum number of operations to apply in each batch. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Holds the maximum number of operations that may wait on the queue. */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /** Holds the number of operations taken off the queue that the worker is still applying. */
+    private int inProgress;
+
+    /** Holds the number of operations applied to the indexes. */
+    private long appliedCount;
+
+    /** Holds the number of operations that were coalesced with operations already waiting. */
+    private long coalescedCount;
+
+    /** Holds the number of operations that could not be applied to the indexes. */
+    private long failedCount;
+
+    /** Flag used to indicate that the worker should stop, once it has drained the queue. */
+    private volatile boolean stopped;
+
+    /** Flag set once the worker has finished, after which queued operations can no longer be applied. */
+    private boolean finished;
+
+    /**
+     * Creates a write-behind for the indexes of a catalogue.
+     *
+     * @param catalogue  The catalogue to maintain the indexes of.
+     * @param indexStore The index store holding the catalogue indexes.
+     */
+    public IndexWriteBehind(Catalogue catalogue, IndexStore indexStore)
+    {
+        setCatalogue(catalogue);
+        setIndexStore(indexStore);
+    }
+
+    /**
+     * Sets the maximum number of operations to apply in each batch.
+     *
+     * @param batchSize The maximum number of operations to apply in each batch.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the maximum number of operations that may wait on the queue.
+     *
+     * @param queueCapacity The maximum number of operations that may wait on the queue.
+     */
+    public void setQueueCapacity(int queueCapacity)
+    {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /** Starts the worker on a background thread. */
+    public void start()
+    {
+        Thread worker = new Thread(this, "catalogue-index-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the worker, once it has applied all of the operations waiting on the queue. Operations committed after the
+     * worker has finished are logged and dropped.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Records that an entity has been created, to be added to the indexes once the transaction of the session commits.
+     *
+     * @param session    The session that the entity was created in.
+     * @param indexNames The names of the indexes that the entity belongs in.
+     * @param key        The external id of the entity.
+     * @param record     The entity.
+     */
+    public void add(Session session, List<String> indexNames, ExternalId key, EntityInstance record)
+    {
+        initializeAssociations(session, record);
+        getPendingOperations(session).put(new IndexOperation(OperationKind.Add, indexNames, key, record));
+    }
+
+    /**
+     * Records that an entity has been updated, to be updated in the indexes once the transaction of the session
+     * commits.
+     *
+     * @param session    The session that the entity was updated in.
+     * @param indexNames The names of the indexes that the entity belongs in.
+     * @param key        The external id of the entity.
+     * @param record     The entity.
+     */
+    public void update(Session session, List<String> indexNames, ExternalId key, EntityInstance record)
+    {
+        initializeAssociations(session, record);
+        getPendingOperations(session).put(new IndexOperation(OperationKind.Update, indexNames, key, record));
+    }
+
+    /**
+     * Records that an entity has been deleted, to be removed from the indexes once the transaction of the session
+     * commits.
+     *
+     * @param session    The session that the entity was deleted in.
+     * @param indexNames The names of the indexes that the entity belongs in.
+     * @param key        The external id of the entity.
+     */
+    public void remove(Session session, List<String> indexNames, ExternalId key)
+    {
+        getPendingOperations(session).put(new IndexOperation(OperationKind.Remove, indexNames, key, null));
+    }
+
+    /**
+     * Gets the number of operations waiting on the queue or being applied.
+     *
+     * @return The number of operations waiting on the queue or being applied.
+     */
+    public synchronized int getQueueDepth()
+    {
+        return queue.size() + inProgress;
+    }
+
+    /**
+     * Gets the time that the oldest operation on the queue has been waiting. This is how far behind the database the
+     * indexes are.
+     *
+     * @return The time that the oldest operation on the queue has been waiting in milliseconds, or zero if the queue is
+     *         empty.
+     */
+    public synchronized long getLag()
+    {
+        if (queue.isEmpty())
+        {
+            return 0L;
+        }
+
+        return System.currentTimeMillis() - queue.values().iterator().next().queuedTime;
+    }
+
+    /**
+     * Gets the number of operations applied to the indexes.
+     *
+     * @return The number of operations applied to the indexes.
+     */
+    public synchronized long getAppliedCount()
+    {
+        return appliedCount;
+    }
+
+    /**
+     * Gets the number of operations that were coalesced with operations already waiting on the same entity.
+     *
+     * @return The number of operations that were coalesced.
+     */
+    public synchronized long getCoalescedCount()
+    {
+        return coalescedCount;
+    }
+
+    /**
+     * Gets the number of operations that could not be applied to the indexes.
+     *
+     * @return The number of operations that could not be applied to the indexes.
+     */
+    public synchronized long getFailedCount()
+    {
+        return failedCount;
+    }
+
+    /**
+     * Waits until all the operations queued so far have been applied to the indexes.
+     *
+     * @param  timeout The maximum time to wait in milliseconds.
+     *
+     * @return <tt>true</tt> if the queue was emptied within the timeout.
+     *
+     * @throws InterruptedException If interrupted whilst waiting.
+     */
+    public synchronized boolean awaitEmpty(long timeout) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (getQueueDepth() > 0)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (remaining <= 0)
+            {
+                return false;
+            }
+
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    /** Takes batches of operations off the queue and applies them to the indexes, until stopped and drained. */
+    public void run()
+    {
+        try
+        {
+            for (List<IndexOperation> batch = takeBatch(); batch != null; batch = takeBatch())
+            {
+                applyBatch(batch);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            log.warn("The index write-behind worker was interrupted, and has stopped.", e);
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            finish();
+        }
+    }
+
+    /**
+     * Places the operations of a committed transaction on the queue, coalescing them with any operations already
+     * waiting on the same entities. Waits for space on the queue if it is full. Once the worker has finished, the
+     * operations can no longer be applied, and are logged and dropped.
+     *
+     * @param  operations The operations of the committed transaction.
+     *
+     * @throws InterruptedException If interrupted whilst waiting for space on the queue.
+     */
+    synchronized void enqueue(Collection<IndexOperation> operations) throws InterruptedException
+    {
+        int dropped = 0;
+
+        for (IndexOperation operation : operations)
+        {
+            while ((queue.size() >= queueCapacity) && !stopped && !queue.containsKey(operation.key))
+            {
+                wait();
+            }
+
+            if (finished)
+            {
+                dropped++;
+
+                continue;
+            }
+
+            IndexOperation queued = queue.get(operation.key);
+
+            if (queued == null)
+            {
+                queue.put(operation.key, operation);
+            }
+            else
+            {
+                coalescedCount++;
+
+                IndexOperation coalesced = queued.coalesce(operation);
+
+                if (coalesced == null)
+                {
+                    queue.remove(operation.key);
+                }
+                else
+                {
+                    queue.put(operation.key, coalesced);
+                }
+            }
+        }
+
+        if (dropped > 0)
+        {
+            log.warn("The index write-behind worker has stopped, " + dropped +
+                " committed changes will not be indexed.");
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Loads the lazily loaded associations and collections of an entity, whilst the session it was written in is still
+     * open. The worker extracts the indexed fields of the entity later, on its own thread, after the session has closed.
+     *
+     * @param session The session that the entity was written in.
+     * @param record  The entity.
+     */
+    private void initializeAssociations(Session session, EntityInstance record)
+    {
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(session.getEntityName(record));
+
+        if (metadata == null)
+        {
+            return;
+        }
+
+        String[] propertyNames = metadata.getPropertyNames();
+        Type[] propertyTypes = metadata.getPropertyTypes();
+
+        for (int i = 0; i < propertyTypes.length; i++)
+        {
+            if (propertyTypes[i].isCollectionType() || propertyTypes[i].isEntityType())
+            {
+                Hibernate.initialize(metadata.getPropertyValue(record, propertyNames[i]));
+            }
+        }
+    }
+
+    /**
+     * Gets the operations recorded so far in the transaction of a session, registering a new synchronization with the
+     * transaction to collect them if this is its first operation.
+     *
+     * @param  session The session to get the operations of the current transaction of.
+     *
+     * @return The operations recorded so far in the current transaction of the session.
+     */
+    private PendingOperations getPendingOperations(Session session)
+    {
+        Transaction transaction = session.getTransaction();
+        PendingOperations pending = pendingOperations.get();
+
+        if ((pending == null) || (pending.transaction != transaction))
+        {
+            pending = new PendingOperations(transaction);
+            transaction.registerSynchronization(pending);
+            pendingOperations.set(pending);
+        }
+
+        return pending;
+    }
+
+    /**
+     * Waits for operations to be placed on the queue, then takes up to a batch of them off it.
+     *
+     * @return The next batch of operations to apply, or <tt>null</tt> if the worker has been stopped and the queue is
+     *         empty.
+     *
+     * @throws InterruptedException If interrupted whilst waiting for operations.
+     */
+    private synchronized List<IndexOperation> takeBatch() throws InterruptedException
+    {
+        while (queue.isEmpty() && !stopped)
+        {
+            wait();
+        }
+
+        // Once stopped, the worker carries on until the queue is drained.
+        if (queue.isEmpty())
+        {
+            return null;
+        }
+
+        List<IndexOperation> batch = new ArrayList<IndexOperation>(Math.min(batchSize, queue.size()));
+
+        for (Iterator<IndexOperation> i = queue.values().iterator(); i.hasNext() && (batch.size() < batchSize);)
+        {
+            batch.add(i.next());
+            i.remove();
+        }
+
+        inProgress = batch.size();
+        notifyAll();
+
+        return batch;
+    }
+
+    /**
+     * Marks the worker as finished. Any operations left on the queue, because the worker was interrupted, are logged and
+     * dropped.
+     */
+    private synchronized void finish()
+    {
+        finished = true;
+
+        if (!queue.isEmpty())
+        {
+            log.warn("The index write-behind worker has stopped, " + queue.size() +
+                " committed changes will not be indexed.");
+            queue.clear();
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Applies a batch of operations to the indexes. The operations on each index are applied in the order they were
+     * queued, within an index transaction of their own. A failure to apply an operation is logged and counted, and the
+     * rest of the batch is still applied.
+     *
+     * @param batch The operations to apply.
+     */
+    private void applyBatch(List<IndexOperation> batch)
+    {
+        // Group the operations by the indexes they apply to.
+        Map<String, List<IndexOperation>> operationsByIndex = new LinkedHashMap<String, List<IndexOperation>>();
+
+        for (IndexOperation operation : batch)
+        {
+            for (String indexName : operation.indexNames)
+            {
+                List<IndexOperation> operations = operationsByIndex.get(indexName);
+
+                if (operations == null)
+                {
+                    operations = new ArrayList<IndexOperation>();
+                    operationsByIndex.put(indexName, operations);
+                }
+
+                operations.add(operation);
+            }
+        }
+
+        int failed = 0;
+
+        IndexTxManager.createTxIdToThread();
+
+        try
+        {
+            for (Map.Entry<String, List<IndexOperation>> entry : operationsByIndex.entrySet())
+            {
+                TransactionalIndex index = getIndexStore().getNamedIndex(entry.getKey());
+
+                for (IndexOperation operation : entry.getValue())
+                {
+                    try
+                    {
+                        operation.applyTo(index);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        log.error("Failed to apply " + operation + " to the index " + entry.getKey() + ".", e);
+                        failed++;
+                    }
+                }
+
+                index.commit();
+            }
+        }
+        finally
+        {
+            IndexTxManager.removeTxIdFromThread();
+
+            synchronized (this)
+            {
+                appliedCount += batch.size();
+                failedCount += failed;
+                inProgress = 0;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Enumerates the kinds of index operation. */
+    private enum OperationKind
+    {
+        /** An entity is added to the indexes. */
+        Add,
+
+        /** An entity is updated in the indexes. */
+        Update,
+
+        /** An entity is removed from the indexes. */
+        Remove
+    }
+
+    /**
+     * IndexOperation is an operation on a single entity, to be applied to every index that the entity belongs in.
+     *
+     * <pre><p/><table id="crc"><caption>CRC Card</caption>
+     * <tr><th> Responsibilities
+     * <tr><td> Apply an operation on an entity to an index.
+     * <tr><td> Coalesce with a later operation on the same entity.
+     * </table></pre>
+     */
+    private static class IndexOperation
+    {
+        /** Holds the kind of the operation. */
+        private final OperationKind kind;
+
+        /** Holds the names of the indexes that the entity belongs in. */
+        private final List<String> indexNames;
+
+        /** Holds the external id of the entity. */
+        private final ExternalId key;
+
+        /** Holds the entity to index, or <tt>null</tt> if it is being removed. */
+        private final EntityInstance record;
+
+        /** Holds the time at which the operation was created, in milliseconds. */
+        private final long queuedTime;
+
+        /**
+         * Creates an index operation on an entity.
+         *
+         * @param kind       The kind of the operation.
+         * @param indexNames The names of the indexes that the entity belongs in.
+         * @param key        The external id of the entity.
+         * @param record     The entity to index, or <tt>null</tt> if it is being removed.
+         */
+        IndexOperation(OperationKind kind, List<String> indexNames, ExternalId key, EntityInstance record)
+        {
+            this(kind, indexNames, key, record, System.currentTimeMillis());
+        }
+
+        /**
+         * Creates an index operation on an entity, that was first queued at the specified time.
+         *
+         * @param kind       The kind of the operation.
+         * @param indexNames The names of the indexes that the entity belongs in.
+         * @param key        The external id of the entity.
+         * @param record     The entity to index, or <tt>null</tt> if it is being removed.
+         * @param queuedTime The time at which the operation was first queued, in milliseconds.
+         */
+        IndexOperation(OperationKind kind, List<String> indexNames, ExternalId key, EntityInstance record,
+            long queuedTime)
+        {
+            this.kind = kind;
+            this.indexNames = indexNames;
+            this.key = key;
+            this.record = record;
+            this.queuedTime = queuedTime;
+        }
+
+        /**
+         * Combines this operation with a later one on the same entity, into the single operation with the same effect
+         * on the indexes. The combined operation keeps the time at which this one was queued.
+         *
+         * @param  later The later operation on the same entity.
+         *
+         * @return The combined operation, or <tt>null</tt> if the two cancel each other out.
+         */
+        IndexOperation coalesce(IndexOperation later)
+        {
+            switch (kind)
+            {
+            case Add:
+
+                // An entity added then changed is added as it is now, and added then removed was never there.
+                return (later.kind == OperationKind.Remove)
+                    ? null : new IndexOperation(OperationKind.Add, later.indexNames, key, later.record, queuedTime);
+
+            case Remove:
+
+                // An entity removed then added again is still in the index, so only needs updating.
+                return (later.kind == OperationKind.Remove)
+                    ? this : new IndexOperation(OperationKind.Update, later.indexNames, key, later.record, queuedTime);
+
+            default:
+
+                // An update followed by anything is replaced by the later operation.
+                return new IndexOperation(later.kind, later.indexNames, key, later.record, queuedTime);
+            }
+        }
+
+        /**
+         * Applies this operation to an index. Updates to entities that are not in the index add them instead, and
+         * removals of entities that are not in the index are ignored.
+         *
+         * @param index The index to apply the operation to.
+         */
+        void applyTo(TransactionalIndex index)
+        {
+            try
+            {
+                switch (kind)
+                {
+                case Add:
+                    index.add(key, record, null);
+                    break;
+
+                case Update:
+                    index.update(key, record, null);
+                    break;
+
+                case Remove:
+                    index.remove(key);
+                    break;
+
+                default:
+                    break;
+                }
+            }
+            catch (IndexUnknownKeyException e)
+            {
+                if (kind == OperationKind.Update)
+                {
+                    index.add(key, record, null);
+                }
+            }
+        }
+
+        /**
+         * Prints the operation, mainly for debugging purposes.
+         *
+         * @return The operation as a string.
+         */
+        public String toString()
+        {
+            return "IndexOperation: [ kind = " + kind + ", key = " + key + " ]";
+        }
+    }
+
+    /**
+     * PendingOperations collects the index operations made within a single hibernate transaction, and queues them once
+     * the transaction has committed.
+     *
+     * <pre><p/><table id="crc"><caption>CRC Card</caption>
+     * <tr><th> Responsibilities <th> Collaborations
+     * <tr><td> Collect and coalesce the index operations of a transaction.
+     * <tr><td> Queue the operations on commit, or drop them on rollback. <td> {@link IndexWriteBehind}
+     * </table></pre>
+     */
+    private class PendingOperations implements Synchronization
+    {
+        /** Holds the transaction that the operations are made in. */
+        private final Transaction transaction;
+
+        /** Holds the operations of the transaction, by the external id of their entity. */
+        private final Map<ExternalId, IndexOperation> operations = new LinkedHashMap<ExternalId, IndexOperation>();
+
+        /**
+         * Creates an empty collection of the operations of a transaction.
+         *
+         * @param transaction The transaction that the operations are made in.
+         */
+        PendingOperations(Transaction transaction)
+        {
+            this.transaction = transaction;
+        }
+
+        /**
+         * Adds an operation, coalescing it with any earlier operation in the transaction on the same entity.
+         *
+         * @param operation The operation to add.
+         */
+        void put(IndexOperation operation)
+        {
+            IndexOperation earlier = operations.get(operation.key);
+
+            if (earlier == null)
+            {
+                operations.put(operation.key, operation);
+            }
+            else
+            {
+                IndexOperation coalesced = earlier.coalesce(operation);
+
+                if (coalesced == null)
+                {
+                    operations.remove(operation.key);
+                }
+                else
+                {
+                    operations.put(operation.key, coalesced);
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void beforeCompletion()
+        {
+        }
+
+        /**
+         * Queues the operations if the transaction committed, otherwise drops them.
+         *
+         * @param status The completion status of the transaction.
+         */
+        public void afterCompletion(int status)
+        {
+            if (pendingOperations.get() == this)
+            {
+                pendingOperations.remove();
+            }
+
+            if ((status == Status.STATUS_COMMITTED) && !operations.isEmpty())
+            {
+                try
+                {
+                    enqueue(operations.values());
+                }
+                catch (InterruptedException e)
+                {
+                    log.error("Interrupted whilst queueing index operations, " + operations.size() +
+                        " committed changes will not be indexed.", e);
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
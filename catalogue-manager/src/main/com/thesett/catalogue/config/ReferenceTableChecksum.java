@@ -0,0 +1,194 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.CRC32;
+
+/**
+ * ReferenceTableChecksum accumulates a checksum over the rows of a reference table, so that the reference data held in
+ * the catalogue model can be compared with the reference data already in the database, without comparing them row by
+ * row. A row consists of a long id followed by any number of string values, some of which may be null. Rows must be
+ * added in ascending order of id; the rows of a table are read back in that order by {@link #read}.
+ *
+ * <p/>Two checksums match when they were taken over the same number of rows and their CRC32 values are equal. This is
+ * sufficient to detect whether reference data has changed between runs; it is not intended as a defence against
+ * deliberately crafted collisions.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Accumulate a checksum over reference table rows.
+ * <tr><td> Read the checksum of the rows in a reference table.
+ * <tr><td> Compare reference table checksums.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class ReferenceTableChecksum
+{
+    /** Defines the name of the id column of reference tables. */
+    public static final String ID_COLUMN = "id";
+
+    /** Separates the fields of a row, within the checksummed data. */
+    private static final char FIELD_SEPARATOR = '\u001f';
+
+    /** Separates rows, within the checksummed data. */
+    private static final char ROW_SEPARATOR = '\u001e';
+
+    /** Marks a null field, within the checksummed data. */
+    private static final char NULL_MARKER = '\u0000';
+
+    /** Holds the running CRC32 over the rows added so far. */
+    private final CRC32 crc = new CRC32();
+
+    /** Holds the number of rows added so far. */
+    private int rowCount;
+
+    /**
+     * Reads the checksum of all rows in a reference table. The id and value columns are selected by name, so the
+     * checksum does not depend on the order of the columns in the table.
+     *
+     * @param  connection   The connection to read the table over.
+     * @param  tableName    The name of the reference table.
+     * @param  valueColumns The names of the value columns, in the order that they are added to model checksums.
+     *
+     * @return The checksum of the rows in the table.
+     *
+     * @throws SQLException If the table cannot be read.
+     */
+    public static ReferenceTableChecksum read(Connection connection, String tableName, String[] valueColumns)
+        throws SQLException
+    {
+        ReferenceTableChecksum checksum = new ReferenceTableChecksum();
+
+        StringBuilder query = new StringBuilder("SELECT ").append(ID_COLUMN);
+
+        for (String valueColumn : valueColumns)
+        {
+            query.append(", ").append(valueColumn);
+        }
+
+        query.append(" FROM ").append(tableName).append(" ORDER BY ").append(ID_COLUMN);
+
+        PreparedStatement sql = connection.prepareStatement(query.toString());
+
+        try
+        {
+            ResultSet rs = sql.executeQuery();
+            String[] values = new String[valueColumns.length];
+
+            while (rs.next())
+            {
+                for (int i = 0; i < valueColumns.length; i++)
+                {
+                    values[i] = rs.getString(i + 2);
+                }
+
+                checksum.addRow(rs.getLong(1), values);
+            }
+
+            rs.close();
+        }
+        finally
+        {
+            sql.close();
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Adds a row to the checksum.
+     *
+     * @param id     The id of the row.
+     * @param values The values of the row, any of which may be null.
+     */
+    public void addRow(long id, String[] values)
+    {
+        StringBuilder row = new StringBuilder();
+        row.append(id);
+
+        for (String value : values)
+        {
+            row.append(FIELD_SEPARATOR);
+
+            if (value == null)
+            {
+                row.append(NULL_MARKER);
+            }
+            else
+            {
+                row.append(value);
+            }
+        }
+
+        row.append(ROW_SEPARATOR);
+
+        try
+        {
+            crc.update(row.toString().getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported.
+            throw new IllegalStateException(e);
+        }
+
+        rowCount++;
+    }
+
+    /**
+     * Provides the number of rows added to the checksum.
+     *
+     * @return The number of rows added to the checksum.
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Provides the checksum value over all rows added so far.
+     *
+     * @return The checksum value over all rows added so far.
+     */
+    public long getValue()
+    {
+        return crc.getValue();
+    }
+
+    /**
+     * Checks if this checksum was taken over the same rows as another.
+     *
+     * @param  other The checksum to compare with.
+     *
+     * @return <tt>true</tt> if both checksums cover the same number of rows and have the same value.
+     */
+    public boolean matches(ReferenceTableChecksum other)
+    {
+        return (rowCount == other.rowCount) && (getValue() == other.getValue());
+    }
+
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return "ReferenceTableChecksum: [ rowCount = " + rowCount + ", value = " + Long.toHexString(getValue()) + " ]";
+    }
+}
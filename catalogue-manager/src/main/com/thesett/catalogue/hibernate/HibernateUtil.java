@@ -16,6 +16,7 @@
 package com.thesett.catalogue.hibernate;
 
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 
 import com.thesett.catalogue.config.HibernateConfigBean;
 import com.thesett.common.config.ConfigBeanContext;
@@ -23,10 +24,27 @@ import com.thesett.common.config.ConfigException;
 import com.thesett.common.config.Configurator;
 
 /**
- * HibernateUtil.
+ * HibernateUtil provides access to the hibernate session and transaction associated with the current thread, from the
+ * session factory set up by the {@link HibernateConfigBean}.
+ *
+ * <p/>The session factory is looked up once and published through a volatile field, so that the common path through
+ * every method is an unsynchronized read. Only the first call, or the first call after the config bean has been
+ * re-run and has closed its previous session factory, synchronizes in order to look the session factory up.
+ *
+ * <p/>If the config bean sets up read replicas, reads made through {@link #getReadSession()} are routed onto them by
+ * a {@link ReplicaRouter}, in a read only session bound to the current thread, whilst all other sessions and
+ * transactions are on the primary. A unit of work on a thread runs until its transaction is committed or rolled back,
+ * which also ends its replica session. The replica session is also ended as soon as the primary session is first used
+ * in a unit of work, so that anything read on the replica is detached from it, and can be written through the primary
+ * session without being associated with two open sessions at once. With the read-your-writes option of the router,
+ * once the primary session has been used in a unit of work, the rest of its reads are made on the primary session
+ * instead.
  *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Provide the session associated with the current thread. <td> {@link HibernateConfigBean}
+ * <tr><td> Begin, commit or roll back the transaction associated with the current thread.
+ * <tr><td> Route reads onto read replicas. <td> {@link ReplicaRouter}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -34,7 +52,20 @@ import com.thesett.common.config.Configurator;
 public class HibernateUtil
 {
     /** Holds a reference to the hibernate config bean that supplies the sessions. */
-    private static HibernateConfigBean hibernateBean;
+    private static volatile HibernateConfigBean hibernateBean;
+
+    /** Holds a reference to the session factory of the hibernate config bean, once it has been looked up. */
+    private static volatile SessionFactory sessionFactory;
+
+    /** Holds the router onto the read replicas of the hibernate config bean, or <tt>null</tt> if there are none. */
+    private static volatile ReplicaRouter replicaRouter;
+
+    /** Holds the replica session bound to the current thread, if one is open. */
+    private static final ThreadLocal<ReplicaRouter.ReadSession> readSession =
+        new ThreadLocal<ReplicaRouter.ReadSession>();
+
+    /** Holds a flag for the current thread, set when the primary session has been used in its unit of work. */
+    private static final ThreadLocal<Boolean> primaryUsed = new ThreadLocal<Boolean>();
 
     /**
      * Gets a hibernate session associated with the current thread, creating a new one if necessary.
@@ -43,28 +74,64 @@ public class HibernateUtil
      */
     public static Session getCurrentSession()
     {
-        // Ensure that this utility has been initialized with its hibernate config bean.
-        initialize();
+        SessionFactory factory = getSessionFactory();
+        markPrimaryUsed();
+
+        return factory.getCurrentSession();
+    }
+
+    /**
+     * Gets a hibernate session to read with, in a transaction. If there are read replicas, this is a read only session
+     * on a replica, bound to the current thread until its unit of work ends, unless read-your-writes is set and the
+     * primary session has already been used in the unit of work. Otherwise it is the session associated with the
+     * current thread.
+     *
+     * @return A hibernate session to read with.
+     */
+    public static Session getReadSession()
+    {
+        SessionFactory factory = getSessionFactory();
+        ReplicaRouter router = replicaRouter;
+
+        if ((router == null) || (router.isReadYourWrites() && (primaryUsed.get() != null)))
+        {
+            Session session = factory.getCurrentSession();
+
+            if (!session.getTransaction().isActive())
+            {
+                session.beginTransaction();
+            }
+
+            return session;
+        }
 
-        return hibernateBean.getSessionFactory().getCurrentSession();
+        ReplicaRouter.ReadSession read = readSession.get();
+
+        if (read == null)
+        {
+            read = router.openReadSession();
+            readSession.set(read);
+        }
+
+        return read.getSession();
     }
 
     /** Closes the session associated with the current thread and clears the association with the thread. */
     public static void closeSession()
     {
-        // Ensure that this utility has been initialized with its hibernate config bean.
-        initialize();
+        SessionFactory factory = getSessionFactory();
+        endUnitOfWork(false);
 
-        hibernateBean.getSessionFactory().getCurrentSession().close();
+        factory.getCurrentSession().close();
     }
 
     /** Associates a transaction with the current thread, creating a new one if necessary. */
     public static void beginTransaction()
     {
-        // Ensure that this utility has been initialized with its hibernate config bean.
-        initialize();
+        SessionFactory factory = getSessionFactory();
+        markPrimaryUsed();
 
-        hibernateBean.getSessionFactory().getCurrentSession().beginTransaction();
+        factory.getCurrentSession().beginTransaction();
     }
 
     /**
@@ -75,10 +142,12 @@ public class HibernateUtil
      */
     public static void commitTransaction()
     {
-        // Ensure that this utility has been initialized with its hibernate config bean.
-        initialize();
+        SessionFactory factory = getSessionFactory();
 
-        hibernateBean.getSessionFactory().getCurrentSession().getTransaction().commit();
+        if (endUnitOfWork(true))
+        {
+            factory.getCurrentSession().getTransaction().commit();
+        }
     }
 
     /**
@@ -87,34 +156,138 @@ public class HibernateUtil
      * current threads session.
      */
     public static void rollbackTransaction()
+    {
+        SessionFactory factory = getSessionFactory();
+
+        if (endUnitOfWork(false))
+        {
+            factory.getCurrentSession().getTransaction().rollback();
+        }
+    }
+
+    /**
+     * Gets the JDBC batch size that the session factory was configured with. Bulk writers should flush and clear their
+     * sessions at intervals of this many entities.
+     *
+     * @return The JDBC batch size.
+     */
+    public static int getJdbcBatchSize()
     {
         // Ensure that this utility has been initialized with its hibernate config bean.
-        initialize();
+        getSessionFactory();
 
-        hibernateBean.getSessionFactory().getCurrentSession().getTransaction().rollback();
+        return hibernateBean.getJdbcBatchSize();
     }
 
     /**
-     * Initialized this utility class by looking up its required hibernate config been with the configurator. The
-     * hibernate config bean must be set up or a runtime exception will be raised.
+     * Initializes this utility class from a hibernate config bean, taking references to its session factory and to the
+     * router onto its read replicas. This is done automatically with the bean set up in the configurator when first
+     * needed, but may be called to supply the sessions from a different bean, for example in tests.
+     *
+     * @param bean The hibernate config bean to supply the sessions.
      */
-    private static synchronized void initialize()
+    public static synchronized void initialize(HibernateConfigBean bean)
     {
-        // Check that initilaization has not already been done.
-        if (hibernateBean == null)
+        if (bean.getSessionFactory() == null)
+        {
+            throw new IllegalStateException("The hibernate config bean has no session factory.");
+        }
+
+        hibernateBean = bean;
+        replicaRouter = bean.getReplicaRouter();
+        sessionFactory = bean.getSessionFactory();
+    }
+
+    /**
+     * Marks the primary session as used in the unit of work of the current thread, when there are read replicas. Any
+     * replica session that the unit of work has open is ended, so that the entities read on it are detached from it.
+     */
+    private static void markPrimaryUsed()
+    {
+        if (replicaRouter != null)
+        {
+            primaryUsed.set(Boolean.TRUE);
+
+            ReplicaRouter.ReadSession read = readSession.get();
+
+            if (read != null)
+            {
+                readSession.remove();
+                read.end(true);
+            }
+        }
+    }
+
+    /**
+     * Ends the unit of work of the current thread, by ending its replica session if it has one, and clearing the mark
+     * on the primary session. The primary transaction is left to the caller to end, but only needs ending if the unit
+     * of work used the primary session, or did not use a replica session, as it always did before replicas were added.
+     *
+     * @param  commit <tt>true</tt> to commit the replica transaction, <tt>false</tt> to roll it back.
+     *
+     * @return <tt>true</tt> if the primary transaction should also be ended.
+     */
+    private static boolean endUnitOfWork(boolean commit)
+    {
+        ReplicaRouter.ReadSession read = readSession.get();
+        boolean usedPrimary = primaryUsed.get() != null;
+
+        readSession.remove();
+        primaryUsed.remove();
+
+        if (read != null)
+        {
+            read.end(commit);
+        }
+
+        return (read == null) || usedPrimary;
+    }
+
+    /**
+     * Provides the session factory of the hibernate config bean, looking it up if this has not already been done, or if
+     * the previously looked up session factory has since been closed.
+     *
+     * @return The session factory of the hibernate config bean.
+     */
+    private static SessionFactory getSessionFactory()
+    {
+        // Read the volatile field once, so that the checks and the result all refer to the same session factory.
+        SessionFactory result = sessionFactory;
+
+        if ((result == null) || result.isClosed())
+        {
+            result = initialize();
+        }
+
+        return result;
+    }
+
+    /**
+     * Initializes this utility class by looking up its required hibernate config bean with the configurator, and
+     * taking a reference to its session factory. The hibernate config bean must be set up or a runtime exception will
+     * be raised.
+     *
+     * @return The session factory of the hibernate config bean.
+     */
+    private static synchronized SessionFactory initialize()
+    {
+        // Check that initialization has not already been done by another thread, whilst waiting for the lock.
+        if ((sessionFactory == null) || sessionFactory.isClosed())
         {
             // Get the configurator and extract the required hibernate config bean from it.
             ConfigBeanContext configBeanContext = Configurator.lookupConfigurator();
 
             try
             {
-                hibernateBean =
-                    (HibernateConfigBean) configBeanContext.getConfiguredBean(HibernateConfigBean.class.getName());
+                initialize((HibernateConfigBean) configBeanContext.getConfiguredBean(
+                        HibernateConfigBean.class.getName()));
             }
             catch (ConfigException e)
             {
                 throw new IllegalStateException(e);
             }
         }
+
+        return sessionFactory;
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.hibernate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * ReplicaRouter routes reads onto a set of read replica session factories. Each read is given a replica, chosen
+ * either in turn, or as the replica with the fewest read sessions open on it. Sessions opened on replicas are read
+ * only, and never flushed.
+ *
+ * <p/>The router also holds the read-your-writes consistency option. When it is set, reads made after the primary
+ * session has been used within the same unit of work are made on the primary session instead, so that they see the
+ * writes made in it. Otherwise reads always go to the replicas, and may not see recent writes until they have been
+ * replicated.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Choose a replica to read from, in turn or by least load.
+ * <tr><td> Open read only sessions on replicas. <td> {@link SessionFactory}
+ * <tr><td> Track the number of read sessions open on each replica.
+ * <tr><td> Hold the read-your-writes consistency option.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ReplicaRouter
+{
+    /** Enumerates the ways of choosing a replica to read from. */
+    public enum Selection
+    {
+        /** Choose each replica in turn. */
+        RoundRobin,
+
+        /** Choose the replica with the fewest read sessions open on it. */
+        LeastLoaded
+    }
+
+    /** Holds the replica session factories. */
+    private final List<SessionFactory> replicas;
+
+    /** Holds the number of read sessions open on each replica. */
+    private final AtomicInteger[] load;
+
+    /** Holds the position of the next replica to choose in turn. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** Holds the way of choosing replicas. */
+    private final Selection selection;
+
+    /** Flag set when reads following use of the primary session in a unit of work are made on the primary. */
+    private final boolean readYourWrites;
+
+    /**
+     * Creates a router onto a set of replica session factories.
+     *
+     * @param replicas       The replica session factories, at least one must be given.
+     * @param selection      The way of choosing replicas.
+     * @param readYourWrites <tt>true</tt> if reads following use of the primary session in a unit of work are to be
+     *                       made on the primary.
+     */
+    public ReplicaRouter(List<SessionFactory> replicas, Selection selection, boolean readYourWrites)
+    {
+        if (replicas.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one replica session factory must be given.");
+        }
+
+        this.replicas = new ArrayList<SessionFactory>(replicas);
+        this.selection = selection;
+        this.readYourWrites = readYourWrites;
+
+        load = new AtomicInteger[replicas.size()];
+
+        for (int i = 0; i < load.length; i++)
+        {
+            load[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Reports whether reads following use of the primary session in a unit of work are made on the primary.
+     *
+     * @return <tt>true</tt> if reads following use of the primary session in a unit of work are made on the primary.
+     */
+    public boolean isReadYourWrites()
+    {
+        return readYourWrites;
+    }
+
+    /**
+     * Provides the replica session factories.
+     *
+     * @return The replica session factories.
+     */
+    public List<SessionFactory> getReplicas()
+    {
+        return replicas;
+    }
+
+    /**
+     * Provides the number of read sessions currently open on a replica.
+     *
+     * @param  replica The position of the replica amongst the replicas.
+     *
+     * @return The number of read sessions currently open on the replica.
+     */
+    public int getLoad(int replica)
+    {
+        return load[replica].get();
+    }
+
+    /**
+     * Opens a read only session, in a transaction, on a chosen replica.
+     *
+     * @return A read session on a chosen replica.
+     */
+    ReadSession openReadSession()
+    {
+        int replica = select();
+        load[replica].incrementAndGet();
+
+        Session session = null;
+
+        try
+        {
+            session = replicas.get(replica).openSession();
+            session.setDefaultReadOnly(true);
+            session.setFlushMode(FlushMode.MANUAL);
+
+            return new ReadSession(replica, session, session.beginTransaction());
+        }
+        catch (RuntimeException e)
+        {
+            if (session != null)
+            {
+                session.close();
+            }
+
+            load[replica].decrementAndGet();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Chooses the replica to read from.
+     *
+     * @return The position of the replica to read from.
+     */
+    int select()
+    {
+        // The count may wrap around to negative, so take it modulo the number of replicas as an unsigned value.
+        int start = (int) ((next.getAndIncrement() & 0xffffffffL) % replicas.size());
+
+        if (selection == Selection.RoundRobin)
+        {
+            return start;
+        }
+
+        // Scan from the next replica in turn, so that ties between equally loaded replicas are spread around them.
+        int best = start;
+
+        for (int i = 1; i < load.length; i++)
+        {
+            int candidate = (start + i) % load.length;
+
+            if (load[candidate].get() < load[best].get())
+            {
+                best = candidate;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * ReadSession holds a read only session open on a replica, together with its transaction, until the unit of work
+     * it is used in ends.
+     */
+    class ReadSession
+    {
+        /** Holds the position of the replica the session is open on. */
+        private final int replica;
+
+        /** Holds the session. */
+        private final Session session;
+
+        /** Holds the transaction of the session. */
+        private final Transaction transaction;
+
+        /**
+         * Creates a read session.
+         *
+         * @param replica     The position of the replica the session is open on.
+         * @param session     The session.
+         * @param transaction The transaction of the session.
+         */
+        ReadSession(int replica, Session session, Transaction transaction)
+        {
+            this.replica = replica;
+            this.session = session;
+            this.transaction = transaction;
+        }
+
+        /**
+         * Provides the session.
+         *
+         * @return The session.
+         */
+        Session getSession()
+        {
+            return session;
+        }
+
+        /**
+         * Ends the transaction of the session and closes it.
+         *
+         * @param commit <tt>true</tt> to commit the transaction, <tt>false</tt> to roll it back.
+         */
+        void end(boolean commit)
+        {
+            try
+            {
+                if (commit)
+                {
+                    transaction.commit();
+                }
+                else
+                {
+                    transaction.rollback();
+                }
+            }
+            finally
+            {
+                session.close();
+                load[replica].decrementAndGet();
+            }
+        }
+    }
+}
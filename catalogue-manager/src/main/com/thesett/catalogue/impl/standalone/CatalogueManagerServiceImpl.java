@@ -15,26 +15,48 @@
  */
 package com.thesett.catalogue.impl.standalone;
 
+import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Logger;
+import org.hibernate.Cache;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Expression;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.CollectionMetadata;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.transform.ResultTransformer;
+import org.hibernate.transform.Transformers;
 
 import com.thesett.aima.attribute.impl.HierarchyAttribute;
 import com.thesett.aima.attribute.impl.HierarchyAttributeFactory;
@@ -44,6 +66,8 @@ import com.thesett.aima.state.ComponentType;
 import com.thesett.aima.state.Type;
 import com.thesett.catalogue.config.CatalogueConfigBean;
 import com.thesett.catalogue.config.CatalogueConfigBeanImpl;
+import com.thesett.catalogue.config.IndexWarmUp;
+import com.thesett.catalogue.config.IndexWriteBehind;
 import com.thesett.catalogue.core.CatalogueManipulatorBase;
 import com.thesett.catalogue.hibernate.HibernateUtil;
 import com.thesett.catalogue.model.Catalogue;
@@ -66,12 +90,41 @@ import com.thesett.common.config.Configurator;
 import com.thesett.common.util.ReflectionUtils;
 import com.thesett.common.util.StringUtils;
 import com.thesett.index.Index;
+import com.thesett.index.IndexStore;
 import com.thesett.index.IndexUnknownKeyException;
 
 /**
  * CatalogueManagerServiceImpl provides a standalone implementation of the {@link CatalogueManagerService} that does not
  * run under an application server and handles its own transactions.
  *
+ * <p/>Changes to entities are applied to the free text search indexes within the transactions making them, unless
+ * index write-behind is enabled, in which case they are handed to an {@link IndexWriteBehind} to be applied in the
+ * background once the transactions commit.
+ *
+ * <p/>When the index store is a replication follower, its indexes refuse local changes and are only filled by
+ * replication from the leader, so changes to entities are stored in the database without being indexed here, and
+ * the indexes are not rebuilt here. Changes must be made through a service running against the leader for them to be
+ * indexed, and so seen by free text searches on the followers.
+ *
+ * <p/>Browsing across all entity types that match a query may be done in parallel, by setting the parallel browse mode.
+ * The query on each entity type is then run concurrently on a bounded pool of threads, each in its own thread bound
+ * session, so that the time taken follows the slowest entity type rather than the sum of them all. The pool is sized
+ * and shut down by the catalogue config bean, and shared by all instances of the service. When the pool is busy, the
+ * remaining entity types are queried on the calling thread. This mode requires sessions to be bound to threads, as
+ * they are when running standalone.
+ *
+ * <p/>Entities of types that are marked as cached in the catalogue model are held in the hibernate second level cache,
+ * when it is enabled, which is read through by retrieval by id, by external id, and by the multi-get retrieval of
+ * entities. Hibernate only updates or invalidates the cached entities when the transactions changing them complete,
+ * and never shares its session bound instances between sessions.
+ *
+ * <p/>Read only operations, browsing, paged queries and the retrieval of views and hierarchies, take their sessions
+ * from {@link HibernateUtil#getReadSession()}, so that they are routed onto read replicas when the hibernate
+ * configuration sets any up. All writes are made on the primary. Entities retrieved by id or by external id are read
+ * on the primary too, as callers may modify them and write them back, which needs them to be current and attached to
+ * the primary session. With read-your-writes consistency, reads made after a write in the same unit of work are made
+ * on the primary too.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Perform CRUD operations on dimension elements.
@@ -79,6 +132,7 @@ import com.thesett.index.IndexUnknownKeyException;
  * <tr><td> Perform free text catalogue searches.
  * <tr><td> Perform element searches by name.
  * <tr><td> Generate long-lived external ids.
+ * <tr><td> Route reads onto read replicas. <td> {@link HibernateUtil}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -92,6 +146,43 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
     /** Temporary hard coding of the block size for query result lists. */
     protected static final int BLOCK_SIZE = 20;
 
+    /** Defines the maximum number of ids to look up in a single query, when fetching many entities by id. */
+    private static final int RETRIEVE_CHUNK_SIZE = 500;
+
+    /** Defines the maximum number of entities to delete or update in each statement, when doing so by criteria. */
+    static final int BULK_CHUNK_SIZE = 1000;
+
+    /** Defines the maximum number of paged query result counts to cache. */
+    private static final int QUERY_COUNT_CACHE_SIZE = 1000;
+
+    /** Defines the time to hold paged query result counts for, in milliseconds. */
+    private static final long QUERY_COUNT_TIME_TO_LIVE = 60000L;
+
+    /** Holds the cached result counts of paged queries, shared by all instances of the service. */
+    private static final QueryCountCache queryCounts =
+        new QueryCountCache(QUERY_COUNT_CACHE_SIZE, QUERY_COUNT_TIME_TO_LIVE);
+
+    /** Defines the maximum number of external id resolutions to cache. */
+    private static final int EXTERNAL_ID_CACHE_SIZE = 10000;
+
+    /** Holds the cached resolutions of external ids onto entities, shared by all instances of the service. */
+    static final ExternalIdCache externalIds = new ExternalIdCache(EXTERNAL_ID_CACHE_SIZE);
+
+    /** Holds the background re-indexing of the catalogue, if one was started during configuration. */
+    private IndexWarmUp indexWarmUp;
+
+    /** Holds the background indexing of changes to entities, if index write-behind is enabled. */
+    private IndexWriteBehind indexWriteBehind;
+
+    /** Flag used to indicate that browsing across entity types should query them in parallel. */
+    private boolean parallelBrowse;
+
+    /** Holds the pool of threads to browse entity types on in parallel, if there is one. */
+    private ExecutorService browseExecutor;
+
+    /** Holds the policy for prefetching the blocks of browse results in the background. */
+    private SummaryList.PrefetchPolicy browsePrefetchPolicy = SummaryList.PrefetchPolicy.None;
+
     /** Creates a standalone instance of the {@link CatalogueManagerService}. */
     public CatalogueManagerServiceImpl()
     {
@@ -104,6 +195,19 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
             CatalogueConfigBean catalogueBean =
                 (CatalogueConfigBean) configBeanContext.getConfiguredBean(CatalogueConfigBeanImpl.class.getName());
             setCatalogue(catalogueBean.getCatalogue());
+            setIndexStore(catalogueBean.getIndexStore());
+
+            // Keep the warm-up, if one was started, so that the completeness of the indexes can be checked.
+            indexWarmUp = catalogueBean.getIndexWarmUp();
+
+            // Index changes to entities in the background, after they commit, if write-behind is enabled.
+            indexWriteBehind = catalogueBean.getIndexWriteBehind();
+
+            // Leave the indexes of a replication follower to be filled from the leader.
+            setIndexFollower(catalogueBean.isIndexFollower());
+
+            // Share the pool of browse threads of the catalogue, which shuts it down with the catalogue.
+            browseExecutor = catalogueBean.getBrowseExecutor();
         }
         catch (ConfigException e)
         {
@@ -111,6 +215,93 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         }
     }
 
+    /**
+     * Creates a standalone instance of the {@link CatalogueManagerService} over the specified catalogue and index
+     * store, without looking them up with the configurator. Changes are indexed as they are made, without warm-up or
+     * write-behind.
+     *
+     * @param catalogue  The catalogue to manage the entities of.
+     * @param indexStore The index store holding the catalogue indexes.
+     */
+    CatalogueManagerServiceImpl(Catalogue catalogue, IndexStore indexStore)
+    {
+        setCatalogue(catalogue);
+        setIndexStore(indexStore);
+    }
+
+    /**
+     * Sets whether browsing across entity types should query them in parallel. This has no effect unless there is a
+     * pool of browse threads to query them on.
+     *
+     * @param parallelBrowse <tt>true</tt> to query entity types in parallel when browsing across them.
+     */
+    public void setParallelBrowse(boolean parallelBrowse)
+    {
+        this.parallelBrowse = parallelBrowse;
+    }
+
+    /**
+     * Checks whether browsing across entity types queries them in parallel.
+     *
+     * @return <tt>true</tt> if entity types are queried in parallel when browsing across them.
+     */
+    public boolean isParallelBrowse()
+    {
+        return parallelBrowse;
+    }
+
+    /**
+     * Sets the pool of threads to browse entity types on in parallel. The pool belongs to the caller, which must shut
+     * it down. Entity types that the pool rejects, because its queue is full or it has been shut down, are browsed on
+     * the calling thread instead.
+     *
+     * @param browseExecutor The pool of threads to browse entity types on, or <tt>null</tt> to browse them serially.
+     */
+    public void setBrowseExecutor(ExecutorService browseExecutor)
+    {
+        this.browseExecutor = browseExecutor;
+    }
+
+    /**
+     * Sets the policy for prefetching the blocks of browse results in the background. Prefetching runs in sessions of
+     * its own, so requires a thread bound session context.
+     *
+     * @param browsePrefetchPolicy The policy for prefetching the blocks of browse results.
+     */
+    public void setBrowsePrefetchPolicy(SummaryList.PrefetchPolicy browsePrefetchPolicy)
+    {
+        this.browsePrefetchPolicy = browsePrefetchPolicy;
+    }
+
+    /**
+     * Gets the policy for prefetching the blocks of browse results in the background.
+     *
+     * @return The policy for prefetching the blocks of browse results.
+     */
+    public SummaryList.PrefetchPolicy getBrowsePrefetchPolicy()
+    {
+        return browsePrefetchPolicy;
+    }
+
+    /**
+     * Takes the hit, miss and put counts of the second level cache region that an entity type is cached in.
+     *
+     * @param  entityType The entity type to take the cache counts of.
+     *
+     * @return The cache counts of the entity type, or <tt>null</tt> if it is not cached.
+     */
+    public EntityCacheStatistics getCacheStatistics(EntityType entityType)
+    {
+        if (!entityType.isCached())
+        {
+            return null;
+        }
+
+        SessionFactory sessionFactory = HibernateUtil.getCurrentSession().getSessionFactory();
+
+        return EntityCacheStatistics.forEntity(sessionFactory, entityType.getName() + Catalogue.ONLINE_TABLE_EXT);
+    }
+
     /** {@inheritDoc} */
     public void createHierarchyInstance(HierarchyInstance hierarchy)
     {
@@ -156,8 +347,7 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         String databaseEntityName =
             getCatalogue().getModelPackage() + "." + StringUtils.toCamelCaseUpper(hierarchyTypeName);
 
-        Session session = HibernateUtil.getCurrentSession();
-        HibernateUtil.beginTransaction();
+        Session session = HibernateUtil.getReadSession();
 
         Criteria selectCriteria = session.createCriteria(databaseEntityName);
 
@@ -184,6 +374,10 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
 
         selectCriteria.add(subCriterion);
 
+        // Cache the query results in a region per hierarchy type. Hibernate invalidates cached query results whenever
+        // the hierarchy table is written through it, so creating or deleting hierarchy instances is safe.
+        selectCriteria.setCacheable(true).setCacheRegion(hierarchyTypeName + "_hierarchy_query");
+
         return selectCriteria.list();
     }
 
@@ -197,40 +391,86 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         HibernateUtil.beginTransaction();
 
         // Set up its external id if it requires one.
-        if (element.getComponentType().isExternalId())
-        {
-            if (((ExternallyIdentified) element).getExternalId() == null)
-            {
-                // Store the dimension name as the external ids resource type.
-                String resourceName = element.getComponentType().getName();
-
-                // Create a new external id with a null primary key as hibernate will generate that.
-                ExternalId externalId = new ExternalId(null, resourceName);
-
-                // Set up the new external if on the dimension element and save it.
-                ((ExternallyIdentified) element).setExternalId(externalId);
-                session.save(externalId);
-            }
-        }
+        allocateExternalId(session, element);
 
         // Store the new dimension element in the normalized online database.
         session.save(element.getComponentType().getName() + Catalogue.ONLINE_TABLE_EXT, element);
 
+        // Paged query counts may have changed, so drop them now and again once the transaction completes.
+        queryCounts.clearOnCompletion(session.getTransaction());
+
         // Check if it needs indexing and index it if so.
-        List<String> indexes = getCatalogue().getIndexesForDimension(element.getComponentType().getName());
+        List<String> indexes = getMaintainedIndexes(element.getComponentType().getName());
 
-        if (indexes != null)
+        if ((indexes != null) && (indexWriteBehind != null))
+        {
+            recordWarmUpChange(((ExternallyIdentified) element).getExternalId());
+            indexWriteBehind.add(session, indexes, ((ExternallyIdentified) element).getExternalId(), element);
+        }
+        else if (indexes != null)
         {
             for (String index : indexes)
             {
-                addToIndex(index, ((ExternallyIdentified) element).getExternalId(), element);
+                indexAdded(index, Collections.singletonList(element));
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void createEntityInstances(Collection<EntityInstance> elements)
+    {
+        log.debug("public void createEntityInstances(Collection<EntityInstance> elements): called");
+
+        Session session = HibernateUtil.getCurrentSession();
+        HibernateUtil.beginTransaction();
+
+        // Store the new entities, flushing them to the database in JDBC batches, and evicting them from the session as
+        // each batch is written, so that the session does not grow with the number of entities.
+        int batchSize = HibernateUtil.getJdbcBatchSize();
+        List<EntityInstance> batch = new ArrayList<EntityInstance>(batchSize);
+        List<ExternalId> allocated = new ArrayList<ExternalId>(batchSize);
+
+        for (EntityInstance element : elements)
+        {
+            ExternalId externalId = allocateExternalId(session, element);
+            session.save(element.getComponentType().getName() + Catalogue.ONLINE_TABLE_EXT, element);
+
+            // Record the entity for indexing in the background whilst it is still in the session.
+            if (indexWriteBehind != null)
+            {
+                List<String> indexes = getMaintainedIndexes(element.getComponentType().getName());
+
+                if (indexes != null)
+                {
+                    recordWarmUpChange(((ExternallyIdentified) element).getExternalId());
+                    indexWriteBehind.add(session, indexes, ((ExternallyIdentified) element).getExternalId(),
+                        element);
+                }
+            }
+
+            batch.add(element);
+
+            if (externalId != null)
+            {
+                allocated.add(externalId);
+            }
+
+            if (batch.size() == batchSize)
+            {
+                flushBatch(session, batch, allocated, true);
             }
         }
+
+        flushBatch(session, batch, allocated, true);
+
+        // Paged query counts may have changed, so drop them now and again once the transaction completes.
+        queryCounts.clearOnCompletion(session.getTransaction());
     }
 
     /** {@inheritDoc} */
     public EntityInstance retrieveEntityInstance(EntityType entityType, InternalId id)
     {
+        // The entity may be modified and written back, so it is read on the primary.
         Session session = HibernateUtil.getCurrentSession();
         HibernateUtil.beginTransaction();
 
@@ -238,7 +478,94 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         InternalIdImpl idImpl = (InternalIdImpl) id;
 
         // Look the dimension element up in the normalized online database by its id.
-        return (EntityInstance) session.get(entityType.getName() + Catalogue.ONLINE_TABLE_EXT, idImpl.getValue());
+        return getEntity(session, entityType, idImpl.getValue());
+    }
+
+    /** {@inheritDoc} */
+    public List<EntityInstance> retrieveEntityInstances(EntityType entityType, List<InternalId> ids)
+    {
+        // The entities may be modified and written back, so they are read on the primary.
+        Session session = HibernateUtil.getCurrentSession();
+        HibernateUtil.beginTransaction();
+
+        String databaseEntityName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
+        Map<InternalId, EntityInstance> found = new HashMap<InternalId, EntityInstance>();
+
+        // Take any entities that are in the second level cache from it, and only query for the rest, as queries by
+        // criteria do not read through the cache.
+        List<InternalId> idsToLoad = ids;
+
+        if (entityType.isCached())
+        {
+            Cache cache = session.getSessionFactory().getCache();
+            idsToLoad = new ArrayList<InternalId>(ids.size());
+
+            for (InternalId id : ids)
+            {
+                Long value = (id != null) ? ((InternalIdImpl) id).getValue() : null;
+
+                if ((value != null) && cache.containsEntity(databaseEntityName, value))
+                {
+                    found.put(id, (EntityInstance) session.get(databaseEntityName, value));
+                }
+                else
+                {
+                    idsToLoad.add(id);
+                }
+            }
+        }
+
+        // Look up the remaining ids in chunks, with one query per chunk restricting the entities to the ids in it.
+        for (List<Long> chunk : chunkIds(idsToLoad))
+        {
+            Criteria criteria = session.createCriteria(databaseEntityName).add(Restrictions.in("id", chunk));
+
+            for (EntityInstance entity : (List<EntityInstance>) criteria.list())
+            {
+                found.put(entity.getOpaqueId(), entity);
+            }
+        }
+
+        return orderByIds(ids, found);
+    }
+
+    /** {@inheritDoc} */
+    public List<ViewInstance> retrieveViewInstances(EntityType entityType, List<InternalId> ids, String viewTypeName)
+    {
+        Session session = HibernateUtil.getReadSession();
+
+        // Ensure that a view type has been specified, that the entity type conforms to.
+        if (viewTypeName == null)
+        {
+            throw new IllegalArgumentException("The 'viewTypeName' parameter must not be null.");
+        }
+
+        ViewType viewType = getCatalogue().getViewType(viewTypeName);
+
+        if (!entityType.getImmediateAncestors().contains(viewType))
+        {
+            throw new IllegalArgumentException("The entity type " + entityType.getName() +
+                " does not conform to the view type " + viewTypeName + ".");
+        }
+
+        String databaseEntityName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
+        Map<InternalId, ViewInstance> found = new HashMap<InternalId, ViewInstance>();
+
+        // Look up the ids in chunks, with one query per chunk projecting just the fields of the view.
+        for (List<Long> chunk : chunkIds(ids))
+        {
+            Criteria criteria = session.createCriteria(databaseEntityName).add(Restrictions.in("id", chunk));
+
+            criteria.setProjection(createViewProjection(viewType)).setResultTransformer(new ViewInstanceTransformer(
+                    viewType, entityType.getName()));
+
+            for (ViewInstance view : (List<ViewInstance>) criteria.list())
+            {
+                found.put(((EntityViewInstanceBase) view).getOpaqueId(), view);
+            }
+        }
+
+        return orderByIds(ids, found);
     }
 
     /** {@inheritDoc} */
@@ -253,16 +580,24 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         // Store the new dimension element in the normalized online database.
         session.saveOrUpdate(element.getComponentType().getName() + Catalogue.ONLINE_TABLE_EXT, element);
 
+        // Paged query counts may have changed, so drop them now and again once the transaction completes.
+        queryCounts.clearOnCompletion(session.getTransaction());
+
         // Check if it needs indexing and index it if so.
-        List<String> indexes = getCatalogue().getIndexesForDimension(element.getComponentType().getName());
+        List<String> indexes = getMaintainedIndexes(element.getComponentType().getName());
 
-        if (indexes != null)
+        if ((indexes != null) && (indexWriteBehind != null))
+        {
+            recordWarmUpChange(((ExternallyIdentified) element).getExternalId());
+            indexWriteBehind.update(session, indexes, ((ExternallyIdentified) element).getExternalId(), element);
+        }
+        else if (indexes != null)
         {
             try
             {
                 for (String index : indexes)
                 {
-                    updateIndex(index, ((ExternallyIdentified) element).getExternalId(), element);
+                    indexUpdated(index, Collections.singletonList(element));
                 }
             }
             catch (IndexUnknownKeyException e)
@@ -272,6 +607,51 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         }
     }
 
+    /** {@inheritDoc} */
+    public void updateEntityInstances(Collection<EntityInstance> elements)
+    {
+        log.debug("public void updateEntityInstances(Collection<EntityInstance> elements): called");
+
+        Session session = HibernateUtil.getCurrentSession();
+        HibernateUtil.beginTransaction();
+
+        // Store the new entity values, flushing them to the database in JDBC batches, and evicting them from the
+        // session as each batch is written, so that the session does not grow with the number of entities.
+        int batchSize = HibernateUtil.getJdbcBatchSize();
+        List<EntityInstance> batch = new ArrayList<EntityInstance>(batchSize);
+        List<ExternalId> allocated = new ArrayList<ExternalId>(0);
+
+        for (EntityInstance element : elements)
+        {
+            session.saveOrUpdate(element.getComponentType().getName() + Catalogue.ONLINE_TABLE_EXT, element);
+
+            // Record the entity for indexing in the background whilst it is still in the session.
+            if (indexWriteBehind != null)
+            {
+                List<String> indexes = getMaintainedIndexes(element.getComponentType().getName());
+
+                if (indexes != null)
+                {
+                    recordWarmUpChange(((ExternallyIdentified) element).getExternalId());
+                    indexWriteBehind.update(session, indexes, ((ExternallyIdentified) element).getExternalId(),
+                        element);
+                }
+            }
+
+            batch.add(element);
+
+            if (batch.size() == batchSize)
+            {
+                flushBatch(session, batch, allocated, false);
+            }
+        }
+
+        flushBatch(session, batch, allocated, false);
+
+        // Paged query counts may have changed, so drop them now and again once the transaction completes.
+        queryCounts.clearOnCompletion(session.getTransaction());
+    }
+
     /** {@inheritDoc} */
     public void deleteEntityInstance(EntityType dimension, InternalId id)
     {
@@ -288,16 +668,29 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
             (EntityInstance) session.get(dimension.getName() + Catalogue.ONLINE_TABLE_EXT, idImpl.getValue());
         session.delete(result);
 
+        // Paged query counts may have changed, and the external id of the entity no longer resolves onto it.
+        queryCounts.clearOnCompletion(session.getTransaction());
+
+        if ((result instanceof ExternallyIdentified) && (((ExternallyIdentified) result).getExternalId() != null))
+        {
+            externalIds.remove(((ExternallyIdentified) result).getExternalId().getId());
+        }
+
         // Check if it needs indexing and index it if so.
-        List<String> indexes = getCatalogue().getIndexesForDimension(dimension.getName());
+        List<String> indexes = getMaintainedIndexes(dimension.getName());
 
-        if (indexes != null)
+        if ((indexes != null) && (indexWriteBehind != null))
+        {
+            recordWarmUpChange(((ExternallyIdentified) result).getExternalId());
+            indexWriteBehind.remove(session, indexes, ((ExternallyIdentified) result).getExternalId());
+        }
+        else if (indexes != null)
         {
             try
             {
                 for (String index : indexes)
                 {
-                    removeFromIndex(index, ((ExternallyIdentified) result).getExternalId());
+                    indexRemoved(index, ((ExternallyIdentified) result).getExternalId());
                 }
             }
             catch (IndexUnknownKeyException e)
@@ -307,98 +700,284 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         }
     }
 
-    /** {@inheritDoc} */
-    public Map<EntityType, List<ViewInstance>> browse(Map<String, Attribute> matchings, String viewTypeName)
+    /**
+     * Permanently deletes all entities of a type that match a set of named attributes. The matching entities are
+     * deleted a chunk at a time by bulk delete statements, without loading them, and their external ids removed from
+     * any indexes that they belong in as each chunk is deleted. Any changes pending in the session are written out, and
+     * the session cleared, before the entities are deleted.
+     *
+     * <p/>Bulk deletes do not cascade, so the rows that each chunk of entities owns in collection tables, the tables of
+     * their collections of values and the join tables of their many-to-many relationships, are deleted first. Entities
+     * that they refer to, and the other sides of relationships owned by other entities, are left alone.
+     *
+     * @param  entityType The type of entity to delete.
+     * @param  matchings  The attributes to match.
+     *
+     * @return The number of entities deleted.
+     */
+    public int deleteEntityInstances(EntityType entityType, Map<String, Attribute> matchings)
     {
-        log.debug(
-            "public Map<EntityType, List<ViewInstance>> browse(Map<String, Attribute> groupings, ViewType view): called");
-
-        // Ensure that a view type has been specified.
-        if (viewTypeName == null)
-        {
-            throw new IllegalArgumentException("The 'view' parameter must not be null.");
-        }
+        log.debug("public int deleteEntityInstances(EntityType entityType, Map<String, Attribute> matchings): called");
 
+        Session session = HibernateUtil.getCurrentSession();
         HibernateUtil.beginTransaction();
 
-        ViewType viewType = getCatalogue().getViewType(viewTypeName);
+        // Check that the specified entity type contains attributes of the correct type to match the query.
+        checkMatchings(entityType, matchings);
 
-        // Get all entities in the catalogue and then filter down to just those that match the specified set of field
-        // names and types, and conform to the specified view type.
-        Collection<EntityType> allEntities = getCatalogue().getAllEntityTypes();
-        Collection<EntityType> entitiesMatchingFields = filterEntitiesMatchingFields(allEntities, matchings);
-        Collection<EntityType> entitiesMatchingViews = filterEntitiesMatchingViews(entitiesMatchingFields, viewType);
+        String databaseEntityName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
+        Map<String, Criterion> joins = getByAttributeCriterions(matchings);
+        List<String> indexes = getMaintainedIndexes(entityType.getName());
 
-        // Run a query against each matching entity type to build up the results.
-        Map<EntityType, List<ViewInstance>> results = new HashMap<EntityType, List<ViewInstance>>();
+        Query delete = session.createQuery("delete from " + databaseEntityName + " e where e.id in (:ids)");
+        List<Query> collectionDeletes = createCollectionDeletes(session, databaseEntityName);
 
-        for (EntityType nextEntityType : entitiesMatchingViews)
+        session.flush();
+        session.clear();
+
+        // Delete the matching entities a chunk at a time, seeking to each chunk by the last id of the one before it.
+        int count = 0;
+        Long afterId = null;
+
+        while (true)
         {
-            List<ViewInstance> nextResult = browse(nextEntityType, matchings, viewTypeName);
+            List<ExternalId> chunkExternalIds = new ArrayList<ExternalId>(BULK_CHUNK_SIZE);
+            List<Long> chunk = selectBulkChunk(session, entityType, joins, afterId, chunkExternalIds);
 
-            // Check that it actually contains some matches before adding it to the results.
-            if (!nextResult.isEmpty())
+            if (chunk.isEmpty())
             {
-                results.put(nextEntityType, nextResult);
-                log.debug("Got results for dimension: " + nextEntityType + ".");
+                break;
             }
-        }
 
-        return results;
-    }
+            for (Query collectionDelete : collectionDeletes)
+            {
+                collectionDelete.setParameterList("ids", chunk).executeUpdate();
+            }
 
-    /** {@inheritDoc} */
-    public List<ViewInstance> browse(EntityType entityType, Map<String, Attribute> matchings, String viewTypeName)
-    {
-        HibernateUtil.beginTransaction();
+            count += delete.setParameterList("ids", chunk).executeUpdate();
+            afterId = chunk.get(chunk.size() - 1);
 
-        // Ensure that a view type has been specified.
-        if (viewTypeName == null)
-        {
-            throw new IllegalArgumentException("The 'viewTypeName' parameter must not be null.");
+            // The external ids of the deleted entities no longer resolve onto them.
+            for (ExternalId externalId : chunkExternalIds)
+            {
+                externalIds.remove(externalId.getId());
+            }
+
+            // Remove the deleted entities from any indexes that they belong in.
+            if ((indexes != null) && (indexWriteBehind != null))
+            {
+                for (ExternalId externalId : chunkExternalIds)
+                {
+                    recordWarmUpChange(externalId);
+                    indexWriteBehind.remove(session, indexes, externalId);
+                }
+            }
+            else if (indexes != null)
+            {
+                try
+                {
+                    for (String index : indexes)
+                    {
+                        for (ExternalId externalId : chunkExternalIds)
+                        {
+                            indexRemoved(index, externalId);
+                        }
+                    }
+                }
+                catch (IndexUnknownKeyException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
         }
 
-        ViewType viewType = getCatalogue().getViewType(viewTypeName);
+        // Paged query counts may have changed, so drop them now and again once the transaction completes.
+        queryCounts.clearOnCompletion(session.getTransaction());
 
-        // Get the name of the entity table to fetch the matching entity from.
-        String entityTableName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
-        String entityTypeName = entityType.getName();
+        return count;
+    }
 
-        // Check that the specified entity type contains attributes of the correct type to match the query.
-        for (String propName : matchings.keySet())
+    /**
+     * Overwrites fields of all entities of a type that match a set of named attributes. The matching entities are
+     * updated a chunk at a time by bulk update statements, without loading them. If the entities belong in any
+     * indexes, each chunk is loaded once it has been updated, to update the indexes with, and then cleared from the
+     * session again. Any changes pending in the session are written out, and the session cleared, before the entities
+     * are updated.
+     *
+     * @param  entityType The type of entity to update.
+     * @param  matchings  The attributes to match.
+     * @param  values     The new values of the fields to overwrite, by field name.
+     *
+     * @return The number of entities updated.
+     */
+    public int updateEntityInstances(EntityType entityType, Map<String, Attribute> matchings,
+        Map<String, Object> values)
+    {
+        log.debug("public int updateEntityInstances(EntityType entityType, Map<String, Attribute> matchings, " +
+            "Map<String, Object> values): called");
+
+        Session session = HibernateUtil.getCurrentSession();
+        HibernateUtil.beginTransaction();
+
+        // Check that the specified entity type contains attributes of the correct type to match the query, and fields
+        // of the correct types to hold the new values.
+        checkMatchings(entityType, matchings);
+        checkValues(entityType, values);
+
+        String databaseEntityName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
+        Map<String, Criterion> joins = getByAttributeCriterions(matchings);
+        List<String> indexes = getMaintainedIndexes(entityType.getName());
+
+        // Build the update statement, setting each field from a numbered parameter.
+        StringBuilder hql = new StringBuilder("update " + databaseEntityName + " e set ");
+        List<Object> parameters = new ArrayList<Object>(values.values());
+        int parameter = 0;
+
+        for (String fieldName : values.keySet())
         {
-            // Get the type name of the attribute in the parameter.
-            Attribute attribute = matchings.get(propName);
-            String attributeTypeName = attribute.getType().getName();
+            hql.append((parameter == 0) ? "" : ", ").append("e.").append(fieldName).append(" = :value")
+                .append(parameter++);
+        }
 
-            // Get the type name of the field in the entity.
-            Type type = entityType.getPropertyType(propName);
+        hql.append(" where e.id in (:ids)");
 
-            if (type != null)
+        Query update = session.createQuery(hql.toString());
+
+        for (int i = 0; i < parameters.size(); i++)
+        {
+            update.setParameter("value" + i, parameters.get(i));
+        }
+
+        session.flush();
+        session.clear();
+
+        // Update the matching entities a chunk at a time, seeking to each chunk by the last id of the one before it.
+        int count = 0;
+        Long afterId = null;
+
+        while (true)
+        {
+            List<Long> chunk = selectBulkChunk(session, entityType, joins, afterId, null);
+
+            if (chunk.isEmpty())
             {
-                String fieldTypeName = type.getName();
+                break;
+            }
 
-                // Check that they are compatible.
-                if (!attributeTypeName.equals(fieldTypeName))
+            count += update.setParameterList("ids", chunk).executeUpdate();
+            afterId = chunk.get(chunk.size() - 1);
+
+            // Update the entities in any indexes that they belong in, from their new values.
+            if (indexes != null)
+            {
+                List<EntityInstance> elements =
+                    session.createCriteria(databaseEntityName).add(Restrictions.in("id", chunk)).list();
+
+                if (indexWriteBehind != null)
                 {
-                    throw new IllegalArgumentException("The type of query parameter " + propName + " is " +
-                        attributeTypeName + " which is not compatibale with the field of type " + fieldTypeName +
-                        " on entity type " + entityType.getName());
+                    for (EntityInstance element : elements)
+                    {
+                        recordWarmUpChange(((ExternallyIdentified) element).getExternalId());
+                        indexWriteBehind.update(session, indexes, ((ExternallyIdentified) element).getExternalId(),
+                            element);
+                    }
+                }
+                else
+                {
+                    try
+                    {
+                        for (String index : indexes)
+                        {
+                            indexUpdated(index, elements);
+                        }
+                    }
+                    catch (IndexUnknownKeyException e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                for (EntityInstance element : elements)
+                {
+                    session.evict(element);
                 }
             }
-            else
-            {
-                throw new IllegalArgumentException("The query parameter " + propName +
-                    " does not match any field name of entity type " + entityType.getName());
-            }
         }
 
+        // Paged query counts may have changed, so drop them now and again once the transaction completes.
+        queryCounts.clearOnCompletion(session.getTransaction());
+
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public Map<EntityType, List<ViewInstance>> browse(Map<String, Attribute> matchings, String viewTypeName)
+    {
+        log.debug(
+            "public Map<EntityType, List<ViewInstance>> browse(Map<String, Attribute> groupings, ViewType view): called");
+
+        // Ensure that a view type has been specified.
+        if (viewTypeName == null)
+        {
+            throw new IllegalArgumentException("The 'view' parameter must not be null.");
+        }
+
+        // Start the unit of work on a read session, on a replica if there are any.
+        HibernateUtil.getReadSession();
+
+        ViewType viewType = getCatalogue().getViewType(viewTypeName);
+
+        // Get all entities in the catalogue and then filter down to just those that match the specified set of field
+        // names and types, and conform to the specified view type.
+        Collection<EntityType> allEntities = getCatalogue().getAllEntityTypes();
+        Collection<EntityType> entitiesMatchingFields = filterEntitiesMatchingFields(allEntities, matchings);
+        Collection<EntityType> entitiesMatchingViews = filterEntitiesMatchingViews(entitiesMatchingFields, viewType);
+
+        // Run a query against each matching entity type to build up the results.
+        if (parallelBrowse && (browseExecutor != null) && (entitiesMatchingViews.size() > 1))
+        {
+            return browseInParallel(entitiesMatchingViews, matchings, viewTypeName);
+        }
+
+        Map<EntityType, List<ViewInstance>> results = new HashMap<EntityType, List<ViewInstance>>();
+
+        for (EntityType nextEntityType : entitiesMatchingViews)
+        {
+            addBrowseResult(results, nextEntityType, browse(nextEntityType, matchings, viewTypeName));
+        }
+
+        return results;
+    }
+
+    /** {@inheritDoc} */
+    public List<ViewInstance> browse(EntityType entityType, Map<String, Attribute> matchings, String viewTypeName)
+    {
+        // Start the unit of work on a read session, on a replica if there are any.
+        HibernateUtil.getReadSession();
+
+        // Ensure that a view type has been specified.
+        if (viewTypeName == null)
+        {
+            throw new IllegalArgumentException("The 'viewTypeName' parameter must not be null.");
+        }
+
+        ViewType viewType = getCatalogue().getViewType(viewTypeName);
+
+        // Get the name of the entity table to fetch the matching entity from.
+        String entityTableName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
+        String entityTypeName = entityType.getName();
+
+        // Check that the specified entity type contains attributes of the correct type to match the query.
+        checkMatchings(entityType, matchings);
+
         // Get the hibernate query criterions for the requested attribute matchings.
         Map<String, Criterion> joins = getByAttributeCriterions(matchings);
 
-        // Build a paged list to fetch the results on demand.
+        // Build a paged list to fetch the results on demand, seeking to each block by the last id of the one before it.
         SummaryList results =
             new SummaryList(0, BLOCK_SIZE, entityTableName, entityTypeName, viewTypeName, null, joins, this, isLocal());
+        results.setKeysetPaging(true);
+        results.setPrefetchPolicy(browsePrefetchPolicy);
 
         // Ensure that the first page is pre-fetched in the list.
         // The use local flag is forced on for this call as obviously a local call can be made to this class at
@@ -473,106 +1052,138 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
             ", String viewTypeName = " + viewTypeName + ", Criterion criterion, " +
             "Map<String, Criterion> joins): called");
 
-        Session session = HibernateUtil.getCurrentSession();
-        HibernateUtil.beginTransaction();
-
-        // Project the id and external id properties and just the remaining properties that are required to project
-        // the results onto the specified view type.
-        ProjectionList properties =
-            Projections.projectionList().add(Projections.id()).add(Property.forName("externalId"));
+        Session session = HibernateUtil.getReadSession();
 
         ViewType viewType = getCatalogue().getViewType(viewTypeName);
 
-        for (String fieldName : viewType.getAllPropertyTypes().keySet())
-        {
-            properties.add(Property.forName(fieldName));
-        }
+        // Create the selection criteria for the block. The results are ordered by id, so that the pages are stable and
+        // consistent with keyset paging over the same query.
+        Criteria selectCriteria = createPagedQueryCriteria(session, databaseEntityName, criterion, joins);
 
-        // Create the selection criteria for the block.
-        Criteria selectCriteria = session.createCriteria(databaseEntityName);
+        selectCriteria.setProjection(createViewProjection(viewType)).addOrder(Order.asc("id")).setFirstResult(from)
+            .setMaxResults(number).setResultTransformer(new ViewInstanceTransformer(viewType, entityTypeName));
 
-        if (criterion != null)
-        {
-            selectCriteria.add(criterion);
-        }
+        // Run a query to find out how many results there will be and update the list size.
+        int count = countPagedQuery(session, databaseEntityName, criterion, joins, true);
 
-        if (joins != null)
-        {
-            for (Map.Entry<String, Criterion> entry : joins.entrySet())
-            {
-                String joinEntity = entry.getKey();
-                Criterion joinCriterion = entry.getValue();
+        // Execute the query to get the block.
+        List<ViewInstance> results = selectCriteria.list();
 
-                selectCriteria.createCriteria(joinEntity).add(joinCriterion);
-            }
-        }
+        return new PagingResult(count, results, getLastId(results));
+    }
+
+    /** {@inheritDoc} */
+    public PagingResult executeKeysetPagedQuery(Long afterId, int number, String databaseEntityName,
+        String entityTypeName, String viewTypeName, Criterion criterion, Map<String, Criterion> joins,
+        boolean refreshCount)
+    {
+        log.debug("public PagingResult executeKeysetPagedQuery(Long afterId = " + afterId + ", int number = " + number +
+            ", String databaseEntityName = " + databaseEntityName + ", String entityTypeName = " + entityTypeName +
+            ", String viewTypeName = " + viewTypeName + ", Criterion criterion, Map<String, Criterion> joins, " +
+            "boolean refreshCount = " + refreshCount + "): called");
 
-        selectCriteria.setProjection(properties).setFirstResult(from).setMaxResults(number).setResultTransformer(
-            new ViewInstanceTransformer(viewType, entityTypeName));
+        Session session = HibernateUtil.getReadSession();
 
-        // Create the count criteria.
-        Criteria countCriteria = session.createCriteria(databaseEntityName);
+        ViewType viewType = getCatalogue().getViewType(viewTypeName);
 
-        if (criterion != null)
-        {
-            countCriteria.add(criterion);
-        }
+        // Create the selection criteria for the block, seeking past the last id of the previous block, rather than
+        // skipping over all of the results before this block.
+        Criteria selectCriteria = createPagedQueryCriteria(session, databaseEntityName, criterion, joins);
 
-        if (joins != null)
+        if (afterId != null)
         {
-            for (Map.Entry<String, Criterion> entry : joins.entrySet())
-            {
-                String joinEntity = entry.getKey();
-                Criterion joinCriterion = entry.getValue();
-
-                countCriteria.createCriteria(joinEntity).add(joinCriterion);
-            }
+            selectCriteria.add(Restrictions.gt("id", afterId));
         }
 
-        countCriteria.setProjection(Projections.rowCount());
+        selectCriteria.setProjection(createViewProjection(viewType)).addOrder(Order.asc("id")).setMaxResults(number)
+            .setResultTransformer(new ViewInstanceTransformer(viewType, entityTypeName));
 
-        // Run a query to find out how many results there will be and update the list size.
-        int count = (Integer) countCriteria.uniqueResult();
+        // Get the result count, from the cache if possible.
+        int count = countPagedQuery(session, databaseEntityName, criterion, joins, refreshCount);
 
         // Execute the query to get the block.
         List<ViewInstance> results = selectCriteria.list();
 
-        return new PagingResult(count, results);
+        return new PagingResult(count, results, getLastId(results));
     }
 
     /**
      * Looks up an external id and resolves it into the dimension element with that id.
      *
+     * <p/>Resolutions of external ids onto entities are cached, so that an external id that has been resolved before is
+     * looked up by primary key in a single query, or taken from the second level cache if its type is cached.
+     * Otherwise, if only one entity type is externally identified, it is queried for the external id directly, by its
+     * external id key column. If there are several, the external id is outer joined onto all of them, so that the
+     * entity type it belongs to and the entity are found in a single query.
+     *
      * @param  externalId The external dimension element id.
      *
      * @return A the dimension element with matching external id, or null if no match can be found.
      */
     public EntityInstance retrieveByExternalId(String externalId)
     {
+        // The entity may be modified and written back, so it is read on the primary.
         Session session = HibernateUtil.getCurrentSession();
         HibernateUtil.beginTransaction();
 
-        // Look up the external id by its string representation.
-        ExternalId id = (ExternalId) session.get(ExternalId.class, externalId);
+        // Look the entity up by primary key, if the external id has been resolved before.
+        ExternalIdCache.Resolution resolution = externalIds.get(externalId);
+
+        if (resolution != null)
+        {
+            EntityType entityType = getCatalogue().getEntityType(resolution.getEntityTypeName());
+            EntityInstance result = getEntity(session, entityType, resolution.getId());
+
+            if (result != null)
+            {
+                return result;
+            }
+
+            // The entity has gone, so the resolution is no longer valid.
+            externalIds.remove(externalId);
+        }
+
+        // Work out which entity type the external id belongs to, and find the entity in it.
+        List<EntityType> externallyIdentified = getExternallyIdentifiedTypes();
+        String typeName = null;
+        EntityInstance result = null;
 
-        // Check that a matching external id was found.
-        if (id != null)
+        if (externallyIdentified.size() == 1)
         {
-            // Get the dimension that the external id's resource class matches.
-            ComponentType dimension = getCatalogue().getComponentType(id.getResource());
+            // Query the entity type for the matching external id, against the external id key column of the entity so
+            // that no join is needed.
+            typeName = externallyIdentified.get(0).getName();
 
-            // Create a query on the dimension for the matching external id.
-            Criteria selectCriteria =
-                session.createCriteria(dimension.getName() + Catalogue.ONLINE_TABLE_EXT).createAlias("externalId", "e")
-                .add(Expression.eq("e.id", id.getId()));
+            String databaseEntityName = typeName + Catalogue.ONLINE_TABLE_EXT;
 
-            // Return the unique result or null if there are no matches.
-            return (EntityInstance) selectCriteria.uniqueResult();
+            result =
+                (EntityInstance) session.createQuery("from " + databaseEntityName + " e where e.externalId.id = :id")
+                .setString("id", externalId).uniqueResult();
         }
-        else
+        else if (!externallyIdentified.isEmpty())
         {
-            return null;
+            // Query all of the entity types at once. Only the entity of the type the external id belongs to is found.
+            Object[] row =
+                (Object[]) createExternalIdJoin(session, externallyIdentified).setString("id", externalId)
+                .uniqueResult();
+
+            for (int i = 0; (row != null) && (i < row.length); i++)
+            {
+                if (row[i] != null)
+                {
+                    typeName = externallyIdentified.get(i).getName();
+                    result = (EntityInstance) row[i];
+                }
+            }
+        }
+
+        // Remember where the entity was found.
+        if (result != null)
+        {
+            externalIds.put(externalId, typeName, result.getId());
         }
+
+        return result;
     }
 
     /**
@@ -593,6 +1204,12 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         rebuildIndexesInSession(session);
     }
 
+    /** {@inheritDoc} */
+    public boolean isIndexComplete()
+    {
+        return (indexWarmUp == null) || indexWarmUp.isComplete();
+    }
+
     /**
      * Build a map of entity field names and criterion to apply to them in order to select entities by the specified
      * attributes.
@@ -659,6 +1276,133 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         return byNameCriterion;
     }
 
+    /**
+     * Browses several entity types concurrently, each on a browse thread in its own session. Entity types that cannot
+     * be queued for a browse thread, because the pool is busy or shut down, are browsed on the calling thread whilst
+     * the others run.
+     *
+     * @param  entityTypes  The entity types to browse.
+     * @param  matchings    The attributes to match.
+     * @param  viewTypeName The name of the view type to return the results as.
+     *
+     * @return The non-empty results of browsing each entity type, by entity type.
+     */
+    private Map<EntityType, List<ViewInstance>> browseInParallel(Collection<EntityType> entityTypes,
+        final Map<String, Attribute> matchings, final String viewTypeName)
+    {
+        Map<EntityType, Future<List<ViewInstance>>> futures =
+            new LinkedHashMap<EntityType, Future<List<ViewInstance>>>();
+        List<EntityType> browseOnCaller = new ArrayList<EntityType>();
+
+        for (final EntityType entityType : entityTypes)
+        {
+            try
+            {
+                futures.put(entityType, browseExecutor.submit(new Callable<List<ViewInstance>>()
+                        {
+                            public List<ViewInstance> call()
+                            {
+                                // Browse in the browse threads own session, and end it once done.
+                                try
+                                {
+                                    List<ViewInstance> result = browse(entityType, matchings, viewTypeName);
+                                    HibernateUtil.commitTransaction();
+
+                                    return result;
+                                }
+                                catch (RuntimeException e)
+                                {
+                                    HibernateUtil.rollbackTransaction();
+
+                                    throw e;
+                                }
+                            }
+                        }));
+            }
+            catch (RejectedExecutionException e)
+            {
+                browseOnCaller.add(entityType);
+            }
+        }
+
+        Map<EntityType, List<ViewInstance>> results = new HashMap<EntityType, List<ViewInstance>>();
+
+        try
+        {
+            for (EntityType entityType : browseOnCaller)
+            {
+                addBrowseResult(results, entityType, browse(entityType, matchings, viewTypeName));
+            }
+
+            for (Map.Entry<EntityType, Future<List<ViewInstance>>> entry : futures.entrySet())
+            {
+                addBrowseResult(results, entry.getKey(), entry.getValue().get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst waiting for entity types to be browsed.", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            // Stop any browsing that is no longer needed, after a failure.
+            for (Future<List<ViewInstance>> future : futures.values())
+            {
+                future.cancel(false);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Adds the result of browsing an entity type to the results of browsing across entity types, provided it actually
+     * contains some matches.
+     *
+     * @param results    The results of browsing across entity types.
+     * @param entityType The entity type browsed.
+     * @param result     The result of browsing the entity type.
+     */
+    private void addBrowseResult(Map<EntityType, List<ViewInstance>> results, EntityType entityType,
+        List<ViewInstance> result)
+    {
+        if (!result.isEmpty())
+        {
+            results.put(entityType, result);
+            log.debug("Got results for dimension: " + entityType + ".");
+        }
+    }
+
+    /**
+     * Lists the entity types in the catalogue that are externally identified.
+     *
+     * @return The entity types in the catalogue that are externally identified.
+     */
+    private List<EntityType> getExternallyIdentifiedTypes()
+    {
+        List<EntityType> results = new ArrayList<EntityType>();
+
+        for (EntityType entityType : getCatalogue().getAllEntityTypes())
+        {
+            if (entityType.isExternalId())
+            {
+                results.add(entityType);
+            }
+        }
+
+        return results;
+    }
+
     /**
      * Reports whether or not this service is local.
      *
@@ -766,18 +1510,606 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
     }
 
     /**
-     * ViewInstanceTransformer transforms results sets containing an Object array, consisting of a long id, external id,
-     * and the fields that make up a particular view instance into a sub-class {@link ViewInstance} implementing the
-     * specified view type.
+     * Checks that an entity type contains fields of the correct types to match a set of named attributes against.
+     *
+     * @param  entityType The entity type to check.
+     * @param  matchings  The attributes to match.
+     *
+     * @throws IllegalArgumentException If any of the attributes does not match a field of the entity type.
      */
-    public static class ViewInstanceTransformer implements ResultTransformer
+    private void checkMatchings(EntityType entityType, Map<String, Attribute> matchings)
     {
-        /** Holds the view type to project onto. */
-        ViewType viewType;
+        for (String propName : matchings.keySet())
+        {
+            // Get the type name of the attribute in the parameter.
+            Attribute attribute = matchings.get(propName);
+            String attributeTypeName = attribute.getType().getName();
 
-        /** The name of the dimension that the summary belongs to. */
+            // Get the type name of the field in the entity.
+            Type type = entityType.getPropertyType(propName);
+
+            if (type != null)
+            {
+                String fieldTypeName = type.getName();
+
+                // Check that they are compatible.
+                if (!attributeTypeName.equals(fieldTypeName))
+                {
+                    throw new IllegalArgumentException("The type of query parameter " + propName + " is " +
+                        attributeTypeName + " which is not compatibale with the field of type " + fieldTypeName +
+                        " on entity type " + entityType.getName());
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException("The query parameter " + propName +
+                    " does not match any field name of entity type " + entityType.getName());
+            }
+        }
+    }
+
+    /**
+     * Checks that an entity type contains fields of the correct types to hold a set of new field values.
+     *
+     * @param  entityType The entity type to check.
+     * @param  values     The new values of the fields, by field name.
+     *
+     * @throws IllegalArgumentException If there are no values, or any of the values does not fit a field of the
+     *                                  entity type.
+     */
+    private void checkValues(EntityType entityType, Map<String, Object> values)
+    {
+        if ((values == null) || values.isEmpty())
+        {
+            throw new IllegalArgumentException("The 'values' parameter must contain at least one field value.");
+        }
+
+        for (Map.Entry<String, Object> entry : values.entrySet())
+        {
+            String fieldName = entry.getKey();
+            Object value = entry.getValue();
+            Type type = entityType.getPropertyType(fieldName);
+
+            if (type == null)
+            {
+                throw new IllegalArgumentException("The field " + fieldName +
+                    " does not match any field name of entity type " + entityType.getName());
+            }
+
+            if ((value != null) && !type.getBaseClass().isInstance(value))
+            {
+                throw new IllegalArgumentException("The value of field " + fieldName + " is of class " +
+                    value.getClass() + " which is not compatible with the field of type " + type.getName() +
+                    " on entity type " + entityType.getName());
+            }
+        }
+    }
+
+    /**
+     * Selects the ids of the next chunk of entities matching a bulk delete or update, in id order, after the last id of
+     * the previous chunk. Only the ids are selected, the entities are not loaded.
+     *
+     * @param  session     The session to select in.
+     * @param  entityType  The type of entity to select.
+     * @param  joins       A map of related entities and criterion to restrict the selection by.
+     * @param  afterId     The last id of the previous chunk, or <tt>null</tt> to select the first chunk.
+     * @param  externalIds A list to add the external ids of the selected entities to, or <tt>null</tt> if they are not
+     *                     needed.
+     *
+     * @return The ids of the entities in the chunk, or an empty list when there are no more.
+     */
+    private List<Long> selectBulkChunk(Session session, EntityType entityType, Map<String, Criterion> joins,
+        Long afterId, List<ExternalId> externalIds)
+    {
+        String databaseEntityName = entityType.getName() + Catalogue.ONLINE_TABLE_EXT;
+        boolean selectExternalIds = (externalIds != null) && entityType.isExternalId();
+
+        Criterion afterLastChunk = (afterId != null) ? Restrictions.gt("id", afterId) : null;
+        Criteria criteria = createPagedQueryCriteria(session, databaseEntityName, afterLastChunk, joins);
+
+        ProjectionList properties = Projections.projectionList().add(Projections.id());
+
+        if (selectExternalIds)
+        {
+            properties.add(Property.forName("externalId.id"));
+        }
+
+        criteria.setProjection(properties).addOrder(Order.asc("id")).setMaxResults(BULK_CHUNK_SIZE)
+            .setResultTransformer(Transformers.TO_LIST);
+
+        List<Long> ids = new ArrayList<Long>(BULK_CHUNK_SIZE);
+
+        for (List row : (List<List>) criteria.list())
+        {
+            ids.add((Long) row.get(0));
+
+            if (selectExternalIds && (row.get(1) != null))
+            {
+                externalIds.add(new ExternalId((String) row.get(1), entityType.getName()));
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Creates the statements to delete the rows owned by a chunk of entities in the collection tables of their type,
+     * taking the ids of the entities as the 'ids' parameter. Collections that are held in the tables of other entities,
+     * or that are maintained from the other side of a relationship, own no rows and are skipped.
+     *
+     * @param  session            The session to create the statements in.
+     * @param  databaseEntityName The database entity to delete the collection rows of.
+     *
+     * @return The statements to delete the collection rows with, which may be empty.
+     */
+    private List<Query> createCollectionDeletes(Session session, String databaseEntityName)
+    {
+        List<Query> deletes = new ArrayList<Query>();
+        Map<String, CollectionMetadata> collections = session.getSessionFactory().getAllCollectionMetadata();
+
+        for (Map.Entry<String, CollectionMetadata> entry : collections.entrySet())
+        {
+            // Collection roles are named after the entity that holds them.
+            if (!entry.getKey().startsWith(databaseEntityName + "."))
+            {
+                continue;
+            }
+
+            QueryableCollection collection = (QueryableCollection) entry.getValue();
+
+            if (!collection.isOneToMany() && !collection.isInverse())
+            {
+                String tableName = collection.getTableName();
+                String keyColumn = collection.getKeyColumnNames()[0];
+
+                deletes.add(session.createSQLQuery("delete from " + tableName + " where " + keyColumn + " in (:ids)")
+                    .addSynchronizedQuerySpace(tableName));
+            }
+        }
+
+        return deletes;
+    }
+
+    /**
+     * Creates a query that looks up an external id, outer joined onto the tables of several externally identified
+     * entity types by their external id key columns. For an external id that exists, the query returns a single row
+     * holding an entity for each type, in the order of the types, of which only that of the type the external id
+     * belongs to is not <tt>null</tt>.
+     *
+     * @param  session     The session to query in.
+     * @param  entityTypes The externally identified entity types to join onto.
+     *
+     * @return A query for the entity of an external id, taking the external id as its 'id' parameter.
+     */
+    private SQLQuery createExternalIdJoin(Session session, List<EntityType> entityTypes)
+    {
+        SessionFactory sessionFactory = session.getSessionFactory();
+        AbstractEntityPersister externalIdPersister =
+            (AbstractEntityPersister) sessionFactory.getClassMetadata(ExternalId.class);
+        String externalIdColumn = externalIdPersister.getIdentifierColumnNames()[0];
+
+        StringBuilder select = new StringBuilder("select ");
+        StringBuilder from = new StringBuilder(" from ").append(externalIdPersister.getTableName()).append(" x");
+        List<String> databaseEntityNames = new ArrayList<String>();
+
+        for (int i = 0; i < entityTypes.size(); i++)
+        {
+            String databaseEntityName = entityTypes.get(i).getName() + Catalogue.ONLINE_TABLE_EXT;
+            AbstractEntityPersister persister =
+                (AbstractEntityPersister) sessionFactory.getClassMetadata(databaseEntityName);
+            String keyColumn = persister.getPropertyColumnNames("externalId")[0];
+
+            select.append((i > 0) ? ", " : "").append("{e").append(i).append(".*}");
+            from.append(" left outer join ").append(persister.getTableName()).append(" e").append(i).append(" on e")
+                .append(i).append(".").append(keyColumn).append(" = x.").append(externalIdColumn);
+            databaseEntityNames.add(databaseEntityName);
+        }
+
+        SQLQuery query =
+            session.createSQLQuery(select.append(from).append(" where x.").append(externalIdColumn).append(" = :id")
+                .toString());
+
+        for (int i = 0; i < databaseEntityNames.size(); i++)
+        {
+            query.addEntity("e" + i, databaseEntityNames.get(i));
+        }
+
+        return query;
+    }
+
+    /**
+     * Looks up an entity by its database id. Entities of cached types are taken from the second level cache, when it
+     * is enabled and holds them.
+     *
+     * @param  session    The session to read the entity in.
+     * @param  entityType The type of the entity.
+     * @param  id         The database id of the entity.
+     *
+     * @return The entity, or <tt>null</tt> if there is no entity with the id.
+     */
+    private EntityInstance getEntity(Session session, EntityType entityType, Serializable id)
+    {
+        return (EntityInstance) session.get(entityType.getName() + Catalogue.ONLINE_TABLE_EXT, id);
+    }
+
+    /**
+     * Gives an entity a new external id, if its type is externally identified and it does not already have one. The
+     * external id is saved in the session, and its primary key is generated by hibernate without a database round
+     * trip.
+     *
+     * @param  session The session to save the external id in.
+     * @param  element The entity to give an external id to.
+     *
+     * @return The new external id, or <tt>null</tt> if none was needed.
+     */
+    private ExternalId allocateExternalId(Session session, EntityInstance element)
+    {
+        if (element.getComponentType().isExternalId())
+        {
+            if (((ExternallyIdentified) element).getExternalId() == null)
+            {
+                // Store the dimension name as the external ids resource type.
+                String resourceName = element.getComponentType().getName();
+
+                // Create a new external id with a null primary key as hibernate will generate that.
+                ExternalId externalId = new ExternalId(null, resourceName);
+
+                // Set up the new external if on the dimension element and save it.
+                ((ExternallyIdentified) element).setExternalId(externalId);
+                session.save(externalId);
+
+                return externalId;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Flushes a batch of entities saved by a bulk write to the database, and evicts them from the session. When changes
+     * are indexed as they are made, the entities are indexed before they are evicted, whilst their lazy properties can
+     * still be read. Only the entities of the batch and the external ids allocated for them are evicted, so that other
+     * entities that the caller holds in the session stay attached.
+     *
+     * @param session   The session that the entities were saved in.
+     * @param batch     The entities saved since the last batch was flushed, which is emptied.
+     * @param allocated The external ids allocated for the entities of the batch, which is emptied.
+     * @param created   <tt>true</tt> if the entities are new, <tt>false</tt> if they have been updated.
+     */
+    private void flushBatch(Session session, List<EntityInstance> batch, List<ExternalId> allocated, boolean created)
+    {
+        session.flush();
+
+        if (indexWriteBehind == null)
+        {
+            try
+            {
+                for (Map.Entry<String, List<EntityInstance>> entry : groupByIndex(batch).entrySet())
+                {
+                    if (created)
+                    {
+                        indexAdded(entry.getKey(), entry.getValue());
+                    }
+                    else
+                    {
+                        indexUpdated(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            catch (IndexUnknownKeyException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        for (EntityInstance element : batch)
+        {
+            session.evict(element);
+        }
+
+        for (ExternalId externalId : allocated)
+        {
+            session.evict(externalId);
+        }
+
+        batch.clear();
+        allocated.clear();
+    }
+
+    /**
+     * Adds new entities to an index. Whilst the indexes are being warmed up, this is done through the warm-up, so that
+     * it does not overwrite the new entries with rows that it read earlier.
+     *
+     * @param indexName The name of the index to add the entities to.
+     * @param elements  The entities to add.
+     */
+    private void indexAdded(String indexName, Collection<EntityInstance> elements)
+    {
+        if (indexWarmUp != null)
+        {
+            indexWarmUp.add(indexName, elements);
+        }
+        else
+        {
+            addAllToIndex(indexName, elements);
+        }
+    }
+
+    /**
+     * Updates entities in an index. Whilst the indexes are being warmed up, this is done through the warm-up, which
+     * adds the entities if they have not been indexed yet.
+     *
+     * @param  indexName The name of the index to update the entities in.
+     * @param  elements  The entities to update.
+     *
+     * @throws IndexUnknownKeyException When an entity is not in the index, and the warm-up has indexed every type.
+     */
+    private void indexUpdated(String indexName, Collection<EntityInstance> elements) throws IndexUnknownKeyException
+    {
+        if (indexWarmUp != null)
+        {
+            indexWarmUp.update(indexName, elements);
+        }
+        else
+        {
+            updateAllInIndex(indexName, elements);
+        }
+    }
+
+    /**
+     * Removes an entity from an index. Whilst the indexes are being warmed up, this is done through the warm-up, which
+     * ignores the entity if it has not been indexed yet.
+     *
+     * @param  indexName The name of the index to remove the entity from.
+     * @param  key       The external id of the entity to remove.
+     *
+     * @throws IndexUnknownKeyException When the entity is not in the index, and the warm-up has indexed every type.
+     */
+    private void indexRemoved(String indexName, ExternalId key) throws IndexUnknownKeyException
+    {
+        if (indexWarmUp != null)
+        {
+            indexWarmUp.remove(indexName, key);
+        }
+        else
+        {
+            removeFromIndex(indexName, key);
+        }
+    }
+
+    /**
+     * Records a change to an entity that is to be indexed by write-behind with the index warm-up, if there is one, so
+     * that it does not overwrite the change with a row that it read earlier.
+     *
+     * @param key The external id of the changed entity.
+     */
+    private void recordWarmUpChange(ExternalId key)
+    {
+        if (indexWarmUp != null)
+        {
+            indexWarmUp.recordChange(key);
+        }
+    }
+
+    /**
+     * Groups entities by the indexes that they belong in. Entities that belong in no indexes are left out.
+     *
+     * @param  elements The entities to group.
+     *
+     * @return The entities that belong in each index, by index name.
+     */
+    private Map<String, List<EntityInstance>> groupByIndex(Collection<EntityInstance> elements)
+    {
+        Map<String, List<EntityInstance>> elementsByIndex = new HashMap<String, List<EntityInstance>>();
+
+        for (EntityInstance element : elements)
+        {
+            List<String> indexes = getMaintainedIndexes(element.getComponentType().getName());
+
+            if (indexes != null)
+            {
+                for (String index : indexes)
+                {
+                    List<EntityInstance> indexElements = elementsByIndex.get(index);
+
+                    if (indexElements == null)
+                    {
+                        indexElements = new ArrayList<EntityInstance>();
+                        elementsByIndex.put(index, indexElements);
+                    }
+
+                    indexElements.add(element);
+                }
+            }
+        }
+
+        return elementsByIndex;
+    }
+
+    /**
+     * Creates the criteria for a paged query, without any projection, ordering or paging applied to it yet.
+     *
+     * @param  session            The session to create the criteria in.
+     * @param  databaseEntityName The database entity to query.
+     * @param  criterion          The optional criterion to apply to the entity.
+     * @param  joins              A map of related entities and criterion to restrict the query by.
+     *
+     * @return The criteria for the query.
+     */
+    private Criteria createPagedQueryCriteria(Session session, String databaseEntityName, Criterion criterion,
+        Map<String, Criterion> joins)
+    {
+        Criteria criteria = session.createCriteria(databaseEntityName);
+
+        if (criterion != null)
+        {
+            criteria.add(criterion);
+        }
+
+        if (joins != null)
+        {
+            for (Map.Entry<String, Criterion> entry : joins.entrySet())
+            {
+                String joinEntity = entry.getKey();
+                Criterion joinCriterion = entry.getValue();
+
+                criteria.createCriteria(joinEntity).add(joinCriterion);
+            }
+        }
+
+        return criteria;
+    }
+
+    /**
+     * Creates a projection of the id and external id properties and just the remaining properties that are required to
+     * project results onto a view type.
+     *
+     * @param  viewType The view type to project onto.
+     *
+     * @return The projection onto the view type.
+     */
+    private ProjectionList createViewProjection(ViewType viewType)
+    {
+        ProjectionList properties =
+            Projections.projectionList().add(Projections.id()).add(Property.forName("externalId"));
+
+        for (String fieldName : viewType.getAllPropertyTypes().keySet())
+        {
+            properties.add(Property.forName(fieldName));
+        }
+
+        return properties;
+    }
+
+    /**
+     * Counts the results of a paged query, using the cached count for the query unless a refresh is requested.
+     *
+     * @param  session            The session to count in.
+     * @param  databaseEntityName The database entity to query.
+     * @param  criterion          The optional criterion to apply to the entity.
+     * @param  joins              A map of related entities and criterion to restrict the query by.
+     * @param  refreshCount       <tt>true</tt> to count the results again, even if the count is cached.
+     *
+     * @return The number of results of the query.
+     */
+    private int countPagedQuery(Session session, String databaseEntityName, Criterion criterion,
+        Map<String, Criterion> joins, boolean refreshCount)
+    {
+        String signature = QueryCountCache.signature(databaseEntityName, criterion, joins);
+        Integer count = refreshCount ? null : queryCounts.get(signature);
+
+        if (count == null)
+        {
+            Criteria countCriteria = createPagedQueryCriteria(session, databaseEntityName, criterion, joins);
+            countCriteria.setProjection(Projections.rowCount());
+
+            count = ((Number) countCriteria.uniqueResult()).intValue();
+            queryCounts.put(signature, count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the database id of the last view in a page of views, from which paging may be continued.
+     *
+     * @param  results The page of views.
+     *
+     * @return The database id of the last view, or <tt>null</tt> if the page is empty.
+     */
+    private Long getLastId(List<ViewInstance> results)
+    {
+        if (results.isEmpty())
+        {
+            return null;
+        }
+
+        EntityViewInstanceBase lastView = (EntityViewInstanceBase) results.get(results.size() - 1);
+
+        return ((InternalIdImpl) lastView.getOpaqueId()).getValue();
+    }
+
+    /**
+     * Splits a list of internal ids into chunks of database ids, small enough to be looked up in a single query each.
+     * Repeated ids are only looked up once.
+     *
+     * @param  ids The internal ids to split up.
+     *
+     * @return The database ids, in chunks of at most {@link #RETRIEVE_CHUNK_SIZE}.
+     */
+    private List<List<Long>> chunkIds(List<InternalId> ids)
+    {
+        List<List<Long>> chunks = new ArrayList<List<Long>>();
+        List<Long> chunk = new ArrayList<Long>(RETRIEVE_CHUNK_SIZE);
+
+        for (InternalId id : new LinkedHashSet<InternalId>(ids))
+        {
+            if (id == null)
+            {
+                continue;
+            }
+
+            chunk.add(((InternalIdImpl) id).getValue());
+
+            if (chunk.size() == RETRIEVE_CHUNK_SIZE)
+            {
+                chunks.add(chunk);
+                chunk = new ArrayList<Long>(RETRIEVE_CHUNK_SIZE);
+            }
+        }
+
+        if (!chunk.isEmpty())
+        {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Puts the results of looking up many ids back into the order of the ids.
+     *
+     * @param  ids   The ids that were looked up.
+     * @param  found The results that were found, by id.
+     * @param  <T>   The type of the results.
+     *
+     * @return The results in the order of the ids, with <tt>null</tt> in place of any id that has no result.
+     */
+    private <T> List<T> orderByIds(List<InternalId> ids, Map<InternalId, T> found)
+    {
+        List<T> results = new ArrayList<T>(ids.size());
+
+        for (InternalId id : ids)
+        {
+            results.add(found.get(id));
+        }
+
+        return results;
+    }
+
+    /**
+     * ViewInstanceTransformer transforms results sets containing an Object array, consisting of a long id, external id,
+     * and the fields that make up a particular view instance into a sub-class {@link ViewInstance} implementing the
+     * specified view type.
+     *
+     * <p/>The projection onto each view class is compiled once into a {@link ViewProjector}, which is shared by all
+     * transformers onto that class, so that the per row work is just the constructor call.
+     */
+    public static class ViewInstanceTransformer implements ResultTransformer
+    {
+        /** Holds the compiled projections onto view classes, shared between all transformers. */
+        private static final ConcurrentMap<Class, ViewProjector> viewProjectors =
+            new ConcurrentHashMap<Class, ViewProjector>();
+
+        /** Holds the view type to project onto. */
+        ViewType viewType;
+
+        /** The name of the dimension that the summary belongs to. */
         String entityTypeName;
 
+        /** Holds the compiled projection onto the view type. */
+        private final ViewProjector projector;
+
         /**
          * Creates a result transformer to transform tuples from result sets into view instances.
          *
@@ -788,6 +2120,19 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
         {
             this.viewType = viewType;
             this.entityTypeName = entityTypeName;
+
+            Class viewImplClass = viewType.getBaseClass();
+            ViewProjector viewProjector = viewProjectors.get(viewImplClass);
+
+            if (viewProjector == null)
+            {
+                viewProjector = new ViewProjector(viewType);
+
+                ViewProjector existingProjector = viewProjectors.putIfAbsent(viewImplClass, viewProjector);
+                viewProjector = (existingProjector != null) ? existingProjector : viewProjector;
+            }
+
+            this.projector = viewProjector;
         }
 
         /**
@@ -812,50 +2157,100 @@ public class CatalogueManagerServiceImpl extends CatalogueManipulatorBase implem
          */
         public Object transformTuple(Object[] tuple, String[] aliases)
         {
-            log.debug("public Object transformTuple(Object[] tuple, String[] aliases): called");
-
-            Class viewImplClass = viewType.getBaseClass();
-            log.debug("viewImplClass = " + viewImplClass);
+            return projector.project(tuple);
+        }
+    }
 
-            Class[] constructorArgTypes = new Class[tuple.length];
+    /**
+     * ViewProjector is a compiled projection of result set tuples onto the implementation class of a view type. The
+     * property types of the view are resolved once, up front. The constructor to call depends on which properties in a
+     * tuple are null, as null properties are matched against their declared types and other properties against their
+     * runtime types, so constructors are looked up once for each pattern of nulls encountered and cached against it.
+     */
+    private static class ViewProjector
+    {
+        /** Holds the view implementation class to construct. */
+        private final Class viewImplClass;
 
-            /*for (int i = 0; i < (tuple.length); i++)
-            {
-                Object arg = tuple[i];
-                log.debug("arg = " + arg);
+        /** Holds the declared constructor argument types, used for the id, external id and null properties. */
+        private final Class[] declaredArgTypes;
 
-                constructorArgTypes[i] = arg.getClass();
+        /** Holds the constructors resolved so far, keyed by the pattern of null arguments they were resolved for. */
+        private final ConcurrentMap<BitSet, Constructor> constructors = new ConcurrentHashMap<BitSet, Constructor>();
 
-                log.debug("constructorArgTypes[ " + i + "] = " + constructorArgTypes[i]);
-            }*/
+        /**
+         * Compiles a projection onto a view type.
+         *
+         * @param viewType The view type to project onto.
+         */
+        public ViewProjector(ViewType viewType)
+        {
+            viewImplClass = viewType.getBaseClass();
 
-            constructorArgTypes[0] = Long.class;
-            constructorArgTypes[1] = ExternalId.class;
+            Collection<Type> propertyTypes = viewType.getAllPropertyTypes().values();
+            declaredArgTypes = new Class[propertyTypes.size() + 2];
+            declaredArgTypes[0] = Long.class;
+            declaredArgTypes[1] = ExternalId.class;
 
             int i = 2;
 
-            for (Type argType : viewType.getAllPropertyTypes().values())
+            for (Type propertyType : propertyTypes)
             {
-                Object arg = tuple[i];
+                declaredArgTypes[i++] = propertyType.getBaseClass();
+            }
+        }
 
-                if (null == arg)
-                {
-                    constructorArgTypes[i] = argType.getBaseClass();
-                }
-                else
+        /**
+         * Projects a tuple, { id, external id, ... }, onto a new instance of the view implementation class.
+         *
+         * @param  tuple The object tuple.
+         *
+         * @return An instance of the view implementation class.
+         */
+        public Object project(Object[] tuple)
+        {
+            BitSet nullPattern = new BitSet(tuple.length);
+
+            for (int i = 2; i < tuple.length; i++)
+            {
+                if (tuple[i] == null)
                 {
-                    constructorArgTypes[i] = arg.getClass();
+                    nullPattern.set(i);
                 }
+            }
 
-                log.debug("constructorArgTypes[ " + i + "] = " + constructorArgTypes[i]);
-                i++;
+            Constructor constructor = constructors.get(nullPattern);
+
+            if (constructor == null)
+            {
+                constructor = resolveConstructor(tuple);
+                constructors.putIfAbsent(nullPattern, constructor);
+            }
+
+            return ReflectionUtils.newInstance(constructor, tuple);
+        }
+
+        /**
+         * Looks up the constructor to call for a tuple. The runtime types of the non-null properties are fixed by the
+         * mapping of the view, so the constructor found is the right one for any tuple with the same pattern of nulls.
+         *
+         * @param  tuple The object tuple.
+         *
+         * @return The constructor of the view implementation class matching the tuple.
+         */
+        private Constructor resolveConstructor(Object[] tuple)
+        {
+            Class[] constructorArgTypes = new Class[tuple.length];
+
+            for (int i = 0; i < tuple.length; i++)
+            {
+                constructorArgTypes[i] = ((i < 2) || (tuple[i] == null)) ? declaredArgTypes[i] : tuple[i].getClass();
             }
 
-            Constructor constructor = ReflectionUtils.getConstructor(viewImplClass, constructorArgTypes);
-            EntityViewInstanceBase instance = (EntityViewInstanceBase) ReflectionUtils.newInstance(constructor, tuple);
+            log.debug("Resolved constructor argument types for " + viewImplClass + ": " +
+                Arrays.toString(constructorArgTypes));
 
-            //return new EntityViewInstanceBase(entityTypeName, (Long) tuple[0], (ExternalId) tuple[1]);
-            return instance;
+            return ReflectionUtils.getConstructor(viewImplClass, constructorArgTypes);
         }
     }
 }
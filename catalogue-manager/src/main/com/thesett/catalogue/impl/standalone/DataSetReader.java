@@ -0,0 +1,269 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * DataSetReader reads the records of a raw XML data set one at a time, from a character stream. Only the record
+ * currently being read is held in memory, so data sets of any size may be read.
+ *
+ * <p/>A data set consists of a root element, containing one element per record. The name of each record element is
+ * the name of the entity type of the record, and it contains one element per field, whose name is the name of the
+ * field and whose text is the value of the field. For example:
+ *
+ * <pre>
+ * &lt;data-set&gt;
+ *     &lt;customer&gt;
+ *         &lt;name&gt;Acme&lt;/name&gt;
+ *         &lt;region&gt;Europe/UK&lt;/region&gt;
+ *     &lt;/customer&gt;
+ * &lt;/data-set&gt;
+ * </pre>
+ *
+ * <p/>Fields that are left out of a record, or that are empty, are not set. Document type declarations and external
+ * entities in data sets are not processed.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Read the records of a data set incrementally. <td> {@link XMLStreamReader}
+ * <tr><td> Report the position of each record in the data set.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class DataSetReader
+{
+    /** Holds the StAX reader that the data set is parsed from. */
+    private final XMLStreamReader xmlReader;
+
+    /** Holds the number of records read so far. */
+    private long recordCount;
+
+    /** Used to indicate that the root element of the data set has been read. */
+    private boolean started;
+
+    /**
+     * Creates a reader over a raw XML data set.
+     *
+     * @param dataSet The character stream to read the data set from.
+     */
+    public DataSetReader(Reader dataSet)
+    {
+        try
+        {
+            // Data sets are uploaded from outside, so document type declarations and external entities are not
+            // processed, to prevent them being used to read local files or make network requests.
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+            xmlReader = factory.createXMLStreamReader(dataSet);
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IllegalArgumentException("The data set could not be opened for reading.", e);
+        }
+    }
+
+    /**
+     * Reads the next record from the data set.
+     *
+     * @return The next record, or <tt>null</tt> if there are no more records in the data set.
+     *
+     * @throws IllegalArgumentException If the data set is not well formed. It is not possible to continue reading after
+     *                                  this happens.
+     */
+    public Record nextRecord()
+    {
+        try
+        {
+            // Skip over the root element if this is the first record.
+            if (!started)
+            {
+                if (nextElement() == null)
+                {
+                    return null;
+                }
+
+                started = true;
+            }
+
+            // Move to the start of the next record, if there is one.
+            String entityTypeName = nextElement();
+
+            if (entityTypeName == null)
+            {
+                return null;
+            }
+
+            Record record = new Record(++recordCount, xmlReader.getLocation().getLineNumber(), entityTypeName);
+
+            // Read each field element up to the end of the record element.
+            for (String fieldName = nextElement(); fieldName != null; fieldName = nextElement())
+            {
+                String value = xmlReader.getElementText().trim();
+
+                if (value.length() > 0)
+                {
+                    record.fields.put(fieldName, value);
+                }
+            }
+
+            return record;
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IllegalArgumentException("The data set is not well formed after record " + recordCount + ".", e);
+        }
+    }
+
+    /**
+     * Gets the number of records read from the data set so far.
+     *
+     * @return The number of records read from the data set so far.
+     */
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /** Releases the resources held by the parser. The underlying character stream is not closed. */
+    public void close()
+    {
+        try
+        {
+            xmlReader.close();
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Moves the parser onto the start of the next element nested in the current one.
+     *
+     * @return The name of the next element, or <tt>null</tt> if the end of the current element or the end of the
+     *         document is reached first.
+     *
+     * @throws XMLStreamException If the data set is not well formed.
+     */
+    private String nextElement() throws XMLStreamException
+    {
+        while (xmlReader.hasNext())
+        {
+            switch (xmlReader.next())
+            {
+            case XMLStreamConstants.START_ELEMENT:
+                return xmlReader.getLocalName();
+
+            case XMLStreamConstants.END_ELEMENT:
+                return null;
+
+            default:
+                break;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Record is one record read from a data set, holding the values of its fields as text.
+     *
+     * <pre><p/><table id="crc"><caption>CRC Card</caption>
+     * <tr><th> Responsibilities
+     * <tr><td> Hold the entity type name and field values of a record.
+     * <tr><td> Hold the position of the record in the data set.
+     * </table></pre>
+     */
+    public static class Record
+    {
+        /** Holds the position of the record in the data set, counting from one. */
+        private final long recordNumber;
+
+        /** Holds the line of the data set that the record starts on. */
+        private final int lineNumber;
+
+        /** Holds the name of the entity type of the record. */
+        private final String entityTypeName;
+
+        /** Holds the field values of the record as text, by field name, in the order they were read. */
+        private final Map<String, String> fields = new LinkedHashMap<String, String>();
+
+        /**
+         * Creates an empty record.
+         *
+         * @param recordNumber   The position of the record in the data set, counting from one.
+         * @param lineNumber     The line of the data set that the record starts on.
+         * @param entityTypeName The name of the entity type of the record.
+         */
+        Record(long recordNumber, int lineNumber, String entityTypeName)
+        {
+            this.recordNumber = recordNumber;
+            this.lineNumber = lineNumber;
+            this.entityTypeName = entityTypeName;
+        }
+
+        /**
+         * Gets the position of the record in the data set, counting from one.
+         *
+         * @return The position of the record in the data set, counting from one.
+         */
+        public long getRecordNumber()
+        {
+            return recordNumber;
+        }
+
+        /**
+         * Gets the line of the data set that the record starts on.
+         *
+         * @return The line of the data set that the record starts on, or <tt>-1</tt> if it is not known.
+         */
+        public int getLineNumber()
+        {
+            return lineNumber;
+        }
+
+        /**
+         * Gets the name of the entity type of the record.
+         *
+         * @return The name of the entity type of the record.
+         */
+        public String getEntityTypeName()
+        {
+            return entityTypeName;
+        }
+
+        /**
+         * Gets the field values of the record as text, by field name.
+         *
+         * @return The field values of the record as text, by field name.
+         */
+        public Map<String, String> getFields()
+        {
+            return fields;
+        }
+    }
+}
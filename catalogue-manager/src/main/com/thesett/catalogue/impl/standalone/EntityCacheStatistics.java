@@ -0,0 +1,174 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+
+/**
+ * EntityCacheStatistics is a snapshot of the hit, miss and put counts of the second level cache region that an entity
+ * type is cached in. Entity types marked as cached in the model are mapped into cache regions of their own, so the
+ * counts of a region are those of the one entity type.
+ *
+ * <p/>Hibernate only counts cache accesses when statistics are turned on, which the hibernate config bean does
+ * whenever it turns on the second level cache. Entity types are only cached when the cache region configuration
+ * generated from the model is set on the hibernate config bean; otherwise there are no statistics to take.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Take the counts of the cache region of an entity type. <td> {@link SessionFactory}
+ * <tr><td> Compute the hit rate of the cache region.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class EntityCacheStatistics
+{
+    /** Holds the name of the cache region, including any prefix. */
+    private final String regionName;
+
+    /** Holds the number of entities found in the region. */
+    private final long hits;
+
+    /** Holds the number of entities looked for and not found in the region. */
+    private final long misses;
+
+    /** Holds the number of entities put into the region. */
+    private final long puts;
+
+    /** Holds the number of entities held in memory in the region. */
+    private final long size;
+
+    /**
+     * Creates a snapshot of the counts of a cache region.
+     *
+     * @param regionName The name of the cache region, including any prefix.
+     * @param hits       The number of entities found in the region.
+     * @param misses     The number of entities looked for and not found in the region.
+     * @param puts       The number of entities put into the region.
+     * @param size       The number of entities held in memory in the region.
+     */
+    public EntityCacheStatistics(String regionName, long hits, long misses, long puts, long size)
+    {
+        this.regionName = regionName;
+        this.hits = hits;
+        this.misses = misses;
+        this.puts = puts;
+        this.size = size;
+    }
+
+    /**
+     * Takes the counts of the second level cache region that a database entity is cached in.
+     *
+     * @param  sessionFactory     The session factory the entity is mapped by.
+     * @param  databaseEntityName The name of the database entity.
+     *
+     * @return The counts of the cache region of the entity, or <tt>null</tt> if the entity is not cached.
+     */
+    public static EntityCacheStatistics forEntity(SessionFactory sessionFactory, String databaseEntityName)
+    {
+        EntityPersister persister =
+            ((SessionFactoryImplementor) sessionFactory).getEntityPersister(databaseEntityName);
+
+        if (!persister.hasCache())
+        {
+            return null;
+        }
+
+        String regionName = persister.getCacheAccessStrategy().getRegion().getName();
+        SecondLevelCacheStatistics statistics =
+            sessionFactory.getStatistics().getSecondLevelCacheStatistics(regionName);
+
+        if (statistics == null)
+        {
+            return null;
+        }
+
+        return new EntityCacheStatistics(regionName, statistics.getHitCount(), statistics.getMissCount(),
+                statistics.getPutCount(), statistics.getElementCountInMemory());
+    }
+
+    /**
+     * Gets the name of the cache region, including any prefix.
+     *
+     * @return The name of the cache region.
+     */
+    public String getRegionName()
+    {
+        return regionName;
+    }
+
+    /**
+     * Gets the number of entities found in the region.
+     *
+     * @return The number of entities found in the region.
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Gets the number of entities looked for and not found in the region.
+     *
+     * @return The number of entities looked for and not found in the region.
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Gets the number of entities put into the region.
+     *
+     * @return The number of entities put into the region.
+     */
+    public long getPuts()
+    {
+        return puts;
+    }
+
+    /**
+     * Gets the number of entities held in memory in the region.
+     *
+     * @return The number of entities held in memory in the region.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Gets the proportion of look ups in the region that found the entity.
+     *
+     * @return The proportion of look ups that hit, from zero to one, or zero if there have been none.
+     */
+    public double getHitRate()
+    {
+        long lookups = hits + misses;
+
+        return (lookups == 0) ? 0.0 : ((double) hits / lookups);
+    }
+
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return "EntityCacheStatistics: [ regionName = " + regionName + ", hits = " + hits + ", misses = " + misses +
+            ", puts = " + puts + ", size = " + size + " ]";
+    }
+}
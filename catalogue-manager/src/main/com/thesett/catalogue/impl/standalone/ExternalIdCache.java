@@ -0,0 +1,146 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ExternalIdCache holds the resolutions of external ids onto the entities that they identify, as the name of the
+ * entity type and the internal id of the entity, so that a cached external id can be resolved by primary key in a
+ * single query. The cache holds a bounded number of resolutions, evicting the least recently used when full.
+ *
+ * <p/>Writers must call {@link #remove} when they delete an entity, so that its external id is not resolved onto a
+ * missing entity. Readers that find a cached resolution no longer matches an entity should also remove it.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Hold a bounded number of external id resolutions.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ExternalIdCache
+{
+    /** Holds the resolutions by external id, in least recently used order. */
+    private final Map<String, Resolution> resolutions;
+
+    /**
+     * Creates a cache for a bounded number of external id resolutions.
+     *
+     * @param maxSize The maximum number of resolutions to hold.
+     */
+    public ExternalIdCache(final int maxSize)
+    {
+        resolutions = new LinkedHashMap<String, Resolution>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest)
+                {
+                    return size() > maxSize;
+                }
+            };
+    }
+
+    /**
+     * Gets the cached resolution of an external id.
+     *
+     * @param  externalId The external id.
+     *
+     * @return The cached resolution, or <tt>null</tt> if none is cached.
+     */
+    public synchronized Resolution get(String externalId)
+    {
+        return resolutions.get(externalId);
+    }
+
+    /**
+     * Caches the resolution of an external id.
+     *
+     * @param externalId     The external id.
+     * @param entityTypeName The name of the type of the entity.
+     * @param id             The internal id of the entity.
+     */
+    public synchronized void put(String externalId, String entityTypeName, Serializable id)
+    {
+        resolutions.put(externalId, new Resolution(entityTypeName, id));
+    }
+
+    /**
+     * Drops the cached resolution of an external id, if there is one.
+     *
+     * @param externalId The external id.
+     */
+    public synchronized void remove(String externalId)
+    {
+        resolutions.remove(externalId);
+    }
+
+    /** Drops all cached resolutions. */
+    public synchronized void clear()
+    {
+        resolutions.clear();
+    }
+
+    /**
+     * Resolution is the location of the entity that an external id identifies.
+     *
+     * <pre><p/><table id="crc"><caption>CRC Card</caption>
+     * <tr><th> Responsibilities
+     * <tr><td> Hold the type name and internal id of an entity.
+     * </table></pre>
+     */
+    public static class Resolution
+    {
+        /** Holds the name of the type of the entity. */
+        private final String entityTypeName;
+
+        /** Holds the internal id of the entity. */
+        private final Serializable id;
+
+        /**
+         * Creates the resolution of an external id.
+         *
+         * @param entityTypeName The name of the type of the entity.
+         * @param id             The internal id of the entity.
+         */
+        Resolution(String entityTypeName, Serializable id)
+        {
+            this.entityTypeName = entityTypeName;
+            this.id = id;
+        }
+
+        /**
+         * Gets the name of the type of the entity.
+         *
+         * @return The name of the type of the entity.
+         */
+        public String getEntityTypeName()
+        {
+            return entityTypeName;
+        }
+
+        /**
+         * Gets the internal id of the entity.
+         *
+         * @return The internal id of the entity.
+         */
+        public Serializable getId()
+        {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.transaction.Synchronization;
+
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Criterion;
+
+/**
+ * QueryCountCache holds the result counts of paged queries, keyed by a signature of the query, so that paging through
+ * the results of a query does not need to count them again for every page. The cache holds a bounded number of
+ * counts, evicting the least recently used when full, and each count for a limited time to live, after which it is
+ * counted again.
+ *
+ * <p/>Counts are not kept up to date as entities are written, so writers must call {@link #clearOnCompletion} with
+ * the transaction they change entities in. The counts are dropped straight away, so that later queries in the same
+ * transaction count again, and once more when the transaction completes, so that any count taken by another query
+ * before the changes were committed is not kept. The time to live bounds how stale a count can be when the database
+ * is changed by other means, and callers that need an exact count must ask for it to be refreshed.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Build a signature for a paged query.
+ * <tr><td> Hold a bounded number of query result counts by signature, for a limited time.
+ * <tr><td> Drop all counts once a transaction changing entities completes. <td> {@link Synchronization}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class QueryCountCache
+{
+    /** Holds the query result counts by signature, in least recently used order. */
+    private final Map<String, CachedCount> counts;
+
+    /** Holds the time to live of cached counts in milliseconds. */
+    private final long timeToLive;
+
+    /** Holds the transaction that each thread has registered to clear the cache on completion of, if any. */
+    private final ThreadLocal<Transaction> registeredTransaction = new ThreadLocal<Transaction>();
+
+    /**
+     * Creates a cache for a bounded number of query result counts.
+     *
+     * @param maxSize    The maximum number of counts to hold.
+     * @param timeToLive The time to hold each count for, in milliseconds.
+     */
+    public QueryCountCache(final int maxSize, long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+
+        counts = new LinkedHashMap<String, CachedCount>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest)
+                {
+                    return size() > maxSize;
+                }
+            };
+    }
+
+    /**
+     * Builds a signature for a paged query, that is the same for all queries that return the same results.
+     *
+     * @param  databaseEntityName The database entity to query.
+     * @param  criterion          The optional criterion to apply to the entity.
+     * @param  joins              A map of related entities and criterion to restrict the query by.
+     *
+     * @return A signature for the query.
+     */
+    public static String signature(String databaseEntityName, Criterion criterion, Map<String, Criterion> joins)
+    {
+        StringBuilder signature = new StringBuilder(databaseEntityName);
+
+        if (criterion != null)
+        {
+            signature.append(" where ").append(criterion);
+        }
+
+        // Take the joins in name order, so that the signature does not depend on the ordering of the map.
+        if (joins != null)
+        {
+            for (Map.Entry<String, Criterion> entry : new TreeMap<String, Criterion>(joins).entrySet())
+            {
+                signature.append(" join ").append(entry.getKey()).append(" where ").append(entry.getValue());
+            }
+        }
+
+        return signature.toString();
+    }
+
+    /**
+     * Gets the cached result count of a query.
+     *
+     * @param  signature The query signature.
+     *
+     * @return The cached result count, or <tt>null</tt> if none is cached or it has expired.
+     */
+    public Integer get(String signature)
+    {
+        return get(signature, System.currentTimeMillis());
+    }
+
+    /**
+     * Caches the result count of a query.
+     *
+     * @param signature The query signature.
+     * @param count     The result count.
+     */
+    public void put(String signature, int count)
+    {
+        put(signature, count, System.currentTimeMillis());
+    }
+
+    /** Drops all cached counts. */
+    public synchronized void clear()
+    {
+        counts.clear();
+    }
+
+    /**
+     * Drops all cached counts now, and again once the specified transaction completes, whether it commits or rolls
+     * back. A transaction is only registered with once, however many times this is called within it.
+     *
+     * @param transaction The transaction that entities are being changed in.
+     */
+    public void clearOnCompletion(Transaction transaction)
+    {
+        clear();
+
+        if (registeredTransaction.get() != transaction)
+        {
+            registeredTransaction.set(transaction);
+            transaction.registerSynchronization(new ClearOnCompletion(transaction));
+        }
+    }
+
+    /**
+     * Gets the cached result count of a query, as at a specified time.
+     *
+     * @param  signature The query signature.
+     * @param  now       The time now, in milliseconds.
+     *
+     * @return The cached result count, or <tt>null</tt> if none is cached or it has expired.
+     */
+    synchronized Integer get(String signature, long now)
+    {
+        CachedCount cached = counts.get(signature);
+
+        if ((cached != null) && (cached.expiry <= now))
+        {
+            counts.remove(signature);
+            cached = null;
+        }
+
+        return (cached != null) ? cached.count : null;
+    }
+
+    /**
+     * Caches the result count of a query, as at a specified time.
+     *
+     * @param signature The query signature.
+     * @param count     The result count.
+     * @param now       The time now, in milliseconds.
+     */
+    synchronized void put(String signature, int count, long now)
+    {
+        counts.put(signature, new CachedCount(count, now + timeToLive));
+    }
+
+    /** CachedCount holds a cached result count and the time at which it expires. */
+    private static class CachedCount
+    {
+        /** Holds the result count. */
+        private final int count;
+
+        /** Holds the time at which the count expires, in milliseconds. */
+        private final long expiry;
+
+        /**
+         * Creates a cached count.
+         *
+         * @param count  The result count.
+         * @param expiry The time at which the count expires, in milliseconds.
+         */
+        CachedCount(int count, long expiry)
+        {
+            this.count = count;
+            this.expiry = expiry;
+        }
+    }
+
+    /** ClearOnCompletion drops all cached counts once the transaction it is registered with completes. */
+    private class ClearOnCompletion implements Synchronization
+    {
+        /** Holds the transaction that this is registered with. */
+        private final Transaction transaction;
+
+        /**
+         * Creates a synchronization to drop all cached counts once a transaction completes.
+         *
+         * @param transaction The transaction to register with.
+         */
+        ClearOnCompletion(Transaction transaction)
+        {
+            this.transaction = transaction;
+        }
+
+        /** {@inheritDoc} */
+        public void beforeCompletion()
+        {
+        }
+
+        /**
+         * Drops all cached counts, and forgets the transaction registered with.
+         *
+         * @param status The completion status of the transaction.
+         */
+        public void afterCompletion(int status)
+        {
+            if (registeredTransaction.get() == transaction)
+            {
+                registeredTransaction.remove();
+            }
+
+            clear();
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+
+import com.thesett.aima.attribute.impl.EnumeratedStringAttribute;
+import com.thesett.aima.attribute.impl.HierarchyAttribute;
+import com.thesett.aima.attribute.impl.HierarchyType;
+import com.thesett.aima.state.State;
+import com.thesett.aima.state.Type;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.model.CatalogueManagerService;
+import com.thesett.catalogue.model.DataSetUploadListener;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.EntityType;
+import com.thesett.catalogue.model.RawDataService;
+import com.thesett.common.util.StringUtils;
+import com.thesett.index.IndexMappingException;
+
+/**
+ * RawDataServiceImpl provides a standalone implementation of the {@link RawDataService} that does not run under an
+ * application server and handles its own transactions.
+ *
+ * <p/>Data sets are read one record at a time by a {@link DataSetReader}, and each record is converted into an instance
+ * of the generated bean class for its entity type. Records are written to the database in batches through
+ * {@link CatalogueManagerServiceImpl#createEntityInstances}, with each batch committed in its own transaction, so that
+ * no more than one batch of records is held in memory at any time, however large the data set is.
+ *
+ * <p/>If a batch fails to be written to the database or its indexes, it is rolled back and its records are written
+ * again one at a time, so that only the records that actually fail are reported as errors. Any other failure is also
+ * rolled back, and stops the upload.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Convert raw data set records into entities. <td> {@link DataSetReader}, {@link EntityType}
+ * <tr><td> Write entities in batched transactions. <td> {@link CatalogueManagerServiceImpl}, {@link HibernateUtil}
+ * <tr><td> Report progress and records that could not be uploaded. <td> {@link DataSetUploadListener}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class RawDataServiceImpl implements RawDataService
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(RawDataServiceImpl.class);
+
+    /** Defines the default number of records to write in each transaction. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** Defines the separator between the labels of hierarchy attribute values in data sets. */
+    public static final String HIERARCHY_SEPARATOR = "/";
+
+    /** Defines the maximum number of record errors to describe when a data set supplied as a string fails. */
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /** Holds the catalogue manager to write the uploaded entities through. */
+    private final CatalogueManagerService catalogueManager;
+
+    /** Holds the number of records to write in each transaction. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Creates a standalone instance of the {@link RawDataService}. */
+    public RawDataServiceImpl()
+    {
+        this(new CatalogueManagerServiceImpl());
+    }
+
+    /**
+     * Creates a standalone instance of the {@link RawDataService}, that writes through the specified catalogue manager.
+     *
+     * @param catalogueManager The catalogue manager to write uploaded entities through.
+     */
+    public RawDataServiceImpl(CatalogueManagerService catalogueManager)
+    {
+        this.catalogueManager = catalogueManager;
+    }
+
+    /**
+     * Sets the number of records to write in each transaction.
+     *
+     * @param batchSize The number of records to write in each transaction.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("The batch size must be at least 1, not " + batchSize + ".");
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the number of records written in each transaction.
+     *
+     * @return The number of records written in each transaction.
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>Any records that cannot be uploaded are skipped, and once the rest of the data set has been written an
+     * IllegalArgumentException is raised describing them.
+     */
+    public void uploadDataSet(String dataSet)
+    {
+        final List<String> errors = new ArrayList<String>();
+        final long[] failed = new long[1];
+
+        uploadDataSet(new StringReader(dataSet), new DataSetUploadListener()
+            {
+                public void progress(long recordsRead, long recordsWritten, long recordsFailed)
+                {
+                    failed[0] = recordsFailed;
+                }
+
+                public void recordFailed(long recordNumber, int lineNumber, String entityTypeName, String message)
+                {
+                    if (errors.size() < MAX_REPORTED_ERRORS)
+                    {
+                        errors.add("Record " + recordNumber + " (" + entityTypeName + ") on line " + lineNumber + ": " +
+                            message);
+                    }
+                }
+            });
+
+        if (failed[0] > 0)
+        {
+            throw new IllegalArgumentException(failed[0] + " records in the data set could not be uploaded: " +
+                errors);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void uploadDataSet(Reader dataSet, DataSetUploadListener listener)
+    {
+        log.debug("public void uploadDataSet(Reader dataSet, DataSetUploadListener listener): called");
+
+        DataSetReader reader = new DataSetReader(dataSet);
+
+        // The records and their entities are held for the current batch only.
+        List<DataSetReader.Record> batchRecords = new ArrayList<DataSetReader.Record>(batchSize);
+        List<EntityInstance> batch = new ArrayList<EntityInstance>(batchSize);
+
+        long written = 0;
+        long failed = 0;
+
+        try
+        {
+            for (DataSetReader.Record record = reader.nextRecord(); record != null; record = reader.nextRecord())
+            {
+                try
+                {
+                    batch.add(createEntity(record));
+                    batchRecords.add(record);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    failed++;
+                    listener.recordFailed(record.getRecordNumber(), record.getLineNumber(), record.getEntityTypeName(),
+                        e.getMessage());
+                }
+
+                if (batch.size() == batchSize)
+                {
+                    int batchWritten = writeBatch(batch, batchRecords, listener);
+                    written += batchWritten;
+                    failed += batch.size() - batchWritten;
+
+                    batch.clear();
+                    batchRecords.clear();
+
+                    listener.progress(reader.getRecordCount(), written, failed);
+                }
+            }
+
+            if (!batch.isEmpty())
+            {
+                int batchWritten = writeBatch(batch, batchRecords, listener);
+                written += batchWritten;
+                failed += batch.size() - batchWritten;
+            }
+
+            listener.progress(reader.getRecordCount(), written, failed);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean ping()
+    {
+        return true;
+    }
+
+    /**
+     * Writes a batch of entities to the database in a single transaction. If the transaction fails, it is rolled back
+     * and the records of the batch are converted and written again one at a time, each in its own transaction, and
+     * those that still fail are reported to the listener. The entities are converted again, as the failed transaction
+     * may have left identifiers allocated on them that were never stored.
+     *
+     * @param  batch        The entities to write.
+     * @param  batchRecords The records that the entities were converted from, in the same order.
+     * @param  listener     The listener to report failed records to.
+     *
+     * @return The number of entities successfully written.
+     */
+    private int writeBatch(List<EntityInstance> batch, List<DataSetReader.Record> batchRecords,
+        DataSetUploadListener listener)
+    {
+        try
+        {
+            catalogueManager.createEntityInstances(batch);
+            HibernateUtil.commitTransaction();
+
+            return batch.size();
+        }
+        catch (RuntimeException e)
+        {
+            HibernateUtil.rollbackTransaction();
+
+            if (!isWriteFailure(e))
+            {
+                throw e;
+            }
+
+            log.debug("Batch of " + batch.size() + " records failed, retrying individually.", e);
+        }
+
+        int written = 0;
+
+        for (DataSetReader.Record record : batchRecords)
+        {
+            try
+            {
+                catalogueManager.createEntityInstance(createEntity(record));
+                HibernateUtil.commitTransaction();
+                written++;
+            }
+            catch (RuntimeException e)
+            {
+                HibernateUtil.rollbackTransaction();
+
+                if (!isWriteFailure(e))
+                {
+                    throw e;
+                }
+
+                listener.recordFailed(record.getRecordNumber(), record.getLineNumber(), record.getEntityTypeName(),
+                    e.getMessage());
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Checks if an exception raised whilst writing entities is a failure to write them, that may be caused by the
+     * records being written, as opposed to a failure that should stop the upload. The transaction has been rolled back
+     * either way.
+     *
+     * @param  e The exception raised whilst writing.
+     *
+     * @return <tt>true</tt> if the exception is a failure to write the entities to the database or to their indexes.
+     */
+    private boolean isWriteFailure(RuntimeException e)
+    {
+        return (e instanceof HibernateException) || (e instanceof IllegalStateException) ||
+            (e instanceof IndexMappingException);
+    }
+
+    /**
+     * Converts a data set record into an instance of the bean class of its entity type.
+     *
+     * @param  record The record to convert.
+     *
+     * @return An entity with the field values of the record.
+     *
+     * @throws IllegalArgumentException If the record does not match an entity type in the catalogue, or any of its
+     *                                  fields do not match the fields of the entity type or cannot be converted to
+     *                                  them.
+     */
+    private EntityInstance createEntity(DataSetReader.Record record)
+    {
+        String entityTypeName = record.getEntityTypeName();
+        EntityType entityType = catalogueManager.getCatalogue().getEntityType(entityTypeName);
+
+        if (entityType == null)
+        {
+            throw new IllegalArgumentException("There is no entity type called " + entityTypeName +
+                " in the catalogue.");
+        }
+
+        State instance = (EntityInstance) entityType.getDefaultInstance();
+
+        for (Map.Entry<String, String> field : record.getFields().entrySet())
+        {
+            String fieldName = field.getKey();
+            Type fieldType = entityType.getPropertyType(fieldName);
+
+            if (fieldType == null)
+            {
+                throw new IllegalArgumentException("The field " + fieldName +
+                    " does not match any field of entity type " + entityTypeName + ".");
+            }
+
+            try
+            {
+                instance.setProperty(StringUtils.toCamelCase(fieldName), convertValue(fieldType, field.getValue()));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("The field " + fieldName + " could not be set: " + e.getMessage(),
+                    e);
+            }
+        }
+
+        return (EntityInstance) instance;
+    }
+
+    /**
+     * Converts the text of a field value into a value of the field's type. Hierarchy attributes are written as their
+     * labels separated by {@link #HIERARCHY_SEPARATOR}, and enumerations by their string values. Other types are
+     * converted by the static 'valueOf' method or the string constructor of their class.
+     *
+     * @param  type The type of the field.
+     * @param  text The text of the value.
+     *
+     * @return The converted value.
+     *
+     * @throws IllegalArgumentException If the text is not a valid value of the type.
+     */
+    private Object convertValue(Type type, String text)
+    {
+        if (type instanceof HierarchyType)
+        {
+            return HierarchyAttribute.getFactoryForClass(type.getName()).createHierarchyAttribute(
+                    text.split(HIERARCHY_SEPARATOR));
+        }
+        else if (type instanceof EnumeratedStringAttribute.EnumeratedStringType)
+        {
+            return EnumeratedStringAttribute.getFactoryForClass(type.getName()).createStringAttribute(text);
+        }
+
+        Class valueClass = type.getBaseClass();
+
+        if (String.class.equals(valueClass))
+        {
+            return text;
+        }
+
+        try
+        {
+            try
+            {
+                Method valueOf = valueClass.getMethod("valueOf", String.class);
+
+                if (Modifier.isStatic(valueOf.getModifiers()) && valueClass.equals(valueOf.getReturnType()))
+                {
+                    return valueOf.invoke(null, text);
+                }
+            }
+            catch (NoSuchMethodException e)
+            {
+                // Fall through to try a string constructor instead.
+                log.debug("No valueOf method on " + valueClass + ", trying a string constructor.", e);
+            }
+
+            Constructor constructor = valueClass.getConstructor(String.class);
+
+            return constructor.newInstance(text);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalArgumentException("Values of type " + type.getName() + " cannot be read from text.", e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new IllegalArgumentException("'" + text + "' is not a valid value of type " + type.getName() + ".",
+                e.getCause());
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalArgumentException("Values of type " + type.getName() + " cannot be read from text.", e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new IllegalArgumentException("Values of type " + type.getName() + " cannot be read from text.", e);
+        }
+    }
+}
@@ -16,11 +16,27 @@
 package com.thesett.catalogue.impl.standalone;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.log4j.Logger;
 import org.hibernate.criterion.Criterion;
 
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.model.CatalogueManagerService;
 import com.thesett.catalogue.model.PagingResult;
 import com.thesett.catalogue.model.ViewInstance;
 import com.thesett.common.util.LazyPagingList;
@@ -29,16 +45,61 @@ import com.thesett.common.util.LazyPagingList;
  * SummaryList is a lazy paging list containing {@link ViewInstance}'s. It encapsulates the name of the entity and
  * criterion to be applied to it and its related entities in order to generate the list of results.
  *
+ * <p/>In keyset paging mode, each block is fetched by seeking past the database id of the last result of the block
+ * before it, rather than by offset, so that fetching a block deep into the list costs no more than fetching the first.
+ * The id reached at the end of each block fetched is remembered against the offset of the block after it. Blocks that
+ * cannot be reached this way, because the block before them has not been fetched, are fetched by offset. In keyset
+ * mode the result count is cached by the catalogue manager, and only counted again when the first block is fetched, or
+ * after {@link #refreshCount} has been called.
+ *
+ * <p/>A {@link PrefetchPolicy} may be set, to fetch the blocks either side of each block served in the background, so
+ * that paging through the list in sequence finds the next block already fetched. Prefetched blocks are held in a small
+ * bounded cache until they are asked for. A prefetch runs on a shared pool thread, in a session and transaction of its
+ * own that it commits once the block has been fetched, so prefetching requires a thread bound session context. Blocks
+ * are projected onto views and do not refer to the session they were fetched in. A prefetch that fails is logged and
+ * the block is fetched again when asked for. Prefetches never recount the results, so in keyset mode the first block
+ * is not prefetched, and requesting a count refresh discards the blocks already prefetched.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Encapsulate query criteria for pages of dimension element summaries.
  * <tr><td> Automatically call-back the paging methods of the catalogue manager to get paged results.
+ * <tr><td> Remember the ids reached at block boundaries, for keyset paging.
+ * <tr><td> Prefetch neighbouring blocks in the background.
  * <table></pre>
  *
  * @author Rupert Smith
  */
 public class SummaryList extends LazyPagingList<ViewInstance> implements Serializable
 {
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(SummaryList.class);
+
+    /** Defines the number of threads shared by all summary lists to prefetch blocks on. */
+    private static final int PREFETCH_THREADS = 2;
+
+    /** Defines the maximum number of prefetches that may be waiting for a thread. */
+    private static final int PREFETCH_QUEUE_SIZE = 32;
+
+    /** Defines the maximum number of prefetched blocks held by a summary list. */
+    private static final int PREFETCH_CACHE_SIZE = 4;
+
+    /** Holds the pool of threads shared by all summary lists to prefetch blocks on, created when first needed. */
+    private static ExecutorService prefetchExecutor;
+
+    /** Enumerates the blocks to prefetch when a block is served. */
+    public enum PrefetchPolicy
+    {
+        /** Do not prefetch. */
+        None,
+
+        /** Prefetch the block after the block served. */
+        Next,
+
+        /** Prefetch the blocks before and after the block served. */
+        NextAndPrevious
+    }
+
     /** Holds the database entity name to query for the summary list. */
     String databaseEntityName;
 
@@ -55,11 +116,26 @@ public class SummaryList extends LazyPagingList<ViewInstance> implements Seriali
     Map<String, Criterion> joins;
 
     /** Holds a reference to the catalogue manager service to call to get more list elements. */
-    private transient CatalogueManagerServiceImpl service;
+    private transient CatalogueManagerService service;
 
     /** Flag to indicate whether local or remote calling of the catalogue service should be used. */
     boolean useLocal;
 
+    /** Flag to indicate whether blocks should be fetched by keyset paging where possible. */
+    boolean keysetPaging;
+
+    /** Holds the database ids to continue keyset paging after, by the offset of the block that follows each. */
+    Map<Integer, Long> keysetBookmarks = new HashMap<Integer, Long>();
+
+    /** Flag to indicate that the result count should be refreshed on the next block fetched. */
+    boolean countRefreshRequested;
+
+    /** Holds the policy for prefetching blocks. */
+    PrefetchPolicy prefetchPolicy = PrefetchPolicy.None;
+
+    /** Holds the blocks prefetched or being prefetched, by offset, in the order they were requested. */
+    private transient Map<Integer, Future<PagingResult>> prefetchedBlocks;
+
     /**
      * Create a new summary list.
      *
@@ -70,11 +146,11 @@ public class SummaryList extends LazyPagingList<ViewInstance> implements Seriali
      * @param viewTypeName       The view type to project the results onto.
      * @param criterion          The criterion to apply to the entity.
      * @param joins              The join criteria to apply to the entity.
-     * @param service            The optional catalogue manager service implementation to call to get pages.
+     * @param service            The optional catalogue manager service to call to get pages.
      * @param useLocal           Set to <tt>true</tt> to use local call-back, <tt>false</tt> to use remote.
      */
     public SummaryList(int size, int blockSize, String databaseEntityName, String entityTypeName, String viewTypeName,
-        Criterion criterion, Map<String, Criterion> joins, CatalogueManagerServiceImpl service, boolean useLocal)
+        Criterion criterion, Map<String, Criterion> joins, CatalogueManagerService service, boolean useLocal)
     {
         super(size, blockSize);
 
@@ -113,6 +189,61 @@ public class SummaryList extends LazyPagingList<ViewInstance> implements Seriali
         return useLocal;
     }
 
+    /**
+     * Sets the keyset paging flag.
+     *
+     * @param keysetPaging <tt>true</tt> to fetch blocks by keyset paging where possible.
+     */
+    public void setKeysetPaging(boolean keysetPaging)
+    {
+        this.keysetPaging = keysetPaging;
+    }
+
+    /**
+     * Returns the value of the keyset paging flag.
+     *
+     * @return The value of the keyset paging flag.
+     */
+    public boolean isKeysetPaging()
+    {
+        return keysetPaging;
+    }
+
+    /**
+     * Requests that the result count be counted again, rather than taken from the cache, on the next block fetched. Any
+     * prefetched blocks are discarded, so that the next block is fetched, and counted, afresh.
+     */
+    public void refreshCount()
+    {
+        countRefreshRequested = true;
+        discardPrefetchedBlocks();
+    }
+
+    /**
+     * Sets the policy for prefetching blocks.
+     *
+     * @param prefetchPolicy The policy for prefetching blocks.
+     */
+    public void setPrefetchPolicy(PrefetchPolicy prefetchPolicy)
+    {
+        this.prefetchPolicy = prefetchPolicy;
+
+        if (prefetchPolicy == PrefetchPolicy.None)
+        {
+            discardPrefetchedBlocks();
+        }
+    }
+
+    /**
+     * Gets the policy for prefetching blocks.
+     *
+     * @return The policy for prefetching blocks.
+     */
+    public PrefetchPolicy getPrefetchPolicy()
+    {
+        return prefetchPolicy;
+    }
+
     /**
      * Gets a page of results by calling the catalogue manager services paging method, through the service locator.
      *
@@ -123,24 +254,273 @@ public class SummaryList extends LazyPagingList<ViewInstance> implements Seriali
      */
     public List<ViewInstance> getBlock(int start, int number)
     {
-        PagingResult result = null;
-
         // Get the requested block using local or remote calling.
-        if (useLocal)
+        if (!useLocal)
         {
-            result =
-                service.executePagedQuery(start, number, databaseEntityName, entityTypeName, viewTypeName, criterion,
-                    joins);
+            throw new UnsupportedOperationException("Remote operation not supported.");
         }
-        else
+
+        // Take the block from the prefetched blocks if it is there, or fetch it now if not.
+        PagingResult result = takePrefetchedBlock(start);
+
+        if (result == null)
         {
-            throw new UnsupportedOperationException("Remote operation not supported.");
+            result = createBlockQuery(start, number, false).call();
+        }
+
+        // Remember where the block ended, to seek to the block after it.
+        if (result.lastId != null)
+        {
+            keysetBookmarks.put(start + result.list.size(), result.lastId);
         }
 
         // Update the lists size in response to any changes to the results set.
         setSize(result.size);
 
+        // Fetch the neighbouring blocks in the background, if prefetching.
+        if (prefetchPolicy != PrefetchPolicy.None)
+        {
+            if (start + number < result.size)
+            {
+                prefetchBlock(start + number, number);
+            }
+
+            if ((prefetchPolicy == PrefetchPolicy.NextAndPrevious) && (start - number >= 0))
+            {
+                prefetchBlock(start - number, number);
+            }
+        }
+
         // Return the list.
         return result.list;
     }
+
+    /**
+     * Creates a query to fetch a block. All decisions about how to fetch the block are made when the query is created,
+     * so that it can be run on another thread without reference to the state of this list. A query for a prefetch
+     * never recounts the results, and leaves any requested count refresh to the next block served.
+     *
+     * @param  start    The start offset to get from.
+     * @param  number   The number of results to get.
+     * @param  prefetch <tt>true</tt> if the query is for a prefetch.
+     *
+     * @return A query that fetches the block.
+     */
+    private BlockQuery createBlockQuery(final int start, final int number, boolean prefetch)
+    {
+        final CatalogueManagerService service = this.service;
+
+        // Seek to the block by keyset if in keyset mode and the position to seek after is known. The first block
+        // always refreshes the count, so that the count is brought up to date when paging starts again from the top.
+        if (keysetPaging && ((start == 0) || keysetBookmarks.containsKey(start)))
+        {
+            final Long afterId = keysetBookmarks.get(start);
+            final boolean refreshCount = !prefetch && ((start == 0) || countRefreshRequested);
+
+            if (!prefetch)
+            {
+                countRefreshRequested = false;
+            }
+
+            return new BlockQuery()
+                {
+                    public PagingResult call()
+                    {
+                        return service.executeKeysetPagedQuery(afterId, number, databaseEntityName, entityTypeName,
+                                viewTypeName, criterion, joins, refreshCount);
+                    }
+                };
+        }
+
+        // Otherwise fetch the block by offset.
+        else
+        {
+            return new BlockQuery()
+                {
+                    public PagingResult call()
+                    {
+                        return service.executePagedQuery(start, number, databaseEntityName, entityTypeName,
+                                viewTypeName, criterion, joins);
+                    }
+                };
+        }
+    }
+
+    /**
+     * Starts fetching a block in the background, unless it is already prefetched or being prefetched, or is the first
+     * block in keyset mode, which always recounts. If the prefetch cache is full, the oldest prefetch is discarded to
+     * make room. If the prefetch threads are too busy, the block is not prefetched.
+     *
+     * @param start  The start offset to get from.
+     * @param number The number of results to get.
+     */
+    private void prefetchBlock(int start, int number)
+    {
+        Map<Integer, Future<PagingResult>> prefetched = getPrefetchedBlocks();
+
+        if (prefetched.containsKey(start) || (keysetPaging && (start == 0)))
+        {
+            return;
+        }
+
+        final BlockQuery query = createBlockQuery(start, number, true);
+
+        try
+        {
+            Future<PagingResult> future = getPrefetchExecutor().submit(new Callable<PagingResult>()
+                    {
+                        public PagingResult call()
+                        {
+                            // Fetch the block in the prefetch threads own session, and end it once done.
+                            try
+                            {
+                                PagingResult result = query.call();
+                                HibernateUtil.commitTransaction();
+
+                                return result;
+                            }
+                            catch (RuntimeException e)
+                            {
+                                HibernateUtil.rollbackTransaction();
+                                log.debug("Prefetch of a summary list block failed.", e);
+
+                                throw e;
+                            }
+                        }
+                    });
+
+            // Make room in the cache for the new block, cancelling the oldest prefetch.
+            if (prefetched.size() >= PREFETCH_CACHE_SIZE)
+            {
+                Iterator<Future<PagingResult>> oldest = prefetched.values().iterator();
+                oldest.next().cancel(false);
+                oldest.remove();
+            }
+
+            prefetched.put(start, future);
+        }
+        catch (RejectedExecutionException e)
+        {
+            log.debug("Prefetch threads are busy, block at " + start + " not prefetched.");
+        }
+    }
+
+    /**
+     * Takes a block from the prefetched blocks, waiting for it if it is still being fetched.
+     *
+     * @param  start The start offset of the block.
+     *
+     * @return The prefetched block, or <tt>null</tt> if it was not prefetched or its prefetch failed.
+     */
+    private PagingResult takePrefetchedBlock(int start)
+    {
+        if (prefetchedBlocks == null)
+        {
+            return null;
+        }
+
+        Future<PagingResult> future = prefetchedBlocks.remove(start);
+
+        if (future == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            // The failure was logged by the prefetch thread, so fall back to fetching the block again.
+            return null;
+        }
+    }
+
+    /** Cancels and discards all prefetched blocks. */
+    private void discardPrefetchedBlocks()
+    {
+        if (prefetchedBlocks != null)
+        {
+            for (Future<PagingResult> future : prefetchedBlocks.values())
+            {
+                future.cancel(false);
+            }
+
+            prefetchedBlocks.clear();
+        }
+    }
+
+    /**
+     * Gets the cache of prefetched blocks, creating it if this list has not prefetched before, or was deserialized.
+     *
+     * @return The cache of prefetched blocks.
+     */
+    private Map<Integer, Future<PagingResult>> getPrefetchedBlocks()
+    {
+        if (prefetchedBlocks == null)
+        {
+            prefetchedBlocks = new LinkedHashMap<Integer, Future<PagingResult>>();
+        }
+
+        return prefetchedBlocks;
+    }
+
+    /**
+     * Gets the pool of threads shared by all summary lists to prefetch blocks on, creating it when first needed. The
+     * pool has a bounded queue, and rejects prefetches when it is full.
+     *
+     * @return The pool of threads to prefetch blocks on.
+     */
+    private static synchronized ExecutorService getPrefetchExecutor()
+    {
+        if (prefetchExecutor == null)
+        {
+            prefetchExecutor =
+                new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE), new PrefetchThreadFactory());
+        }
+
+        return prefetchExecutor;
+    }
+
+    /** A query for a block, that only raises runtime exceptions. */
+    private abstract static class BlockQuery implements Callable<PagingResult>
+    {
+        /**
+         * Fetches the block.
+         *
+         * @return The block.
+         */
+        public abstract PagingResult call();
+    }
+
+    /** Creates daemon threads for prefetching blocks on, so that prefetching does not hold up JVM shutdown. */
+    private static class PrefetchThreadFactory implements ThreadFactory
+    {
+        /** Used to number the prefetch threads. */
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        /**
+         * Creates a new daemon prefetch thread.
+         *
+         * @param  runnable The work for the thread to run.
+         *
+         * @return A new daemon prefetch thread.
+         */
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "summary-list-prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
 }
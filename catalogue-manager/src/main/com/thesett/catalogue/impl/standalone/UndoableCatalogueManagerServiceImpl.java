@@ -15,6 +15,8 @@
  */
 package com.thesett.catalogue.impl.standalone;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -129,19 +131,72 @@ public class UndoableCatalogueManagerServiceImpl extends UndoStackBase implement
         undoStack.offer(undoOperation);
     }
 
+    /** {@inheritDoc} */
+    public void createEntityInstances(Collection<EntityInstance> elements)
+    {
+        // Create the entities.
+        catalogueManagerService.createEntityInstances(elements);
+
+        // Create and post an undo operation for each entity creation.
+        for (EntityInstance element : elements)
+        {
+            undoStack.offer(new UndoCreateEntity(element.getOpaqueId(), element));
+        }
+    }
+
     /** {@inheritDoc} */
     public EntityInstance retrieveEntityInstance(EntityType entityType, InternalId id)
     {
         return catalogueManagerService.retrieveEntityInstance(entityType, id);
     }
 
+    /** {@inheritDoc} */
+    public List<EntityInstance> retrieveEntityInstances(EntityType entityType, List<InternalId> ids)
+    {
+        return catalogueManagerService.retrieveEntityInstances(entityType, ids);
+    }
+
+    /**
+     * Permanently deletes all entities of a type that match a set of named attributes. The deleted entities are not
+     * loaded, so this operation cannot be undone.
+     *
+     * @param  entityType The type of entity to delete.
+     * @param  matchings  The attributes to match.
+     *
+     * @return The number of entities deleted.
+     */
+    public int deleteEntityInstances(EntityType entityType, Map<String, Attribute> matchings)
+    {
+        return catalogueManagerService.deleteEntityInstances(entityType, matchings);
+    }
+
+    /**
+     * Overwrites fields of all entities of a type that match a set of named attributes. The previous values are not
+     * loaded, so this operation cannot be undone.
+     *
+     * @param  entityType The type of entity to update.
+     * @param  matchings  The attributes to match.
+     * @param  values     The new values of the fields to overwrite, by field name.
+     *
+     * @return The number of entities updated.
+     */
+    public int updateEntityInstances(EntityType entityType, Map<String, Attribute> matchings,
+        Map<String, Object> values)
+    {
+        return catalogueManagerService.updateEntityInstances(entityType, matchings, values);
+    }
+
+    /** {@inheritDoc} */
+    public List<ViewInstance> retrieveViewInstances(EntityType entityType, List<InternalId> ids, String viewTypeName)
+    {
+        return catalogueManagerService.retrieveViewInstances(entityType, ids, viewTypeName);
+    }
+
     /** {@inheritDoc} */
     public void updateEntityInstance(EntityInstance element)
     {
         // Create an undo operation for the entity update.
-        Session session = HibernateUtil.getCurrentSession();
-        EntityInstance instanceToUpdate = retrieveEntityInstance(element.getComponentType(), element.getOpaqueId());
-        session.evict(instanceToUpdate);
+        EntityInstance instanceToUpdate = retrieveOriginal(element);
 
         Undoable undoOperation = new UndoModifyEntity(instanceToUpdate.getOpaqueId(), instanceToUpdate);
 
@@ -152,6 +207,29 @@ public class UndoableCatalogueManagerServiceImpl extends UndoStackBase implement
         undoStack.offer(undoOperation);
     }
 
+    /** {@inheritDoc} */
+    public void updateEntityInstances(Collection<EntityInstance> elements)
+    {
+        // Create an undo operation for each entity update, from a detached copy of the entity before it is updated.
+        List<Undoable> undoOperations = new ArrayList<Undoable>(elements.size());
+
+        for (EntityInstance element : elements)
+        {
+            EntityInstance instanceToUpdate = retrieveOriginal(element);
+
+            undoOperations.add(new UndoModifyEntity(instanceToUpdate.getOpaqueId(), instanceToUpdate));
+        }
+
+        // Modify the entities.
+        catalogueManagerService.updateEntityInstances(elements);
+
+        // Post the undo operations onto the undo stack.
+        for (Undoable undoOperation : undoOperations)
+        {
+            undoStack.offer(undoOperation);
+        }
+    }
+
     /** {@inheritDoc} */
     public void deleteEntityInstance(EntityType entityType, InternalId id)
     {
@@ -203,6 +281,15 @@ public class UndoableCatalogueManagerServiceImpl extends UndoStackBase implement
             criterion, joins);
     }
 
+    /** {@inheritDoc} */
+    public PagingResult executeKeysetPagedQuery(Long afterId, int number, String databaseEntityName,
+        String entityTypeName, String viewTypeName, Criterion criterion, Map<String, Criterion> joins,
+        boolean refreshCount)
+    {
+        return catalogueManagerService.executeKeysetPagedQuery(afterId, number, databaseEntityName, entityTypeName,
+            viewTypeName, criterion, joins, refreshCount);
+    }
+
     /** {@inheritDoc} */
     public EntityInstance retrieveByExternalId(String externalId)
     {
@@ -215,6 +302,37 @@ public class UndoableCatalogueManagerServiceImpl extends UndoStackBase implement
         catalogueManagerService.rebuildIndexes();
     }
 
+    /** {@inheritDoc} */
+    public boolean isIndexComplete()
+    {
+        return catalogueManagerService.isIndexComplete();
+    }
+
+    /**
+     * Reads a detached copy of an entity as it is before being updated, to restore it from on undo. The entity is read
+     * on the primary session, which is where it will be written. If the updated entity is itself attached to that
+     * session, it is evicted first, so that the copy is read from the database rather than being the updated entity.
+     * The copy is evicted from the session once read, so that it is not written back by the update.
+     *
+     * @param  element The updated entity.
+     *
+     * @return A detached copy of the entity as it is before being updated.
+     */
+    private EntityInstance retrieveOriginal(EntityInstance element)
+    {
+        Session session = HibernateUtil.getCurrentSession();
+
+        if (session.contains(element))
+        {
+            session.evict(element);
+        }
+
+        EntityInstance original = retrieveEntityInstance(element.getComponentType(), element.getOpaqueId());
+        session.evict(original);
+
+        return original;
+    }
+
     /**
      * Gets the id tracking map for a given type, ensuring that if the type does not yet exist in the map, that it is
      * created.
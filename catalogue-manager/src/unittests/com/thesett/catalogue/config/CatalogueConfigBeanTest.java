@@ -26,6 +26,7 @@ import org.apache.log4j.NDC;
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Check that catalogue configuration succeeds in development mode.
  * <tr><td> Check that catalogue configuration succeeds in production mode.
+ * <tr><td> Check that up to date reference tables are skipped, and others rewritten. <td> {@link StubReferenceTable}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -49,6 +50,45 @@ public class CatalogueConfigBeanTest extends TestCase
     {
     }
 
+    /** Check that a reference table that holds the rows in the model is left as it is. */
+    public void testUpToDateReferenceTableSkipped() throws Exception
+    {
+        StubReferenceTable table = new StubReferenceTable();
+        table.addRow(0L, "red");
+        table.addRow(1L, "green");
+
+        assertFalse("An up to date table should not be filled in again.",
+            CatalogueConfigBeanImpl.clearIfOutOfDate(table.getConnection(), "Colour_enumeration",
+                new String[] { "colour" }, modelChecksum("red", "green")));
+        assertEquals("An up to date table should only be read.", 1, table.getStatements().size());
+        assertEquals("An up to date table should keep its rows.", 2, table.getRowCount());
+    }
+
+    /** Check that a reference table that does not hold the rows in the model is cleared, to be filled in again. */
+    public void testOutOfDateReferenceTableRewritten() throws Exception
+    {
+        StubReferenceTable table = new StubReferenceTable();
+        table.addRow(0L, "red");
+
+        assertTrue("An out of date table should be filled in again.",
+            CatalogueConfigBeanImpl.clearIfOutOfDate(table.getConnection(), "Colour_enumeration",
+                new String[] { "colour" }, modelChecksum("red", "green")));
+        assertEquals("An out of date table should be cleared.", "DELETE FROM Colour_enumeration",
+            table.getStatements().get(1));
+        assertEquals("An out of date table should have no rows left.", 0, table.getRowCount());
+    }
+
+    /** Check that an empty reference table is filled in without being cleared first. */
+    public void testEmptyReferenceTableFilledIn() throws Exception
+    {
+        StubReferenceTable table = new StubReferenceTable();
+
+        assertTrue("An empty table should be filled in.",
+            CatalogueConfigBeanImpl.clearIfOutOfDate(table.getConnection(), "Colour_enumeration",
+                new String[] { "colour" }, modelChecksum("red")));
+        assertEquals("An empty table should only be read.", 1, table.getStatements().size());
+    }
+
     /** Check that catalogue configuration succeeds in development mode. */
     /*public void testDevModeConfig() throws Exception
     {
@@ -87,4 +127,24 @@ public class CatalogueConfigBeanTest extends TestCase
         // Clear the nested diagnostic context for this test.
         NDC.pop();
     }
+
+    /**
+     * Builds the checksum of the rows that the model expects an enumeration table to hold, numbering the values from
+     * zero.
+     *
+     * @param  values The enumeration values.
+     *
+     * @return The checksum of the rows.
+     */
+    private ReferenceTableChecksum modelChecksum(String... values)
+    {
+        ReferenceTableChecksum checksum = new ReferenceTableChecksum();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            checksum.addRow(i, new String[] { values[i] });
+        }
+
+        return checksum;
+    }
 }
@@ -0,0 +1,705 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import com.thesett.aima.state.ComponentType;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.ExternalId;
+import com.thesett.catalogue.model.ExternallyIdentified;
+import com.thesett.index.IndexStore;
+import com.thesett.index.IndexUnknownKeyException;
+import com.thesett.index.TransactionalIndex;
+import com.thesett.index.tx.IndexTxId;
+import com.thesett.index.tx.IndexTxManager;
+
+/**
+ * Tests that the {@link IndexWarmUp} indexes the types of a catalogue in priority order, commits each type to the
+ * indexes a chunk at a time, and records the types that fail without stopping. Also tests that changes to entities
+ * made during the warm-up are applied to entities that have not been indexed yet, and are not overwritten by the rows
+ * that the warm-up read.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that the priority types are indexed first, followed by the rest in model order.
+ * <tr><td> Check that a type is committed to the indexes a chunk at a time.
+ * <tr><td> Check that a type that fails is recorded and the warm-up moves on.
+ * <tr><td> Check that updates of unindexed entities add them, and deletes of them are ignored, during the warm-up.
+ * <tr><td> Check that updates of unindexed entities are refused once the warm-up is complete.
+ * <tr><td> Check that rows of entities changed during the warm-up do not overwrite the changes.
+ * <tr><td> Check that a chunk is restarted when its entities are changed before it holds the index write locks.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexWarmUpTest extends TestCase
+{
+    /** The name of the single index that the test types are indexed in. */
+    private static final String INDEX_NAME = "testIndex";
+
+    /** The name of the type whose rows cannot be indexed. */
+    private static final String BROKEN_TYPE = "Broken";
+
+    /** The maximum time to wait for a warm-up to finish, in milliseconds. */
+    private static final long TIMEOUT = 10000L;
+
+    /** Holds the number of rows of each indexed type, in model order. */
+    private Map<String, Integer> rowCounts;
+
+    /** Holds the stub index that the warm-up adds to. */
+    private IndexHandler index;
+
+    /** Holds the changes to make once the indexes have been cleared, or <tt>null</tt> to make none. */
+    private Runnable onCount;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public IndexWarmUpTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that the priority types are indexed first, followed by the rest in model order.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testPriorityTypesIndexedFirst() throws Exception
+    {
+        rowCounts.put("Alpha", 3);
+        rowCounts.put("Beta", 4);
+        rowCounts.put("Gamma", 5);
+
+        IndexWarmUp warmUp = createWarmUp(Arrays.asList("Gamma", "Unknown"));
+        warmUp.run();
+
+        assertTrue("Expected the warm-up to be complete.", warmUp.isComplete());
+        assertEquals("Expected the warm-up to be fully complete.", 1.0f, warmUp.getCompleteness(), 0.0f);
+        assertEquals("Expected the priority type first, then the rest in model order.",
+            Arrays.asList("Gamma", "Alpha", "Beta"), new ArrayList<String>(warmUp.getIndexedTypes().keySet()));
+        assertEquals("Expected the number of rows indexed of each type to be reported.", Integer.valueOf(4),
+            warmUp.getIndexedTypes().get("Beta"));
+        assertEquals("Expected every row to be committed to the index.", 12, index.committed.size());
+    }
+
+    /**
+     * Check that a type is committed to the indexes a chunk at a time, so that the index write lock is not held for
+     * the whole of the type.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testTypeCommittedInChunks() throws Exception
+    {
+        rowCounts.put("Alpha", 250);
+
+        IndexWarmUp warmUp = createWarmUp(Collections.<String>emptyList());
+        warmUp.start();
+
+        assertTrue("Expected the warm-up to finish.", warmUp.awaitFinished(TIMEOUT));
+        assertTrue("Expected the warm-up to be complete.", warmUp.isComplete());
+        assertEquals("Expected every row to be committed to the index.", 250, index.committed.size());
+        assertEquals("Expected the rows to be committed in three chunks.", 3, index.commitsWithWrites);
+        assertTrue("Expected no uncommitted writes to be left over.", index.pending.isEmpty());
+    }
+
+    /**
+     * Check that a type that fails is recorded, and that the warm-up moves on to the next type.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFailedTypeRecordedAndSkipped() throws Exception
+    {
+        rowCounts.put(BROKEN_TYPE, 3);
+        rowCounts.put("Alpha", 2);
+
+        IndexWarmUp warmUp = createWarmUp(Collections.<String>emptyList());
+        warmUp.run();
+
+        assertFalse("Expected the warm-up not to be complete.", warmUp.isComplete());
+        assertEquals("Expected the failed type to be recorded.", Collections.singletonList(BROKEN_TYPE),
+            warmUp.getFailedTypes());
+        assertEquals("Expected the other type to be indexed.", Collections.singleton("Alpha"),
+            warmUp.getIndexedTypes().keySet());
+        assertEquals("Expected only the rows of the other type to be committed.", 2, index.committed.size());
+        assertTrue("Expected the writes of the failed chunk to be rolled back.", index.pending.isEmpty());
+    }
+
+    /**
+     * Check that updating an entity that has not been indexed yet adds it, and that deleting one is ignored, whilst
+     * the warm-up runs, and that the rows of the changed entities do not overwrite the changes.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUnindexedChangesAppliedDuringWarmUp() throws Exception
+    {
+        rowCounts.put("Alpha", 3);
+
+        final IndexWarmUp warmUp = createWarmUp(Collections.<String>emptyList());
+        final EntityInstance updated = createRow(new ExternalId("Alpha1", "Alpha"));
+
+        onCount =
+            new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        warmUp.update(INDEX_NAME, Collections.singletonList(updated));
+                        warmUp.remove(INDEX_NAME, new ExternalId("Alpha2", "Alpha"));
+                    }
+                    catch (IndexUnknownKeyException e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+
+        warmUp.run();
+
+        assertTrue("Expected the warm-up to be complete.", warmUp.isComplete());
+        assertSame("Expected the updated entity to keep its update.", updated,
+            index.committed.get(new ExternalId("Alpha1", "Alpha")));
+        assertFalse("Expected the deleted entity to stay deleted.",
+            index.committed.containsKey(new ExternalId("Alpha2", "Alpha")));
+        assertTrue("Expected the unchanged entity to be indexed.",
+            index.committed.containsKey(new ExternalId("Alpha0", "Alpha")));
+    }
+
+    /**
+     * Check that updating an entity that is not in the index is refused once the warm-up is complete.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUnindexedUpdateRefusedOnceComplete() throws Exception
+    {
+        rowCounts.put("Alpha", 1);
+
+        IndexWarmUp warmUp = createWarmUp(Collections.<String>emptyList());
+        warmUp.run();
+
+        try
+        {
+            warmUp.update(INDEX_NAME, Collections.singletonList(createRow(new ExternalId("Other0", "Alpha"))));
+            fail("Expected an update of an entity that is not in the index to be refused.");
+        }
+        catch (IndexUnknownKeyException e)
+        {
+            // Expected.
+        }
+    }
+
+    /**
+     * Check that a chunk is rolled back and indexed again without an entity that was changed, and its change committed,
+     * after the chunk checked for changes but before it took the index write locks.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testChunkRestartedWhenChangedBeforeLocked() throws Exception
+    {
+        rowCounts.put("Alpha", 3);
+
+        final IndexWarmUp warmUp = createWarmUp(Collections.<String>emptyList());
+        final ExternalId changedKey = new ExternalId("Alpha1", "Alpha");
+        final EntityInstance changed = createRow(changedKey);
+
+        index.onFirstAdd =
+            new Runnable()
+            {
+                public void run()
+                {
+                    warmUp.recordChange(changedKey);
+                    index.committed.put(changedKey, changed);
+                }
+            };
+
+        warmUp.run();
+
+        assertTrue("Expected the warm-up to be complete.", warmUp.isComplete());
+        assertEquals("Expected the chunk to be rolled back once.", 1, index.rollbacks);
+        assertSame("Expected the change not to be overwritten by the chunk.", changed, index.committed.get(changedKey));
+        assertEquals("Expected every entity to be indexed.", 3, index.committed.size());
+        assertTrue("Expected no uncommitted writes to be left over.", index.pending.isEmpty());
+    }
+
+    protected void setUp() throws Exception
+    {
+        // Push a client identifier onto the Nested Diagnostic Context so that Log4J will be able to identify all
+        // logging output for these tests.
+        NDC.push(getName());
+
+        rowCounts = new LinkedHashMap<String, Integer>();
+        index = new IndexHandler();
+        onCount = null;
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Clear the nested diagnostic context for this test.
+        NDC.pop();
+    }
+
+    /**
+     * Creates a warm-up of the test types, with a single index worker so that the chunks are indexed in order.
+     *
+     * @param  priorityTypes The names of the types to index first.
+     *
+     * @return A warm-up of the test types.
+     */
+    private IndexWarmUp createWarmUp(List<String> priorityTypes)
+    {
+        Map<String, ComponentType> types = new LinkedHashMap<String, ComponentType>();
+
+        for (String typeName : rowCounts.keySet())
+        {
+            types.put(typeName, (ComponentType) createStub(ComponentType.class, new TypeHandler(typeName)));
+        }
+
+        Catalogue catalogue = (Catalogue) createStub(Catalogue.class, new CatalogueHandler(types));
+        IndexStore indexStore = (IndexStore) createStub(IndexStore.class, new IndexStoreHandler());
+
+        IndexWarmUp warmUp = new IndexWarmUp(catalogue, indexStore, new StubHibernateConfigBean(), priorityTypes);
+        warmUp.setRebuildWorkers(1);
+
+        return warmUp;
+    }
+
+    /**
+     * Creates a stub entity, identified by an external id.
+     *
+     * @param  externalId The external id of the entity.
+     *
+     * @return A stub entity.
+     */
+    private static EntityInstance createRow(ExternalId externalId)
+    {
+        return (EntityInstance) createStub(new Class[] { EntityInstance.class, ExternallyIdentified.class },
+            new RowHandler(externalId));
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type    The interface to stub.
+     * @param  handler The handler implementing the stub.
+     *
+     * @return A stub of the interface.
+     */
+    private static Object createStub(Class type, InvocationHandler handler)
+    {
+        return Proxy.newProxyInstance(IndexWarmUpTest.class.getClassLoader(), new Class[] { type }, handler);
+    }
+
+    /**
+     * Creates a stub of one or more interfaces.
+     *
+     * @param  types   The interfaces to stub.
+     * @param  handler The handler implementing the stub.
+     *
+     * @return A stub of the interfaces.
+     */
+    private static Object createStub(Class[] types, InvocationHandler handler)
+    {
+        return Proxy.newProxyInstance(IndexWarmUpTest.class.getClassLoader(), types, handler);
+    }
+
+    /**
+     * Provides the default result of a stubbed method, which is nothing for objects, and zero or false for primitives.
+     *
+     * @param  proxy  The stub the method was called on.
+     * @param  method The stubbed method.
+     * @param  args   The arguments to the method.
+     *
+     * @return The default result of the method.
+     */
+    private static Object defaultResult(Object proxy, Method method, Object[] args)
+    {
+        Class returnType = method.getReturnType();
+
+        if ("equals".equals(method.getName()))
+        {
+            return proxy == args[0];
+        }
+        else if ("hashCode".equals(method.getName()))
+        {
+            return System.identityHashCode(proxy);
+        }
+        else if (returnType == Boolean.TYPE)
+        {
+            return false;
+        }
+        else if (returnType == Integer.TYPE)
+        {
+            return 0;
+        }
+        else if (returnType == Long.TYPE)
+        {
+            return 0L;
+        }
+
+        return null;
+    }
+
+    /** TypeHandler implements stub component types, which only have names. */
+    private static class TypeHandler implements InvocationHandler
+    {
+        /** Holds the name of the type. */
+        private final String name;
+
+        /**
+         * Creates a stub component type.
+         *
+         * @param name The name of the type.
+         */
+        TypeHandler(String name)
+        {
+            this.name = name;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if ("getName".equals(method.getName()) || "toString".equals(method.getName()))
+            {
+                return name;
+            }
+
+            return defaultResult(proxy, method, args);
+        }
+    }
+
+    /** CatalogueHandler implements a stub catalogue, in which every type is indexed in the same index. */
+    private static class CatalogueHandler implements InvocationHandler
+    {
+        /** Holds the types of the catalogue by name, in model order. */
+        private final Map<String, ComponentType> types;
+
+        /**
+         * Creates a stub catalogue.
+         *
+         * @param types The types of the catalogue by name, in model order.
+         */
+        CatalogueHandler(Map<String, ComponentType> types)
+        {
+            this.types = types;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if ("getComponentType".equals(method.getName()))
+            {
+                return types.get(args[0]);
+            }
+            else if ("getAllComponentTypes".equals(method.getName()))
+            {
+                return new ArrayList<ComponentType>(types.values());
+            }
+            else if ("getAllIndexes".equals(method.getName()))
+            {
+                return Collections.singleton(INDEX_NAME);
+            }
+            else if ("getIndexesForDimension".equals(method.getName()))
+            {
+                return Collections.singletonList(INDEX_NAME);
+            }
+
+            return defaultResult(proxy, method, args);
+        }
+    }
+
+    /** IndexStoreHandler implements a stub index store, that holds the single test index. */
+    private class IndexStoreHandler implements InvocationHandler
+    {
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if ("getNamedIndex".equals(method.getName()))
+            {
+                return createStub(TransactionalIndex.class, index);
+            }
+
+            return defaultResult(proxy, method, args);
+        }
+    }
+
+    /**
+     * IndexHandler implements a stub transactional index, that holds back the entries written in each index transaction
+     * until it commits. Entries written outside of an index transaction are committed at once. Adding an entry
+     * replaces any entry that the key already has. Rows of the broken type cannot be added.
+     */
+    private static class IndexHandler implements InvocationHandler
+    {
+        /** Holds the entries written by each index transaction, that have not been committed, by key. */
+        final Map<IndexTxId, Map<Object, Object>> pending = new HashMap<IndexTxId, Map<Object, Object>>();
+
+        /** Holds the committed entries, by key. */
+        final Map<Object, Object> committed = new HashMap<Object, Object>();
+
+        /** Holds the number of commits that made changes. */
+        int commitsWithWrites;
+
+        /** Holds the number of rollbacks that discarded changes. */
+        int rollbacks;
+
+        /** Holds work to do when the first entry is added, or <tt>null</tt> to do none. */
+        Runnable onFirstAdd;
+
+        /** {@inheritDoc} */
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws IndexUnknownKeyException
+        {
+            IndexTxId txId = IndexTxManager.getTxIdFromThread();
+
+            if ("add".equals(method.getName()))
+            {
+                ExternalId key = (ExternalId) args[0];
+
+                if (BROKEN_TYPE.equals(key.getResource()))
+                {
+                    throw new IllegalStateException("The broken type cannot be indexed.");
+                }
+
+                if (onFirstAdd != null)
+                {
+                    Runnable work = onFirstAdd;
+                    onFirstAdd = null;
+                    work.run();
+                }
+
+                getWrites(txId).put(key, args[1]);
+
+                return null;
+            }
+            else if ("update".equals(method.getName()))
+            {
+                checkKnown(txId, args[0]);
+                getWrites(txId).put(args[0], args[1]);
+
+                return null;
+            }
+            else if ("remove".equals(method.getName()))
+            {
+                checkKnown(txId, args[0]);
+                committed.remove(args[0]);
+
+                return null;
+            }
+            else if ("commit".equals(method.getName()))
+            {
+                Map<Object, Object> writes = pending.remove(txId);
+
+                if (writes != null)
+                {
+                    committed.putAll(writes);
+                    commitsWithWrites++;
+                }
+
+                return null;
+            }
+            else if ("rollback".equals(method.getName()))
+            {
+                if (pending.remove(txId) != null)
+                {
+                    rollbacks++;
+                }
+
+                return null;
+            }
+            else if ("clear".equals(method.getName()))
+            {
+                committed.clear();
+
+                return null;
+            }
+
+            return defaultResult(proxy, method, args);
+        }
+
+        /**
+         * Gets the entries written by an index transaction, or the committed entries if there is no transaction.
+         *
+         * @param  txId The index transaction, or <tt>null</tt> if there is none.
+         *
+         * @return The entries written by the index transaction.
+         */
+        private Map<Object, Object> getWrites(IndexTxId txId)
+        {
+            if (txId == null)
+            {
+                return committed;
+            }
+
+            Map<Object, Object> writes = pending.get(txId);
+
+            if (writes == null)
+            {
+                writes = new HashMap<Object, Object>();
+                pending.put(txId, writes);
+            }
+
+            return writes;
+        }
+
+        /**
+         * Checks that a key has an entry in the index.
+         *
+         * @param  txId The index transaction, or <tt>null</tt> if there is none.
+         * @param  key  The key to check.
+         *
+         * @throws IndexUnknownKeyException If the key has no entry in the index.
+         */
+        private void checkKnown(IndexTxId txId, Object key) throws IndexUnknownKeyException
+        {
+            if (!committed.containsKey(key) && !getWrites(txId).containsKey(key))
+            {
+                throw new IndexUnknownKeyException("The key, " + key + ", cannot be found in the index.", null, null,
+                    null);
+            }
+        }
+    }
+
+    /** StubHibernateConfigBean opens stub sessions onto the test rows. */
+    private class StubHibernateConfigBean extends HibernateConfigBean
+    {
+        /** {@inheritDoc} */
+        public Session getSession()
+        {
+            return (Session) createStub(Session.class, new DatabaseHandler(null, 0));
+        }
+    }
+
+    /**
+     * DatabaseHandler implements stub sessions, transactions, criteria and scrollable results, over a number of rows
+     * of a single type.
+     */
+    private class DatabaseHandler implements InvocationHandler
+    {
+        /** Holds the name of the type whose rows are selected, or <tt>null</tt> if none are. */
+        private final String typeName;
+
+        /** Holds the number of rows of the type. */
+        private final int rows;
+
+        /** Holds the position of the scrollable results. */
+        private int position = -1;
+
+        /**
+         * Creates a stub database object.
+         *
+         * @param typeName The name of the type whose rows are selected, or <tt>null</tt> if none are.
+         * @param rows     The number of rows of the type.
+         */
+        DatabaseHandler(String typeName, int rows)
+        {
+            this.typeName = typeName;
+            this.rows = rows;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("beginTransaction".equals(name))
+            {
+                return createStub(Transaction.class, this);
+            }
+            else if ("createCriteria".equals(name))
+            {
+                String entityName = (String) args[0];
+                String selected = entityName.substring(0, entityName.length() - Catalogue.ONLINE_TABLE_EXT.length());
+
+                return createStub(Criteria.class, new DatabaseHandler(selected, rowCounts.get(selected)));
+            }
+            else if ("uniqueResult".equals(name))
+            {
+                if (onCount != null)
+                {
+                    onCount.run();
+                }
+
+                return (long) rows;
+            }
+            else if ("scroll".equals(name))
+            {
+                return createStub(ScrollableResults.class, new DatabaseHandler(typeName, rows));
+            }
+            else if ("next".equals(name))
+            {
+                return ++position < rows;
+            }
+            else if ("get".equals(name))
+            {
+                return createRow(new ExternalId(typeName + position, typeName));
+            }
+            else if (Criteria.class.isAssignableFrom(method.getReturnType()))
+            {
+                return proxy;
+            }
+
+            return defaultResult(proxy, method, args);
+        }
+    }
+
+    /** RowHandler implements stub entities, that are identified by external id. */
+    private static class RowHandler implements InvocationHandler
+    {
+        /** Holds the external id of the row. */
+        private final ExternalId externalId;
+
+        /**
+         * Creates a stub entity.
+         *
+         * @param externalId The external id of the row.
+         */
+        RowHandler(ExternalId externalId)
+        {
+            this.externalId = externalId;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if ("getExternalId".equals(method.getName()))
+            {
+                return externalId;
+            }
+
+            return defaultResult(proxy, method, args);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.Type;
+
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.ExternalId;
+import com.thesett.index.IndexStore;
+import com.thesett.index.TransactionalIndex;
+
+/**
+ * Tests that the {@link IndexWriteBehind} coalesces the index operations on each entity, queues them only once their
+ * transaction commits, holds committing transactions back when the queue is full, and drains the queue when stopped.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that operations on the same entity are coalesced, within and across transactions.
+ *     <td> {@link IndexWriteBehind}
+ * <tr><td> Check that the operations of a rolled back transaction are discarded.
+ * <tr><td> Check that a committing transaction waits for space on a full queue.
+ * <tr><td> Check that stopping the worker drains the queue.
+ * <tr><td> Check that operations committed after the worker has finished are dropped.
+ * <tr><td> Check that the associations of an entity are loaded when its operation is recorded.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexWriteBehindTest extends TestCase
+{
+    /** The name of the single index that the test entities are indexed in. */
+    private static final String INDEX_NAME = "testIndex";
+
+    /** The name of the association property of the test entities. */
+    private static final String ASSOCIATION = "region";
+
+    /** The maximum time to wait for a background thread, in milliseconds. */
+    private static final long TIMEOUT = 10000L;
+
+    /** The time to wait to check that a background thread is held back, in milliseconds. */
+    private static final long HOLD_TIME = 200L;
+
+    /** Holds the operations applied to the stub index, as the operation name followed by the id of its entity. */
+    private List<String> applied;
+
+    /** Holds the names of the entity properties read to load them, by the thread that read them. */
+    private List<String> loadedProperties;
+
+    /** Holds the write-behind under test. */
+    private IndexWriteBehind writeBehind;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public IndexWriteBehindTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that operations on the same entity within a transaction are coalesced into one.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testOperationsCoalescedWithinTransaction() throws Exception
+    {
+        StubTransaction transaction = new StubTransaction();
+        writeBehind.add(transaction.session, indexNames(), key("1"), entity());
+        writeBehind.update(transaction.session, indexNames(), key("1"), entity());
+        writeBehind.add(transaction.session, indexNames(), key("2"), entity());
+        writeBehind.remove(transaction.session, indexNames(), key("2"));
+        transaction.complete(Status.STATUS_COMMITTED);
+
+        assertEquals("Expected the add and update to be queued as one, and the add and remove to cancel out.", 1,
+            writeBehind.getQueueDepth());
+
+        drain();
+
+        assertEquals("Expected the entity to be added once.", "[add 1]", applied.toString());
+    }
+
+    /**
+     * Check that operations committed in separate transactions are coalesced whilst they wait on the queue.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testQueuedOperationsCoalesced() throws Exception
+    {
+        StubTransaction first = new StubTransaction();
+        writeBehind.remove(first.session, indexNames(), key("1"));
+        first.complete(Status.STATUS_COMMITTED);
+
+        StubTransaction second = new StubTransaction();
+        writeBehind.add(second.session, indexNames(), key("1"), entity());
+        second.complete(Status.STATUS_COMMITTED);
+
+        assertEquals("Expected one operation to be queued.", 1, writeBehind.getQueueDepth());
+        assertEquals("Expected one operation to be coalesced.", 1L, writeBehind.getCoalescedCount());
+
+        drain();
+
+        assertEquals("Expected the removal and add to be applied as an update.", "[update 1]", applied.toString());
+    }
+
+    /**
+     * Check that the operations of a rolled back transaction are discarded, and do not carry over into the next
+     * transaction.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testRolledBackOperationsDiscarded() throws Exception
+    {
+        StubTransaction rolledBack = new StubTransaction();
+        writeBehind.add(rolledBack.session, indexNames(), key("1"), entity());
+        rolledBack.complete(Status.STATUS_ROLLEDBACK);
+
+        assertEquals("Expected nothing to be queued.", 0, writeBehind.getQueueDepth());
+
+        StubTransaction committed = new StubTransaction();
+        writeBehind.add(committed.session, indexNames(), key("2"), entity());
+        committed.complete(Status.STATUS_COMMITTED);
+
+        drain();
+
+        assertEquals("Expected only the committed operation to be applied.", "[add 2]", applied.toString());
+    }
+
+    /**
+     * Check that a transaction committing onto a full queue waits for space on it, and is queued once the worker has
+     * made space.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCommitWaitsForSpaceOnQueue() throws Exception
+    {
+        writeBehind.setQueueCapacity(1);
+
+        StubTransaction first = new StubTransaction();
+        writeBehind.add(first.session, indexNames(), key("1"), entity());
+        first.complete(Status.STATUS_COMMITTED);
+
+        Thread committer =
+            new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        StubTransaction second = new StubTransaction();
+                        writeBehind.add(second.session, indexNames(), key("2"), entity());
+                        second.complete(Status.STATUS_COMMITTED);
+                    }
+                });
+        committer.start();
+        committer.join(HOLD_TIME);
+
+        assertTrue("Expected the commit to wait for space on the full queue.", committer.isAlive());
+        assertEquals("Expected only the first operation to be queued.", 1, writeBehind.getQueueDepth());
+
+        writeBehind.start();
+        committer.join(TIMEOUT);
+
+        assertFalse("Expected the commit to complete once the worker made space.", committer.isAlive());
+        assertTrue("Expected the queue to be emptied.", writeBehind.awaitEmpty(TIMEOUT));
+        assertEquals("Expected both operations to be applied.", "[add 1, add 2]", applied.toString());
+    }
+
+    /**
+     * Check that stopping the worker applies all of the operations still waiting on the queue.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testStopDrainsQueue() throws Exception
+    {
+        writeBehind.setBatchSize(2);
+
+        StubTransaction transaction = new StubTransaction();
+        writeBehind.add(transaction.session, indexNames(), key("1"), entity());
+        writeBehind.add(transaction.session, indexNames(), key("2"), entity());
+        writeBehind.add(transaction.session, indexNames(), key("3"), entity());
+        transaction.complete(Status.STATUS_COMMITTED);
+
+        drain();
+
+        assertEquals("Expected all of the queued operations to be applied.", "[add 1, add 2, add 3]",
+            applied.toString());
+        assertEquals("Expected the queue to be empty.", 0, writeBehind.getQueueDepth());
+        assertEquals("Expected all of the operations to be counted as applied.", 3L, writeBehind.getAppliedCount());
+    }
+
+    /**
+     * Check that operations committed after the worker has finished are dropped, rather than left on the queue.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCommitAfterFinishDropped() throws Exception
+    {
+        drain();
+
+        StubTransaction transaction = new StubTransaction();
+        writeBehind.add(transaction.session, indexNames(), key("1"), entity());
+        transaction.complete(Status.STATUS_COMMITTED);
+
+        assertEquals("Expected nothing to be queued.", 0, writeBehind.getQueueDepth());
+        assertTrue("Expected nothing to be applied.", applied.isEmpty());
+    }
+
+    /**
+     * Check that the associations of an entity, but not its plain properties, are loaded on the thread that records
+     * its operation, before the transaction commits.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testAssociationsLoadedWhenRecorded() throws Exception
+    {
+        StubTransaction transaction = new StubTransaction();
+        writeBehind.update(transaction.session, indexNames(), key("1"), entity());
+
+        assertEquals("Expected the association to be loaded on the recording thread.",
+            "[" + ASSOCIATION + " on " + Thread.currentThread().getName() + "]", loadedProperties.toString());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        applied = Collections.synchronizedList(new ArrayList<String>());
+        loadedProperties = new ArrayList<String>();
+
+        writeBehind = new IndexWriteBehind(null, (IndexStore) createStub(IndexStore.class));
+    }
+
+    protected void tearDown() throws Exception
+    {
+        writeBehind.stop();
+
+        NDC.pop();
+    }
+
+    /** Stops the worker, and runs it on this thread until it has drained the queue. */
+    private void drain()
+    {
+        writeBehind.stop();
+        writeBehind.run();
+    }
+
+    /**
+     * Provides the names of the indexes that the test entities belong in.
+     *
+     * @return The names of the indexes that the test entities belong in.
+     */
+    private List<String> indexNames()
+    {
+        return Collections.singletonList(INDEX_NAME);
+    }
+
+    /**
+     * Creates an external id for a test entity.
+     *
+     * @param  id The id of the entity.
+     *
+     * @return An external id for the entity.
+     */
+    private ExternalId key(String id)
+    {
+        return new ExternalId(id, "customer");
+    }
+
+    /**
+     * Creates a stub entity.
+     *
+     * @return A stub entity.
+     */
+    private EntityInstance entity()
+    {
+        return (EntityInstance) createStub(EntityInstance.class);
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new StubHandler());
+    }
+
+    /**
+     * Creates a stub hibernate property type.
+     *
+     * @param  entity <tt>true</tt> if the type is an association to an entity.
+     *
+     * @return A stub hibernate property type.
+     */
+    private Type createType(final boolean entity)
+    {
+        return (Type) Proxy.newProxyInstance(Type.class.getClassLoader(), new Class[] { Type.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("isEntityType".equals(method.getName()))
+                        {
+                            return entity;
+                        }
+                        else if ("isCollectionType".equals(method.getName()))
+                        {
+                            return false;
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * StubTransaction is a stub hibernate transaction, with a stub session that it is the transaction of, that
+     * completes the synchronizations registered with it when told to.
+     */
+    private class StubTransaction implements InvocationHandler
+    {
+        /** Holds the synchronizations registered with the transaction. */
+        private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+
+        /** Holds the stub transaction. */
+        private final Transaction transaction =
+            (Transaction) Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class[] { Transaction.class },
+                this);
+
+        /** Holds the stub session that this is the transaction of. */
+        private final Session session =
+            (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, this);
+
+        /**
+         * Completes the transaction, with the specified status.
+         *
+         * @param status The completion status of the transaction.
+         */
+        void complete(int status)
+        {
+            for (Synchronization synchronization : synchronizations)
+            {
+                synchronization.afterCompletion(status);
+            }
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("getTransaction".equals(name))
+            {
+                return transaction;
+            }
+            else if ("registerSynchronization".equals(name))
+            {
+                synchronizations.add((Synchronization) args[0]);
+            }
+            else if ("getSessionFactory".equals(name))
+            {
+                return createStub(SessionFactory.class);
+            }
+            else if ("getEntityName".equals(name))
+            {
+                return "Customer";
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * StubHandler implements the stub index store and index, recording the operations applied to the index, and the
+     * stub session factory and class metadata of the entities, recording the properties read from them. The entities
+     * have a plain 'name' property and an association.
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("getNamedIndex".equals(name))
+            {
+                return createStub(TransactionalIndex.class);
+            }
+            else if ("add".equals(name) || "update".equals(name) || "remove".equals(name))
+            {
+                applied.add(name + " " + ((ExternalId) args[0]).getId());
+            }
+            else if ("getClassMetadata".equals(name))
+            {
+                return createStub(ClassMetadata.class);
+            }
+            else if ("getPropertyNames".equals(name))
+            {
+                return new String[] { "name", ASSOCIATION };
+            }
+            else if ("getPropertyTypes".equals(name))
+            {
+                return new Type[] { createType(false), createType(true) };
+            }
+            else if ("getPropertyValue".equals(name))
+            {
+                loadedProperties.add(args[1] + " on " + Thread.currentThread().getName());
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link ReferenceTableChecksum} matches identical reference table rows, and detects changed rows.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that checksums over the same rows match.
+ * <tr><td> Check that changed ids, values, nulls and row counts are detected.
+ * <tr><td> Check that tables are read with their columns selected by name. <td> {@link StubReferenceTable}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ReferenceTableChecksumTest extends TestCase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public ReferenceTableChecksumTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that checksums over the same rows match. */
+    public void testSameRowsMatch() throws Exception
+    {
+        ReferenceTableChecksum first = checksum(new String[][] { { "a", "b" }, { "a", null } });
+        ReferenceTableChecksum second = checksum(new String[][] { { "a", "b" }, { "a", null } });
+
+        assertTrue("Checksums over the same rows should match.", first.matches(second));
+        assertEquals("Row count should be 2.", 2, first.getRowCount());
+    }
+
+    /** Check that an empty table does not match a non-empty model. */
+    public void testEmptyDoesNotMatchRows() throws Exception
+    {
+        ReferenceTableChecksum empty = new ReferenceTableChecksum();
+        ReferenceTableChecksum rows = checksum(new String[][] { { "a" } });
+
+        assertFalse("An empty checksum should not match one over rows.", empty.matches(rows));
+    }
+
+    /** Check that changed values, nulls and row counts are detected. */
+    public void testChangedRowsDoNotMatch() throws Exception
+    {
+        ReferenceTableChecksum base = checksum(new String[][] { { "a", "b" }, { "c", "d" } });
+
+        assertFalse("A changed value should not match.",
+            base.matches(checksum(new String[][] { { "a", "b" }, { "c", "e" } })));
+        assertFalse("A null in place of a value should not match.",
+            base.matches(checksum(new String[][] { { "a", "b" }, { "c", null } })));
+        assertFalse("Values moved between fields should not match.",
+            base.matches(checksum(new String[][] { { "ab", "" }, { "c", "d" } })));
+        assertFalse("A missing row should not match.", base.matches(checksum(new String[][] { { "a", "b" } })));
+    }
+
+    /** Check that changed ids are detected. */
+    public void testChangedIdsDoNotMatch() throws Exception
+    {
+        ReferenceTableChecksum first = new ReferenceTableChecksum();
+        first.addRow(1L, new String[] { "a" });
+
+        ReferenceTableChecksum second = new ReferenceTableChecksum();
+        second.addRow(2L, new String[] { "a" });
+
+        assertFalse("A changed id should not match.", first.matches(second));
+    }
+
+    /** Check that a table is read by selecting its id and value columns by name, in id order. */
+    public void testReadSelectsColumnsByName() throws Exception
+    {
+        StubReferenceTable table = new StubReferenceTable();
+        table.addRow(0L, "a", "b");
+        table.addRow(1L, "c", null);
+
+        ReferenceTableChecksum read =
+            ReferenceTableChecksum.read(table.getConnection(), "region_hierarchy", new String[] { "country", "city" });
+
+        assertEquals("The columns should be selected by name.",
+            "SELECT id, country, city FROM region_hierarchy ORDER BY id", table.getStatements().get(0));
+        assertTrue("The checksum read should match one over the same rows.",
+            read.matches(checksum(new String[][] { { "a", "b" }, { "c", null } })));
+    }
+
+    /**
+     * Builds a checksum over rows, numbering the rows from zero.
+     *
+     * @param  rows The row values.
+     *
+     * @return A checksum over the rows.
+     */
+    private ReferenceTableChecksum checksum(String[][] rows)
+    {
+        ReferenceTableChecksum checksum = new ReferenceTableChecksum();
+
+        for (int i = 0; i < rows.length; i++)
+        {
+            checksum.addRow(i, rows[i]);
+        }
+
+        return checksum;
+    }
+}
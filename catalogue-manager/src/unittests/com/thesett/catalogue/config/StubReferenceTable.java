@@ -0,0 +1,177 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StubReferenceTable is a single reference table held in memory, behind a stub JDBC connection. Queries on the
+ * connection return all rows of the table in the order they were added, with the id in the first column and the
+ * values following it. Deletes remove all rows. The SQL of every statement prepared on the connection is recorded.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Hold the rows of a reference table.
+ * <tr><td> Provide a stub connection onto the table.
+ * <tr><td> Record the SQL prepared on the connection.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class StubReferenceTable
+{
+    /** Holds the rows of the table, each an id followed by its values. */
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+
+    /** Holds the SQL of the statements prepared on the connection, in order. */
+    private final List<String> statements = new ArrayList<String>();
+
+    /**
+     * Adds a row to the table.
+     *
+     * @param id     The id of the row.
+     * @param values The values of the row.
+     */
+    public void addRow(long id, String... values)
+    {
+        Object[] row = new Object[values.length + 1];
+        row[0] = id;
+        System.arraycopy(values, 0, row, 1, values.length);
+
+        rows.add(row);
+    }
+
+    /**
+     * Provides the number of rows in the table.
+     *
+     * @return The number of rows in the table.
+     */
+    public int getRowCount()
+    {
+        return rows.size();
+    }
+
+    /**
+     * Provides the SQL of the statements prepared on the connection, in order.
+     *
+     * @return The SQL of the statements prepared on the connection.
+     */
+    public List<String> getStatements()
+    {
+        return statements;
+    }
+
+    /**
+     * Provides a stub connection onto the table.
+     *
+     * @return A stub connection onto the table.
+     */
+    public Connection getConnection()
+    {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[] { Connection.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("prepareStatement".equals(method.getName()))
+                        {
+                            statements.add((String) args[0]);
+
+                            return createStatement((String) args[0]);
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Creates a stub statement on the table.
+     *
+     * @param  sql The SQL of the statement.
+     *
+     * @return A stub statement on the table.
+     */
+    private PreparedStatement createStatement(final String sql)
+    {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class[] { PreparedStatement.class }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        String name = method.getName();
+
+                        if ("executeQuery".equals(name))
+                        {
+                            return createResultSet();
+                        }
+                        else if ("execute".equals(name))
+                        {
+                            if (sql.startsWith("DELETE"))
+                            {
+                                rows.clear();
+                            }
+
+                            return false;
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Creates a stub result set over all rows of the table.
+     *
+     * @return A stub result set over all rows of the table.
+     */
+    private ResultSet createResultSet()
+    {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] { ResultSet.class },
+                new InvocationHandler()
+                {
+                    /** Holds the index of the current row. */
+                    private int current = -1;
+
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        String name = method.getName();
+
+                        if ("next".equals(name))
+                        {
+                            return ++current < rows.size();
+                        }
+                        else if ("getLong".equals(name))
+                        {
+                            return rows.get(current)[(Integer) args[0] - 1];
+                        }
+                        else if ("getString".equals(name))
+                        {
+                            return rows.get(current)[(Integer) args[0] - 1];
+                        }
+
+                        return null;
+                    }
+                });
+    }
+}
@@ -15,11 +15,19 @@
  */
 package com.thesett.catalogue.core;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.stat.Statistics;
+import org.hibernate.type.Type;
 
 import com.thesett.catalogue.config.HibernateConfigBean;
 import com.thesett.catalogue.model.ExternalId;
@@ -113,6 +121,84 @@ public class ModelTestBase extends ConfiguratorTestBase
         }
     }
 
+    /**
+     * Saves a list of entities, all of the same type, then loads them all back in a single query in a new transaction
+     * and initializes all of their collections. The number of statements that this issues is checked to be no more
+     * than one for the query, plus one for each collection or reference property of the entity type, so that loading
+     * the entities has not issued further queries per entity. To get this bound, there should be no more test entities
+     * than the fetch batch size of the entity type.
+     *
+     * @param testEntities The entities to save and load.
+     */
+    protected void checkFetchQueryCount(List<? extends EntityInstanceBase> testEntities)
+    {
+        Class entityClass = testEntities.get(0).getClass();
+        Statistics statistics = hibernateBean.getSessionFactory().getStatistics();
+        ClassMetadata metadata = hibernateBean.getSessionFactory().getClassMetadata(entityClass);
+
+        Session session = getSession();
+        Transaction transaction = session.beginTransaction();
+
+        try
+        {
+            // Save the test entities.
+            List<Serializable> ids = new ArrayList<Serializable>();
+
+            for (EntityInstanceBase testEntity : testEntities)
+            {
+                session.save(testEntity);
+                ids.add(((InternalIdImpl) testEntity.getOpaqueId()).getValue());
+            }
+
+            transaction.commit();
+            session.close();
+
+            // Count the statements issued to load the entities back in a new session.
+            statistics.setStatisticsEnabled(true);
+            statistics.clear();
+
+            session = getSession();
+            transaction = session.beginTransaction();
+
+            List loaded = session.createCriteria(entityClass).add(Restrictions.in("id", ids)).list();
+
+            String[] propertyNames = metadata.getPropertyNames();
+            Type[] propertyTypes = metadata.getPropertyTypes();
+            int fetchedProperties = 0;
+
+            for (int i = 0; i < propertyTypes.length; i++)
+            {
+                if (propertyTypes[i].isCollectionType())
+                {
+                    fetchedProperties++;
+
+                    for (Object entity : loaded)
+                    {
+                        Hibernate.initialize(metadata.getPropertyValue(entity, propertyNames[i]));
+                    }
+                }
+                else if (propertyTypes[i].isEntityType())
+                {
+                    fetchedProperties++;
+                }
+            }
+
+            transaction.commit();
+
+            long statements = statistics.getPrepareStatementCount();
+
+            assertEquals("All of the test entities should have been loaded.", testEntities.size(), loaded.size());
+            assertTrue("Loading " + testEntities.size() + " entities of " + entityClass + " issued " + statements +
+                " statements, but should issue no more than " + (1 + fetchedProperties) + ".",
+                statements <= (1 + fetchedProperties));
+        }
+        finally
+        {
+            statistics.setStatisticsEnabled(false);
+            session.close();
+        }
+    }
+
     /**
      * Provides a hibernate session set up from the hibernate config bean.
      *
@@ -0,0 +1,317 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.hibernate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import com.thesett.catalogue.config.HibernateConfigBean;
+
+/**
+ * Tests that {@link HibernateUtil} routes reads onto read replicas, and ends the replica session of a unit of work as
+ * soon as the primary is used, so that an entity retrieved from a replica and then modified can be written back
+ * through the primary session without being attached to two open sessions.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that the replica session is closed before a write is made on the primary. <td> {@link ReplicaRouter}
+ * <tr><td> Check that reads follow writes onto the primary with read-your-writes.
+ * <tr><td> Check that reads go back onto a fresh replica session without read-your-writes.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class HibernateUtilTest extends TestCase
+{
+    /** The number of replicas to route over. */
+    private static final int NUM_REPLICAS = 2;
+
+    /** Holds the stub primary session factory. */
+    private SessionFactory primary;
+
+    /** Holds the router onto the stub replicas. */
+    private ReplicaRouter router;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public HibernateUtilTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that an entity retrieved through a replica session is detached from it, by closing the session, before it
+     * is written back through the primary session.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testReplicaSessionClosedBeforeWrite() throws Exception
+    {
+        initialize(true);
+
+        // Retrieve through a replica.
+        Session readSession = HibernateUtil.getReadSession();
+        assertNotSame("Expected the read to be made on a replica.", primary.getCurrentSession(), readSession);
+        assertTrue("Expected the replica session to be read only.", handler(readSession).readOnly);
+        assertEquals("Expected one read session to be open.", 1, getTotalLoad());
+
+        // Write back through the primary.
+        Session writeSession = HibernateUtil.getCurrentSession();
+        HibernateUtil.beginTransaction();
+
+        assertSame("Expected the write to be made on the primary.", primary.getCurrentSession(), writeSession);
+        assertTrue("Expected the replica session to be closed before the write.", handler(readSession).closed);
+        assertEquals("Expected no read sessions to be open.", 0, getTotalLoad());
+
+        HibernateUtil.commitTransaction();
+        assertFalse("Expected the primary transaction to be committed.", handler(writeSession).active);
+    }
+
+    /**
+     * Check that reads made after a write in the same unit of work are made on the primary, with read-your-writes.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testReadsFollowWritesOntoPrimary() throws Exception
+    {
+        initialize(true);
+
+        HibernateUtil.getReadSession();
+        HibernateUtil.beginTransaction();
+
+        assertSame("Expected the read after the write to be made on the primary.", primary.getCurrentSession(),
+            HibernateUtil.getReadSession());
+        assertEquals("Expected no read sessions to be open.", 0, getTotalLoad());
+
+        HibernateUtil.commitTransaction();
+    }
+
+    /**
+     * Check that reads made after a write in the same unit of work go onto a fresh replica session, without
+     * read-your-writes, and that it is ended with the unit of work.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testReadsReturnToFreshReplicaSession() throws Exception
+    {
+        initialize(false);
+
+        Session firstRead = HibernateUtil.getReadSession();
+        HibernateUtil.beginTransaction();
+
+        Session secondRead = HibernateUtil.getReadSession();
+
+        assertNotSame("Expected the read after the write to be made on a replica.", primary.getCurrentSession(),
+            secondRead);
+        assertNotSame("Expected a fresh replica session.", firstRead, secondRead);
+        assertTrue("Expected the first replica session to be closed.", handler(firstRead).closed);
+
+        HibernateUtil.commitTransaction();
+
+        assertTrue("Expected the second replica session to be closed with the unit of work.",
+            handler(secondRead).closed);
+        assertEquals("Expected no read sessions to be open.", 0, getTotalLoad());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // End any unit of work left over on this thread by a failed test, and close the stub primary so that
+        // HibernateUtil looks its session factory up again from the configurator when next used.
+        HibernateUtil.rollbackTransaction();
+        handler(primary).closed = true;
+
+        NDC.pop();
+    }
+
+    /**
+     * Initializes {@link HibernateUtil} onto a stub primary and stub replicas.
+     *
+     * @param readYourWrites <tt>true</tt> to read on the primary once it has been used in a unit of work.
+     */
+    private void initialize(boolean readYourWrites)
+    {
+        primary = (SessionFactory) createStub(SessionFactory.class);
+
+        List<SessionFactory> replicas = new ArrayList<SessionFactory>();
+
+        for (int i = 0; i < NUM_REPLICAS; i++)
+        {
+            replicas.add((SessionFactory) createStub(SessionFactory.class));
+        }
+
+        router = new ReplicaRouter(replicas, ReplicaRouter.Selection.RoundRobin, readYourWrites);
+
+        HibernateUtil.initialize(new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return primary;
+                }
+
+                public ReplicaRouter getReplicaRouter()
+                {
+                    return router;
+                }
+            });
+    }
+
+    /**
+     * Adds up the number of read sessions open on all the replicas.
+     *
+     * @return The number of read sessions open on all the replicas.
+     */
+    private int getTotalLoad()
+    {
+        int load = 0;
+
+        for (int i = 0; i < NUM_REPLICAS; i++)
+        {
+            load += router.getLoad(i);
+        }
+
+        return load;
+    }
+
+    /**
+     * Provides the handler behind a stub.
+     *
+     * @param  stub The stub.
+     *
+     * @return The handler behind the stub.
+     */
+    private static StubHandler handler(Object stub)
+    {
+        return (StubHandler) Proxy.getInvocationHandler(stub);
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private static Object createStub(Class type)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new StubHandler());
+    }
+
+    /**
+     * StubHandler implements the stub session factories, sessions and transactions. A session factory has a single
+     * current session, and opens new sessions. A session has a single transaction, that is active from when it is
+     * begun until it is committed or rolled back.
+     */
+    private static class StubHandler implements InvocationHandler
+    {
+        /** Holds the current session of a session factory, once it has been asked for. */
+        Session currentSession;
+
+        /** Holds the transaction of a session, once it has been asked for. */
+        Transaction transaction;
+
+        /** Holds the handler of the session that a transaction belongs to. */
+        StubHandler owner;
+
+        /** Flag set on a session when it is read only. */
+        boolean readOnly;
+
+        /** Flag set on a session or session factory when it has been closed. */
+        boolean closed;
+
+        /** Flag set on a session whilst its transaction is active. */
+        boolean active;
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("getCurrentSession".equals(name))
+            {
+                if (currentSession == null)
+                {
+                    currentSession = (Session) createStub(Session.class);
+                }
+
+                return currentSession;
+            }
+            else if ("openSession".equals(name))
+            {
+                return createStub(Session.class);
+            }
+            else if ("beginTransaction".equals(name) || "getTransaction".equals(name))
+            {
+                if (transaction == null)
+                {
+                    transaction = (Transaction) createStub(Transaction.class);
+                    handler(transaction).owner = this;
+                }
+
+                active |= "beginTransaction".equals(name);
+
+                return transaction;
+            }
+            else if ("setDefaultReadOnly".equals(name))
+            {
+                readOnly = (Boolean) args[0];
+            }
+            else if ("close".equals(name))
+            {
+                closed = true;
+            }
+            else if ("commit".equals(name) || "rollback".equals(name))
+            {
+                owner.active = false;
+            }
+            else if ("isActive".equals(name))
+            {
+                return owner.active;
+            }
+            else if ("isClosed".equals(name))
+            {
+                return closed;
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.hibernate;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.hibernate.SessionFactory;
+
+import com.thesett.catalogue.core.ModelTestBase;
+
+/**
+ * Measures how the throughput of service calls made through {@link HibernateUtil} scales across threads. Each service
+ * call begins a transaction, gets the current session several times, as service methods do, and then commits. For
+ * comparison, the same calls are also made through a synchronized lookup of the session factory, which is how every
+ * call to {@link HibernateUtil} used to find it.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Measure service call throughput through HibernateUtil across threads. <td> {@link HibernateUtil}
+ * <tr><td> Measure service call throughput through a synchronized session factory lookup across threads.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class HibernateUtilTestPerf extends ModelTestBase
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(HibernateUtilTestPerf.class);
+
+    /** Holds the resource name of the test configuration. */
+    private static final String TEST_CONFIG = "testconfig.xml";
+
+    /** The numbers of threads to measure throughput over. */
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    /** The number of service calls each thread makes. */
+    private static final int CALLS_PER_THREAD = 20000;
+
+    /** The number of times a service call gets the current session. */
+    private static final int SESSIONS_PER_CALL = 4;
+
+    /** Holds the session factory for the synchronized lookup. */
+    private SessionFactory lockedFactory;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public HibernateUtilTestPerf(String name)
+    {
+        super(name);
+    }
+
+    /** Measures service call throughput through HibernateUtil. */
+    public void testHibernateUtilThroughput() throws Exception
+    {
+        for (int threads : THREAD_COUNTS)
+        {
+            measure("HibernateUtil", threads, new Runnable()
+                {
+                    public void run()
+                    {
+                        HibernateUtil.beginTransaction();
+
+                        for (int i = 0; i < SESSIONS_PER_CALL; i++)
+                        {
+                            HibernateUtil.getCurrentSession();
+                        }
+
+                        HibernateUtil.commitTransaction();
+                    }
+                });
+        }
+    }
+
+    /** Measures service call throughput through a synchronized session factory lookup. */
+    public void testSynchronizedLookupThroughput() throws Exception
+    {
+        for (int threads : THREAD_COUNTS)
+        {
+            measure("synchronized lookup", threads, new Runnable()
+                {
+                    public void run()
+                    {
+                        getLockedFactory().getCurrentSession().beginTransaction();
+
+                        for (int i = 0; i < SESSIONS_PER_CALL; i++)
+                        {
+                            getLockedFactory().getCurrentSession();
+                        }
+
+                        getLockedFactory().getCurrentSession().getTransaction().commit();
+                    }
+                });
+        }
+    }
+
+    /** Configures the catalogue, and makes a first service call to ensure that HibernateUtil is initialized. */
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        configBeanContext = configure(TEST_CONFIG, false);
+        super.setUp();
+
+        HibernateUtil.beginTransaction();
+        HibernateUtil.commitTransaction();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Runs a service call on a number of threads, each making the same number of calls, and logs the overall
+     * throughput.
+     *
+     * @param  name        The name of the session access method being measured.
+     * @param  threadCount The number of threads to run the service calls on.
+     * @param  serviceCall The service call to make.
+     *
+     * @throws InterruptedException If interrupted whilst waiting for the threads to complete.
+     */
+    private void measure(String name, int threadCount, final Runnable serviceCall) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++)
+        {
+            new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+
+                            for (int j = 0; j < CALLS_PER_THREAD; j++)
+                            {
+                                serviceCall.run();
+                            }
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                        finally
+                        {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        long elapsed = System.nanoTime() - startTime;
+        long calls = (long) threadCount * CALLS_PER_THREAD;
+
+        log.info(name + ": " + threadCount + " threads, " + ((calls * 1000000000L) / elapsed) + " calls/s.");
+    }
+
+    /**
+     * Looks up the session factory under a lock shared by all threads, as every call to {@link HibernateUtil} used to.
+     *
+     * @return The session factory of the hibernate config bean.
+     */
+    private synchronized SessionFactory getLockedFactory()
+    {
+        if (lockedFactory == null)
+        {
+            lockedFactory = hibernateBean.getSessionFactory();
+        }
+
+        return lockedFactory;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.hibernate;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Tests that the {@link ReplicaRouter} chooses replicas in turn or by least load, and tracks the read sessions open on
+ * each replica.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that round robin selection chooses each replica in turn.
+ * <tr><td> Check that least loaded selection chooses the replica with the fewest open read sessions.
+ * <tr><td> Check that ending a read session releases its load on its replica.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ReplicaRouterTest extends TestCase
+{
+    /** The number of replicas to route over. */
+    private static final int NUM_REPLICAS = 3;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public ReplicaRouterTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that round robin selection chooses each replica in turn. */
+    public void testRoundRobinChoosesEachReplicaInTurn() throws Exception
+    {
+        ReplicaRouter router = new ReplicaRouter(createReplicas(), ReplicaRouter.Selection.RoundRobin, true);
+
+        for (int i = 0; i < (2 * NUM_REPLICAS); i++)
+        {
+            assertEquals("Expected the replicas to be chosen in turn.", i % NUM_REPLICAS, router.select());
+        }
+    }
+
+    /** Check that least loaded selection chooses the replica with the fewest open read sessions. */
+    public void testLeastLoadedChoosesFewestOpenSessions() throws Exception
+    {
+        ReplicaRouter router = new ReplicaRouter(createReplicas(), ReplicaRouter.Selection.LeastLoaded, true);
+
+        // Open enough sessions to put two on every replica, then end the ones on the last replica.
+        List<ReplicaRouter.ReadSession> sessions = new ArrayList<ReplicaRouter.ReadSession>();
+
+        for (int i = 0; i < (2 * NUM_REPLICAS); i++)
+        {
+            sessions.add(router.openReadSession());
+        }
+
+        for (int i = 0; i < NUM_REPLICAS; i++)
+        {
+            assertEquals("Expected the sessions to be spread evenly over the replicas.", 2, router.getLoad(i));
+        }
+
+        endSessionsOnReplica(router, sessions, NUM_REPLICAS - 1);
+
+        for (int i = 0; i < NUM_REPLICAS; i++)
+        {
+            assertEquals("Expected the least loaded replica to be chosen.", NUM_REPLICAS - 1, router.select());
+        }
+    }
+
+    /** Check that ending a read session releases its load on its replica. */
+    public void testEndingReadSessionReleasesLoad() throws Exception
+    {
+        ReplicaRouter router = new ReplicaRouter(createReplicas(), ReplicaRouter.Selection.RoundRobin, true);
+
+        ReplicaRouter.ReadSession session = router.openReadSession();
+        assertEquals("Expected the first replica to have one open session.", 1, router.getLoad(0));
+
+        session.end(true);
+        assertEquals("Expected the first replica to have no open sessions.", 0, router.getLoad(0));
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Ends all of the read sessions open on one replica.
+     *
+     * @param router   The router the sessions were opened on.
+     * @param sessions The open sessions.
+     * @param replica  The position of the replica to end the sessions on.
+     */
+    private void endSessionsOnReplica(ReplicaRouter router, List<ReplicaRouter.ReadSession> sessions, int replica)
+    {
+        List<SessionFactory> replicas = router.getReplicas();
+
+        for (ReplicaRouter.ReadSession session : sessions)
+        {
+            if (((StubHandler) Proxy.getInvocationHandler(session.getSession())).owner == replicas.get(replica))
+            {
+                session.end(false);
+            }
+        }
+    }
+
+    /**
+     * Creates stub replica session factories, that open stub sessions.
+     *
+     * @return Stub replica session factories.
+     */
+    private List<SessionFactory> createReplicas()
+    {
+        List<SessionFactory> replicas = new ArrayList<SessionFactory>();
+
+        for (int i = 0; i < NUM_REPLICAS; i++)
+        {
+            replicas.add((SessionFactory) createStub(SessionFactory.class, null));
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Creates a stub that ignores all calls, except that session factories open sessions, and sessions begin
+     * transactions.
+     *
+     * @param  type  The interface to stub.
+     * @param  owner The stub that created this one, if any.
+     *
+     * @return A stub of the interface.
+     */
+    private static Object createStub(Class type, Object owner)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new StubHandler(owner));
+    }
+
+    /** StubHandler implements the stub session factories, sessions and transactions. */
+    private static class StubHandler implements InvocationHandler
+    {
+        /** Holds the stub that created this one, if any. */
+        final Object owner;
+
+        /**
+         * Creates a stub handler.
+         *
+         * @param owner The stub that created this one, if any.
+         */
+        StubHandler(Object owner)
+        {
+            this.owner = owner;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if ("openSession".equals(method.getName()))
+            {
+                return createStub(Session.class, proxy);
+            }
+            else if ("beginTransaction".equals(method.getName()))
+            {
+                return createStub(Transaction.class, proxy);
+            }
+            else if ("equals".equals(method.getName()))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(method.getName()))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import com.thesett.aima.state.Attribute;
+import com.thesett.catalogue.config.HibernateConfigBean;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.hibernate.ReplicaRouter;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityType;
+import com.thesett.catalogue.model.ViewInstance;
+import com.thesett.catalogue.model.ViewType;
+import com.thesett.index.IndexStore;
+
+/**
+ * Tests that browsing across entity types in parallel on a pool of browse threads gives the same results as browsing
+ * them serially, including when the pool is full or shut down and some or all entity types are browsed on the calling
+ * thread instead.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that parallel browsing matches serial browsing. <td> {@link CatalogueManagerServiceImpl}
+ * <tr><td> Check that entity types rejected by a full pool are browsed on the calling thread.
+ * <tr><td> Check that entity types are browsed on the calling thread once the pool is shut down.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CatalogueManagerServiceImplBrowseTest extends TestCase
+{
+    /** The number of entity types browsed in the tests. */
+    private static final int TYPES = 6;
+
+    /** The name of the view type browsed. */
+    private static final String VIEW = "summary";
+
+    /** The time to wait for the browse threads, in milliseconds. */
+    private static final long TIMEOUT = 10000L;
+
+    /** Holds the results of browsing each entity type. */
+    private Map<EntityType, List<ViewInstance>> typeResults;
+
+    /** Holds the number of entity types browsed on the calling thread. */
+    private AtomicInteger browsedOnCaller;
+
+    /** Holds the number of entity types browsed on the browse threads. */
+    private AtomicInteger browsedOnPool;
+
+    /** Holds the latch that browse threads wait on before browsing, if any. */
+    private CountDownLatch poolRelease;
+
+    /** Holds the thread that browses, other than on the browse threads. */
+    private Thread caller;
+
+    /** Holds the pool of browse threads used by the test, if any. */
+    private ExecutorService pool;
+
+    /** Flag set when the stub session factory is closed. */
+    private boolean closed;
+
+    /** Holds the catalogue manager under test. */
+    private CatalogueManagerServiceImpl catalogueManager;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public CatalogueManagerServiceImplBrowseTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that parallel browsing gives the same results as serial browsing, and runs on the browse threads.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testParallelMatchesSerial() throws Exception
+    {
+        Map<EntityType, List<ViewInstance>> serial = browse(null);
+
+        pool = createPool(2, TYPES);
+        Map<EntityType, List<ViewInstance>> parallel = browse(pool);
+
+        assertEquals("Expected the parallel results to match the serial results.", serial, parallel);
+        assertEquals("Expected all entity types to be browsed on the browse threads.", TYPES, browsedOnPool.get());
+        assertEquals("Expected no entity types to be browsed on the calling thread.", 0, browsedOnCaller.get());
+    }
+
+    /**
+     * Check that entity types rejected by a full pool are browsed on the calling thread, whilst the others run on the
+     * browse threads, and that the results match serial browsing.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFullPoolBrowsesOnCaller() throws Exception
+    {
+        Map<EntityType, List<ViewInstance>> serial = browse(null);
+
+        // One thread, held until the calling thread browses, and room to queue one more entity type.
+        poolRelease = new CountDownLatch(1);
+        pool = createPool(1, 1);
+
+        Map<EntityType, List<ViewInstance>> parallel = browse(pool);
+
+        assertEquals("Expected the parallel results to match the serial results.", serial, parallel);
+        assertEquals("Expected the running and queued entity types to be browsed on the browse thread.", 2,
+            browsedOnPool.get());
+        assertEquals("Expected the rejected entity types to be browsed on the calling thread.", TYPES - 2,
+            browsedOnCaller.get());
+    }
+
+    /**
+     * Check that entity types are all browsed on the calling thread once the pool is shut down.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testShutDownPoolBrowsesOnCaller() throws Exception
+    {
+        Map<EntityType, List<ViewInstance>> serial = browse(null);
+
+        pool = createPool(2, TYPES);
+        pool.shutdown();
+
+        Map<EntityType, List<ViewInstance>> parallel = browse(pool);
+
+        assertEquals("Expected the parallel results to match the serial results.", serial, parallel);
+        assertEquals("Expected all entity types to be browsed on the calling thread.", TYPES, browsedOnCaller.get());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        caller = Thread.currentThread();
+        poolRelease = null;
+        pool = null;
+
+        // Supply HibernateUtil with stub sessions.
+        final SessionFactory sessionFactory = (SessionFactory) createStub(SessionFactory.class);
+
+        HibernateUtil.initialize(new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return sessionFactory;
+                }
+
+                public ReplicaRouter getReplicaRouter()
+                {
+                    return null;
+                }
+            });
+
+        // Set up entity types conforming to the view, every third of which has no matches.
+        ViewType viewType = (ViewType) createStub(ViewType.class);
+        List<EntityType> entityTypes = new ArrayList<EntityType>();
+        typeResults = new HashMap<EntityType, List<ViewInstance>>();
+
+        for (int i = 0; i < TYPES; i++)
+        {
+            EntityType entityType = (EntityType) createStub(EntityType.class, viewType);
+            List<ViewInstance> result = new ArrayList<ViewInstance>();
+
+            for (int j = 0; j < (i % 3); j++)
+            {
+                result.add((ViewInstance) createStub(ViewInstance.class));
+            }
+
+            entityTypes.add(entityType);
+            typeResults.put(entityType, result);
+        }
+
+        Catalogue catalogue = (Catalogue) createStub(Catalogue.class, viewType, entityTypes);
+
+        catalogueManager =
+            new CatalogueManagerServiceImpl(catalogue, (IndexStore) createStub(IndexStore.class))
+            {
+                public List<ViewInstance> browse(EntityType entityType, Map<String, Attribute> matchings,
+                    String viewTypeName)
+                {
+                    return browseType(entityType);
+                }
+            };
+    }
+
+    protected void tearDown() throws Exception
+    {
+        if (pool != null)
+        {
+            pool.shutdownNow();
+        }
+
+        // Close the stub session factory, so that HibernateUtil looks its session factory up again when next used.
+        closed = true;
+
+        NDC.pop();
+    }
+
+    /**
+     * Browses across all of the entity types, serially or in parallel.
+     *
+     * @param  executor The pool of browse threads to browse in parallel on, or <tt>null</tt> to browse serially.
+     *
+     * @return The results of browsing across the entity types.
+     */
+    private Map<EntityType, List<ViewInstance>> browse(ExecutorService executor)
+    {
+        browsedOnCaller = new AtomicInteger();
+        browsedOnPool = new AtomicInteger();
+
+        catalogueManager.setParallelBrowse(executor != null);
+        catalogueManager.setBrowseExecutor(executor);
+
+        return catalogueManager.browse(Collections.<String, Attribute>emptyMap(), VIEW);
+    }
+
+    /**
+     * Browses a single entity type, recording which thread it was browsed on. Browsing on the calling thread releases
+     * any browse threads being held, and browse threads wait for that release.
+     *
+     * @param  entityType The entity type to browse.
+     *
+     * @return The results of browsing the entity type.
+     */
+    private List<ViewInstance> browseType(EntityType entityType)
+    {
+        if (Thread.currentThread() == caller)
+        {
+            browsedOnCaller.incrementAndGet();
+
+            if (poolRelease != null)
+            {
+                poolRelease.countDown();
+            }
+        }
+        else
+        {
+            browsedOnPool.incrementAndGet();
+
+            try
+            {
+                if ((poolRelease != null) && !poolRelease.await(TIMEOUT, TimeUnit.MILLISECONDS))
+                {
+                    throw new IllegalStateException("The browse thread was not released.");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return typeResults.get(entityType);
+    }
+
+    /**
+     * Creates a pool of browse threads, with a bounded queue, that rejects work when it is full.
+     *
+     * @param  threads   The number of threads.
+     * @param  queueSize The number of entity types that may wait for a thread.
+     *
+     * @return A pool of browse threads.
+     */
+    private ExecutorService createPool(int threads, int queueSize)
+    {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize));
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type)
+    {
+        return createStub(type, null, null);
+    }
+
+    /**
+     * Creates a stub of an interface, conforming to a view type.
+     *
+     * @param  type     The interface to stub.
+     * @param  viewType The view type that stub entity types conform to, and that the stub catalogue looks up.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type, ViewType viewType)
+    {
+        return createStub(type, viewType, null);
+    }
+
+    /**
+     * Creates a stub of an interface, conforming to a view type and holding entity types.
+     *
+     * @param  type        The interface to stub.
+     * @param  viewType    The view type that stub entity types conform to, and that the stub catalogue looks up.
+     * @param  entityTypes The entity types of the stub catalogue.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type, ViewType viewType, List<EntityType> entityTypes)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type },
+            new StubHandler(viewType, entityTypes));
+    }
+
+    /**
+     * StubHandler implements the stub catalogue, entity types, view type and views, and the stub session factory,
+     * sessions and transactions.
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        /** Holds the view type that stub entity types conform to, and that the stub catalogue looks up. */
+        private final ViewType viewType;
+
+        /** Holds the entity types of the stub catalogue. */
+        private final List<EntityType> entityTypes;
+
+        /**
+         * Creates a stub handler.
+         *
+         * @param viewType    The view type that stub entity types conform to, and that the stub catalogue looks up.
+         * @param entityTypes The entity types of the stub catalogue.
+         */
+        StubHandler(ViewType viewType, List<EntityType> entityTypes)
+        {
+            this.viewType = viewType;
+            this.entityTypes = entityTypes;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("getViewType".equals(name))
+            {
+                return viewType;
+            }
+            else if ("getAllEntityTypes".equals(name))
+            {
+                return entityTypes;
+            }
+            else if ("getImmediateAncestors".equals(name))
+            {
+                Set<Object> ancestors = new HashSet<Object>();
+                ancestors.add(viewType);
+
+                return ancestors;
+            }
+            else if ("isClosed".equals(name))
+            {
+                return closed;
+            }
+            else if ("getCurrentSession".equals(name))
+            {
+                return createStub(Session.class);
+            }
+            else if ("getTransaction".equals(name) || "beginTransaction".equals(name))
+            {
+                return createStub(Transaction.class);
+            }
+            else if ("isActive".equals(name))
+            {
+                return true;
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+}
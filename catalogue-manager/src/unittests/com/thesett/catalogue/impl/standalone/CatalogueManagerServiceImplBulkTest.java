@@ -0,0 +1,649 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.metadata.CollectionMetadata;
+import org.hibernate.persister.collection.QueryableCollection;
+
+import com.thesett.aima.state.Attribute;
+import com.thesett.aima.state.Type;
+import com.thesett.catalogue.config.HibernateConfigBean;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.hibernate.ReplicaRouter;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.EntityType;
+import com.thesett.catalogue.model.ExternalId;
+import com.thesett.catalogue.model.ExternallyIdentified;
+import com.thesett.index.IndexStore;
+import com.thesett.index.TransactionalIndex;
+
+/**
+ * Tests that the delete and update by criteria methods of {@link CatalogueManagerServiceImpl} work through the
+ * matching entities a chunk at a time, delete the collection rows of deleted entities first, keep the indexes and the
+ * cached external id resolutions in step, and check their arguments before changing anything.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that deletes work through more entities than fit in one chunk.
+ *     <td> {@link CatalogueManagerServiceImpl}
+ * <tr><td> Check that the collection rows of each chunk are deleted before its entities.
+ * <tr><td> Check that deleted entities are removed from the indexes and the external id cache.
+ * <tr><td> Check that updates work through more entities than fit in one chunk, and update the indexes.
+ * <tr><td> Check that matchings that do not fit the entity type are refused.
+ * <tr><td> Check that values that do not fit the entity type are refused.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CatalogueManagerServiceImplBulkTest extends TestCase
+{
+    /** The name of the test entity type. */
+    private static final String TYPE_NAME = "Customer";
+
+    /** The name of the database entity of the test entity type. */
+    private static final String ENTITY_NAME = TYPE_NAME + Catalogue.ONLINE_TABLE_EXT;
+
+    /** The number of test entities, which is more than two chunks. */
+    private static final int ROWS = (2 * CatalogueManagerServiceImpl.BULK_CHUNK_SIZE) + 5;
+
+    /** Holds the ids of the test entities still in the database, in id order. */
+    private TreeSet<Long> table;
+
+    /** Holds the statements executed, each followed by the number of ids it was given. */
+    private List<String> statements;
+
+    /** Holds the parameters of the last update statement executed, by name. */
+    private Map<String, Object> updateParameters;
+
+    /** Holds the ids given to the last statement executed. */
+    private Collection<Long> lastIds;
+
+    /** Holds the keys of the index entries removed. */
+    private List<Object> indexRemoves;
+
+    /** Holds the keys of the index entries updated. */
+    private List<Object> indexUpdates;
+
+    /** Flag set when the stub session factory is closed. */
+    private boolean closed;
+
+    /** Holds the catalogue manager under test. */
+    private CatalogueManagerServiceImpl catalogueManager;
+
+    /** Holds the stub test entity type. */
+    private EntityType entityType;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public CatalogueManagerServiceImplBulkTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that a delete works through all matching entities a chunk at a time, deleting the rows of the collection
+     * tables of the type before the entities of each chunk, and leaving the collections held by other types alone.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testDeleteChunksCollectionRowsFirst() throws Exception
+    {
+        int count = catalogueManager.deleteEntityInstances(entityType, new HashMap<String, Attribute>());
+
+        int chunk = CatalogueManagerServiceImpl.BULK_CHUNK_SIZE;
+        String collectionDelete = "delete from customer_tags where tags_id in (:ids) ";
+        String entityDelete = "delete from " + ENTITY_NAME + " e where e.id in (:ids) ";
+
+        assertEquals("Expected every entity to be deleted.", ROWS, count);
+        assertTrue("Expected no entities to be left.", table.isEmpty());
+        assertEquals("Expected the collection rows of each chunk to be deleted before its entities.",
+            Arrays.asList(collectionDelete + chunk, entityDelete + chunk, collectionDelete + chunk,
+                entityDelete + chunk, collectionDelete + 5, entityDelete + 5), statements);
+    }
+
+    /**
+     * Check that deleted entities are removed from the indexes, and that their external ids no longer resolve from the
+     * cache.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testDeleteRemovesIndexEntriesAndCachedExternalIds() throws Exception
+    {
+        CatalogueManagerServiceImpl.externalIds.put("ext1", TYPE_NAME, 1L);
+        CatalogueManagerServiceImpl.externalIds.put("ext" + ROWS, TYPE_NAME, (long) ROWS);
+
+        catalogueManager.deleteEntityInstances(entityType, new HashMap<String, Attribute>());
+
+        assertEquals("Expected every entity to be removed from the index.", ROWS, indexRemoves.size());
+        assertTrue("Expected the first entity to be removed from the index.",
+            indexRemoves.contains(new ExternalId("ext1", TYPE_NAME)));
+        assertNull("Expected the external id of the first entity to be dropped from the cache.",
+            CatalogueManagerServiceImpl.externalIds.get("ext1"));
+        assertNull("Expected the external id of the last entity to be dropped from the cache.",
+            CatalogueManagerServiceImpl.externalIds.get("ext" + ROWS));
+    }
+
+    /**
+     * Check that an update works through all matching entities a chunk at a time, setting the new values on them, and
+     * updates them in the indexes.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUpdateChunksAndUpdatesIndexes() throws Exception
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", "renamed");
+
+        int count = catalogueManager.updateEntityInstances(entityType, new HashMap<String, Attribute>(), values);
+
+        int chunk = CatalogueManagerServiceImpl.BULK_CHUNK_SIZE;
+        String update = "update " + ENTITY_NAME + " e set e.name = :value0 where e.id in (:ids) ";
+
+        assertEquals("Expected every entity to be updated.", ROWS, count);
+        assertEquals("Expected the entities to be updated a chunk at a time.",
+            Arrays.asList(update + chunk, update + chunk, update + 5), statements);
+        assertEquals("Expected the new value to be set.", "renamed", updateParameters.get("value0"));
+        assertEquals("Expected every entity to be updated in the index.", ROWS, indexUpdates.size());
+        assertEquals("Expected no entities to be deleted.", ROWS, table.size());
+    }
+
+    /**
+     * Check that a matching of a compatible field is accepted, and that matchings of unknown fields or of fields of
+     * a different type are refused before anything is deleted.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testMatchingsChecked() throws Exception
+    {
+        Map<String, Attribute> matchings = new HashMap<String, Attribute>();
+        matchings.put("name", createAttribute("String"));
+        catalogueManager.updateEntityInstances(entityType, matchings, singleValue("name", "renamed"));
+
+        statements.clear();
+        matchings.put("name", createAttribute("Integer"));
+        assertDeleteRefused(matchings);
+
+        matchings.clear();
+        matchings.put("unknown", createAttribute("String"));
+        assertDeleteRefused(matchings);
+    }
+
+    /**
+     * Check that missing values, values of unknown fields, and values of the wrong class for their fields, are
+     * refused before anything is updated.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testValuesChecked() throws Exception
+    {
+        assertUpdateRefused(null);
+        assertUpdateRefused(new HashMap<String, Object>());
+        assertUpdateRefused(singleValue("unknown", "renamed"));
+        assertUpdateRefused(singleValue("name", 42));
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        table = new TreeSet<Long>();
+
+        for (long id = 1; id <= ROWS; id++)
+        {
+            table.add(id);
+        }
+
+        statements = new ArrayList<String>();
+        updateParameters = new HashMap<String, Object>();
+        indexRemoves = new ArrayList<Object>();
+        indexUpdates = new ArrayList<Object>();
+
+        // Supply HibernateUtil with stub sessions over the test entities.
+        final SessionFactory sessionFactory = (SessionFactory) createStub(SessionFactory.class, new DatabaseHandler());
+
+        HibernateUtil.initialize(new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return sessionFactory;
+                }
+
+                public ReplicaRouter getReplicaRouter()
+                {
+                    return null;
+                }
+            });
+
+        entityType = (EntityType) createStub(EntityType.class, new ModelHandler());
+
+        catalogueManager =
+            new CatalogueManagerServiceImpl((Catalogue) createStub(Catalogue.class, new ModelHandler()),
+                (IndexStore) createStub(IndexStore.class, new ModelHandler()));
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Close the stub session factory, so that HibernateUtil looks its session factory up again when next used.
+        closed = true;
+        CatalogueManagerServiceImpl.externalIds.clear();
+
+        NDC.pop();
+    }
+
+    /**
+     * Checks that a delete by a set of matchings is refused, without deleting anything.
+     *
+     * @param matchings The matchings to delete by.
+     */
+    private void assertDeleteRefused(Map<String, Attribute> matchings)
+    {
+        try
+        {
+            catalogueManager.deleteEntityInstances(entityType, matchings);
+            fail("Expected the matchings " + matchings.keySet() + " to be refused.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue("Expected nothing to be deleted.", statements.isEmpty());
+        }
+    }
+
+    /**
+     * Checks that an update of all entities to a set of values is refused, without updating anything.
+     *
+     * @param values The values to update to.
+     */
+    private void assertUpdateRefused(Map<String, Object> values)
+    {
+        try
+        {
+            catalogueManager.updateEntityInstances(entityType, new HashMap<String, Attribute>(), values);
+            fail("Expected the values " + values + " to be refused.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue("Expected nothing to be updated.", statements.isEmpty());
+        }
+    }
+
+    /**
+     * Creates a map of a single field value.
+     *
+     * @param  fieldName The name of the field.
+     * @param  value     The value of the field.
+     *
+     * @return A map of the single field value.
+     */
+    private Map<String, Object> singleValue(String fieldName, Object value)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put(fieldName, value);
+
+        return values;
+    }
+
+    /**
+     * Creates a stub attribute, that is not a hierarchy attribute, of the named type.
+     *
+     * @param  typeName The name of the type of the attribute.
+     *
+     * @return A stub attribute.
+     */
+    private Attribute createAttribute(final String typeName)
+    {
+        return (Attribute) createStub(Attribute.class, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        return "getType".equals(method.getName()) ? createFieldType(typeName, Object.class) : null;
+                    }
+                });
+    }
+
+    /**
+     * Creates a stub field type.
+     *
+     * @param  typeName  The name of the type.
+     * @param  baseClass The class of the values of the type.
+     *
+     * @return A stub field type.
+     */
+    private Type createFieldType(final String typeName, final Class baseClass)
+    {
+        return (Type) createStub(Type.class, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("getName".equals(method.getName()))
+                        {
+                            return typeName;
+                        }
+                        else if ("getBaseClass".equals(method.getName()))
+                        {
+                            return baseClass;
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Creates a stub test entity.
+     *
+     * @param  id The database id of the entity.
+     *
+     * @return A stub test entity.
+     */
+    private EntityInstance createEntity(final long id)
+    {
+        return (EntityInstance) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { EntityInstance.class, ExternallyIdentified.class }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        return "getExternalId".equals(method.getName()) ? new ExternalId("ext" + id, TYPE_NAME) : null;
+                    }
+                });
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type    The interface to stub.
+     * @param  handler The handler implementing the stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type, InvocationHandler handler)
+    {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, handler);
+    }
+
+    /**
+     * ModelHandler implements the stub catalogue, entity type, index store and index. The entity type is externally
+     * identified, has a single string field called 'name', and is indexed in a single index.
+     */
+    private class ModelHandler implements InvocationHandler
+    {
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("getName".equals(name))
+            {
+                return TYPE_NAME;
+            }
+            else if ("isExternalId".equals(name))
+            {
+                return true;
+            }
+            else if ("getPropertyType".equals(name))
+            {
+                return "name".equals(args[0]) ? createFieldType("String", String.class) : null;
+            }
+            else if ("getIndexesForDimension".equals(name))
+            {
+                return Arrays.asList("customers");
+            }
+            else if ("getNamedIndex".equals(name))
+            {
+                return createStub(TransactionalIndex.class, this);
+            }
+            else if ("remove".equals(name))
+            {
+                indexRemoves.add(args[0]);
+            }
+            else if ("update".equals(name))
+            {
+                indexUpdates.add(args[0]);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * DatabaseHandler implements the stub session factory, sessions, transactions, criteria and queries over the
+     * test entities. The test entity type has a collection table of its own, and a one-to-many collection held in
+     * the table of another type, and another type has a collection table too.
+     */
+    private class DatabaseHandler implements InvocationHandler
+    {
+        /** Holds the statement, if this is a stub query. */
+        private final String statement;
+
+        /** Holds the id to select entities after, if this is a stub criteria. */
+        private Long afterId;
+
+        /** Holds the maximum number of entities to select, if this is a stub criteria. */
+        private int maxResults = Integer.MAX_VALUE;
+
+        /** Flag set when this is a stub criteria with a projection onto the ids of the entities. */
+        private boolean projected;
+
+        /** Creates a stub session factory, session, transaction or criteria. */
+        DatabaseHandler()
+        {
+            this(null);
+        }
+
+        /**
+         * Creates a stub query.
+         *
+         * @param statement The statement of the query.
+         */
+        DatabaseHandler(String statement)
+        {
+            this.statement = statement;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("isClosed".equals(name))
+            {
+                return closed;
+            }
+            else if ("getCurrentSession".equals(name))
+            {
+                return createStub(Session.class, this);
+            }
+            else if ("getSessionFactory".equals(name))
+            {
+                return createStub(SessionFactory.class, this);
+            }
+            else if ("beginTransaction".equals(name) || "getTransaction".equals(name))
+            {
+                return createStub(Transaction.class, this);
+            }
+            else if ("getAllCollectionMetadata".equals(name))
+            {
+                Map<String, CollectionMetadata> collections = new LinkedHashMap<String, CollectionMetadata>();
+                collections.put(ENTITY_NAME + ".tags", createCollection("customer_tags", "tags_id", false));
+                collections.put(ENTITY_NAME + ".orders", createCollection("order_online", "customer_id", true));
+                collections.put("Supplier_online.tags", createCollection("supplier_tags", "tags_id", false));
+
+                return collections;
+            }
+            else if ("createCriteria".equals(name))
+            {
+                return createStub(Criteria.class, new DatabaseHandler());
+            }
+            else if ("createQuery".equals(name))
+            {
+                return createStub(Query.class, new DatabaseHandler((String) args[0]));
+            }
+            else if ("createSQLQuery".equals(name))
+            {
+                return createStub(SQLQuery.class, new DatabaseHandler((String) args[0]));
+            }
+            else if ("add".equals(name))
+            {
+                // Only the restriction to the entities after the last chunk is a simple expression on the id.
+                String criterion = ((Criterion) args[0]).toString();
+
+                if (criterion.startsWith("id>"))
+                {
+                    afterId = Long.valueOf(criterion.substring("id>".length()));
+                }
+
+                return proxy;
+            }
+            else if ("setProjection".equals(name))
+            {
+                projected = true;
+
+                return proxy;
+            }
+            else if ("setMaxResults".equals(name))
+            {
+                maxResults = (Integer) args[0];
+
+                return proxy;
+            }
+            else if ("list".equals(name))
+            {
+                return list();
+            }
+            else if ("setParameterList".equals(name))
+            {
+                lastIds = (Collection<Long>) args[1];
+
+                return proxy;
+            }
+            else if ("setParameter".equals(name))
+            {
+                updateParameters.put((String) args[0], args[1]);
+
+                return proxy;
+            }
+            else if ("executeUpdate".equals(name))
+            {
+                statements.add(statement + " " + lastIds.size());
+
+                if (statement.startsWith("delete from " + ENTITY_NAME))
+                {
+                    table.removeAll(lastIds);
+                }
+
+                return lastIds.size();
+            }
+            else if ((method.getReturnType() != null) && method.getReturnType().isInstance(proxy))
+            {
+                return proxy;
+            }
+
+            return null;
+        }
+
+        /**
+         * Lists the results of a stub criteria. With a projection, these are the ids and external ids of the next
+         * chunk of entities. Without one, these are the entities last given to a statement.
+         *
+         * @return The results of the stub criteria.
+         */
+        private List list()
+        {
+            List results = new ArrayList();
+
+            if (projected)
+            {
+                for (Long id : ((afterId == null) ? table : table.tailSet(afterId + 1)))
+                {
+                    if (results.size() == maxResults)
+                    {
+                        break;
+                    }
+
+                    results.add(Arrays.asList(id, "ext" + id));
+                }
+            }
+            else
+            {
+                for (Long id : lastIds)
+                {
+                    results.add(createEntity(id));
+                }
+            }
+
+            return results;
+        }
+
+        /**
+         * Creates a stub collection persister.
+         *
+         * @param  tableName  The table that the collection is held in.
+         * @param  keyColumn  The column of the table holding the id of the entity that the collection belongs to.
+         * @param  oneToMany  <tt>true</tt> if the collection is held in the table of the type of its elements.
+         *
+         * @return A stub collection persister.
+         */
+        private CollectionMetadata createCollection(final String tableName, final String keyColumn,
+            final boolean oneToMany)
+        {
+            return (CollectionMetadata) createStub(QueryableCollection.class, new InvocationHandler()
+                    {
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                        {
+                            if ("getTableName".equals(method.getName()))
+                            {
+                                return tableName;
+                            }
+                            else if ("getKeyColumnNames".equals(method.getName()))
+                            {
+                                return new String[] { keyColumn };
+                            }
+                            else if ("isOneToMany".equals(method.getName()))
+                            {
+                                return oneToMany;
+                            }
+
+                            return false;
+                        }
+                    });
+        }
+    }
+}
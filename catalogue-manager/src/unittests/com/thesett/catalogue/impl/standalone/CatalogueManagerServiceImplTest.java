@@ -0,0 +1,421 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import com.thesett.catalogue.config.HibernateConfigBean;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.hibernate.ReplicaRouter;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.EntityType;
+import com.thesett.catalogue.model.ExternallyIdentified;
+import com.thesett.catalogue.model.impl.InternalIdImpl;
+import com.thesett.index.Index;
+import com.thesett.index.IndexStore;
+import com.thesett.index.TransactionalIndex;
+
+/**
+ * Tests that the bulk create and update methods of {@link CatalogueManagerServiceImpl} write all of their entities in
+ * the current transaction, flushing the session and evicting the written entities from it at intervals of the JDBC
+ * batch size. Also tests that changes to entities are written to the database but not to the indexes when the index
+ * store is a replication follower.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that bulk creates flush the session every batch. <td> {@link CatalogueManagerServiceImpl}
+ * <tr><td> Check that bulk updates flush the session every batch.
+ * <tr><td> Check that a batch size of zero flushes every entity.
+ * <tr><td> Check that an empty collection writes nothing.
+ * <tr><td> Check that each batch is indexed before it is evicted, without clearing the session.
+ * <tr><td> Check that changes are indexed on a replication leader.
+ * <tr><td> Check that changes are stored but not indexed on a replication follower.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CatalogueManagerServiceImplTest extends TestCase
+{
+    /** Holds the session calls made, as 'S' for a save, 'U' for a save or update, and '|' for a flush. */
+    private StringBuilder writes;
+
+    /** Holds the index calls made, as 'A' for an add, 'U' for an update and 'R' for a remove. */
+    private StringBuilder indexWrites;
+
+    /** Holds the index calls and session evictions made in order, as for the index calls, with 'E' for an evict. */
+    private StringBuilder indexWritesAndEvictions;
+
+    /** Flag set when the session is cleared. */
+    private boolean cleared;
+
+    /** Holds the names of the indexes that the stub entities belong in. */
+    private List<String> indexes;
+
+    /** Flag set when the stub index refuses local changes, as the indexes of a replication follower do. */
+    private boolean readOnlyIndex;
+
+    /** Holds the number of transactions begun. */
+    private int transactionsBegun;
+
+    /** Flag set when the stub session factory is closed. */
+    private boolean closed;
+
+    /** Holds the stub hibernate config bean supplying the sessions. */
+    private HibernateConfigBean hibernateBean;
+
+    /** Holds the catalogue manager under test. */
+    private CatalogueManagerServiceImpl catalogueManager;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public CatalogueManagerServiceImplTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that bulk creates save every entity in one transaction, flushing the session after each batch and at the
+     * end.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCreatesFlushedEveryBatch() throws Exception
+    {
+        hibernateBean.setJdbcBatchSize(2);
+        catalogueManager.createEntityInstances(createEntities(5));
+
+        assertEquals("Expected the session to be flushed every batch.", "SS|SS|S|", writes.toString());
+        assertEquals("Expected one transaction.", 1, transactionsBegun);
+    }
+
+    /**
+     * Check that bulk updates save or update every entity in one transaction, flushing the session after each batch
+     * and at the end.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUpdatesFlushedEveryBatch() throws Exception
+    {
+        hibernateBean.setJdbcBatchSize(3);
+        catalogueManager.updateEntityInstances(createEntities(6));
+
+        assertEquals("Expected the session to be flushed every batch.", "UUU|UUU||", writes.toString());
+        assertEquals("Expected one transaction.", 1, transactionsBegun);
+    }
+
+    /**
+     * Check that a batch size of zero, which turns JDBC batching off, flushes after every entity.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testZeroBatchSizeFlushesEveryEntity() throws Exception
+    {
+        hibernateBean.setJdbcBatchSize(0);
+        catalogueManager.createEntityInstances(createEntities(2));
+
+        assertEquals("Expected the session to be flushed every entity.", "S|S||", writes.toString());
+    }
+
+    /**
+     * Check that an empty collection of entities writes nothing, other than the final flush.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testEmptyCollectionWritesNothing() throws Exception
+    {
+        catalogueManager.createEntityInstances(new ArrayList<EntityInstance>());
+
+        assertEquals("Expected only the final flush.", "|", writes.toString());
+    }
+
+    /**
+     * Check that the entities of each batch of a bulk create or update are indexed before they are evicted from the
+     * session, and that the session is not cleared, so that other entities held in it stay attached.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testBatchesIndexedThenEvicted() throws Exception
+    {
+        indexes = Arrays.asList("customers");
+        hibernateBean.setJdbcBatchSize(2);
+
+        catalogueManager.createEntityInstances(createEntities(3));
+        assertEquals("Expected each batch to be indexed then evicted.", "AAEEAE", indexWritesAndEvictions.toString());
+
+        indexWritesAndEvictions.setLength(0);
+        catalogueManager.updateEntityInstances(createEntities(3));
+        assertEquals("Expected each batch to be indexed then evicted.", "UUEEUE", indexWritesAndEvictions.toString());
+
+        assertFalse("Expected the session not to be cleared.", cleared);
+    }
+
+    /**
+     * Check that creates, updates and deletes of indexed entities are applied to the indexes on a replication leader.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testLeaderIndexesChanges() throws Exception
+    {
+        indexes = Arrays.asList("customers");
+
+        makeIndexedChanges();
+
+        assertEquals("Expected the changes to be stored.", "S|UU|D", writes.toString());
+        assertEquals("Expected the changes to be indexed.", "AUUR", indexWrites.toString());
+    }
+
+    /**
+     * Check that creates, updates and deletes of indexed entities are stored, without touching the indexes, when the
+     * index store is a replication follower whose indexes refuse local changes.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFollowerStoresChangesWithoutIndexing() throws Exception
+    {
+        indexes = Arrays.asList("customers");
+        readOnlyIndex = true;
+        catalogueManager.setIndexFollower(true);
+
+        makeIndexedChanges();
+
+        assertEquals("Expected the changes to be stored.", "S|UU|D", writes.toString());
+        assertEquals("Expected no changes to be indexed.", "", indexWrites.toString());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        writes = new StringBuilder();
+        indexWrites = new StringBuilder();
+        indexWritesAndEvictions = new StringBuilder();
+        cleared = false;
+        indexes = null;
+        readOnlyIndex = false;
+
+        // Supply HibernateUtil with stub sessions that record the writes made on them.
+        final SessionFactory sessionFactory = (SessionFactory) createStub(SessionFactory.class);
+
+        hibernateBean = new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return sessionFactory;
+                }
+
+                public ReplicaRouter getReplicaRouter()
+                {
+                    return null;
+                }
+            };
+
+        HibernateUtil.initialize(hibernateBean);
+
+        catalogueManager =
+            new CatalogueManagerServiceImpl((Catalogue) createStub(Catalogue.class),
+                (IndexStore) createStub(IndexStore.class));
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Close the stub session factory, so that HibernateUtil looks its session factory up again when next used.
+        closed = true;
+
+        NDC.pop();
+    }
+
+    /**
+     * Creates an entity, updates two entities in bulk, and deletes an entity, in a single batch.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    private void makeIndexedChanges() throws Exception
+    {
+        hibernateBean.setJdbcBatchSize(10);
+
+        catalogueManager.createEntityInstances(createEntities(1));
+        catalogueManager.updateEntityInstances(createEntities(2));
+        catalogueManager.deleteEntityInstance((EntityType) createStub(EntityType.class), new InternalIdImpl(1L));
+    }
+
+    /**
+     * Creates stub entities, of a type that is not given external ids when stored, and belongs in the indexes set up
+     * by the test, if any.
+     *
+     * @param  number The number of entities to create.
+     *
+     * @return The stub entities.
+     */
+    private List<EntityInstance> createEntities(int number)
+    {
+        List<EntityInstance> entities = new ArrayList<EntityInstance>();
+
+        for (int i = 0; i < number; i++)
+        {
+            entities.add((EntityInstance) createStub(EntityInstance.class));
+        }
+
+        return entities;
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type)
+    {
+        Class[] interfaces =
+            EntityInstance.class.equals(type) ? new Class[] { type, ExternallyIdentified.class } : new Class[] { type };
+
+        return Proxy.newProxyInstance(type.getClassLoader(), interfaces, new StubHandler());
+    }
+
+    /**
+     * StubHandler implements the stub catalogue, entities and entity types, the stub index store and index, and the
+     * stub session factory, sessions and transactions, recording the writes made.
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if (proxy instanceof Index)
+            {
+                return invokeIndex(name);
+            }
+            else if ("getComponentType".equals(name))
+            {
+                return createStub(EntityType.class);
+            }
+            else if ("getName".equals(name))
+            {
+                return "Customer";
+            }
+            else if ("isExternalId".equals(name))
+            {
+                return false;
+            }
+            else if ("getIndexesForDimension".equals(name))
+            {
+                return indexes;
+            }
+            else if ("getNamedIndex".equals(name))
+            {
+                return createStub(TransactionalIndex.class);
+            }
+            else if ("isClosed".equals(name))
+            {
+                return closed;
+            }
+            else if ("getCurrentSession".equals(name))
+            {
+                return createStub(Session.class);
+            }
+            else if ("beginTransaction".equals(name))
+            {
+                transactionsBegun++;
+
+                return createStub(Transaction.class);
+            }
+            else if ("getTransaction".equals(name))
+            {
+                return createStub(Transaction.class);
+            }
+            else if ("save".equals(name))
+            {
+                writes.append('S');
+            }
+            else if ("saveOrUpdate".equals(name))
+            {
+                writes.append('U');
+            }
+            else if ("get".equals(name))
+            {
+                return createStub(EntityInstance.class);
+            }
+            else if ("delete".equals(name))
+            {
+                writes.append('D');
+            }
+            else if ("flush".equals(name))
+            {
+                writes.append('|');
+            }
+            else if ("evict".equals(name))
+            {
+                indexWritesAndEvictions.append('E');
+            }
+            else if ("clear".equals(name))
+            {
+                cleared = true;
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+
+        /**
+         * Records the changes made to the stub index, refusing them if it is read only.
+         *
+         * @param  name The name of the index method called.
+         *
+         * @return Always <tt>null</tt>.
+         */
+        private Object invokeIndex(String name)
+        {
+            if ("add".equals(name) || "update".equals(name) || "remove".equals(name))
+            {
+                if (readOnlyIndex)
+                {
+                    throw new IllegalStateException("The index is a read only replica.");
+                }
+
+                indexWrites.append(Character.toUpperCase(name.charAt(0)));
+                indexWritesAndEvictions.append(Character.toUpperCase(name.charAt(0)));
+            }
+
+            return null;
+        }
+    }
+}
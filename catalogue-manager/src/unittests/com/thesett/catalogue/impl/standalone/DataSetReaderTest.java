@@ -0,0 +1,146 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+/**
+ * Tests that the {@link DataSetReader} reads the records of raw XML data sets correctly.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that records are read in order with their entity types and field values.
+ * <tr><td> Check that empty fields are left out of records.
+ * <tr><td> Check that an empty data set contains no records.
+ * <tr><td> Check that a data set that is not well formed is rejected.
+ * <tr><td> Check that external entities are not resolved.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class DataSetReaderTest extends TestCase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public DataSetReaderTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that records are read in order with their entity types and field values. */
+    public void testRecordsReadInOrder() throws Exception
+    {
+        DataSetReader reader =
+            new DataSetReader(new StringReader("<data-set>\n" + "<customer><name>Acme</name><region>Europe/UK</region>" +
+                    "</customer>\n" + "<product>\n<code>123</code>\n</product>\n" + "</data-set>"));
+
+        DataSetReader.Record first = reader.nextRecord();
+        assertEquals("Wrong entity type for the first record.", "customer", first.getEntityTypeName());
+        assertEquals("Wrong record number for the first record.", 1L, first.getRecordNumber());
+        assertEquals("Wrong line number for the first record.", 2, first.getLineNumber());
+        assertEquals("Wrong field value.", "Acme", first.getFields().get("name"));
+        assertEquals("Wrong field value.", "Europe/UK", first.getFields().get("region"));
+
+        DataSetReader.Record second = reader.nextRecord();
+        assertEquals("Wrong entity type for the second record.", "product", second.getEntityTypeName());
+        assertEquals("Wrong record number for the second record.", 2L, second.getRecordNumber());
+        assertEquals("Wrong field value.", "123", second.getFields().get("code"));
+        assertEquals("Wrong number of fields.", 1, second.getFields().size());
+
+        assertNull("Expected no more records.", reader.nextRecord());
+        assertEquals("Wrong record count.", 2L, reader.getRecordCount());
+
+        reader.close();
+    }
+
+    /** Check that empty fields are left out of records. */
+    public void testEmptyFieldsLeftOut() throws Exception
+    {
+        DataSetReader reader =
+            new DataSetReader(new StringReader("<data-set><customer><name> </name><region/></customer></data-set>"));
+
+        DataSetReader.Record record = reader.nextRecord();
+        assertTrue("Expected empty fields to be left out.", record.getFields().isEmpty());
+        assertNull("Expected no more records.", reader.nextRecord());
+    }
+
+    /** Check that an empty data set contains no records. */
+    public void testEmptyDataSet() throws Exception
+    {
+        DataSetReader reader = new DataSetReader(new StringReader("<data-set/>"));
+
+        assertNull("Expected no records.", reader.nextRecord());
+        assertEquals("Wrong record count.", 0L, reader.getRecordCount());
+    }
+
+    /** Check that a data set that is not well formed is rejected. */
+    public void testNotWellFormedRejected() throws Exception
+    {
+        DataSetReader reader =
+            new DataSetReader(new StringReader("<data-set><customer><name>Acme</name></customer><customer><name>"));
+
+        assertNotNull("Expected the first record to be read.", reader.nextRecord());
+
+        try
+        {
+            reader.nextRecord();
+            fail("Expected the truncated record to be rejected.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected.
+        }
+    }
+
+    /** Check that external entities declared in a data set are not resolved. */
+    public void testExternalEntitiesNotResolved() throws Exception
+    {
+        DataSetReader reader =
+            new DataSetReader(new StringReader("<?xml version=\"1.0\"?>\n" +
+                    "<!DOCTYPE data-set [<!ENTITY secret SYSTEM \"file:///etc/passwd\">]>\n" +
+                    "<data-set><customer><name>&secret;</name></customer></data-set>"));
+
+        try
+        {
+            reader.nextRecord();
+            fail("Expected the reference to the external entity to be rejected.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected.
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        // Push a client identifier onto the Nested Diagnostic Context so that Log4J will be able to identify all
+        // logging output for these tests.
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Clear the nested diagnostic context for this test.
+        NDC.pop();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Tests that {@link EntityCacheStatistics} takes the counts of the cache region that an entity is cached in, and
+ * computes its hit rate.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that the counts are taken from the region of the entity, by its prefixed name.
+ * <tr><td> Check that entities that are not cached have no statistics.
+ * <tr><td> Check that the hit rate is the proportion of look ups that hit.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class EntityCacheStatisticsTest extends TestCase
+{
+    /** The name of the entity cached in the tests. */
+    private static final String ENTITY = "Product_Online";
+
+    /** The prefixed name of the cache region of the entity. */
+    private static final String REGION = "secondary.Product";
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public EntityCacheStatisticsTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that the counts are taken from the region of the entity, by its prefixed name.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCountsTakenFromEntityRegion() throws Exception
+    {
+        EntityCacheStatistics statistics =
+            EntityCacheStatistics.forEntity(createSessionFactory(true, 3L, 1L, 2L, 5L), ENTITY);
+
+        assertNotNull("Expected statistics for a cached entity.", statistics);
+        assertEquals("Expected the prefixed region name.", REGION, statistics.getRegionName());
+        assertEquals("Expected the hit count of the region.", 3L, statistics.getHits());
+        assertEquals("Expected the miss count of the region.", 1L, statistics.getMisses());
+        assertEquals("Expected the put count of the region.", 2L, statistics.getPuts());
+        assertEquals("Expected the size of the region.", 5L, statistics.getSize());
+        assertEquals("Expected the hit rate of the region.", 0.75, statistics.getHitRate(), 0.0);
+    }
+
+    /**
+     * Check that entities that are not cached have no statistics.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUncachedEntityHasNoStatistics() throws Exception
+    {
+        assertNull("Expected no statistics for an entity that is not cached.",
+            EntityCacheStatistics.forEntity(createSessionFactory(false, 0L, 0L, 0L, 0L), ENTITY));
+    }
+
+    /**
+     * Check that the hit rate is zero before any look ups.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testHitRateZeroWithoutLookups() throws Exception
+    {
+        EntityCacheStatistics statistics = new EntityCacheStatistics(REGION, 0L, 0L, 4L, 4L);
+
+        assertEquals("Expected a hit rate of zero before any look ups.", 0.0, statistics.getHitRate(), 0.0);
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Creates a stub session factory mapping the test entity, with the statistics of its cache region.
+     *
+     * @param  cached Whether the entity is cached.
+     * @param  hits   The hit count of the region.
+     * @param  misses The miss count of the region.
+     * @param  puts   The put count of the region.
+     * @param  size   The size of the region.
+     *
+     * @return A stub session factory.
+     */
+    private SessionFactoryImplementor createSessionFactory(boolean cached, long hits, long misses, long puts,
+        long size)
+    {
+        Map<String, Object> regionStatisticsValues = new HashMap<String, Object>();
+        regionStatisticsValues.put("getHitCount", hits);
+        regionStatisticsValues.put("getMissCount", misses);
+        regionStatisticsValues.put("getPutCount", puts);
+        regionStatisticsValues.put("getElementCountInMemory", size);
+
+        final SecondLevelCacheStatistics regionStatistics =
+            stub(SecondLevelCacheStatistics.class, regionStatisticsValues);
+
+        Statistics statistics =
+            (Statistics) Proxy.newProxyInstance(Statistics.class.getClassLoader(), new Class[] { Statistics.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("getSecondLevelCacheStatistics".equals(method.getName()))
+                        {
+                            return REGION.equals(args[0]) ? regionStatistics : null;
+                        }
+
+                        return null;
+                    }
+                });
+
+        Map<String, Object> regionValues = new HashMap<String, Object>();
+        regionValues.put("getName", REGION);
+
+        Map<String, Object> accessValues = new HashMap<String, Object>();
+        accessValues.put("getRegion", stub(EntityRegion.class, regionValues));
+
+        Map<String, Object> persisterValues = new HashMap<String, Object>();
+        persisterValues.put("hasCache", cached);
+        persisterValues.put("getCacheAccessStrategy", stub(EntityRegionAccessStrategy.class, accessValues));
+
+        final EntityPersister persister = stub(EntityPersister.class, persisterValues);
+
+        Map<String, Object> factoryValues = new HashMap<String, Object>();
+        factoryValues.put("getStatistics", statistics);
+
+        return stub(SessionFactoryImplementor.class, factoryValues, ENTITY, persister);
+    }
+
+    /**
+     * Creates a stub that returns fixed values by method name, and <tt>null</tt> from all other methods.
+     *
+     * @param  type   The interface to stub.
+     * @param  values The values to return by method name.
+     * @param  <T>    The type of the stub.
+     *
+     * @return A stub of the interface.
+     */
+    private <T> T stub(Class<T> type, Map<String, Object> values)
+    {
+        return stub(type, values, null, null);
+    }
+
+    /**
+     * Creates a stub that returns fixed values by method name, and a persister for one entity name.
+     *
+     * @param  type       The interface to stub.
+     * @param  values     The values to return by method name.
+     * @param  entityName The entity name to return the persister for, if any.
+     * @param  persister  The persister to return for the entity name.
+     * @param  <T>        The type of the stub.
+     *
+     * @return A stub of the interface.
+     */
+    private <T> T stub(Class<T> type, final Map<String, Object> values, final String entityName,
+        final EntityPersister persister)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("getEntityPersister".equals(method.getName()))
+                        {
+                            if (!args[0].equals(entityName))
+                            {
+                                throw new IllegalArgumentException("Unknown entity: " + args[0]);
+                            }
+
+                            return persister;
+                        }
+
+                        return values.get(method.getName());
+                    }
+                }));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * Tests that the {@link QueryCountCache} builds signatures that identify paged queries, holds a bounded number of
+ * counts for a limited time, and drops its counts once a transaction changing entities completes.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that signatures do not depend on the order of the joins.
+ * <tr><td> Check that signatures of different queries differ.
+ * <tr><td> Check that the least recently used count is evicted when full.
+ * <tr><td> Check that counts expire after their time to live.
+ * <tr><td> Check that counts are dropped straight away, and again once the transaction completes.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class QueryCountCacheTest extends TestCase
+{
+    /** The time to live of cached counts in the tests, in milliseconds. */
+    private static final long TIME_TO_LIVE = 1000L;
+
+    /** The name of the entity queried in the tests. */
+    private static final String ENTITY = "Customer_Online";
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public QueryCountCacheTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that signatures do not depend on the order of the joins.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testSignatureIgnoresJoinOrder() throws Exception
+    {
+        Map<String, Criterion> joins = new LinkedHashMap<String, Criterion>();
+        joins.put("region", Restrictions.eq("name", "Europe"));
+        joins.put("category", Restrictions.eq("name", "Retail"));
+
+        Map<String, Criterion> reversed = new LinkedHashMap<String, Criterion>();
+        reversed.put("category", Restrictions.eq("name", "Retail"));
+        reversed.put("region", Restrictions.eq("name", "Europe"));
+
+        assertEquals("Expected the signature not to depend on the order of the joins.",
+            QueryCountCache.signature(ENTITY, null, joins), QueryCountCache.signature(ENTITY, null, reversed));
+    }
+
+    /**
+     * Check that signatures of queries with different criteria differ.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testSignatureDistinguishesQueries() throws Exception
+    {
+        Map<String, Criterion> joins = new LinkedHashMap<String, Criterion>();
+        joins.put("region", Restrictions.eq("name", "Europe"));
+
+        Map<String, Criterion> otherJoins = new LinkedHashMap<String, Criterion>();
+        otherJoins.put("region", Restrictions.eq("name", "Asia"));
+
+        String signature = QueryCountCache.signature(ENTITY, Restrictions.gt("id", 10L), joins);
+
+        assertFalse("Expected the criterion to be part of the signature.",
+            signature.equals(QueryCountCache.signature(ENTITY, null, joins)));
+        assertFalse("Expected the joins to be part of the signature.",
+            signature.equals(QueryCountCache.signature(ENTITY, Restrictions.gt("id", 10L), otherJoins)));
+    }
+
+    /**
+     * Check that the least recently used count is evicted when the cache is full.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testLeastRecentlyUsedEvicted() throws Exception
+    {
+        QueryCountCache cache = new QueryCountCache(2, TIME_TO_LIVE);
+
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+
+        assertEquals("Expected the recently used count to be kept.", Integer.valueOf(1), cache.get("a"));
+        assertNull("Expected the least recently used count to be evicted.", cache.get("b"));
+        assertEquals("Expected the newest count to be kept.", Integer.valueOf(3), cache.get("c"));
+    }
+
+    /**
+     * Check that counts expire after their time to live.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCountsExpire() throws Exception
+    {
+        QueryCountCache cache = new QueryCountCache(10, TIME_TO_LIVE);
+
+        cache.put("a", 5, 0L);
+
+        assertEquals("Expected the count to be held within its time to live.", Integer.valueOf(5),
+            cache.get("a", TIME_TO_LIVE - 1));
+        assertNull("Expected the count to expire after its time to live.", cache.get("a", TIME_TO_LIVE));
+    }
+
+    /**
+     * Check that counts are dropped when a transaction changes entities, and again once it completes, so that a count
+     * taken by another query before the changes were committed is not kept.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testClearedAgainOnCompletion() throws Exception
+    {
+        QueryCountCache cache = new QueryCountCache(10, TIME_TO_LIVE);
+        List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+        Transaction transaction = createTransaction(synchronizations);
+
+        cache.put("a", 5);
+        cache.clearOnCompletion(transaction);
+        assertNull("Expected the count to be dropped straight away.", cache.get("a"));
+
+        // A count is taken before the changes commit, and the transaction makes more changes.
+        cache.put("a", 5);
+        cache.clearOnCompletion(transaction);
+        cache.put("a", 5);
+
+        assertEquals("Expected the transaction to be registered with once.", 1, synchronizations.size());
+
+        synchronizations.get(0).afterCompletion(Status.STATUS_COMMITTED);
+        assertNull("Expected the count to be dropped once the transaction completed.", cache.get("a"));
+
+        // The next transaction is registered with again.
+        cache.clearOnCompletion(createTransaction(synchronizations));
+        assertEquals("Expected the next transaction to be registered with.", 2, synchronizations.size());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Creates a stub transaction, that keeps the synchronizations registered with it.
+     *
+     * @param  synchronizations The list to add the registered synchronizations to.
+     *
+     * @return A stub transaction.
+     */
+    private Transaction createTransaction(final List<Synchronization> synchronizations)
+    {
+        return (Transaction) Proxy.newProxyInstance(Transaction.class.getClassLoader(),
+                new Class[] { Transaction.class }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("registerSynchronization".equals(method.getName()))
+                        {
+                            synchronizations.add((Synchronization) args[0]);
+                        }
+                        else if ("equals".equals(method.getName()))
+                        {
+                            return proxy == args[0];
+                        }
+                        else if ("hashCode".equals(method.getName()))
+                        {
+                            return System.identityHashCode(proxy);
+                        }
+
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import com.thesett.aima.state.Type;
+import com.thesett.catalogue.config.HibernateConfigBean;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.hibernate.ReplicaRouter;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.CatalogueManagerService;
+import com.thesett.catalogue.model.DataSetUploadListener;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.EntityType;
+import com.thesett.index.IndexMappingException;
+
+/**
+ * Tests that {@link RawDataServiceImpl} writes data sets in batched transactions, rolls back batches that fail and
+ * writes their records again one at a time to find the ones that fail, and rolls back and stops on any other failure.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that records are written and committed in batches. <td> {@link RawDataServiceImpl}
+ * <tr><td> Check that records of an unknown entity type are reported and skipped.
+ * <tr><td> Check that a batch that fails to be indexed is rolled back and retried one record at a time.
+ * <tr><td> Check that any other failure is rolled back and stops the upload.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class RawDataServiceImplTest extends TestCase
+{
+    /** The name of the entity type that the stub catalogue holds. */
+    private static final String ENTITY_TYPE = "customer";
+
+    /** The name of a customer that the stub catalogue manager fails to write. */
+    private static final String BAD_NAME = "Bad";
+
+    /** Holds the sizes of the batches written through the stub catalogue manager. */
+    private List<Integer> batchSizes;
+
+    /** Holds the names of the customers written one at a time through the stub catalogue manager. */
+    private List<String> singleWrites;
+
+    /** Holds the exception for the stub catalogue manager to fail writes of {@link #BAD_NAME} with. */
+    private RuntimeException failure;
+
+    /** Holds the number of transactions committed. */
+    private int commits;
+
+    /** Holds the number of transactions rolled back. */
+    private int rollbacks;
+
+    /** Flag set when the stub session factory is closed. */
+    private boolean closed;
+
+    /** Holds the record numbers reported as failed. */
+    private List<Long> failedRecords;
+
+    /** Holds the final progress reported, as records read, written and failed. */
+    private long[] progress;
+
+    /** Holds the raw data service under test. */
+    private RawDataServiceImpl rawDataService;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public RawDataServiceImplTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that records are written and committed in batches, with a partly filled batch at the end.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testRecordsWrittenInBatches() throws Exception
+    {
+        rawDataService.setBatchSize(2);
+        upload("A", "B", "C", "D", "E");
+
+        assertEquals("Expected the records to be written in batches.", "[2, 2, 1]", batchSizes.toString());
+        assertEquals("Expected each batch to be committed.", 3, commits);
+        assertEquals("Expected no rollbacks.", 0, rollbacks);
+        assertEquals("Expected all records to be written.", 5L, progress[1]);
+        assertEquals("Expected no records to fail.", 0L, progress[2]);
+    }
+
+    /**
+     * Check that records of an entity type that is not in the catalogue are reported and skipped.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUnknownEntityTypeReported() throws Exception
+    {
+        rawDataService.uploadDataSet(new StringReader("<data-set><customer><name>A</name></customer>" +
+                "<supplier><name>B</name></supplier></data-set>"), new RecordingListener());
+
+        assertEquals("Expected the unknown record to be reported.", "[2]", failedRecords.toString());
+        assertEquals("Expected the known record to be written.", "[1]", batchSizes.toString());
+        assertEquals("Expected one record to be written.", 1L, progress[1]);
+        assertEquals("Expected one record to fail.", 1L, progress[2]);
+    }
+
+    /**
+     * Check that a batch that fails to be indexed is rolled back, and its records written again one at a time, so that
+     * only the record that fails is reported.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFailedBatchRolledBackAndRetried() throws Exception
+    {
+        failure = new IndexMappingException("Cannot index.", null, null, null);
+        upload("A", BAD_NAME, "C");
+
+        assertEquals("Expected the batch and the bad record to be rolled back.", 2, rollbacks);
+        assertEquals("Expected the records to be written again one at a time.", "[A, C]", singleWrites.toString());
+        assertEquals("Expected the good records to be committed.", 2, commits);
+        assertEquals("Expected the bad record to be reported.", "[2]", failedRecords.toString());
+        assertEquals("Expected two records to be written.", 2L, progress[1]);
+        assertEquals("Expected one record to fail.", 1L, progress[2]);
+    }
+
+    /**
+     * Check that a batch that fails with an illegal state is rolled back and retried one record at a time.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testIllegalStateRolledBackAndRetried() throws Exception
+    {
+        failure = new IllegalStateException("Cannot write.");
+        upload("A", BAD_NAME);
+
+        assertEquals("Expected the batch and the bad record to be rolled back.", 2, rollbacks);
+        assertEquals("Expected the good record to be written again.", "[A]", singleWrites.toString());
+        assertEquals("Expected the bad record to be reported.", "[2]", failedRecords.toString());
+    }
+
+    /**
+     * Check that any other failure is rolled back and stops the upload.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testOtherFailureRolledBackAndRethrown() throws Exception
+    {
+        failure = new UnsupportedOperationException("Cannot write.");
+
+        try
+        {
+            upload("A", BAD_NAME);
+            fail("Expected the failure to stop the upload.");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // Expected.
+        }
+
+        assertEquals("Expected the batch to be rolled back.", 1, rollbacks);
+        assertEquals("Expected no commits.", 0, commits);
+        assertTrue("Expected no records to be written again.", singleWrites.isEmpty());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        batchSizes = new ArrayList<Integer>();
+        singleWrites = new ArrayList<String>();
+        failedRecords = new ArrayList<Long>();
+        progress = new long[3];
+
+        // Supply HibernateUtil with stub sessions that count the transactions committed and rolled back.
+        final SessionFactory sessionFactory = (SessionFactory) createStub(SessionFactory.class);
+
+        HibernateUtil.initialize(new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return sessionFactory;
+                }
+
+                public ReplicaRouter getReplicaRouter()
+                {
+                    return null;
+                }
+            });
+
+        rawDataService = new RawDataServiceImpl((CatalogueManagerService) createStub(CatalogueManagerService.class));
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Close the stub session factory, so that HibernateUtil looks its session factory up again when next used.
+        closed = true;
+
+        NDC.pop();
+    }
+
+    /**
+     * Uploads a data set of customers with the specified names.
+     *
+     * @param names The names of the customers.
+     */
+    private void upload(String... names)
+    {
+        StringBuilder dataSet = new StringBuilder("<data-set>");
+
+        for (String name : names)
+        {
+            dataSet.append("<customer><name>").append(name).append("</name></customer>");
+        }
+
+        dataSet.append("</data-set>");
+
+        rawDataService.uploadDataSet(new StringReader(dataSet.toString()), new RecordingListener());
+    }
+
+    /**
+     * Writes an entity through the stub catalogue manager, failing if it has the bad name and a failure is set.
+     *
+     * @param entity The entity to write.
+     */
+    private void write(Object entity)
+    {
+        if ((failure != null) && BAD_NAME.equals(nameOf(entity)))
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Provides the name set on a stub entity.
+     *
+     * @param  entity The stub entity.
+     *
+     * @return The name set on the entity.
+     */
+    private static String nameOf(Object entity)
+    {
+        return (String) ((StubHandler) Proxy.getInvocationHandler(entity)).properties.get("name");
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new StubHandler());
+    }
+
+    /**
+     * StubHandler implements the stub catalogue manager, its catalogue and entity types, the entities, and the stub
+     * session factory, sessions and transactions.
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        /** Holds the properties set on a stub entity. */
+        Map<String, Object> properties = new HashMap<String, Object>();
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("createEntityInstances".equals(name))
+            {
+                for (Object entity : (Collection) args[0])
+                {
+                    write(entity);
+                }
+
+                batchSizes.add(((Collection) args[0]).size());
+            }
+            else if ("createEntityInstance".equals(name))
+            {
+                write(args[0]);
+                singleWrites.add(nameOf(args[0]));
+            }
+            else if ("getCatalogue".equals(name))
+            {
+                return createStub(Catalogue.class);
+            }
+            else if ("getEntityType".equals(name))
+            {
+                return ENTITY_TYPE.equals(args[0]) ? createStub(EntityType.class) : null;
+            }
+            else if ("getDefaultInstance".equals(name))
+            {
+                return createStub(EntityInstance.class);
+            }
+            else if ("getPropertyType".equals(name))
+            {
+                return createStub(Type.class);
+            }
+            else if ("getBaseClass".equals(name))
+            {
+                return String.class;
+            }
+            else if ("setProperty".equals(name))
+            {
+                properties.put((String) args[0], args[1]);
+            }
+            else if ("getCurrentSession".equals(name))
+            {
+                return createStub(Session.class);
+            }
+            else if ("getTransaction".equals(name))
+            {
+                return createStub(Transaction.class);
+            }
+            else if ("commit".equals(name))
+            {
+                commits++;
+            }
+            else if ("rollback".equals(name))
+            {
+                rollbacks++;
+            }
+            else if ("isClosed".equals(name))
+            {
+                return closed;
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+
+    /** RecordingListener records the failed records and the last progress reported. */
+    private class RecordingListener implements DataSetUploadListener
+    {
+        /** {@inheritDoc} */
+        public void progress(long recordsRead, long recordsWritten, long recordsFailed)
+        {
+            progress[0] = recordsRead;
+            progress[1] = recordsWritten;
+            progress[2] = recordsFailed;
+        }
+
+        /** {@inheritDoc} */
+        public void recordFailed(long recordNumber, int lineNumber, String entityTypeName, String message)
+        {
+            failedRecords.add(recordNumber);
+        }
+    }
+}
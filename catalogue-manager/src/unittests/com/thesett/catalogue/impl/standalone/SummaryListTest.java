@@ -0,0 +1,381 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import com.thesett.catalogue.config.HibernateConfigBean;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.model.CatalogueManagerService;
+import com.thesett.catalogue.model.PagingResult;
+import com.thesett.catalogue.model.ViewInstance;
+
+/**
+ * Tests that a {@link SummaryList} in keyset paging mode seeks to each block past the last id of the block before it,
+ * falls back to fetching by offset where it cannot, and only asks for the result count to be counted again when it
+ * should. Also tests that blocks prefetched in the background are served without being fetched again, and that
+ * prefetching never takes over a count refresh from the blocks served.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that the first block is fetched by keyset and recounts. <td> {@link SummaryList}
+ * <tr><td> Check that the next block seeks past the last id of the block before it.
+ * <tr><td> Check that a block that cannot be reached by keyset is fetched by offset.
+ * <tr><td> Check that a requested count refresh is made on the next block only.
+ * <tr><td> Check that offset mode never seeks.
+ * <tr><td> Check that a prefetched block is served without being fetched again.
+ * <tr><td> Check that a requested count refresh is made on the next block served, and not by a prefetch.
+ * <tr><td> Check that the first block is not prefetched in keyset mode.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class SummaryListTest extends TestCase
+{
+    /** The total number of results the stub service reports. */
+    private static final int SIZE = 100;
+
+    /** The block size to page by. */
+    private static final int BLOCK_SIZE = 10;
+
+    /** Holds the calls made on the stub service, as the method name followed by its arguments. */
+    private List<Object[]> calls;
+
+    /** Holds the summary list under test. */
+    private SummaryList list;
+
+    /** Holds the stub session factory that prefetches commit their sessions on. */
+    private SessionFactory sessionFactory;
+
+    /** Flag set when the stub session factory has been closed. */
+    private boolean closed;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public SummaryListTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that the first block is fetched by keyset, from the start, and counts the results again.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFirstBlockSeeksFromStartAndCounts() throws Exception
+    {
+        list.getBlock(0, BLOCK_SIZE);
+
+        assertKeysetCall(0, null, true);
+    }
+
+    /**
+     * Check that the next block seeks past the last id of the block before it, taking the count from the cache.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testNextBlockSeeksPastLastId() throws Exception
+    {
+        list.getBlock(0, BLOCK_SIZE);
+        list.getBlock(BLOCK_SIZE, BLOCK_SIZE);
+
+        assertKeysetCall(1, (long) BLOCK_SIZE, false);
+    }
+
+    /**
+     * Check that a block that cannot be reached by keyset, because the block before it was not fetched, is fetched by
+     * offset.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUnreachableBlockFetchedByOffset() throws Exception
+    {
+        list.getBlock(0, BLOCK_SIZE);
+        list.getBlock(5 * BLOCK_SIZE, BLOCK_SIZE);
+
+        assertOffsetCall(1, 5 * BLOCK_SIZE);
+    }
+
+    /**
+     * Check that a requested count refresh is made on the next block fetched, and not on the ones after it.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testRefreshCountRecountsNextBlock() throws Exception
+    {
+        list.getBlock(0, BLOCK_SIZE);
+        list.refreshCount();
+        list.getBlock(BLOCK_SIZE, BLOCK_SIZE);
+        list.getBlock(2 * BLOCK_SIZE, BLOCK_SIZE);
+
+        assertKeysetCall(1, (long) BLOCK_SIZE, true);
+        assertKeysetCall(2, (long) (2 * BLOCK_SIZE), false);
+    }
+
+    /**
+     * Check that blocks are always fetched by offset when not in keyset mode.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testOffsetModeNeverSeeks() throws Exception
+    {
+        list.setKeysetPaging(false);
+
+        list.getBlock(0, BLOCK_SIZE);
+        list.getBlock(BLOCK_SIZE, BLOCK_SIZE);
+
+        assertOffsetCall(0, 0);
+        assertOffsetCall(1, BLOCK_SIZE);
+    }
+
+    /**
+     * Check that a block prefetched after the block before it is served, when asked for, without being fetched again.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testPrefetchedBlockServedWithoutRefetch() throws Exception
+    {
+        list.setPrefetchPolicy(SummaryList.PrefetchPolicy.Next);
+
+        list.getBlock(0, BLOCK_SIZE);
+        list.getBlock(BLOCK_SIZE, BLOCK_SIZE);
+
+        assertEquals("Expected the second block to be fetched once, without recounting.", 1,
+            countKeysetCalls((long) BLOCK_SIZE, false));
+        assertEquals("Expected the second block not to be fetched again.", 0,
+            countKeysetCalls((long) BLOCK_SIZE, true));
+    }
+
+    /**
+     * Check that a count refresh requested while a block is prefetched is made on the next block served, and is not
+     * taken over by the prefetch of the block after it.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testRefreshCountNotConsumedByPrefetch() throws Exception
+    {
+        list.setPrefetchPolicy(SummaryList.PrefetchPolicy.Next);
+
+        list.getBlock(0, BLOCK_SIZE);
+        list.refreshCount();
+        list.getBlock(BLOCK_SIZE, BLOCK_SIZE);
+        list.getBlock(2 * BLOCK_SIZE, BLOCK_SIZE);
+
+        assertEquals("Expected the block served after the refresh request to recount.", 1,
+            countKeysetCalls((long) BLOCK_SIZE, true));
+        assertEquals("Expected no prefetch to recount.", 0, countKeysetCalls((long) (2 * BLOCK_SIZE), true));
+    }
+
+    /**
+     * Check that the first block is not prefetched in keyset mode, so that it always recounts when served.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFirstBlockNotPrefetched() throws Exception
+    {
+        list.setPrefetchPolicy(SummaryList.PrefetchPolicy.NextAndPrevious);
+
+        list.getBlock(0, BLOCK_SIZE);
+        list.getBlock(BLOCK_SIZE, BLOCK_SIZE);
+        list.getBlock(0, BLOCK_SIZE);
+
+        assertEquals("Expected the first block to recount each time it is served.", 2, countKeysetCalls(null, true));
+        assertEquals("Expected the first block not to be prefetched.", 0, countKeysetCalls(null, false));
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        calls = Collections.synchronizedList(new ArrayList<Object[]>());
+
+        // Stub the session factory that prefetches commit their sessions on.
+        closed = false;
+        sessionFactory = (SessionFactory) createStub(SessionFactory.class);
+
+        HibernateUtil.initialize(new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return sessionFactory;
+                }
+            });
+
+        CatalogueManagerService service =
+            (CatalogueManagerService) Proxy.newProxyInstance(CatalogueManagerService.class.getClassLoader(),
+                new Class[] { CatalogueManagerService.class }, new StubServiceHandler());
+
+        list = new SummaryList(SIZE, BLOCK_SIZE, "Customer", "Customer", "Customer", null, null, service, true);
+        list.setKeysetPaging(true);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Close the stub session factory, so that HibernateUtil looks its session factory up again when next used.
+        list.setPrefetchPolicy(SummaryList.PrefetchPolicy.None);
+        closed = true;
+
+        NDC.pop();
+    }
+
+    /**
+     * Counts the keyset paged queries made on the stub service that seek past an id.
+     *
+     * @param  afterId      The id seeked past.
+     * @param  refreshCount The value of the refresh count flag.
+     *
+     * @return The number of keyset paged queries made seeking past the id, with the refresh count flag.
+     */
+    private int countKeysetCalls(Long afterId, boolean refreshCount)
+    {
+        int count = 0;
+
+        synchronized (calls)
+        {
+            for (Object[] call : calls)
+            {
+                if ("executeKeysetPagedQuery".equals(call[0]) &&
+                        ((afterId == null) ? (call[1] == null) : afterId.equals(call[1])) &&
+                        (refreshCount == (Boolean) call[8]))
+                {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Creates a stub of a hibernate interface, that reports the session factory as open or closed, and returns stubs
+     * for sessions and transactions.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        String name = method.getName();
+
+                        if ("isClosed".equals(name))
+                        {
+                            return closed;
+                        }
+                        else if ("getCurrentSession".equals(name))
+                        {
+                            return createStub(Session.class);
+                        }
+                        else if ("getTransaction".equals(name))
+                        {
+                            return createStub(Transaction.class);
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Checks that a call made on the stub service was a keyset paged query.
+     *
+     * @param index        The index of the call.
+     * @param afterId      The id expected to be seeked past.
+     * @param refreshCount The expected value of the refresh count flag.
+     */
+    private void assertKeysetCall(int index, Long afterId, boolean refreshCount)
+    {
+        Object[] call = calls.get(index);
+
+        assertEquals("Expected call " + index + " to be by keyset.", "executeKeysetPagedQuery", call[0]);
+        assertEquals("Expected call " + index + " to seek past the right id.", afterId, call[1]);
+        assertEquals("Expected call " + index + " to have the right refresh count flag.", refreshCount, call[8]);
+    }
+
+    /**
+     * Checks that a call made on the stub service was an offset paged query.
+     *
+     * @param index The index of the call.
+     * @param start The offset expected to be fetched from.
+     */
+    private void assertOffsetCall(int index, int start)
+    {
+        Object[] call = calls.get(index);
+
+        assertEquals("Expected call " + index + " to be by offset.", "executePagedQuery", call[0]);
+        assertEquals("Expected call " + index + " to fetch from the right offset.", start, call[1]);
+    }
+
+    /**
+     * StubServiceHandler implements a stub catalogue manager service, that records the paged queries made on it, and
+     * answers them with blocks whose last id is the position reached in the results.
+     */
+    private class StubServiceHandler implements InvocationHandler
+    {
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if (args == null)
+            {
+                throw new UnsupportedOperationException(name + " is not stubbed.");
+            }
+
+            Object[] call = new Object[args.length + 1];
+            call[0] = name;
+            System.arraycopy(args, 0, call, 1, args.length);
+            calls.add(call);
+
+            int number = (Integer) args[1];
+            long start;
+
+            if ("executeKeysetPagedQuery".equals(name))
+            {
+                start = (args[0] == null) ? 0L : (Long) args[0];
+            }
+            else if ("executePagedQuery".equals(name))
+            {
+                start = (Integer) args[0];
+            }
+            else
+            {
+                throw new UnsupportedOperationException(name + " is not stubbed.");
+            }
+
+            return new PagingResult(SIZE, Collections.<ViewInstance>nCopies(number, null), start + number);
+        }
+    }
+}
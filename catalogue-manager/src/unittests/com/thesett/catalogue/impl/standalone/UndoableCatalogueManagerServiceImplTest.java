@@ -0,0 +1,241 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.impl.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import com.thesett.catalogue.config.HibernateConfigBean;
+import com.thesett.catalogue.hibernate.HibernateUtil;
+import com.thesett.catalogue.hibernate.ReplicaRouter;
+import com.thesett.catalogue.model.CatalogueManagerService;
+import com.thesett.catalogue.model.EntityInstance;
+
+/**
+ * Tests that the bulk update of {@link UndoableCatalogueManagerServiceImpl} takes a detached copy of each entity as it
+ * is before the update, read from the database rather than being the updated entity itself, and evicted from the
+ * session it was read in before the update is written.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that attached updated entities are evicted before their originals are read.
+ *     <td> {@link UndoableCatalogueManagerServiceImpl}
+ * <tr><td> Check that detached updated entities are not evicted.
+ * <tr><td> Check that the originals are evicted from the session before the update.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class UndoableCatalogueManagerServiceImplTest extends TestCase
+{
+    /** Holds the calls made on the session and the wrapped service, in order. */
+    private List<String> calls;
+
+    /** Holds the entities attached to the stub session. */
+    private Set<Object> attached;
+
+    /** Flag set when the stub session factory is closed. */
+    private boolean closed;
+
+    /** Holds the undoable catalogue manager under test. */
+    private UndoableCatalogueManagerServiceImpl undoableService;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public UndoableCatalogueManagerServiceImplTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that an updated entity attached to the session is evicted before its original is read, so that the
+     * original is read from the database, and that the original is evicted before the update is written.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testAttachedEntityEvictedBeforeOriginalRead() throws Exception
+    {
+        EntityInstance element = createEntity("updated");
+        attached.add(element);
+
+        List<EntityInstance> elements = new ArrayList<EntityInstance>();
+        elements.add(element);
+
+        undoableService.updateEntityInstances(elements);
+
+        assertEquals("Expected the updated entity to be evicted, then the original read and evicted, then the update.",
+            "[evict updated, retrieve, evict original, update]", calls.toString());
+    }
+
+    /**
+     * Check that a detached updated entity is not evicted, and that the original is still evicted before the update
+     * is written.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testDetachedEntityNotEvicted() throws Exception
+    {
+        List<EntityInstance> elements = new ArrayList<EntityInstance>();
+        elements.add(createEntity("updated"));
+        elements.add(createEntity("updated"));
+
+        undoableService.updateEntityInstances(elements);
+
+        assertEquals("Expected each original to be read and evicted, then the update.",
+            "[retrieve, evict original, retrieve, evict original, update]", calls.toString());
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        calls = new ArrayList<String>();
+        attached = new HashSet<Object>();
+
+        // Supply HibernateUtil with stub sessions that record the evictions made on them.
+        final SessionFactory sessionFactory = (SessionFactory) createStub(SessionFactory.class, null);
+
+        HibernateUtil.initialize(new HibernateConfigBean()
+            {
+                public SessionFactory getSessionFactory()
+                {
+                    return sessionFactory;
+                }
+
+                public ReplicaRouter getReplicaRouter()
+                {
+                    return null;
+                }
+            });
+
+        CatalogueManagerService service = (CatalogueManagerService) createStub(CatalogueManagerService.class, null);
+        undoableService = new UndoableCatalogueManagerServiceImpl(service);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Close the stub session factory, so that HibernateUtil looks its session factory up again when next used.
+        closed = true;
+
+        NDC.pop();
+    }
+
+    /**
+     * Creates a stub entity.
+     *
+     * @param  label The label to record calls made with the entity by.
+     *
+     * @return A stub entity.
+     */
+    private EntityInstance createEntity(String label)
+    {
+        return (EntityInstance) createStub(EntityInstance.class, label);
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type  The interface to stub.
+     * @param  label The label to record calls made with the stub by, or <tt>null</tt> if it is not recorded.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type, String label)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new StubHandler(label));
+    }
+
+    /**
+     * StubHandler implements the stub wrapped service and entities, and the stub session factory and sessions,
+     * recording the calls made. The wrapped service retrieves a new entity for each original.
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        /** Holds the label to record calls made with the stub by. */
+        private final String label;
+
+        /**
+         * Creates a stub handler.
+         *
+         * @param label The label to record calls made with the stub by.
+         */
+        StubHandler(String label)
+        {
+            this.label = label;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("retrieveEntityInstance".equals(name))
+            {
+                calls.add("retrieve");
+
+                EntityInstance original = createEntity("original");
+                attached.add(original);
+
+                return original;
+            }
+            else if ("updateEntityInstances".equals(name))
+            {
+                calls.add("update");
+            }
+            else if ("getCurrentSession".equals(name))
+            {
+                return createStub(Session.class, null);
+            }
+            else if ("contains".equals(name))
+            {
+                return attached.contains(args[0]);
+            }
+            else if ("evict".equals(name))
+            {
+                attached.remove(args[0]);
+                calls.add("evict " + ((StubHandler) Proxy.getInvocationHandler(args[0])).label);
+            }
+            else if ("isClosed".equals(name))
+            {
+                return closed;
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+}
@@ -15,11 +15,25 @@
  */
 package com.thesett.catalogue.core;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
-import org.hibernate.Criteria;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.criterion.Projections;
 
 import com.thesett.aima.state.ComponentType;
 import com.thesett.catalogue.model.Catalogue;
@@ -32,13 +46,24 @@ import com.thesett.index.Index;
 import com.thesett.index.IndexMappingException;
 import com.thesett.index.IndexStore;
 import com.thesett.index.IndexUnknownKeyException;
+import com.thesett.index.tx.IndexTxId;
+import com.thesett.index.tx.IndexTxManager;
 import org.hibernate.SharedSessionContract;
 
 /**
  * CatalogueManipulatorBase extracts common functions for working with catalogue models.
  *
+ * <p/>Indexes are rebuilt as a streaming pipeline. The rows of each indexed type are read forward-only from the
+ * database on the calling thread, in chunks, and the chunks are handed over to a pool of index workers through a
+ * bounded queue. When the queue is full the calling thread indexes the chunk itself, which holds back the reading until
+ * the workers catch up. Once a chunk has been indexed its rows are evicted from the reading session, so only the chunks
+ * in flight are held in memory, however large the table is. The workers join the index transaction of the calling
+ * thread, if it has one, so the rows they add are committed or rolled back with it.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Maintain the catalogue indexes. <td> {@link IndexStore}
+ * <tr><td> Rebuild the catalogue indexes in parallel, in bounded memory. <td> {@link IndexRebuildProgress}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -48,6 +73,27 @@ public class CatalogueManipulatorBase
     /** Used for logging. */
     private static final Logger log = Logger.getLogger(CatalogueManipulatorBase.class);
 
+    /** Defines the number of rows read and indexed together as a chunk when rebuilding indexes. */
+    private static final int REBUILD_CHUNK_SIZE = 100;
+
+    /** Defines the number of chunks that may wait in the queue for an index worker when rebuilding indexes. */
+    private static final int REBUILD_QUEUE_CHUNKS = 8;
+
+    /** Used to number the index rebuild worker threads. */
+    private static final AtomicInteger rebuildThreadCount = new AtomicInteger();
+
+    /** Holds the number of worker threads to rebuild indexes with. */
+    private int rebuildWorkers = Runtime.getRuntime().availableProcessors();
+
+    /** Holds the progress of the current or last rebuild of the indexes. */
+    private volatile IndexRebuildProgress rebuildProgress;
+
+    /** Flag used to indicate that each chunk of a rebuild is committed to the indexes in a transaction of its own. */
+    private boolean commitIndexChunks;
+
+    /** Flag used to indicate that the index store is a replication follower, whose indexes are not written locally. */
+    private boolean indexFollower;
+
     /** Holds a reference to the index store. */
     private IndexStore indexStore;
 
@@ -94,6 +140,66 @@ public class CatalogueManipulatorBase
         this.indexStore = indexStore;
     }
 
+    /**
+     * Sets whether the index store is a replication follower. The indexes of a follower are filled from the replication
+     * leader, and refuse local changes, so they are neither maintained nor rebuilt here. Changes to entities must be
+     * made through the leader for them to be indexed.
+     *
+     * @param indexFollower <tt>true</tt> if the index store is a replication follower.
+     */
+    public void setIndexFollower(boolean indexFollower)
+    {
+        this.indexFollower = indexFollower;
+    }
+
+    /**
+     * Checks whether the index store is a replication follower, whose indexes are not written locally.
+     *
+     * @return <tt>true</tt> if the index store is a replication follower.
+     */
+    public boolean isIndexFollower()
+    {
+        return indexFollower;
+    }
+
+    /**
+     * Sets the number of worker threads to rebuild indexes with.
+     *
+     * @param rebuildWorkers The number of worker threads to rebuild indexes with.
+     */
+    public void setRebuildWorkers(int rebuildWorkers)
+    {
+        if (rebuildWorkers < 1)
+        {
+            throw new IllegalArgumentException("There must be at least 1 rebuild worker, not " + rebuildWorkers + ".");
+        }
+
+        this.rebuildWorkers = rebuildWorkers;
+    }
+
+    /**
+     * Sets whether each chunk of rows is committed to the indexes in an index transaction of its own when rebuilding
+     * them, rather than in the index transaction of the calling thread. This means that the index write lock is only
+     * held whilst a chunk is being indexed, so other writers are not held back for the whole rebuild of a type, but
+     * the rows of a type become searchable a chunk at a time.
+     *
+     * @param commitIndexChunks <tt>true</tt> to commit each chunk of rows to the indexes as it is indexed.
+     */
+    public void setCommitIndexChunks(boolean commitIndexChunks)
+    {
+        this.commitIndexChunks = commitIndexChunks;
+    }
+
+    /**
+     * Gets the progress of the current or last rebuild of the indexes.
+     *
+     * @return The progress of the current or last rebuild of the indexes, or <tt>null</tt> if none has been started.
+     */
+    public IndexRebuildProgress getRebuildProgress()
+    {
+        return rebuildProgress;
+    }
+
     /**
      * Rebuilds all the indexes in the catalgoue in the specified hibernate session. Allowing the hibernate session to
      * be passed in means that different session setups can be used at config and run time.
@@ -102,6 +208,14 @@ public class CatalogueManipulatorBase
      */
     protected void rebuildIndexesInSession(SharedSessionContract session)
     {
+        // The indexes of a replication follower are rebuilt on the leader.
+        if (indexFollower)
+        {
+            log.info("The index store is a replication follower, so its indexes are not re-built from the database.");
+
+            return;
+        }
+
         // Empty all the indexes.
         for (String name : getCatalogue().getAllIndexes())
         {
@@ -109,32 +223,156 @@ public class CatalogueManipulatorBase
             log.debug("Cleared index: " + name);
         }
 
+        // Count the rows to index up front, so that the time remaining can be estimated.
+        IndexRebuildProgress progress = startRebuildProgress();
+        expectRows(session, getCatalogue().getAllComponentTypes());
+
         // Get a list of all dimensions and loop through them all.
         for (ComponentType dimension : getCatalogue().getAllComponentTypes())
         {
-            // Check that the dimension requires indexing.
+            rebuildIndexesForType(session, dimension);
+        }
+
+        progress.finished();
+        log.debug("Rebuilt indexes: " + progress);
+    }
+
+    /**
+     * Starts tracking the progress of a new rebuild of the indexes.
+     *
+     * @return The progress of the new rebuild.
+     */
+    protected IndexRebuildProgress startRebuildProgress()
+    {
+        rebuildProgress = new IndexRebuildProgress();
+
+        return rebuildProgress;
+    }
+
+    /**
+     * Counts the data rows of the component types that are indexed, and adds them to the rows expected by the current
+     * rebuild of the indexes.
+     *
+     * @param session    The hibernate session to use.
+     * @param dimensions The component types to count the rows of. Types that are not indexed are skipped.
+     */
+    protected void expectRows(SharedSessionContract session, Collection<? extends ComponentType> dimensions)
+    {
+        IndexRebuildProgress progress = (rebuildProgress == null) ? startRebuildProgress() : rebuildProgress;
+
+        for (ComponentType dimension : dimensions)
+        {
             List<String> indexesForDimension = getCatalogue().getIndexesForDimension(dimension.getName());
 
             if ((indexesForDimension != null) && !indexesForDimension.isEmpty())
             {
-                // Extract all data rows from the dimension and loop over them.
                 String entityName = dimension.getName() + Catalogue.ONLINE_TABLE_EXT;
-                Criteria selectCriteria = session.createCriteria(entityName);
+                Number rows =
+                    (Number) session.createCriteria(entityName).setProjection(Projections.rowCount()).uniqueResult();
+
+                progress.addExpectedRows(rows.longValue());
+            }
+        }
+    }
+
+    /**
+     * Adds all data rows of a single component type to every index that the type should be indexed in. The indexes are
+     * not cleared first, and nothing is done if the type is not indexed.
+     *
+     * <p/>The rows are scrolled through forward-only and indexed in chunks by the index workers, and are evicted from
+     * the session once indexed when it is a stateful one. Workers may touch the rows after the reading session has
+     * moved on, so the indexed fields of an entity must not be mapped as lazily loaded.
+     *
+     * @param  session   The hibernate session to use.
+     * @param  dimension The component type to index.
+     *
+     * @return The number of data rows indexed.
+     */
+    protected int rebuildIndexesForType(SharedSessionContract session, ComponentType dimension)
+    {
+        int count = 0;
+
+        // Check that the dimension requires indexing.
+        List<String> indexesForDimension = getCatalogue().getIndexesForDimension(dimension.getName());
+
+        if ((indexesForDimension == null) || indexesForDimension.isEmpty())
+        {
+            return count;
+        }
+
+        IndexRebuildProgress progress = (rebuildProgress == null) ? startRebuildProgress() : rebuildProgress;
+
+        // Chunks that have been indexed are passed back to this thread to be evicted from the session, and the first
+        // failure of any worker is kept to stop the rebuild with.
+        BlockingQueue<List<EntityInstance>> indexedChunks = new LinkedBlockingQueue<List<EntityInstance>>();
+        AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+        ExecutorService workers =
+            new ThreadPoolExecutor(rebuildWorkers, rebuildWorkers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(REBUILD_QUEUE_CHUNKS), new RebuildThreadFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // Scroll through all data rows from the dimension, without caching them, and hand them to the workers in
+        // chunks.
+        String entityName = dimension.getName() + Catalogue.ONLINE_TABLE_EXT;
+        ScrollableResults rows =
+            session.createCriteria(entityName).setFetchSize(REBUILD_CHUNK_SIZE).setReadOnly(true)
+            .setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
+
+        IndexTxId txId = IndexTxManager.getTxIdFromThread();
+
+        try
+        {
+            List<EntityInstance> chunk = new ArrayList<EntityInstance>(REBUILD_CHUNK_SIZE);
 
-                for (Object entity : selectCriteria.list())
+            while ((failure.get() == null) && rows.next())
+            {
+                chunk.add((EntityInstance) rows.get(0));
+                count++;
+
+                if (chunk.size() == REBUILD_CHUNK_SIZE)
                 {
-                    EntityInstance element = (EntityInstance) entity;
+                    workers.execute(new IndexChunk(chunk, indexesForDimension, txId, progress, indexedChunks, failure));
+                    chunk = new ArrayList<EntityInstance>(REBUILD_CHUNK_SIZE);
 
-                    // Loop over the list of all indexes that the dimension should be indexed in.
-                    for (String indexName : indexesForDimension)
-                    {
-                        // Insert the element into the index.
-                        addToIndex(indexName, ((ExternallyIdentified) element).getExternalId(), element);
-                        log.debug("Re-indexed, " + element + ", in index " + indexName);
-                    }
+                    evictIndexedChunks(session, indexedChunks);
                 }
             }
+
+            if (!chunk.isEmpty())
+            {
+                workers.execute(new IndexChunk(chunk, indexesForDimension, txId, progress, indexedChunks, failure));
+            }
         }
+        finally
+        {
+            rows.close();
+            awaitWorkers(workers);
+            evictIndexedChunks(session, indexedChunks);
+        }
+
+        if (failure.get() != null)
+        {
+            throw failure.get();
+        }
+
+        log.debug("Re-indexed " + count + " rows of " + dimension.getName() + " in indexes " + indexesForDimension +
+            ": " + progress);
+
+        return count;
+    }
+
+    /**
+     * Gets the names of the indexes that changes to entities of a type are to be written to here. None are written on a
+     * replication follower, as its indexes are only changed by replication from the leader.
+     *
+     * @param  typeName The name of the entity type.
+     *
+     * @return The names of the indexes to write changes to entities of the type to, or <tt>null</tt> if there are none.
+     */
+    protected List<String> getMaintainedIndexes(String typeName)
+    {
+        return indexFollower ? null : getCatalogue().getIndexesForDimension(typeName);
     }
 
     /**
@@ -189,6 +427,71 @@ public class CatalogueManipulatorBase
         }
     }
 
+    /**
+     * Adds many records to the search index, through a single connection to it. The records must all be externally
+     * identified, and are keyed by their external ids.
+     *
+     * @param  indexName   The name of the index to update.
+     * @param  fullRecords The full data records to build the index from, fields will be extracted from these records.
+     *
+     * @throws IndexMappingException If a record being added to the index cannot be extracted because no mapping exists
+     *                               for it or if a field specified in a matching mapping cannot be found on the object
+     *                               being mapped.
+     */
+    protected void addAllToIndex(String indexName, Collection<? extends EntityInstance> fullRecords)
+        throws IndexMappingException
+    {
+        // Get a connection to the specified index.
+        Index ic = getIndex(indexName);
+
+        try
+        {
+            // Add the items to the index.
+            for (EntityInstance fullRecord : fullRecords)
+            {
+                ic.add(((ExternallyIdentified) fullRecord).getExternalId(), fullRecord, null);
+            }
+        }
+        finally
+        {
+            // Close the index if needed.
+            closeIndex(ic);
+        }
+    }
+
+    /**
+     * Updates many records in the search index, through a single connection to it. The records must all be externally
+     * identified, and are keyed by their external ids.
+     *
+     * @param  indexName   The name of the index to update.
+     * @param  fullRecords The full data records to build the index from, fields will be extracted from these records.
+     *
+     * @throws IndexMappingException    If a record being added to the index cannot be extracted because no mapping
+     *                                  exists for it or if a field specified in a matching mapping cannot be found on
+     *                                  the object being mapped.
+     * @throws IndexUnknownKeyException When a key is not already in the index, or has been removed from it.
+     */
+    protected void updateAllInIndex(String indexName, Collection<? extends EntityInstance> fullRecords)
+        throws IndexMappingException, IndexUnknownKeyException
+    {
+        // Get a connection to the specified index.
+        Index ic = getIndex(indexName);
+
+        try
+        {
+            // Update the items in the index.
+            for (EntityInstance fullRecord : fullRecords)
+            {
+                ic.update(((ExternallyIdentified) fullRecord).getExternalId(), fullRecord, null);
+            }
+        }
+        finally
+        {
+            // Close the connection.
+            closeIndex(ic);
+        }
+    }
+
     /**
      * Updates a record in the index. Its indexed fields are extracted from the full record again and the new index
      * entry replaces any existing entry for the specified key.
@@ -300,4 +603,172 @@ public class CatalogueManipulatorBase
             closeIndex(ic);
         }
     }
+
+    /**
+     * Adds a chunk of rows read by a rebuild to every index that their type is indexed in, and commits them if each
+     * chunk is committed to the indexes on its own. This is called by the index workers, within the index transaction
+     * that the chunk is to be indexed in.
+     *
+     * @param  indexNames The names of the indexes to add the rows to.
+     * @param  chunk      The rows to index.
+     *
+     * @throws IndexMappingException If a row cannot be added to an index because no mapping exists for it or if a field
+     *                               specified in a matching mapping cannot be found on it.
+     */
+    protected void indexRebuildChunk(List<String> indexNames, List<EntityInstance> chunk) throws IndexMappingException
+    {
+        for (String indexName : indexNames)
+        {
+            addAllToIndex(indexName, chunk);
+        }
+
+        if (commitIndexChunks)
+        {
+            for (String indexName : indexNames)
+            {
+                getIndexStore().getNamedIndex(indexName).commit();
+            }
+        }
+    }
+
+    /**
+     * Evicts the rows of chunks that have been indexed from the reading session, so that it does not grow with the
+     * number of rows read. Nothing needs to be evicted from a stateless session.
+     *
+     * @param session       The session that the rows were read in.
+     * @param indexedChunks The chunks that have been indexed since the last eviction.
+     */
+    private void evictIndexedChunks(SharedSessionContract session, BlockingQueue<List<EntityInstance>> indexedChunks)
+    {
+        for (List<EntityInstance> chunk = indexedChunks.poll(); chunk != null; chunk = indexedChunks.poll())
+        {
+            if (session instanceof Session)
+            {
+                for (EntityInstance element : chunk)
+                {
+                    ((Session) session).evict(element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shuts down a pool of index workers and waits for them to finish the chunks already handed to them.
+     *
+     * @param workers The index workers.
+     */
+    private void awaitWorkers(ExecutorService workers)
+    {
+        workers.shutdown();
+
+        try
+        {
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS))
+            {
+                log.debug("Waiting for index workers to finish: " + rebuildProgress);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted whilst waiting for index workers to finish.", e);
+        }
+    }
+
+    /**
+     * IndexChunk is the unit of work of an index worker, that adds a chunk of rows to every index that their type is
+     * indexed in. It runs within the index transaction of the thread that read the rows, if there was one.
+     */
+    private class IndexChunk implements Runnable
+    {
+        /** Holds the rows to index. */
+        private final List<EntityInstance> chunk;
+
+        /** Holds the names of the indexes to add the rows to. */
+        private final List<String> indexNames;
+
+        /** Holds the index transaction to work in, or <tt>null</tt> if there is none. */
+        private final IndexTxId txId;
+
+        /** Holds the progress to update once the rows are indexed. */
+        private final IndexRebuildProgress progress;
+
+        /** Holds the queue to pass the rows back on, once indexed. */
+        private final BlockingQueue<List<EntityInstance>> indexedChunks;
+
+        /** Holds the first failure of any worker. */
+        private final AtomicReference<RuntimeException> failure;
+
+        /**
+         * Creates the work to index a chunk of rows.
+         *
+         * @param chunk         The rows to index.
+         * @param indexNames    The names of the indexes to add the rows to.
+         * @param txId          The index transaction to work in, or <tt>null</tt> if there is none.
+         * @param progress      The progress to update once the rows are indexed.
+         * @param indexedChunks The queue to pass the rows back on, once indexed.
+         * @param failure       The first failure of any worker.
+         */
+        IndexChunk(List<EntityInstance> chunk, List<String> indexNames, IndexTxId txId, IndexRebuildProgress progress,
+            BlockingQueue<List<EntityInstance>> indexedChunks, AtomicReference<RuntimeException> failure)
+        {
+            this.chunk = chunk;
+            this.indexNames = indexNames;
+            this.txId = txId;
+            this.progress = progress;
+            this.indexedChunks = indexedChunks;
+            this.failure = failure;
+        }
+
+        /** Adds the chunk of rows to the indexes, unless another worker has already failed. */
+        public void run()
+        {
+            // Join the index transaction of the reading thread, or start one for just this chunk, keeping any
+            // transaction already on this thread, as chunks are also run on the reading thread itself when the
+            // workers fall behind.
+            IndexTxId previousTxId = IndexTxManager.getTxIdFromThread();
+            IndexTxManager.assignTxIdToThread(commitIndexChunks ? IndexTxManager.createTxId() : txId);
+
+            try
+            {
+                if (failure.get() == null)
+                {
+                    indexRebuildChunk(indexNames, chunk);
+                    progress.addIndexedRows(chunk.size());
+                }
+            }
+            catch (RuntimeException e)
+            {
+                failure.compareAndSet(null, e);
+
+                if (commitIndexChunks)
+                {
+                    for (String indexName : indexNames)
+                    {
+                        getIndexStore().getNamedIndex(indexName).rollback();
+                    }
+                }
+            }
+            finally
+            {
+                IndexTxManager.assignTxIdToThread(previousTxId);
+                indexedChunks.add(chunk);
+            }
+        }
+    }
+
+    /** RebuildThreadFactory creates daemon threads for the index workers, named so that they can be identified. */
+    private static class RebuildThreadFactory implements ThreadFactory
+    {
+        /** {@inheritDoc} */
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "catalogue-index-rebuild-" + rebuildThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
 }
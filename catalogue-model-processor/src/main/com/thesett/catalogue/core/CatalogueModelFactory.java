@@ -71,12 +71,15 @@ import com.thesett.catalogue.core.flathandlers.FlatExternalIdHandler;
 import com.thesett.catalogue.core.flathandlers.FlatHierarchyLabelFieldHandler;
 import com.thesett.catalogue.core.flathandlers.FlatInQuotesFieldHandler;
 import com.thesett.catalogue.core.flathandlers.FlatViewHandler;
+import com.thesett.catalogue.core.handlers.CachedHandler;
 import com.thesett.catalogue.core.handlers.ComponentPartHandler;
 import com.thesett.catalogue.core.handlers.DocRootHandler;
 import com.thesett.catalogue.core.handlers.EnumLabelFieldHandler;
 import com.thesett.catalogue.core.handlers.ExternalIdHandler;
+import com.thesett.catalogue.core.handlers.FetchHandler;
 import com.thesett.catalogue.core.handlers.HierarchyLabelFieldHandler;
 import com.thesett.catalogue.core.handlers.InQuotesFieldHandler;
+import com.thesett.catalogue.core.handlers.QueryIndexHandler;
 import com.thesett.catalogue.core.handlers.ViewHandler;
 import com.thesett.catalogue.model.CollectionType;
 import com.thesett.catalogue.model.EntityType;
@@ -324,8 +327,9 @@ public class CatalogueModelFactory
         builder.convertTypeToTerm(catalogueDef, engine, clauses, HierarchyDefType.class,
             new String[] { "finalized", "level", "hierarchyLabel" }, new HierarchyLabelFieldHandler());
         builder.convertTypeToTerm(catalogueDef, engine, clauses, ComponentDefType.class,
-            new String[] { "componentPart", "view", "externalId", "root" }, new ComponentPartHandler(engine),
-            new ViewHandler(), new ExternalIdHandler(), new DocRootHandler());
+            new String[] { "componentPart", "view", "externalId", "cached", "fetch", "queryIndex", "root" },
+            new ComponentPartHandler(engine), new ViewHandler(), new ExternalIdHandler(), new CachedHandler(),
+            new FetchHandler(), new QueryIndexHandler(), new DocRootHandler());
     }
 
     /**
@@ -840,6 +844,100 @@ public class CatalogueModelFactory
         return engine.resolve() != null;
     }
 
+    /**
+     * Checks if a specified entity type may be cached once read.
+     *
+     * @param  name The name of the entity type to check.
+     *
+     * @return <tt>true</tt> if the entity may be cached.
+     */
+    private boolean supportsCaching(String name)
+    {
+        String queryString =
+            "?-product_type(_PT), normal_type(_PT, " + name + ", class, _MP), member(cached, _MP).";
+
+        engine.setTokenSource(TokenSource.getTokenSourceForString(queryString));
+
+        try
+        {
+            engine.compile(engine.parse());
+        }
+        catch (SourceCodeException e)
+        {
+            // If the query fails to parse or link, then this is a non-recoverable bug, so is reported as a runtime
+            // exception.
+            throw new IllegalStateException("The query, " + queryString + ", failed to compile.", e);
+        }
+
+        return engine.resolve() != null;
+    }
+
+    /**
+     * Sets up the fetch strategy for a specified entity type, from any fetch strategy settings declared on it in the
+     * model. Settings that are not declared are left at their defaults.
+     *
+     * @param entityType The entity type to set up the fetch strategy of.
+     * @param name       The name of the entity type.
+     */
+    private void initializeFetchStrategy(EntityTypeImpl entityType, String name)
+    {
+        String queryString =
+            "?-product_type(_PT), normal_type(_PT, " + name + ", class, _MP), member(fetch(_FS), _MP), member(S, _FS).";
+        Iterable<Map<String, Variable>> bindingsIterable = runQuery(queryString);
+
+        for (Map<String, Variable> bindings : bindingsIterable)
+        {
+            Functor settingFunctor = (Functor) bindings.get("S").getValue();
+            String setting = engine.getFunctorName(settingFunctor);
+            Term argument = settingFunctor.getArgument(0).getValue();
+
+            if ("batch_size".equals(setting))
+            {
+                entityType.setFetchBatchSize(((IntLiteral) argument).intValue());
+            }
+            else if ("mode".equals(setting))
+            {
+                entityType.setFetchMode(engine.getFunctorName((Functor) argument));
+            }
+            else if ("lazy".equals(setting))
+            {
+                entityType.setLazyFetch("true".equals(engine.getFunctorName((Functor) argument)));
+            }
+        }
+    }
+
+    /**
+     * Sets up the database query indexes declared on a specified entity type in the model.
+     *
+     * @param entityType The entity type to set up the query indexes of.
+     * @param name       The name of the entity type.
+     */
+    private void initializeQueryIndexes(EntityTypeImpl entityType, String name)
+    {
+        String queryString =
+            "?-product_type(_PT), normal_type(_PT, " + name + ", class, _MP), member(query_indexes(_QS), _MP), " +
+            "member(query_index(N, _FS), _QS), member(F, _FS).";
+        Iterable<Map<String, Variable>> bindingsIterable = runQuery(queryString);
+
+        Map<String, List<String>> queryIndexes = entityType.getQueryIndexes();
+
+        for (Map<String, Variable> bindings : bindingsIterable)
+        {
+            String indexName = engine.getFunctorName((Functor) bindings.get("N").getValue());
+            String fieldName = engine.getFunctorName((Functor) bindings.get("F").getValue());
+
+            List<String> fieldList = queryIndexes.get(indexName);
+
+            if (fieldList == null)
+            {
+                fieldList = new LinkedList<String>();
+                queryIndexes.put(indexName, fieldList);
+            }
+
+            fieldList.add(fieldName);
+        }
+    }
+
     /**
      * Resolves the name of a type onto either a basic type, a user defined type in the catalogue that has already been
      * encountered, or a pending component type, if the type name is not recognized and therefore it is assumed that its
@@ -1377,6 +1475,14 @@ public class CatalogueModelFactory
                         entityType.setExternalIdFlag(true);
                     }
 
+                    if (supportsCaching(componentName))
+                    {
+                        entityType.setCachedFlag(true);
+                    }
+
+                    initializeFetchStrategy(entityType, componentName);
+                    initializeQueryIndexes(entityType, componentName);
+
                     catalogueTypes.put(componentName, entityType);
                 }
                 else if ("dimension_type".equals(componentType))
@@ -1391,6 +1497,14 @@ public class CatalogueModelFactory
                         dimensionType.setExternalIdFlag(true);
                     }
 
+                    if (supportsCaching(componentName))
+                    {
+                        dimensionType.setCachedFlag(true);
+                    }
+
+                    initializeFetchStrategy(dimensionType, componentName);
+                    initializeQueryIndexes(dimensionType, componentName);
+
                     catalogueTypes.put(componentName, dimensionType);
                 }
                 else if ("fact_type".equals(componentType))
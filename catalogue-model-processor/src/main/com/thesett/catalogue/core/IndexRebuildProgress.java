@@ -0,0 +1,247 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IndexRebuildProgress tracks the progress of a rebuild of the catalogue indexes, so that it can be monitored whilst
+ * it runs. The number of rows expected to be indexed is added up as the entity types to index are counted, and the
+ * number of rows indexed so far is updated by the index workers as they complete their work. From these an estimate of
+ * the time remaining is made, from the rate at which rows have been indexed so far.
+ *
+ * <p/>All methods are safe to call from any thread.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Count the rows expected and the rows indexed so far.
+ * <tr><td> Calculate the completeness and the indexing rate.
+ * <tr><td> Estimate the time remaining.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexRebuildProgress
+{
+    /** Holds the time at which the rebuild started, in milliseconds. */
+    private final long startTime;
+
+    /** Holds the number of rows expected to be indexed. */
+    private final AtomicLong expectedRows = new AtomicLong();
+
+    /** Holds the number of rows indexed so far. */
+    private final AtomicLong indexedRows = new AtomicLong();
+
+    /** Holds the time at which the rebuild finished, in milliseconds, or zero whilst it is still running. */
+    private volatile long finishTime;
+
+    /** Creates the progress of a rebuild that starts now. */
+    public IndexRebuildProgress()
+    {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates the progress of a rebuild that started at the specified time.
+     *
+     * @param startTime The time at which the rebuild started, in milliseconds.
+     */
+    IndexRebuildProgress(long startTime)
+    {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Adds to the number of rows expected to be indexed.
+     *
+     * @param rows The number of rows to add.
+     */
+    public void addExpectedRows(long rows)
+    {
+        expectedRows.addAndGet(rows);
+    }
+
+    /**
+     * Adds to the number of rows indexed so far.
+     *
+     * @param rows The number of rows to add.
+     */
+    public void addIndexedRows(long rows)
+    {
+        indexedRows.addAndGet(rows);
+    }
+
+    /** Marks the rebuild as finished. */
+    public void finished()
+    {
+        finished(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the number of rows expected to be indexed.
+     *
+     * @return The number of rows expected to be indexed.
+     */
+    public long getExpectedRows()
+    {
+        return expectedRows.get();
+    }
+
+    /**
+     * Gets the number of rows indexed so far.
+     *
+     * @return The number of rows indexed so far.
+     */
+    public long getIndexedRows()
+    {
+        return indexedRows.get();
+    }
+
+    /**
+     * Checks if the rebuild has finished.
+     *
+     * @return <tt>true</tt> if the rebuild has finished.
+     */
+    public boolean isFinished()
+    {
+        return finishTime != 0;
+    }
+
+    /**
+     * Gets the fraction of the expected rows indexed so far.
+     *
+     * @return The fraction of the expected rows indexed so far, from zero to one.
+     */
+    public float getCompleteness()
+    {
+        long expected = expectedRows.get();
+
+        if (expected == 0)
+        {
+            return isFinished() ? 1.0f : 0.0f;
+        }
+
+        return Math.min(1.0f, (float) indexedRows.get() / expected);
+    }
+
+    /**
+     * Gets the time taken by the rebuild so far, or in total if it has finished.
+     *
+     * @return The time taken by the rebuild in milliseconds.
+     */
+    public long getElapsedTime()
+    {
+        return getElapsedTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the average rate at which rows have been indexed so far.
+     *
+     * @return The average number of rows indexed per second.
+     */
+    public double getRowsPerSecond()
+    {
+        return getRowsPerSecond(System.currentTimeMillis());
+    }
+
+    /**
+     * Estimates the time remaining until all the expected rows have been indexed, from the average rate at which rows
+     * have been indexed so far.
+     *
+     * @return The estimated time remaining in milliseconds, or <tt>-1</tt> if no rows have been indexed yet so no
+     *         estimate can be made.
+     */
+    public long getEstimatedTimeRemaining()
+    {
+        return getEstimatedTimeRemaining(System.currentTimeMillis());
+    }
+
+    /**
+     * Prints the progress, mainly for debugging and logging purposes.
+     *
+     * @return The progress as a string.
+     */
+    public String toString()
+    {
+        long now = System.currentTimeMillis();
+
+        return "IndexRebuildProgress: [ indexedRows = " + indexedRows.get() + ", expectedRows = " +
+            expectedRows.get() + ", elapsedTime = " + getElapsedTime(now) + ", rowsPerSecond = " +
+            getRowsPerSecond(now) + ", estimatedTimeRemaining = " + getEstimatedTimeRemaining(now) + " ]";
+    }
+
+    /**
+     * Marks the rebuild as finished at the specified time.
+     *
+     * @param now The current time in milliseconds.
+     */
+    void finished(long now)
+    {
+        finishTime = now;
+    }
+
+    /**
+     * Gets the time taken by the rebuild, up to the specified time or until it finished.
+     *
+     * @param  now The current time in milliseconds.
+     *
+     * @return The time taken by the rebuild in milliseconds.
+     */
+    long getElapsedTime(long now)
+    {
+        return (isFinished() ? finishTime : now) - startTime;
+    }
+
+    /**
+     * Gets the average rate at which rows have been indexed, up to the specified time.
+     *
+     * @param  now The current time in milliseconds.
+     *
+     * @return The average number of rows indexed per second.
+     */
+    double getRowsPerSecond(long now)
+    {
+        long elapsed = getElapsedTime(now);
+
+        return (elapsed <= 0) ? 0.0 : ((indexedRows.get() * 1000.0) / elapsed);
+    }
+
+    /**
+     * Estimates the time remaining from the specified time, until all the expected rows have been indexed.
+     *
+     * @param  now The current time in milliseconds.
+     *
+     * @return The estimated time remaining in milliseconds, or <tt>-1</tt> if no estimate can be made.
+     */
+    long getEstimatedTimeRemaining(long now)
+    {
+        if (isFinished())
+        {
+            return 0;
+        }
+
+        long indexed = indexedRows.get();
+
+        if (indexed == 0)
+        {
+            return -1;
+        }
+
+        long remaining = Math.max(0, expectedRows.get() - indexed);
+
+        return (remaining * getElapsedTime(now)) / indexed;
+    }
+}
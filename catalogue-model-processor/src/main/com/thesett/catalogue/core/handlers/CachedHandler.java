@@ -0,0 +1,50 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.core.handlers;
+
+import com.thesett.catalogue.core.FieldHandler;
+import com.thesett.catalogue.setup.Cached;
+
+/**
+ * CachedHandler transforms the optional 'cached' field into a cached/0 constant, indicating that entities of a type
+ * may be held in a read-through cache once read.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Transform a cached field into a cached/0 constant.
+ *     <td> {@link com.thesett.catalogue.setup.Cached}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CachedHandler implements FieldHandler
+{
+    /** {@inheritDoc} */
+    public String handleField(String property, Object value, boolean more)
+    {
+        if ("cached".equals(property))
+        {
+            Cached cached = (Cached) value;
+
+            if (cached != null)
+            {
+                return "cached" + (more ? ", " : "");
+            }
+        }
+
+        return null;
+    }
+}
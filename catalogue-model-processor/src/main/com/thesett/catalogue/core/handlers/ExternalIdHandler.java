@@ -42,7 +42,7 @@ public class ExternalIdHandler implements FieldHandler
 
             if (views != null)
             {
-                return "externalid";
+                return "externalid" + (more ? ", " : "");
             }
         }
 
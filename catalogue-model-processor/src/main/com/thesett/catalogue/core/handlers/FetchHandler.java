@@ -0,0 +1,80 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.core.handlers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.thesett.catalogue.core.FieldHandler;
+import com.thesett.catalogue.setup.Fetch;
+
+/**
+ * FetchHandler transforms the optional 'fetch' field into a fetch/1 functor with a list of the fetch strategy settings
+ * that were declared as its argument. The settings are a batch_size/1, mode/1 and lazy/1 functor, each of which may be
+ * left out, in which case the default for the setting applies.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Transform a fetch field into a list of fetch strategy settings. <td> {@link Fetch}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class FetchHandler implements FieldHandler
+{
+    /** {@inheritDoc} */
+    public String handleField(String property, Object value, boolean more)
+    {
+        if ("fetch".equals(property))
+        {
+            Fetch fetch = (Fetch) value;
+
+            if (fetch != null)
+            {
+                List<String> settings = new ArrayList<String>();
+
+                if (fetch.getBatchSize() != null)
+                {
+                    settings.add("batch_size(" + fetch.getBatchSize() + ")");
+                }
+
+                if (fetch.getMode() != null)
+                {
+                    settings.add("mode(" + fetch.getMode().value() + ")");
+                }
+
+                if (fetch.isLazy() != null)
+                {
+                    settings.add("lazy(" + fetch.isLazy() + ")");
+                }
+
+                String result = "fetch([";
+
+                for (Iterator<String> i = settings.iterator(); i.hasNext();)
+                {
+                    result += i.next() + (i.hasNext() ? ", " : "");
+                }
+
+                result += "])" + (more ? ", " : "");
+
+                return result;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.core.handlers;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.thesett.catalogue.core.FieldHandler;
+import com.thesett.catalogue.setup.IndexField;
+import com.thesett.catalogue.setup.QueryIndex;
+
+/**
+ * QueryIndexHandler transforms 'queryIndex' fields into a query_indexes/1 functor with a list of query_index/2 functors
+ * as its argument, each of which holds the name of an index and the list of fields it indexes.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Transform a query index field into a list of named indexes on fields. <td> {@link QueryIndex}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class QueryIndexHandler implements FieldHandler
+{
+    /**
+     * {@inheritDoc}
+     *
+     * <p/>This transformation expects a list of {@link QueryIndex}es as the fields argument and transforms these into a
+     * recursive list. This transformation only applies to 'queryIndex' fields.
+     */
+    public String handleField(String property, Object value, boolean more)
+    {
+        if ("queryIndex".equals(property))
+        {
+            // Cast the field value to a list of query indexes.
+            List<QueryIndex> queryIndexes = (List<QueryIndex>) value;
+
+            String result = "query_indexes([";
+
+            for (Iterator<QueryIndex> i = queryIndexes.iterator(); i.hasNext();)
+            {
+                QueryIndex queryIndex = i.next();
+                result += "query_index(" + queryIndex.getName() + ", [";
+
+                for (Iterator<IndexField> j = queryIndex.getIndexField().iterator(); j.hasNext();)
+                {
+                    IndexField indexField = j.next();
+                    result += indexField.getName() + (j.hasNext() ? ", " : "");
+                }
+
+                result += "])" + (i.hasNext() ? ", " : "");
+            }
+
+            result += "])" + (more ? ", " : "");
+
+            return result;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import com.thesett.aima.state.ComponentType;
+import com.thesett.catalogue.model.Catalogue;
+import com.thesett.catalogue.model.EntityInstance;
+import com.thesett.catalogue.model.ExternalId;
+import com.thesett.catalogue.model.ExternallyIdentified;
+import com.thesett.index.IndexMappingException;
+import com.thesett.index.IndexStore;
+import com.thesett.index.TransactionalIndex;
+import com.thesett.index.tx.IndexTxId;
+import com.thesett.index.tx.IndexTxManager;
+
+/**
+ * Tests that the index rebuild pipeline of {@link CatalogueManipulatorBase} indexes every row of a type exactly once
+ * across its workers, within the index transaction of the calling thread, evicts the rows it has indexed from the
+ * session, tracks its progress, and stops on the first failure.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that every row is indexed once, and evicted from the session. <td> {@link CatalogueManipulatorBase}
+ * <tr><td> Check that the workers join the index transaction of the calling thread.
+ * <tr><td> Check that each chunk may be committed in an index transaction of its own.
+ * <tr><td> Check that a worker failure stops the rebuild and is rethrown.
+ * <tr><td> Check that types that are not indexed are skipped.
+ * <tr><td> Check that a full rebuild clears the indexes and tracks its progress to completion.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CatalogueManipulatorBaseTest extends TestCase
+{
+    /** The name of the single index that the test type is indexed in. */
+    private static final String INDEX_NAME = "testIndex";
+
+    /** The number of rows of the test type; more than two full chunks. */
+    private static final int ROWS = 250;
+
+    /** The number of workers to rebuild with. */
+    private static final int WORKERS = 3;
+
+    /** Holds the external ids of the rows added to the stub index. */
+    private Set<String> indexed;
+
+    /** Holds the external ids of the rows evicted from the stub session. */
+    private Set<String> evicted;
+
+    /** Holds the index transactions that the rows were added to the stub index in. */
+    private Set<IndexTxId> addTransactions;
+
+    /** Holds the number of commits made on the stub index. */
+    private AtomicInteger commits;
+
+    /** Holds the number of times the stub index was cleared. */
+    private int clears;
+
+    /** Flag set when the scrolled results have been closed. */
+    private boolean scrollClosed;
+
+    /** Holds the external id of a row that the stub index fails to add, or <tt>null</tt> if none fail. */
+    private String badRow;
+
+    /** Flag set when the test type is indexed. */
+    private boolean typeIndexed;
+
+    /** Holds the stub session to read the rows in. */
+    private Session session;
+
+    /** Holds the stub component type to index. */
+    private ComponentType dimension;
+
+    /** Holds the catalogue manipulator under test. */
+    private CatalogueManipulatorBase manipulator;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public CatalogueManipulatorBaseTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that every row is indexed exactly once, evicted from the session, and counted as indexed. */
+    public void testEveryRowIndexedOnceAndEvicted() throws Exception
+    {
+        int count = manipulator.rebuildIndexesForType(session, dimension);
+
+        assertEquals("Expected every row to be counted.", ROWS, count);
+        assertEquals("Expected every row to be indexed.", ROWS, indexed.size());
+        assertEquals("Expected every row to be evicted.", indexed, evicted);
+        assertEquals("Expected every row to be counted as indexed.", (long) ROWS,
+            manipulator.getRebuildProgress().getIndexedRows());
+        assertTrue("Expected the scrolled results to be closed.", scrollClosed);
+    }
+
+    /** Check that the rows are indexed within the index transaction of the calling thread, which is not committed. */
+    public void testWorkersJoinCallerTransaction() throws Exception
+    {
+        IndexTxId txId = IndexTxManager.createTxIdToThread();
+
+        try
+        {
+            manipulator.rebuildIndexesForType(session, dimension);
+        }
+        finally
+        {
+            IndexTxManager.removeTxIdFromThread();
+        }
+
+        assertEquals("Expected the rows to be added in the transaction of the calling thread.",
+            Collections.singleton(txId), addTransactions);
+        assertEquals("Expected the rebuild to leave committing to the caller.", 0, commits.get());
+    }
+
+    /** Check that each chunk is committed in an index transaction of its own, when set to. */
+    public void testChunksCommittedSeparately() throws Exception
+    {
+        manipulator.setCommitIndexChunks(true);
+        manipulator.rebuildIndexesForType(session, dimension);
+
+        assertEquals("Expected each chunk to be committed.", 3, commits.get());
+        assertEquals("Expected each chunk to be added in its own transaction.", 3, addTransactions.size());
+    }
+
+    /** Check that a failure to index a row stops the rebuild, is rethrown, and still closes the scrolled results. */
+    public void testWorkerFailureStopsRebuild() throws Exception
+    {
+        badRow = "42";
+
+        try
+        {
+            manipulator.rebuildIndexesForType(session, dimension);
+            fail("Expected the failure to stop the rebuild.");
+        }
+        catch (IndexMappingException e)
+        {
+            // Expected.
+        }
+
+        assertFalse("Expected the bad row not to be indexed.", indexed.contains(badRow));
+        assertTrue("Expected the scrolled results to be closed.", scrollClosed);
+    }
+
+    /** Check that a type that is not indexed is skipped without reading its rows. */
+    public void testUnindexedTypeSkipped() throws Exception
+    {
+        typeIndexed = false;
+
+        assertEquals("Expected no rows to be indexed.", 0, manipulator.rebuildIndexesForType(session, dimension));
+        assertFalse("Expected no rows to be read.", scrollClosed);
+    }
+
+    /** Check that a full rebuild clears the indexes, expects all rows up front, and finishes complete. */
+    public void testFullRebuildTracksProgress() throws Exception
+    {
+        manipulator.rebuildIndexesInSession(session);
+
+        IndexRebuildProgress progress = manipulator.getRebuildProgress();
+
+        assertEquals("Expected the index to be cleared.", 1, clears);
+        assertEquals("Expected all rows to be expected.", (long) ROWS, progress.getExpectedRows());
+        assertEquals("Expected all rows to be indexed.", (long) ROWS, progress.getIndexedRows());
+        assertTrue("Expected the rebuild to be finished.", progress.isFinished());
+        assertEquals("Expected the rebuild to be complete.", 1.0f, progress.getCompleteness(), 0.0001f);
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        indexed = Collections.synchronizedSet(new HashSet<String>());
+        evicted = new HashSet<String>();
+        addTransactions = Collections.synchronizedSet(new HashSet<IndexTxId>());
+        commits = new AtomicInteger();
+        typeIndexed = true;
+
+        session = (Session) createStub(Session.class);
+        dimension = (ComponentType) createStub(ComponentType.class);
+
+        manipulator = new CatalogueManipulatorBase();
+        manipulator.setCatalogue((Catalogue) createStub(Catalogue.class));
+        manipulator.setIndexStore((IndexStore) createStub(IndexStore.class));
+        manipulator.setRebuildWorkers(WORKERS);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Creates a stub of an interface.
+     *
+     * @param  type The interface to stub.
+     *
+     * @return A stub of the interface.
+     */
+    private Object createStub(Class type)
+    {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new StubHandler());
+    }
+
+    /**
+     * Creates a stub row of the test type.
+     *
+     * @param  id The external id of the row.
+     *
+     * @return A stub row.
+     */
+    private EntityInstance createRow(final String id)
+    {
+        return (EntityInstance) Proxy.newProxyInstance(EntityInstance.class.getClassLoader(),
+                new Class[] { EntityInstance.class, ExternallyIdentified.class }, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("getExternalId".equals(method.getName()))
+                        {
+                            return new ExternalId(id, "customer");
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * StubHandler implements the stub catalogue, component type, index store and index, and the stub session, criteria
+     * and scrolled results, recording what is indexed, committed and evicted.
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        /** Holds the number of rows scrolled through so far, when this is stubbing scrolled results. */
+        private int position;
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+
+            if ("getIndexesForDimension".equals(name))
+            {
+                return typeIndexed ? Collections.singletonList(INDEX_NAME) : null;
+            }
+            else if ("getAllIndexes".equals(name))
+            {
+                return Collections.singleton(INDEX_NAME);
+            }
+            else if ("getAllComponentTypes".equals(name))
+            {
+                return Collections.singletonList(dimension);
+            }
+            else if ("getName".equals(name))
+            {
+                return "Customer";
+            }
+            else if ("getNamedIndex".equals(name))
+            {
+                return createStub(TransactionalIndex.class);
+            }
+            else if ("add".equals(name))
+            {
+                String id = ((ExternalId) args[0]).getId();
+
+                if (id.equals(badRow))
+                {
+                    throw new IndexMappingException("Cannot index row " + id + ".", null, null, null);
+                }
+
+                indexed.add(id);
+                addTransactions.add(IndexTxManager.getTxIdFromThread());
+            }
+            else if ("commit".equals(name))
+            {
+                commits.incrementAndGet();
+            }
+            else if ("clear".equals(name))
+            {
+                clears++;
+            }
+            else if ("createCriteria".equals(name))
+            {
+                return createStub(Criteria.class);
+            }
+            else if ("uniqueResult".equals(name))
+            {
+                return (long) ROWS;
+            }
+            else if ("scroll".equals(name))
+            {
+                return createStub(ScrollableResults.class);
+            }
+            else if ("next".equals(name))
+            {
+                return ++position <= ROWS;
+            }
+            else if ("get".equals(name))
+            {
+                return createRow(Integer.toString(position));
+            }
+            else if ("close".equals(name))
+            {
+                scrollClosed = true;
+            }
+            else if ("evict".equals(name))
+            {
+                evicted.add(((ExternallyIdentified) args[0]).getExternalId().getId());
+            }
+            else if (Criteria.class.equals(method.getDeclaringClass()))
+            {
+                // The criteria setters return the criteria, to chain calls on.
+                return proxy;
+            }
+            else if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.core;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+/**
+ * Tests that the {@link IndexRebuildProgress} calculates the completeness, rate and time remaining of an index rebuild
+ * correctly.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that completeness is the fraction of expected rows indexed.
+ * <tr><td> Check that the rate is the rows indexed per second so far.
+ * <tr><td> Check that the time remaining is estimated from the rate so far.
+ * <tr><td> Check that no estimate is made before any rows are indexed.
+ * <tr><td> Check that a finished rebuild is complete with no time remaining.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexRebuildProgressTest extends TestCase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public IndexRebuildProgressTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that completeness is the fraction of expected rows indexed. */
+    public void testCompletenessIsFractionOfExpectedRowsIndexed() throws Exception
+    {
+        IndexRebuildProgress progress = new IndexRebuildProgress(0L);
+        progress.addExpectedRows(300);
+        progress.addExpectedRows(100);
+        progress.addIndexedRows(100);
+
+        assertEquals("Wrong completeness.", 0.25f, progress.getCompleteness(), 0.0001f);
+    }
+
+    /** Check that the rate is the rows indexed per second so far. */
+    public void testRateIsRowsIndexedPerSecond() throws Exception
+    {
+        IndexRebuildProgress progress = new IndexRebuildProgress(1000L);
+        progress.addIndexedRows(500);
+
+        assertEquals("Wrong rate.", 250.0, progress.getRowsPerSecond(3000L), 0.0001);
+    }
+
+    /** Check that the time remaining is estimated from the rate so far. */
+    public void testTimeRemainingEstimatedFromRate() throws Exception
+    {
+        IndexRebuildProgress progress = new IndexRebuildProgress(0L);
+        progress.addExpectedRows(1000);
+        progress.addIndexedRows(250);
+
+        assertEquals("Wrong time remaining.", 6000L, progress.getEstimatedTimeRemaining(2000L));
+    }
+
+    /** Check that no estimate is made before any rows are indexed. */
+    public void testNoEstimateBeforeRowsIndexed() throws Exception
+    {
+        IndexRebuildProgress progress = new IndexRebuildProgress(0L);
+        progress.addExpectedRows(1000);
+
+        assertEquals("Expected no estimate of the time remaining.", -1L, progress.getEstimatedTimeRemaining(2000L));
+        assertEquals("Wrong completeness.", 0.0f, progress.getCompleteness(), 0.0001f);
+    }
+
+    /** Check that a finished rebuild is complete with no time remaining. */
+    public void testFinishedRebuildComplete() throws Exception
+    {
+        IndexRebuildProgress progress = new IndexRebuildProgress(0L);
+        progress.finished(4000L);
+
+        assertTrue("Expected the rebuild to be finished.", progress.isFinished());
+        assertEquals("Wrong completeness.", 1.0f, progress.getCompleteness(), 0.0001f);
+        assertEquals("Expected no time remaining.", 0L, progress.getEstimatedTimeRemaining(9000L));
+        assertEquals("Wrong elapsed time.", 4000L, progress.getElapsedTime(9000L));
+    }
+
+    protected void setUp() throws Exception
+    {
+        // Push a client identifier onto the Nested Diagnostic Context so that Log4J will be able to identify all
+        // logging output for these tests.
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        // Clear the nested diagnostic context for this test.
+        NDC.pop();
+    }
+}
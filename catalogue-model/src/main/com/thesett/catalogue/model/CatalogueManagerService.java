@@ -15,6 +15,7 @@
  */
 package com.thesett.catalogue.model;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -93,6 +94,15 @@ public interface CatalogueManagerService
      */
     void createEntityInstance(EntityInstance element);
 
+    /**
+     * Creates many new persistent entities in a single transaction. The entities are written using JDBC batching, and
+     * added to any indexes that they belong in all together once written, so this is far quicker than creating the
+     * entities one at a time.
+     *
+     * @param elements The transient entities to create as persistent entities.
+     */
+    void createEntityInstances(Collection<EntityInstance> elements);
+
     /**
      * Fetches an entity of the specified type by its internal id.
      *
@@ -103,6 +113,31 @@ public interface CatalogueManagerService
      */
     EntityInstance retrieveEntityInstance(EntityType entityType, InternalId id);
 
+    /**
+     * Fetches many entities of the specified type by their internal ids. The entities are loaded in chunks of ids at a
+     * time, rather than one query per id.
+     *
+     * @param  entityType The type of the entities to fetch.
+     * @param  ids        The ids of the entities to fetch.
+     *
+     * @return The entities matching the ids, in the same order as the ids, with <tt>null</tt> in place of any id that
+     *         has no match.
+     */
+    List<EntityInstance> retrieveEntityInstances(EntityType entityType, List<InternalId> ids);
+
+    /**
+     * Fetches views onto many entities of the specified type by their internal ids. Only the fields making up the view
+     * are loaded, not the full entities. The views are loaded in chunks of ids at a time, rather than one query per id.
+     *
+     * @param  entityType   The type of the entities to fetch.
+     * @param  ids          The ids of the entities to fetch.
+     * @param  viewTypeName The name of the view type to return.
+     *
+     * @return Views onto the entities matching the ids, in the same order as the ids, with <tt>null</tt> in place of
+     *         any id that has no match.
+     */
+    List<ViewInstance> retrieveViewInstances(EntityType entityType, List<InternalId> ids, String viewTypeName);
+
     /**
      * Looks up an external id and resolves it into the entity with that id.
      *
@@ -119,6 +154,14 @@ public interface CatalogueManagerService
      */
     void updateEntityInstance(EntityInstance element);
 
+    /**
+     * Overwrites many existing entities with new values in a single transaction. The entities are written using JDBC
+     * batching, and updated in any indexes that they belong in all together once written.
+     *
+     * @param elements The new values to overwrite the entities with.
+     */
+    void updateEntityInstances(Collection<EntityInstance> elements);
+
     /**
      * Permanently deletes an entity, specified by its internal id.
      *
@@ -127,6 +170,31 @@ public interface CatalogueManagerService
      */
     void deleteEntityInstance(EntityType entityType, InternalId id);
 
+    /**
+     * Permanently deletes all entities of a type that match a set of named attributes, without loading them. The
+     * attributes are matched as for {@link #browse(EntityType, java.util.Map, String)}, so an empty set of attributes
+     * matches every entity of the type.
+     *
+     * @param  entityType The type of entity to delete.
+     * @param  matchings  The attributes to match.
+     *
+     * @return The number of entities deleted.
+     */
+    int deleteEntityInstances(EntityType entityType, Map<String, Attribute> matchings);
+
+    /**
+     * Overwrites fields of all entities of a type that match a set of named attributes, without loading them. The
+     * attributes are matched as for {@link #browse(EntityType, java.util.Map, String)}, so an empty set of attributes
+     * matches every entity of the type.
+     *
+     * @param  entityType The type of entity to update.
+     * @param  matchings  The attributes to match.
+     * @param  values     The new values of the fields to overwrite, by field name.
+     *
+     * @return The number of entities updated.
+     */
+    int updateEntityInstances(EntityType entityType, Map<String, Attribute> matchings, Map<String, Object> values);
+
     /**
      * Provides a listing by entity type of views of entities matching a set of named attributes. The attributes do not
      * have to be fully specified, range and wild-card attributes are accepted. Any attribute that is a member of an
@@ -203,6 +271,37 @@ public interface CatalogueManagerService
     PagingResult executePagedQuery(int from, int number, String databaseEntityName, String entityTypeName,
                                    String viewTypeName, Criterion criterion, Map<String, Criterion> joins);
 
+    /**
+     * Executes a query specified in parts and returns the results in pages, continuing from the last result of the
+     * previous page by its database id (keyset paging), instead of by offset. Results are in database id order. As the
+     * database can seek straight to the start of each page, the cost of fetching a page does not grow with how deep
+     * into the results it is. The result count is cached for each distinct query, and is only counted again when a
+     * refresh is asked for or after entities have been written.
+     *
+     * @param  afterId            The database id of the last result of the previous page, <tt>null</tt> for the first
+     *                            page.
+     * @param  number             The number of results to return (the size of the page).
+     * @param  databaseEntityName The database entity to query.
+     * @param  entityTypeName     The type name of the entity to query.
+     * @param  viewTypeName       The view type to project the results onto.
+     * @param  criterion          The optional criterion to apply to the entity.
+     * @param  joins              A map of related entities and criterion to restrict the query by.
+     * @param  refreshCount       <tt>true</tt> to count the results again, even if the count is cached.
+     *
+     * @return A page of dimension element summaries, the result count, and the id to continue paging after.
+     */
+    PagingResult executeKeysetPagedQuery(Long afterId, int number, String databaseEntityName, String entityTypeName,
+                                         String viewTypeName, Criterion criterion, Map<String, Criterion> joins,
+                                         boolean refreshCount);
+
     /** Causes all indexes in the catalogue to be brough up-to-date with their entity data. */
     void rebuildIndexes();
+
+    /**
+     * Checks whether the indexes in the catalogue hold all of their entity data. Whilst the indexes are being built in
+     * the background after start-up, free text searches are still served, but may not find every matching entity.
+     *
+     * @return <tt>true</tt> if the indexes in the catalogue hold all of their entity data.
+     */
+    boolean isIndexComplete();
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.model;
+
+/**
+ * DataSetUploadListener receives notifications of the progress of a data set upload through the {@link RawDataService}.
+ * Records that cannot be uploaded are reported individually, so that the rest of the data set can still be loaded and
+ * the failures corrected and uploaded again afterwards.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities
+ * <tr><td> Accept notification of the progress of an upload.
+ * <tr><td> Accept notification of records that could not be uploaded.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public interface DataSetUploadListener
+{
+    /**
+     * Notified each time a batch of records has been committed to the database.
+     *
+     * @param recordsRead    The number of records read from the data set so far.
+     * @param recordsWritten The number of records committed to the database so far.
+     * @param recordsFailed  The number of records that could not be uploaded so far.
+     */
+    void progress(long recordsRead, long recordsWritten, long recordsFailed);
+
+    /**
+     * Notified when a record in the data set cannot be uploaded. The record is skipped and the upload continues.
+     *
+     * @param recordNumber   The position of the record in the data set, counting from one.
+     * @param lineNumber     The line of the data set that the record starts on, or <tt>-1</tt> if it is not known.
+     * @param entityTypeName The name of the entity type of the record.
+     * @param message        A description of the reason the record could not be uploaded.
+     */
+    void recordFailed(long recordNumber, int lineNumber, String entityTypeName, String message);
+}
@@ -16,6 +16,7 @@
 package com.thesett.catalogue.model;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 
 import com.thesett.aima.state.ComponentType;
@@ -29,6 +30,9 @@ import com.thesett.catalogue.model.impl.Relationship;
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Provide the types and names of fields that make up a persistent entity.
  * <tr><td> Indicate whether or not an entity has a long lived external identifier.
+ * <tr><td> Indicate whether or not entities may be cached once read.
+ * <tr><td> Describe the strategy for fetching the collections and references of entities.
+ * <tr><td> Provide the named database indexes over fields to support querying entities.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -44,6 +48,50 @@ public interface EntityType extends ComponentType, Serializable
      */
     boolean isExternalId();
 
+    /**
+     * Indicates whether or not entities of this type may be held in a read-through cache once read, so that reading
+     * them again does not need to go to the database. This suits entities that are read often and change rarely, such
+     * as reference data.
+     *
+     * @return <tt>true</tt> if entities of this type may be cached.
+     */
+    boolean isCached();
+
+    /**
+     * Provides the number of entities of this type, or collections of entities of this type, to fetch in a single
+     * batch when they are fetched by id.
+     *
+     * @return The fetch batch size.
+     */
+    int getFetchBatchSize();
+
+    /**
+     * Provides the mode in which the collections of entities of this type are fetched. This is one of 'select', to
+     * fetch each collection with its own select, 'subselect', to fetch the collections of all entities loaded by the
+     * same query with one select, or 'join', to fetch collections with an outer join on the entity.
+     *
+     * @return The fetch mode.
+     */
+    String getFetchMode();
+
+    /**
+     * Indicates whether the collections of entities of this type, and their references to hierarchies and enumerations,
+     * are fetched lazily on first access. Lazily fetched collections and references may only be accessed whilst the
+     * entity is attached to the session that loaded it.
+     *
+     * @return <tt>true</tt> if collections and references are fetched lazily.
+     */
+    boolean isLazyFetch();
+
+    /**
+     * Provides the database indexes declared on entities of this type in the model, to support querying them by
+     * combinations of fields that are not already indexed as unique groupings or references. Each index is keyed by
+     * its name, and lists the names of the fields that it indexes, in order.
+     *
+     * @return The named database indexes over fields of this entity type.
+     */
+    Map<String, List<String>> getQueryIndexes();
+
     /**
      * Provide a description of all relationships on fields between this and other entities.
      *
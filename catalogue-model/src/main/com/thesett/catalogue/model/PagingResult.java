@@ -27,6 +27,7 @@ import java.util.List;
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Encapsulate a list and a size.
+ * <tr><td> Mark the position reached, for keyset paging.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -39,6 +40,9 @@ public class PagingResult implements Serializable
     /** Holds the list containing one page of results. */
     public List<ViewInstance> list;
 
+    /** Holds the database id of the last result in the page, <tt>null</tt> if the page is empty. */
+    public Long lastId;
+
     /**
      * Creates a return object encapsulating a size and a list.
      *
@@ -50,4 +54,19 @@ public class PagingResult implements Serializable
         this.size = size;
         this.list = list;
     }
+
+    /**
+     * Creates a return object encapsulating a size, a list, and the database id of the last result in the list from
+     * which paging may be continued.
+     *
+     * @param size   The size.
+     * @param list   The list.
+     * @param lastId The database id of the last result in the list, <tt>null</tt> if the list is empty.
+     */
+    public PagingResult(int size, List<ViewInstance> list, Long lastId)
+    {
+        this.size = size;
+        this.list = list;
+        this.lastId = lastId;
+    }
 }
@@ -15,6 +15,8 @@
  */
 package com.thesett.catalogue.model;
 
+import java.io.Reader;
+
 /**
  * The raw data service provides CRUD and replace operation on operational level catalogue data, for raw data in XML
  * format. It also provides validation of the raw data against the catalogue knowledge level and detailed error
@@ -26,7 +28,7 @@ package com.thesett.catalogue.model;
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Perform CRUD operations on dimension elements. <td> {@link CatalogueManagerService}
  * <tr><td> Validate raw operational data against the catalogue knowledge level.
- * <tr><td> Provide error reporting on invalid data.
+ * <tr><td> Provide error reporting on invalid data. <td> {@link DataSetUploadListener}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -40,6 +42,17 @@ public interface RawDataService
      */
     void uploadDataSet(String dataSet); //throws MultipleUserErrorException;
 
+    /**
+     * Validates and uploads the data set from raw XML, reading it incrementally from a character stream so that the
+     * whole data set does not need to be held in memory. Records are written in batches, each in its own transaction.
+     * Records that fail validation are skipped and reported to the listener, and the rest of the data set is still
+     * uploaded.
+     *
+     * @param dataSet  The data set to upload in XML.
+     * @param listener The listener to notify of the progress of the upload and of any failed records.
+     */
+    void uploadDataSet(Reader dataSet, DataSetUploadListener listener);
+
     /**
      * Used to ping the service to check it is reachable.
      *
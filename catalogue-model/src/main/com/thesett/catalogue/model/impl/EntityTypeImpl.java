@@ -34,15 +34,37 @@ import com.thesett.catalogue.model.EntityTypeVisitor;
  * <tr><td> Accept a type visitor, applying it to this if it is an entity visitor.
  *     <td> {@link com.thesett.aima.state.TypeVisitor}, {@link EntityTypeVisitor}
  * <tr><td> Indicate whether or not an entity has a long lived external identifier.
+ * <tr><td> Indicate whether or not entities may be cached once read.
  * </table></pre>
  *
  * @author Rupert Smith
  */
 public class EntityTypeImpl extends ComponentTypeImpl implements EntityType
 {
+    /** Defines the default fetch batch size. */
+    public static final int DEFAULT_FETCH_BATCH_SIZE = 16;
+
+    /** Defines the default fetch mode. */
+    public static final String DEFAULT_FETCH_MODE = "subselect";
+
     /** Flag to indicate when true, that this entity type supports external ids. */
     protected boolean externalIdFlag;
 
+    /** Flag to indicate when true, that entities of this type may be cached once read. */
+    protected boolean cachedFlag;
+
+    /** Holds the number of entities or collections to fetch in a single batch. */
+    protected int fetchBatchSize = DEFAULT_FETCH_BATCH_SIZE;
+
+    /** Holds the mode in which collections are fetched. */
+    protected String fetchMode = DEFAULT_FETCH_MODE;
+
+    /** Flag to indicate when true, that collections and references are fetched lazily. */
+    protected boolean lazyFetch;
+
+    /** Holds the named database indexes over fields of this entity. */
+    private final Map<String, List<String>> queryIndexes = new LinkedHashMap<String, List<String>>();
+
     /** Describes relationships roots on fields of this entity. */
     private final Map<String, Relationship> relationships = new LinkedHashMap<String, Relationship>();
 
@@ -100,6 +122,76 @@ public class EntityTypeImpl extends ComponentTypeImpl implements EntityType
         this.externalIdFlag = externalIdFlag;
     }
 
+    /** {@inheritDoc} */
+    public boolean isCached()
+    {
+        return cachedFlag;
+    }
+
+    /**
+     * Sets the cached flag to indicate whether or not entities of this type may be cached once read.
+     *
+     * @param cachedFlag <tt>true</tt> if entities of this type may be cached.
+     */
+    public void setCachedFlag(boolean cachedFlag)
+    {
+        this.cachedFlag = cachedFlag;
+    }
+
+    /** {@inheritDoc} */
+    public int getFetchBatchSize()
+    {
+        return fetchBatchSize;
+    }
+
+    /**
+     * Sets the number of entities or collections to fetch in a single batch.
+     *
+     * @param fetchBatchSize The fetch batch size.
+     */
+    public void setFetchBatchSize(int fetchBatchSize)
+    {
+        this.fetchBatchSize = fetchBatchSize;
+    }
+
+    /** {@inheritDoc} */
+    public String getFetchMode()
+    {
+        return fetchMode;
+    }
+
+    /**
+     * Sets the mode in which collections are fetched; one of 'select', 'subselect' or 'join'.
+     *
+     * @param fetchMode The fetch mode.
+     */
+    public void setFetchMode(String fetchMode)
+    {
+        this.fetchMode = fetchMode;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isLazyFetch()
+    {
+        return lazyFetch;
+    }
+
+    /**
+     * Sets the lazy fetch flag to indicate whether or not collections and references are fetched lazily.
+     *
+     * @param lazyFetch <tt>true</tt> if collections and references are fetched lazily.
+     */
+    public void setLazyFetch(boolean lazyFetch)
+    {
+        this.lazyFetch = lazyFetch;
+    }
+
+    /** {@inheritDoc} */
+    public Map<String, List<String>> getQueryIndexes()
+    {
+        return queryIndexes;
+    }
+
     /** {@inheritDoc} */
     public Map<String, Relationship> getRelationships()
     {
@@ -34,9 +34,17 @@ import com.thesett.common.config.ConfigException;
 /**
  * DataSourceConfigBean registers a {@link javax.sql.DataSource} in the default initial naming context.
  *
+ * <p/>By default an instance of the data source class is bound, without any connection pooling. Outside of a container
+ * that pools connections itself, the 'pooled' property may be set, to bind a {@link PooledDataSource} instead. The pool
+ * opens its physical connections through the data source class if one is set, otherwise through the JDBC driver class
+ * and url. The pool sizes, acquire timeout, validation query, statement cache size and leak detection threshold may
+ * all be set as properties of this bean. Once configured, the pool may be obtained from {@link #getDataSource()} to
+ * read its metrics.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Binds a data source to a JNDI name.
+ * <tr><td> Optionally pools the connections of the data source. <td> {@link PooledDataSource}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -61,6 +69,42 @@ public class DataSourceConfigBean implements ConfigBean
     /* The database name for the data source. */
     //private String databaseName;
 
+    /** Flag set when the data source is to pool its connections. */
+    private boolean pooled;
+
+    /** The JDBC driver class to open pooled connections with, when no data source class is set. */
+    private String driverClass;
+
+    /** The JDBC url to open pooled connections to, when no data source class is set. */
+    private String url;
+
+    /** The user to open pooled connections as, or <tt>null</tt> to open them without credentials. */
+    private String user;
+
+    /** The password to open pooled connections with. */
+    private String password;
+
+    /** The minimum number of pooled connections to keep open. */
+    private int minPoolSize;
+
+    /** The maximum number of pooled connections to open. */
+    private int maxPoolSize = PooledDataSource.DEFAULT_MAX_POOL_SIZE;
+
+    /** The time in milliseconds to wait for a pooled connection. */
+    private long acquireTimeout = PooledDataSource.DEFAULT_ACQUIRE_TIMEOUT;
+
+    /** The query to validate idle pooled connections with. */
+    private String validationQuery;
+
+    /** The number of prepared statements to cache per pooled connection. */
+    private int statementCacheSize;
+
+    /** The time in milliseconds after which a held pooled connection is logged as a possible leak. */
+    private long leakDetectionThreshold;
+
+    /** Holds the data source bound to the JNDI name, once configured. */
+    private DataSource dataSource;
+
     /** Flag to represent configuration status of this configure bean. */
     private boolean configured;
 
@@ -94,6 +138,127 @@ public class DataSourceConfigBean implements ConfigBean
         this.dataSourceClass = dataSourceClass;
     }
 
+    /**
+     * Sets whether the data source pools its connections.
+     *
+     * @param pooled <tt>true</tt> to bind a pooled data source.
+     */
+    public void setPooled(boolean pooled)
+    {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Sets the JDBC driver class to open pooled connections with, when no data source class is set.
+     *
+     * @param driverClass The JDBC driver class name.
+     */
+    public void setDriverClass(String driverClass)
+    {
+        this.driverClass = driverClass;
+    }
+
+    /**
+     * Sets the JDBC url to open pooled connections to, when no data source class is set.
+     *
+     * @param url The JDBC url.
+     */
+    public void setUrl(String url)
+    {
+        this.url = url;
+    }
+
+    /**
+     * Sets the user to open pooled connections as.
+     *
+     * @param user The user to open pooled connections as.
+     */
+    public void setUser(String user)
+    {
+        this.user = user;
+    }
+
+    /**
+     * Sets the password to open pooled connections with.
+     *
+     * @param password The password to open pooled connections with.
+     */
+    public void setPassword(String password)
+    {
+        this.password = password;
+    }
+
+    /**
+     * Sets the minimum number of pooled connections to keep open.
+     *
+     * @param minPoolSize The minimum number of pooled connections to keep open.
+     */
+    public void setMinPoolSize(int minPoolSize)
+    {
+        this.minPoolSize = minPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections to open.
+     *
+     * @param maxPoolSize The maximum number of pooled connections to open.
+     */
+    public void setMaxPoolSize(int maxPoolSize)
+    {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Sets the time to wait for a pooled connection, when all are in use.
+     *
+     * @param acquireTimeout The time to wait for a pooled connection in milliseconds.
+     */
+    public void setAcquireTimeout(long acquireTimeout)
+    {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Sets the query to validate idle pooled connections with.
+     *
+     * @param validationQuery The query to validate idle pooled connections with.
+     */
+    public void setValidationQuery(String validationQuery)
+    {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Sets the number of prepared statements to cache per pooled connection.
+     *
+     * @param statementCacheSize The number of prepared statements to cache per pooled connection, zero for none.
+     */
+    public void setStatementCacheSize(int statementCacheSize)
+    {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Sets the time after which a pooled connection that has not been returned is logged as a possible leak.
+     *
+     * @param leakDetectionThreshold The leak detection threshold in milliseconds, zero for no leak detection.
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold)
+    {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * Provides the data source bound to the JNDI name. When pooling, this is a {@link PooledDataSource}, from which
+     * the pool metrics may be read.
+     *
+     * @return The data source bound to the JNDI name, or <tt>null</tt> if not yet configured.
+     */
+    public DataSource getDataSource()
+    {
+        return dataSource;
+    }
+
     /*
      * Sets the database server name or ip address.
      *
@@ -146,21 +311,18 @@ public class DataSourceConfigBean implements ConfigBean
             return;
         }
 
-        try
+        // Close down any pool created by a previous configuration.
+        if (dataSource instanceof PooledDataSource)
         {
-            // Create the data source
-            DataSource ds = (DataSource) Class.forName(dataSourceClass).newInstance();
-
-            // Configure the data source
-            BeanInfo beanInfo = Introspector.getBeanInfo(Class.forName(dataSourceClass));
-            PropertyDescriptor[] descs = beanInfo.getPropertyDescriptors();
+            ((PooledDataSource) dataSource).close();
+        }
 
-            log.debug("Properties of the DataSource are:");
+        dataSource = null;
 
-            for (int i = 0; i < descs.length; i++)
-            {
-                log.debug("Property " + descs[i].getName() + " has type " + descs[i].getPropertyType());
-            }
+        try
+        {
+            // Create the data source
+            DataSource ds = pooled ? createPooledDataSource() : createDataSource();
 
             // Get reference to initial context
             Context ctx = new InitialContext();
@@ -188,6 +350,7 @@ public class DataSourceConfigBean implements ConfigBean
 
             // Bind the new data source to the JNDI name
             ctx.bind(jndiName, ds);
+            dataSource = ds;
 
             // Configuration was succesfull so set the configured flag.
             configured = true;
@@ -201,4 +364,68 @@ public class DataSourceConfigBean implements ConfigBean
                 e.getMessage(), e, null, null);
         }
     }
+
+    /**
+     * Creates an instance of the data source class.
+     *
+     * @return An instance of the data source class.
+     *
+     * @throws Exception If the data source class cannot be instantiated or introspected.
+     */
+    private DataSource createDataSource() throws Exception
+    {
+        DataSource ds = (DataSource) Class.forName(dataSourceClass).newInstance();
+
+        // Configure the data source
+        BeanInfo beanInfo = Introspector.getBeanInfo(Class.forName(dataSourceClass));
+        PropertyDescriptor[] descs = beanInfo.getPropertyDescriptors();
+
+        log.debug("Properties of the DataSource are:");
+
+        for (int i = 0; i < descs.length; i++)
+        {
+            log.debug("Property " + descs[i].getName() + " has type " + descs[i].getPropertyType());
+        }
+
+        return ds;
+    }
+
+    /**
+     * Creates and starts a connection pool, that opens its physical connections through an instance of the data source
+     * class, if one is set, or through the JDBC driver otherwise.
+     *
+     * @return A started connection pool.
+     *
+     * @throws Exception If the data source class or driver cannot be loaded, or the pool cannot be started.
+     */
+    private PooledDataSource createPooledDataSource() throws Exception
+    {
+        PooledDataSource.ConnectionFactory connectionFactory;
+
+        if (dataSourceClass != null)
+        {
+            connectionFactory = PooledDataSource.dataSourceConnectionFactory(createDataSource(), user, password);
+        }
+        else if ((driverClass != null) && (url != null))
+        {
+            Class.forName(driverClass);
+            connectionFactory = PooledDataSource.driverConnectionFactory(url, user, password);
+        }
+        else
+        {
+            throw new IllegalStateException(
+                "A pooled data source needs either a data source class, or a driver class and url.");
+        }
+
+        PooledDataSource pool = new PooledDataSource(connectionFactory);
+        pool.setMinPoolSize(minPoolSize);
+        pool.setMaxPoolSize(maxPoolSize);
+        pool.setAcquireTimeout(acquireTimeout);
+        pool.setValidationQuery(validationQuery);
+        pool.setStatementCacheSize(statementCacheSize);
+        pool.setLeakDetectionThreshold(leakDetectionThreshold);
+        pool.start();
+
+        return pool;
+    }
 }
@@ -0,0 +1,1261 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.common.config.beans;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * PooledDataSource is a {@link DataSource} that keeps a pool of physical database connections, and hands them out to
+ * be used one at a time. Closing a connection obtained from the pool returns it to the pool, rather than closing the
+ * physical connection. Physical connections are opened through a {@link ConnectionFactory}, which may open them
+ * through a JDBC driver or an unpooled data source.
+ *
+ * <p/>The pool keeps at least the minimum pool size of connections open, and opens no more than the maximum pool size.
+ * When all connections are in use, callers wait for up to the acquire timeout for one to be returned, after which an
+ * SQLException is raised. If a validation query is set, idle connections are checked with it before they are handed
+ * out, and are discarded if it fails.
+ *
+ * <p/>If the statement cache size is greater than zero, each connection keeps a cache of up to that many prepared
+ * statements, by their SQL. Preparing a statement with the same SQL as one that was closed earlier on the same
+ * physical connection re-uses it. Only statements prepared with no other arguments than their SQL are cached.
+ *
+ * <p/>If the leak detection threshold is greater than zero, connections that have been held for longer than it are
+ * logged as possible leaks, together with the stack trace of the code that obtained them, once per checkout. A
+ * housekeeping timer checks for leaks, and re-opens connections to restore the minimum pool size when connections have
+ * been discarded.
+ *
+ * <p/>The pool records metrics for the number of active and idle connections, and how long callers have waited for
+ * connections.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Hand out pooled connections, waiting up to a timeout when all are in use.
+ * <tr><td> Keep the pool between its minimum and maximum size. <td> {@link ConnectionFactory}
+ * <tr><td> Validate idle connections before handing them out.
+ * <tr><td> Cache prepared statements per connection.
+ * <tr><td> Detect connections held for longer than a threshold.
+ * <tr><td> Record pool metrics.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class PooledDataSource implements DataSource
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(PooledDataSource.class);
+
+    /** Defines the default maximum pool size. */
+    public static final int DEFAULT_MAX_POOL_SIZE = 10;
+
+    /** Defines the default time to wait for a connection in milliseconds. */
+    public static final long DEFAULT_ACQUIRE_TIMEOUT = 30000L;
+
+    /** Defines the longest period between housekeeping runs in milliseconds. */
+    private static final long MAX_HOUSEKEEPING_PERIOD = 1000L;
+
+    /** Used to convert nanoseconds to milliseconds. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** Holds the factory to open physical connections with. */
+    private final ConnectionFactory connectionFactory;
+
+    /** Holds the minimum number of connections to keep open. */
+    private int minPoolSize;
+
+    /** Holds the maximum number of connections to open. */
+    private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+
+    /** Holds the time to wait for a connection in milliseconds. */
+    private long acquireTimeout = DEFAULT_ACQUIRE_TIMEOUT;
+
+    /** Holds the query to validate idle connections with, or <tt>null</tt> to only check they are not closed. */
+    private String validationQuery;
+
+    /** Holds the number of prepared statements to cache per connection, zero for no caching. */
+    private int statementCacheSize;
+
+    /** Holds the time in milliseconds after which a held connection is logged as a leak, zero for no detection. */
+    private long leakDetectionThreshold;
+
+    /** Holds the idle connections, the most recently returned last. */
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+    /** Holds the connections that are in use. */
+    private final Set<PooledConnection> active = new HashSet<PooledConnection>();
+
+    /** Holds the number of connections being opened. */
+    private int pending;
+
+    /** Holds the number of threads waiting for a connection. */
+    private int waiting;
+
+    /** Flag set when the pool has been closed. */
+    private boolean closed;
+
+    /** Holds the housekeeping timer, once the pool has been started. */
+    private Timer housekeeping;
+
+    /** Holds the number of physical connections opened. */
+    private long openedCount;
+
+    /** Holds the number of physical connections discarded. */
+    private long discardedCount;
+
+    /** Holds the number of connections handed out. */
+    private long acquiredCount;
+
+    /** Holds the total time spent waiting for connections in nanoseconds. */
+    private long totalWaitNanos;
+
+    /** Holds the longest time spent waiting for a connection in nanoseconds. */
+    private long maxWaitNanos;
+
+    /** Holds the number of times a caller gave up waiting for a connection. */
+    private long timeoutCount;
+
+    /** Holds the number of possible connection leaks detected. */
+    private long leakCount;
+
+    /** Holds the number of prepared statements found in the statement caches. */
+    private final AtomicLong statementCacheHits = new AtomicLong();
+
+    /** Holds the number of prepared statements not found in the statement caches. */
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    /** Holds the log writer. */
+    private PrintWriter logWriter;
+
+    /** Holds the login timeout in seconds. */
+    private int loginTimeout;
+
+    /**
+     * Creates a connection pool that opens its physical connections with the specified factory. The pool must be
+     * started before it is used.
+     *
+     * @param connectionFactory The factory to open physical connections with.
+     */
+    public PooledDataSource(ConnectionFactory connectionFactory)
+    {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Creates a connection factory that opens connections through the JDBC driver manager. The driver must already
+     * be loaded.
+     *
+     * @param  url      The JDBC url to connect to.
+     * @param  user     The user to connect as, may be <tt>null</tt> to connect without credentials.
+     * @param  password The password to connect with.
+     *
+     * @return A connection factory that opens connections through the JDBC driver manager.
+     */
+    public static ConnectionFactory driverConnectionFactory(final String url, final String user,
+        final String password)
+    {
+        return new ConnectionFactory()
+            {
+                public Connection createConnection() throws SQLException
+                {
+                    return (user == null) ? DriverManager.getConnection(url)
+                                          : DriverManager.getConnection(url, user, password);
+                }
+            };
+    }
+
+    /**
+     * Creates a connection factory that opens connections through an unpooled data source.
+     *
+     * @param  dataSource The data source to open connections through.
+     * @param  user       The user to connect as, may be <tt>null</tt> to connect without credentials.
+     * @param  password   The password to connect with.
+     *
+     * @return A connection factory that opens connections through the data source.
+     */
+    public static ConnectionFactory dataSourceConnectionFactory(final DataSource dataSource, final String user,
+        final String password)
+    {
+        return new ConnectionFactory()
+            {
+                public Connection createConnection() throws SQLException
+                {
+                    return (user == null) ? dataSource.getConnection() : dataSource.getConnection(user, password);
+                }
+            };
+    }
+
+    /**
+     * Sets the minimum number of connections to keep open.
+     *
+     * @param minPoolSize The minimum number of connections to keep open.
+     */
+    public void setMinPoolSize(int minPoolSize)
+    {
+        this.minPoolSize = minPoolSize;
+    }
+
+    /**
+     * Sets the maximum number of connections to open.
+     *
+     * @param maxPoolSize The maximum number of connections to open.
+     */
+    public void setMaxPoolSize(int maxPoolSize)
+    {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Sets the time to wait for a connection, when all are in use.
+     *
+     * @param acquireTimeout The time to wait for a connection in milliseconds.
+     */
+    public void setAcquireTimeout(long acquireTimeout)
+    {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Sets the query to validate idle connections with before handing them out.
+     *
+     * @param validationQuery The query to validate connections with, or <tt>null</tt> to only check they are open.
+     */
+    public void setValidationQuery(String validationQuery)
+    {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Sets the number of prepared statements to cache per connection.
+     *
+     * @param statementCacheSize The number of prepared statements to cache per connection, zero for no caching.
+     */
+    public void setStatementCacheSize(int statementCacheSize)
+    {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Sets the time after which a connection that has not been returned to the pool is logged as a possible leak.
+     *
+     * @param leakDetectionThreshold The leak detection threshold in milliseconds, zero for no leak detection.
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold)
+    {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * Starts the pool, opening the minimum number of connections and starting its housekeeping timer.
+     *
+     * @throws SQLException If the minimum number of connections cannot be opened.
+     */
+    public void start() throws SQLException
+    {
+        if ((maxPoolSize < 1) || (minPoolSize < 0) || (minPoolSize > maxPoolSize))
+        {
+            throw new IllegalArgumentException("The pool sizes must satisfy 0 <= min <= max and 1 <= max, but min is " +
+                minPoolSize + " and max is " + maxPoolSize + ".");
+        }
+
+        fillToMinimum();
+
+        long period = MAX_HOUSEKEEPING_PERIOD;
+
+        if (leakDetectionThreshold > 0)
+        {
+            period = Math.max(1L, Math.min(period, leakDetectionThreshold / 2));
+        }
+
+        synchronized (this)
+        {
+            housekeeping = new Timer("PooledDataSource housekeeping", true);
+            housekeeping.schedule(new TimerTask()
+                {
+                    public void run()
+                    {
+                        houseKeep();
+                    }
+                }, period, period);
+        }
+    }
+
+    /**
+     * Closes the pool. Idle connections are closed immediately, and connections in use are closed as they are returned
+     * to the pool.
+     */
+    public void close()
+    {
+        List<PooledConnection> toClose;
+
+        synchronized (this)
+        {
+            closed = true;
+
+            if (housekeeping != null)
+            {
+                housekeeping.cancel();
+            }
+
+            toClose = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+            notifyAll();
+        }
+
+        for (PooledConnection connection : toClose)
+        {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Obtains a connection from the pool, waiting for up to the acquire timeout for one to become available.
+     *
+     * @return A pooled connection, which is returned to the pool when it is closed.
+     *
+     * @throws SQLException If the pool is closed, the wait for a connection times out or is interrupted, or a new
+     *                      connection cannot be opened.
+     */
+    public Connection getConnection() throws SQLException
+    {
+        long start = System.nanoTime();
+        long deadline = start + (acquireTimeout * NANOS_PER_MILLI);
+        PooledConnection connection = null;
+
+        while (connection == null)
+        {
+            boolean open = false;
+
+            synchronized (this)
+            {
+                while (true)
+                {
+                    if (closed)
+                    {
+                        throw new SQLException("The connection pool has been closed.");
+                    }
+
+                    // Prefer the most recently returned connection, as it is the least likely to have gone stale.
+                    if (!idle.isEmpty())
+                    {
+                        connection = idle.removeLast();
+                        active.add(connection);
+
+                        break;
+                    }
+
+                    if (size() < maxPoolSize)
+                    {
+                        pending++;
+                        open = true;
+
+                        break;
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0)
+                    {
+                        timeoutCount++;
+                        recordWait(start);
+
+                        throw new SQLException("Timed out after " + acquireTimeout +
+                            "ms waiting for a pooled connection.");
+                    }
+
+                    waiting++;
+
+                    try
+                    {
+                        wait(Math.max(1L, remaining / NANOS_PER_MILLI));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted whilst waiting for a pooled connection.");
+                    }
+                    finally
+                    {
+                        waiting--;
+                    }
+                }
+            }
+
+            if (open)
+            {
+                connection = openConnection(true);
+            }
+            else if (!isValid(connection))
+            {
+                log.debug("Discarding a pooled connection that failed validation.");
+
+                synchronized (this)
+                {
+                    active.remove(connection);
+                    notifyAll();
+                }
+
+                discard(connection);
+                connection = null;
+            }
+        }
+
+        // The checkout is recorded under the pool lock, so that the housekeeping timer sees it when detecting leaks.
+        synchronized (this)
+        {
+            acquiredCount++;
+            recordWait(start);
+
+            return connection.checkout();
+        }
+    }
+
+    /**
+     * Pooled connections can only be opened with the configured credentials.
+     *
+     * @param  username Ignored.
+     * @param  password Ignored.
+     *
+     * @return Never returns.
+     *
+     * @throws SQLException Always.
+     */
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        throw new SQLFeatureNotSupportedException("Pooled connections can only be opened with the pool credentials.");
+    }
+
+    /** {@inheritDoc} */
+    public PrintWriter getLogWriter() throws SQLException
+    {
+        return logWriter;
+    }
+
+    /** {@inheritDoc} */
+    public void setLogWriter(PrintWriter out) throws SQLException
+    {
+        this.logWriter = out;
+    }
+
+    /** {@inheritDoc} */
+    public void setLoginTimeout(int seconds) throws SQLException
+    {
+        this.loginTimeout = seconds;
+    }
+
+    /** {@inheritDoc} */
+    public int getLoginTimeout() throws SQLException
+    {
+        return loginTimeout;
+    }
+
+    /** {@inheritDoc} */
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException("The pooled data source does not log through java.util.logging.");
+    }
+
+    /** {@inheritDoc} */
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+        if (iface.isInstance(this))
+        {
+            return iface.cast(this);
+        }
+
+        throw new SQLException("The pooled data source is not a wrapper for " + iface + ".");
+    }
+
+    /** {@inheritDoc} */
+    public boolean isWrapperFor(Class<?> iface) throws SQLException
+    {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Provides the number of connections in use.
+     *
+     * @return The number of connections in use.
+     */
+    public synchronized int getActiveConnections()
+    {
+        return active.size();
+    }
+
+    /**
+     * Provides the number of idle connections in the pool.
+     *
+     * @return The number of idle connections in the pool.
+     */
+    public synchronized int getIdleConnections()
+    {
+        return idle.size();
+    }
+
+    /**
+     * Provides the number of threads waiting for a connection.
+     *
+     * @return The number of threads waiting for a connection.
+     */
+    public synchronized int getWaitingThreads()
+    {
+        return waiting;
+    }
+
+    /**
+     * Provides the number of physical connections that have been opened.
+     *
+     * @return The number of physical connections that have been opened.
+     */
+    public synchronized long getOpenedCount()
+    {
+        return openedCount;
+    }
+
+    /**
+     * Provides the number of physical connections that have been discarded, on failing validation or closing the pool.
+     *
+     * @return The number of physical connections that have been discarded.
+     */
+    public synchronized long getDiscardedCount()
+    {
+        return discardedCount;
+    }
+
+    /**
+     * Provides the number of connections that have been handed out.
+     *
+     * @return The number of connections that have been handed out.
+     */
+    public synchronized long getAcquiredCount()
+    {
+        return acquiredCount;
+    }
+
+    /**
+     * Provides the total time spent waiting for connections, including waits that timed out.
+     *
+     * @return The total time spent waiting for connections in milliseconds.
+     */
+    public synchronized long getTotalWaitTime()
+    {
+        return totalWaitNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Provides the longest time spent waiting for a connection, including waits that timed out.
+     *
+     * @return The longest time spent waiting for a connection in milliseconds.
+     */
+    public synchronized long getMaxWaitTime()
+    {
+        return maxWaitNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Provides the number of times that waiting for a connection timed out.
+     *
+     * @return The number of times that waiting for a connection timed out.
+     */
+    public synchronized long getTimeoutCount()
+    {
+        return timeoutCount;
+    }
+
+    /**
+     * Provides the number of connections that have been held for longer than the leak detection threshold.
+     *
+     * @return The number of possible connection leaks detected.
+     */
+    public synchronized long getLeakCount()
+    {
+        return leakCount;
+    }
+
+    /**
+     * Provides the number of prepared statements that were found in the statement caches.
+     *
+     * @return The number of statement cache hits.
+     */
+    public long getStatementCacheHits()
+    {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * Provides the number of prepared statements that were not found in the statement caches.
+     *
+     * @return The number of statement cache misses.
+     */
+    public long getStatementCacheMisses()
+    {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * Provides the number of connections that are idle, in use or being opened.
+     *
+     * @return The number of connections that are idle, in use or being opened.
+     */
+    private int size()
+    {
+        return idle.size() + active.size() + pending;
+    }
+
+    /**
+     * Records the time spent waiting for a connection, since the specified start time.
+     *
+     * @param start The time the wait started, from {@link System#nanoTime()}.
+     */
+    private void recordWait(long start)
+    {
+        long waited = System.nanoTime() - start;
+        totalWaitNanos += waited;
+        maxWaitNanos = Math.max(maxWaitNanos, waited);
+    }
+
+    /**
+     * Opens a new physical connection, for which a place in the pool has already been reserved as pending.
+     *
+     * @param  activate <tt>true</tt> to add the connection to the active connections, <tt>false</tt> for idle.
+     *
+     * @return The new connection.
+     *
+     * @throws SQLException If the physical connection cannot be opened.
+     */
+    private PooledConnection openConnection(boolean activate) throws SQLException
+    {
+        PooledConnection connection = null;
+
+        try
+        {
+            connection = new PooledConnection(connectionFactory.createConnection());
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                pending--;
+
+                if (connection != null)
+                {
+                    openedCount++;
+
+                    if (activate)
+                    {
+                        active.add(connection);
+                    }
+                    else
+                    {
+                        idle.addLast(connection);
+                    }
+                }
+
+                notifyAll();
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Opens connections until the pool holds its minimum number.
+     *
+     * @throws SQLException If a physical connection cannot be opened.
+     */
+    private void fillToMinimum() throws SQLException
+    {
+        while (true)
+        {
+            synchronized (this)
+            {
+                if (closed || (size() >= minPoolSize))
+                {
+                    return;
+                }
+
+                pending++;
+            }
+
+            openConnection(false);
+        }
+    }
+
+    /**
+     * Checks whether an idle connection is still usable, by running the validation query on it if there is one.
+     *
+     * @param  connection The connection to check.
+     *
+     * @return <tt>true</tt> if the connection is usable.
+     */
+    private boolean isValid(PooledConnection connection)
+    {
+        try
+        {
+            if (connection.physical.isClosed())
+            {
+                return false;
+            }
+
+            if (validationQuery != null)
+            {
+                Statement statement = connection.physical.createStatement();
+
+                try
+                {
+                    statement.execute(validationQuery);
+                }
+                finally
+                {
+                    statement.close();
+                }
+            }
+
+            return true;
+        }
+        catch (SQLException e)
+        {
+            log.debug("Pooled connection failed validation.", e);
+
+            return false;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool once it has been closed by its user. Any uncommitted work is rolled back, and
+     * its read only flag and transaction isolation level are restored to those it was opened with. If the connection
+     * cannot be reset, or the pool has been closed, it is discarded instead.
+     *
+     * @param connection The connection to return to the pool.
+     */
+    private void release(PooledConnection connection)
+    {
+        boolean reset = true;
+
+        try
+        {
+            if (!connection.physical.getAutoCommit())
+            {
+                connection.physical.rollback();
+                connection.physical.setAutoCommit(true);
+            }
+
+            connection.restoreSettings();
+        }
+        catch (SQLException e)
+        {
+            log.debug("Failed to reset a pooled connection, so it will be discarded.", e);
+            reset = false;
+        }
+
+        boolean keep;
+
+        synchronized (this)
+        {
+            active.remove(connection);
+            keep = reset && !closed;
+
+            if (keep)
+            {
+                idle.addLast(connection);
+            }
+
+            notifyAll();
+        }
+
+        if (!keep)
+        {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Closes the physical connection of a connection that has been removed from the pool, and its cached statements.
+     *
+     * @param connection The connection to discard.
+     */
+    private void discard(PooledConnection connection)
+    {
+        synchronized (this)
+        {
+            discardedCount++;
+        }
+
+        connection.closeStatements();
+
+        try
+        {
+            connection.physical.close();
+        }
+        catch (SQLException e)
+        {
+            log.debug("Failed to close a discarded pooled connection.", e);
+        }
+    }
+
+    /** Logs connections held for longer than the leak detection threshold, and restores the minimum pool size. */
+    private void houseKeep()
+    {
+        if (leakDetectionThreshold > 0)
+        {
+            long now = System.currentTimeMillis();
+
+            synchronized (this)
+            {
+                for (PooledConnection connection : active)
+                {
+                    if (!connection.leakReported && ((now - connection.checkedOutAt) > leakDetectionThreshold))
+                    {
+                        connection.leakReported = true;
+                        leakCount++;
+
+                        log.warn("A pooled connection has been held for more than " + leakDetectionThreshold +
+                            "ms, and may have been leaked.", connection.checkoutTrace);
+                    }
+                }
+            }
+        }
+
+        try
+        {
+            fillToMinimum();
+        }
+        catch (SQLException e)
+        {
+            log.warn("Failed to open connections to restore the minimum pool size.", e);
+        }
+    }
+
+    /**
+     * Unwraps an exception raised by a method invoked reflectively, so that it is raised as thrown.
+     *
+     * @param  target The object to invoke the method on.
+     * @param  method The method to invoke.
+     * @param  args   The arguments to invoke the method with.
+     *
+     * @return The result of invoking the method.
+     *
+     * @throws Throwable Any exception thrown by the method.
+     */
+    private static Object invokeUnwrapped(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * ConnectionFactory opens the physical connections for a {@link PooledDataSource}.
+     */
+    public interface ConnectionFactory
+    {
+        /**
+         * Opens a new physical connection.
+         *
+         * @return A new physical connection.
+         *
+         * @throws SQLException If the connection cannot be opened.
+         */
+        Connection createConnection() throws SQLException;
+    }
+
+    /**
+     * PooledConnection holds a physical connection in the pool, together with its cached statements, and the details
+     * of its current checkout for leak detection.
+     */
+    private class PooledConnection
+    {
+        /** Holds the physical connection. */
+        final Connection physical;
+
+        /** Holds the cached prepared statements by SQL, the least recently used first. */
+        private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+            {
+                /** {@inheritDoc} */
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+                {
+                    if (size() > statementCacheSize)
+                    {
+                        closeQuietly(eldest.getValue());
+
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+
+        /** Holds the read only flag that the physical connection was opened with. */
+        private final boolean readOnly;
+
+        /** Holds the transaction isolation level that the physical connection was opened with. */
+        private final int transactionIsolation;
+
+        /** Holds the time that the connection was last handed out. */
+        long checkedOutAt;
+
+        /** Holds the stack trace of the code that the connection was last handed out to, when detecting leaks. */
+        Throwable checkoutTrace;
+
+        /** Flag set when a leak has been reported for the current checkout. */
+        boolean leakReported;
+
+        /**
+         * Creates a pooled connection for a physical connection, noting the settings it was opened with. The physical
+         * connection is closed if its settings cannot be read.
+         *
+         * @param  physical The physical connection.
+         *
+         * @throws SQLException If the settings of the physical connection cannot be read.
+         */
+        PooledConnection(Connection physical) throws SQLException
+        {
+            this.physical = physical;
+
+            try
+            {
+                readOnly = physical.isReadOnly();
+                transactionIsolation = physical.getTransactionIsolation();
+            }
+            catch (SQLException e)
+            {
+                physical.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Restores the read only flag and transaction isolation level of the physical connection to those it was
+         * opened with, where its user has changed them.
+         *
+         * @throws SQLException If the settings cannot be restored.
+         */
+        void restoreSettings() throws SQLException
+        {
+            if (physical.isReadOnly() != readOnly)
+            {
+                physical.setReadOnly(readOnly);
+            }
+
+            if (physical.getTransactionIsolation() != transactionIsolation)
+            {
+                physical.setTransactionIsolation(transactionIsolation);
+            }
+        }
+
+        /**
+         * Hands out this connection, wrapped in a proxy that returns it to the pool when closed.
+         *
+         * @return A proxy for this connection.
+         */
+        Connection checkout()
+        {
+            checkedOutAt = System.currentTimeMillis();
+            checkoutTrace = (leakDetectionThreshold > 0) ? new Throwable("Pooled connection obtained here.") : null;
+            leakReported = false;
+
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class[] { Connection.class }, new ConnectionHandler(this));
+        }
+
+        /**
+         * Prepares a statement, re-using a cached one with the same SQL if there is one.
+         *
+         * @param  sql    The SQL of the statement.
+         * @param  handle The connection proxy the statement is prepared through.
+         *
+         * @return A proxy for the prepared statement, that returns it to the cache when closed.
+         *
+         * @throws SQLException If the statement cannot be prepared.
+         */
+        PreparedStatement prepareStatement(String sql, Connection handle) throws SQLException
+        {
+            PreparedStatement statement;
+
+            synchronized (this)
+            {
+                statement = statements.remove(sql);
+            }
+
+            if (statement != null)
+            {
+                statementCacheHits.incrementAndGet();
+            }
+            else
+            {
+                statementCacheMisses.incrementAndGet();
+                statement = physical.prepareStatement(sql);
+            }
+
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class[] { PreparedStatement.class }, new StatementHandler(this, sql, statement, handle));
+        }
+
+        /**
+         * Returns a closed statement to the cache, once its parameters, batch and warnings have been cleared, and its
+         * row limit, query timeout and fetch size set back to their defaults. The statement is closed instead if it
+         * cannot be reset.
+         *
+         * @param sql       The SQL of the statement.
+         * @param statement The statement.
+         */
+        void returnStatement(String sql, PreparedStatement statement)
+        {
+            try
+            {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+                statement.setMaxRows(0);
+                statement.setQueryTimeout(0);
+                statement.setFetchSize(0);
+            }
+            catch (SQLException e)
+            {
+                closeQuietly(statement);
+
+                return;
+            }
+
+            PreparedStatement previous;
+
+            synchronized (this)
+            {
+                previous = statements.put(sql, statement);
+            }
+
+            // The same SQL may have been prepared twice whilst the first was still open, in which case keep only one.
+            if ((previous != null) && (previous != statement))
+            {
+                closeQuietly(previous);
+            }
+        }
+
+        /** Closes all of the cached statements. */
+        synchronized void closeStatements()
+        {
+            for (PreparedStatement statement : statements.values())
+            {
+                closeQuietly(statement);
+            }
+
+            statements.clear();
+        }
+
+        /**
+         * Closes a statement, ignoring any errors.
+         *
+         * @param statement The statement to close.
+         */
+        private void closeQuietly(Statement statement)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException e)
+            {
+                log.debug("Failed to close a cached statement.", e);
+            }
+        }
+    }
+
+    /**
+     * ConnectionHandler implements the connection proxy handed out for a pooled connection. Closing it returns the
+     * connection to the pool, after which it can no longer be used.
+     */
+    private class ConnectionHandler implements InvocationHandler
+    {
+        /** Holds the pooled connection. */
+        private final PooledConnection connection;
+
+        /** Flag set when the proxy has been closed. */
+        private boolean handleClosed;
+
+        /**
+         * Creates a proxy handler for a pooled connection.
+         *
+         * @param connection The pooled connection.
+         */
+        ConnectionHandler(PooledConnection connection)
+        {
+            this.connection = connection;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            int arity = (args == null) ? 0 : args.length;
+
+            if ("equals".equals(name) && (arity == 1))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name) && (arity == 0))
+            {
+                return System.identityHashCode(proxy);
+            }
+            else if ("toString".equals(name) && (arity == 0))
+            {
+                return "PooledConnection[" + connection.physical + "]";
+            }
+            else if ("isClosed".equals(name) && (arity == 0))
+            {
+                return handleClosed;
+            }
+            else if ("close".equals(name) && (arity == 0))
+            {
+                if (!handleClosed)
+                {
+                    handleClosed = true;
+                    release(connection);
+                }
+
+                return null;
+            }
+            else if (handleClosed)
+            {
+                throw new SQLException("The connection has been closed.");
+            }
+            else if ("prepareStatement".equals(name) && (arity == 1) && (statementCacheSize > 0))
+            {
+                return connection.prepareStatement((String) args[0], (Connection) proxy);
+            }
+
+            return invokeUnwrapped(connection.physical, method, args);
+        }
+    }
+
+    /**
+     * StatementHandler implements the proxy for a cached prepared statement. Closing it returns the statement to the
+     * cache of its connection, unless the connection has already been returned to the pool, in which case the
+     * statement is closed.
+     */
+    private class StatementHandler implements InvocationHandler
+    {
+        /** Holds the pooled connection that the statement was prepared on. */
+        private final PooledConnection connection;
+
+        /** Holds the SQL of the statement. */
+        private final String sql;
+
+        /** Holds the prepared statement. */
+        private final PreparedStatement statement;
+
+        /** Holds the connection proxy the statement was prepared through. */
+        private final Connection handle;
+
+        /** Flag set when the proxy has been closed. */
+        private boolean statementClosed;
+
+        /**
+         * Creates a proxy handler for a cached prepared statement.
+         *
+         * @param connection The pooled connection that the statement was prepared on.
+         * @param sql        The SQL of the statement.
+         * @param statement  The prepared statement.
+         * @param handle     The connection proxy the statement was prepared through.
+         */
+        StatementHandler(PooledConnection connection, String sql, PreparedStatement statement, Connection handle)
+        {
+            this.connection = connection;
+            this.sql = sql;
+            this.statement = statement;
+            this.handle = handle;
+        }
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            int arity = (args == null) ? 0 : args.length;
+
+            if ("equals".equals(name) && (arity == 1))
+            {
+                return proxy == args[0];
+            }
+            else if ("hashCode".equals(name) && (arity == 0))
+            {
+                return System.identityHashCode(proxy);
+            }
+            else if ("toString".equals(name) && (arity == 0))
+            {
+                return "CachedStatement[" + sql + "]";
+            }
+            else if ("isClosed".equals(name) && (arity == 0))
+            {
+                return statementClosed;
+            }
+            else if ("close".equals(name) && (arity == 0))
+            {
+                if (!statementClosed)
+                {
+                    statementClosed = true;
+
+                    if (handle.isClosed())
+                    {
+                        connection.closeQuietly(statement);
+                    }
+                    else
+                    {
+                        connection.returnStatement(sql, statement);
+                    }
+                }
+
+                return null;
+            }
+            else if (statementClosed)
+            {
+                throw new SQLException("The statement has been closed.");
+            }
+            else if ("getConnection".equals(name) && (arity == 0))
+            {
+                return handle;
+            }
+
+            return invokeUnwrapped(statement, method, args);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.common.config.beans;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+/**
+ * Tests the {@link PooledDataSource} against an in-memory HSQL database.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that the pool opens its minimum number of connections when started.
+ * <tr><td> Check that closed connections are returned to the pool and re-used.
+ * <tr><td> Check that waiting for a connection times out when all are in use.
+ * <tr><td> Check that connections failing validation are discarded.
+ * <tr><td> Check that prepared statements are cached per connection.
+ * <tr><td> Check that connections held beyond the leak detection threshold are counted as leaks.
+ * <tr><td> Check that statements returned to the cache have their state reset.
+ * <tr><td> Check that released connections have their read only flag and isolation level restored.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class PooledDataSourceTest extends TestCase
+{
+    /** Holds the url of the in-memory test database. */
+    private static final String TEST_URL = "jdbc:hsqldb:mem:pooltest";
+
+    /** Holds a query that HSQL can validate connections with. */
+    private static final String VALIDATION_QUERY = "select count(*) from INFORMATION_SCHEMA.SYSTEM_USERS";
+
+    /** Holds the pool under test. */
+    private PooledDataSource pool;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public PooledDataSourceTest(String name)
+    {
+        super(name);
+    }
+
+    /** Check that the pool opens its minimum number of connections when started. */
+    public void testMinimumConnectionsOpenedOnStart() throws Exception
+    {
+        pool.setMinPoolSize(3);
+        pool.start();
+
+        assertEquals("Expected the minimum number of connections to be idle.", 3, pool.getIdleConnections());
+        assertEquals("Expected no connections to be active.", 0, pool.getActiveConnections());
+        assertEquals("Expected the minimum number of connections to be opened.", 3, pool.getOpenedCount());
+    }
+
+    /** Check that closed connections are returned to the pool and re-used. */
+    public void testClosedConnectionsReturnedAndReused() throws Exception
+    {
+        pool.start();
+
+        Connection connection = pool.getConnection();
+        assertEquals("Expected one active connection.", 1, pool.getActiveConnections());
+
+        connection.close();
+        assertTrue("Expected the closed connection to report being closed.", connection.isClosed());
+        assertEquals("Expected no active connections.", 0, pool.getActiveConnections());
+        assertEquals("Expected one idle connection.", 1, pool.getIdleConnections());
+
+        pool.getConnection().close();
+        assertEquals("Expected the idle connection to be re-used.", 1, pool.getOpenedCount());
+        assertEquals("Expected two connections to be handed out.", 2, pool.getAcquiredCount());
+
+        try
+        {
+            connection.createStatement();
+            fail("Expected a closed connection to be unusable.");
+        }
+        catch (SQLException e)
+        {
+            // Expected.
+            e = null;
+        }
+    }
+
+    /** Check that waiting for a connection times out when all are in use. */
+    public void testAcquireTimesOutWhenAllInUse() throws Exception
+    {
+        pool.setMaxPoolSize(1);
+        pool.setAcquireTimeout(50L);
+        pool.start();
+
+        Connection connection = pool.getConnection();
+
+        try
+        {
+            pool.getConnection();
+            fail("Expected waiting for a connection to time out.");
+        }
+        catch (SQLException e)
+        {
+            // Expected.
+            e = null;
+        }
+        finally
+        {
+            connection.close();
+        }
+
+        assertEquals("Expected one time out.", 1, pool.getTimeoutCount());
+        assertTrue("Expected the wait time to be recorded.", pool.getMaxWaitTime() >= 40L);
+        assertEquals("Expected only one connection to be opened.", 1, pool.getOpenedCount());
+    }
+
+    /** Check that connections failing validation are discarded. */
+    public void testInvalidConnectionsDiscarded() throws Exception
+    {
+        pool.setValidationQuery(VALIDATION_QUERY);
+        pool.start();
+
+        pool.getConnection().close();
+
+        // Swap in a validation query that fails, so that the idle connection is discarded on its next checkout.
+        pool.setValidationQuery("select * from no_such_table");
+
+        Connection connection = pool.getConnection();
+        connection.close();
+
+        assertEquals("Expected the invalid connection to be discarded.", 1, pool.getDiscardedCount());
+        assertEquals("Expected a new connection to be opened.", 2, pool.getOpenedCount());
+    }
+
+    /** Check that prepared statements are cached per connection. */
+    public void testPreparedStatementsCached() throws Exception
+    {
+        pool.setMaxPoolSize(1);
+        pool.setStatementCacheSize(2);
+        pool.start();
+
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement(VALIDATION_QUERY);
+        statement.executeQuery().close();
+        statement.close();
+        assertTrue("Expected a closed statement to report being closed.", statement.isClosed());
+        connection.close();
+
+        connection = pool.getConnection();
+        statement = connection.prepareStatement(VALIDATION_QUERY);
+        assertSame("Expected the statement to belong to the connection.", connection, statement.getConnection());
+        statement.executeQuery().close();
+        statement.close();
+        connection.close();
+
+        assertEquals("Expected one statement cache miss.", 1, pool.getStatementCacheMisses());
+        assertEquals("Expected one statement cache hit.", 1, pool.getStatementCacheHits());
+    }
+
+    /** Check that connections held beyond the leak detection threshold are counted as leaks. */
+    public void testLeakedConnectionsDetected() throws Exception
+    {
+        pool.setLeakDetectionThreshold(20L);
+        pool.start();
+
+        Connection connection = pool.getConnection();
+
+        for (int i = 0; (i < 100) && (pool.getLeakCount() == 0); i++)
+        {
+            Thread.sleep(10L);
+        }
+
+        connection.close();
+
+        assertEquals("Expected the held connection to be detected as a leak once.", 1, pool.getLeakCount());
+    }
+
+    /** Check that statements returned to the cache have their batch cleared and their limits reset to the defaults. */
+    public void testCachedStatementStateReset() throws Exception
+    {
+        pool = new PooledDataSource(createStubConnectionFactory());
+        pool.setMaxPoolSize(1);
+        pool.setStatementCacheSize(1);
+        pool.start();
+
+        Connection connection = pool.getConnection();
+        PreparedStatement statement = connection.prepareStatement("insert into test values (?)");
+        statement.setMaxRows(10);
+        statement.setQueryTimeout(30);
+        statement.setFetchSize(100);
+        statement.setInt(1, 1);
+        statement.addBatch();
+        statement.close();
+
+        statement = connection.prepareStatement("insert into test values (?)");
+
+        assertEquals("Expected one statement cache hit.", 1, pool.getStatementCacheHits());
+        assertEquals("Expected the row limit to be reset.", 0, statement.getMaxRows());
+        assertEquals("Expected the query timeout to be reset.", 0, statement.getQueryTimeout());
+        assertEquals("Expected the fetch size to be reset.", 0, statement.getFetchSize());
+        assertEquals("Expected the batch to be cleared.", 0, statement.executeBatch().length);
+
+        statement.close();
+        connection.close();
+    }
+
+    /** Check that released connections have their read only flag and transaction isolation level restored. */
+    public void testConnectionSettingsRestoredOnRelease() throws Exception
+    {
+        pool = new PooledDataSource(createStubConnectionFactory());
+        pool.setMaxPoolSize(1);
+        pool.start();
+
+        Connection connection = pool.getConnection();
+        connection.setReadOnly(true);
+        connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        connection.close();
+
+        connection = pool.getConnection();
+
+        assertEquals("Expected the connection to be re-used.", 1, pool.getOpenedCount());
+        assertFalse("Expected the read only flag to be restored.", connection.isReadOnly());
+        assertEquals("Expected the isolation level to be restored.", Connection.TRANSACTION_READ_COMMITTED,
+            connection.getTransactionIsolation());
+
+        connection.close();
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        pool = new PooledDataSource(PooledDataSource.driverConnectionFactory(TEST_URL, "sa", ""));
+    }
+
+    protected void tearDown() throws Exception
+    {
+        pool.close();
+
+        // Shut down the in-memory database, so that each test starts with a fresh one.
+        Connection connection = PooledDataSource.driverConnectionFactory(TEST_URL, "sa", "").createConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("SHUTDOWN");
+        connection.close();
+
+        NDC.pop();
+    }
+
+    /**
+     * Creates a connection factory that opens stub connections, which hold the settings made on them and on the
+     * statements prepared on them.
+     *
+     * @return A connection factory for stub connections.
+     */
+    private PooledDataSource.ConnectionFactory createStubConnectionFactory()
+    {
+        return new PooledDataSource.ConnectionFactory()
+            {
+                public Connection createConnection()
+                {
+                    StubHandler handler = new StubHandler();
+                    handler.properties.put("AutoCommit", true);
+                    handler.properties.put("TransactionIsolation", Connection.TRANSACTION_READ_COMMITTED);
+
+                    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                            new Class[] { Connection.class }, handler);
+                }
+            };
+    }
+
+    /**
+     * StubHandler implements a stub connection or prepared statement, holding the properties set on it, and counting
+     * the rows added to its batch.
+     */
+    private static class StubHandler implements InvocationHandler
+    {
+        /** Holds the properties set on the stub, by name. */
+        final Map<String, Object> properties = new HashMap<String, Object>();
+
+        /** Holds the number of rows added to the batch of the stub. */
+        private int batchSize;
+
+        /** {@inheritDoc} */
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            String name = method.getName();
+            Class returnType = method.getReturnType();
+
+            if ("prepareStatement".equals(name))
+            {
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class[] { PreparedStatement.class }, new StubHandler());
+            }
+            else if ("addBatch".equals(name))
+            {
+                batchSize++;
+            }
+            else if ("clearBatch".equals(name))
+            {
+                batchSize = 0;
+            }
+            else if ("executeBatch".equals(name))
+            {
+                return new int[batchSize];
+            }
+            else if (name.startsWith("set") && (args != null) && (args.length == 1))
+            {
+                properties.put(name.substring(3), args[0]);
+            }
+            else if (name.startsWith("get") && properties.containsKey(name.substring(3)))
+            {
+                return properties.get(name.substring(3));
+            }
+            else if (name.startsWith("is") && properties.containsKey(name.substring(2)))
+            {
+                return properties.get(name.substring(2));
+            }
+            else if (Boolean.TYPE.equals(returnType))
+            {
+                return false;
+            }
+            else if (Integer.TYPE.equals(returnType))
+            {
+                return 0;
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.thesett.index.tx.IndexTxId;
+import com.thesett.index.tx.IndexTxManager;
+
+/**
+ * AsyncIndexSearcher is a facade over an {@link Index} that runs searches asynchronously on an executor, so that the
+ * caller does not have to block whilst expensive queries run. Only a bounded number of searches may be in progress at
+ * any one time. When that number is reached, further searches are rejected immediately rather than queued, so that a
+ * burst of expensive queries cannot build up an unbounded backlog of work.
+ *
+ * <p/>Every search may be given a deadline. The deadline is measured from the time the search is submitted, and is
+ * passed to the index through {@link SearchDeadline}. Indexes that check {@link SearchDeadline#checkpoint} during a
+ * search abandon it once the deadline passes, and the future completes with an {@link IndexSearchCancelledException}
+ * as its cause. Cancelling the returned future interrupts the search, which is also noticed at the next checkpoint.
+ *
+ * <p/>A search gives up its place as soon as its future completes, whether the search ran to completion, failed, or
+ * was cancelled. A search cancelled whilst still waiting for a thread therefore does not hold on to its place.
+ *
+ * <p/>Any index transaction id attached to the submitting thread is attached to the worker thread for the duration of
+ * the search, so that transactional indexes see the search as part of the callers transaction.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Run searches asynchronously. <td> {@link Index}
+ * <tr><td> Limit the number of searches in progress, rejecting searches when saturated.
+ * <tr><td> Apply per query deadlines to searches. <td> {@link SearchDeadline}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class AsyncIndexSearcher<K, D, E>
+{
+    /** Used to indicate that searches should run without a deadline. */
+    public static final long NO_TIMEOUT = -1L;
+
+    /** Holds the index to search. */
+    private final Index<K, D, E> index;
+
+    /** Holds the executor to run searches on. */
+    private final ExecutorService executor;
+
+    /** Used to limit the number of searches in progress at once. */
+    private final Semaphore permits;
+
+    /** Holds the maximum number of searches in progress at once. */
+    private final int maxConcurrentSearches;
+
+    /** Holds the default deadline in milliseconds for searches that do not specify one. */
+    private final long defaultTimeoutMillis;
+
+    /** Flag used to indicate that the executor was created by this searcher, and is shut down by it. */
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates an asynchronous searcher that runs searches on its own bounded pool of daemon threads.
+     *
+     * @param index                 The index to search.
+     * @param maxConcurrentSearches The maximum number of searches in progress at once.
+     * @param defaultTimeoutMillis  The default deadline in milliseconds, or {@link #NO_TIMEOUT} for none.
+     */
+    public AsyncIndexSearcher(Index<K, D, E> index, int maxConcurrentSearches, long defaultTimeoutMillis)
+    {
+        this(index, createBoundedExecutor(maxConcurrentSearches), maxConcurrentSearches, defaultTimeoutMillis, true);
+    }
+
+    /**
+     * Creates an asynchronous searcher that runs searches on a supplied executor. The executor is shared with its
+     * owner, so the number of searches this searcher will submit to it at once is still limited. The executor is not
+     * shut down by {@link #shutdown}, as it belongs to the caller.
+     *
+     * @param index                 The index to search.
+     * @param executor              The executor to run searches on.
+     * @param maxConcurrentSearches The maximum number of searches in progress at once.
+     * @param defaultTimeoutMillis  The default deadline in milliseconds, or {@link #NO_TIMEOUT} for none.
+     */
+    public AsyncIndexSearcher(Index<K, D, E> index, ExecutorService executor, int maxConcurrentSearches,
+        long defaultTimeoutMillis)
+    {
+        this(index, executor, maxConcurrentSearches, defaultTimeoutMillis, false);
+    }
+
+    /**
+     * Creates an asynchronous searcher that runs searches on an executor.
+     *
+     * @param index                 The index to search.
+     * @param executor              The executor to run searches on.
+     * @param maxConcurrentSearches The maximum number of searches in progress at once.
+     * @param defaultTimeoutMillis  The default deadline in milliseconds, or {@link #NO_TIMEOUT} for none.
+     * @param ownsExecutor          <tt>true</tt> if the executor was created by this searcher.
+     */
+    private AsyncIndexSearcher(Index<K, D, E> index, ExecutorService executor, int maxConcurrentSearches,
+        long defaultTimeoutMillis, boolean ownsExecutor)
+    {
+        if (maxConcurrentSearches < 1)
+        {
+            throw new IllegalArgumentException("The 'maxConcurrentSearches' parameter must be at least 1.");
+        }
+
+        this.index = index;
+        this.executor = executor;
+        this.maxConcurrentSearches = maxConcurrentSearches;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.permits = new Semaphore(maxConcurrentSearches);
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Submits a search to be run asynchronously, using the default deadline.
+     *
+     * @param  query The search string to match against.
+     *
+     * @return A future for the matching data records in order of relevance.
+     *
+     * @throws RejectedExecutionException If the maximum number of searches are already in progress.
+     */
+    public Future<Map<K, E>> search(String query) throws RejectedExecutionException
+    {
+        return search(query, defaultTimeoutMillis);
+    }
+
+    /**
+     * Submits a search to be run asynchronously, with a deadline measured from now.
+     *
+     * @param  query         The search string to match against.
+     * @param  timeoutMillis The deadline in milliseconds, or {@link #NO_TIMEOUT} for none.
+     *
+     * @return A future for the matching data records in order of relevance.
+     *
+     * @throws RejectedExecutionException If the maximum number of searches are already in progress.
+     */
+    public Future<Map<K, E>> search(final String query, long timeoutMillis) throws RejectedExecutionException
+    {
+        // Apply admission control, rejecting the search outright if the searcher is saturated.
+        if (!permits.tryAcquire())
+        {
+            throw new RejectedExecutionException("The maximum of " + maxConcurrentSearches +
+                " concurrent searches are already in progress.");
+        }
+
+        // Work out the absolute deadline now, so that any time spent waiting for a thread counts against it.
+        final long deadline =
+            (timeoutMillis < 0) ? SearchDeadline.NO_DEADLINE : SearchDeadline.deadlineAfter(timeoutMillis);
+
+        // Capture any transaction id on the calling thread to pass on to the worker thread.
+        final IndexTxId txId = IndexTxManager.getTxIdFromThread();
+
+        Callable<Map<K, E>> task =
+            new Callable<Map<K, E>>()
+            {
+                public Map<K, E> call()
+                {
+                    IndexTxId previousTxId = IndexTxManager.removeTxIdFromThread();
+
+                    try
+                    {
+                        IndexTxManager.assignTxIdToThread(txId);
+                        SearchDeadline.setDeadline(deadline);
+
+                        // Check the deadline once before starting, in case it expired whilst waiting for a thread.
+                        SearchDeadline.checkpoint();
+
+                        return index.search(query);
+                    }
+                    finally
+                    {
+                        SearchDeadline.clearDeadline();
+                        IndexTxManager.assignTxIdToThread(previousTxId);
+                    }
+                }
+            };
+
+        SearchTask searchTask = new SearchTask(task);
+
+        try
+        {
+            executor.execute(searchTask);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // The task never ran, so its permit must be given back here.
+            searchTask.releasePermit();
+            throw e;
+        }
+
+        return searchTask;
+    }
+
+    /**
+     * Reports how many more searches may be submitted before further searches are rejected.
+     *
+     * @return The number of searches that may be submitted before the searcher is saturated.
+     */
+    public int getAvailableSearches()
+    {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Shuts down the executor once all searches in progress complete, if it was created by this searcher. A caller
+     * supplied executor is left running, as it belongs to the caller.
+     */
+    public void shutdown()
+    {
+        if (ownsExecutor)
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates a fixed size thread pool to run searches on. The pool queue is never longer than the pool is large, as
+     * admission to it is limited by the semaphore on the searcher.
+     *
+     * @param  maxThreads The maximum number of threads in the pool.
+     *
+     * @return A fixed size thread pool executor.
+     */
+    private static ExecutorService createBoundedExecutor(int maxThreads)
+    {
+        return Executors.newFixedThreadPool(maxThreads, new SearchThreadFactory());
+    }
+
+    /**
+     * SearchTask is the future for a search. It gives back the permit of its search exactly once, when it completes. This
+     * happens even when the search is cancelled before it is run, in which case the executor never calls it.
+     */
+    private class SearchTask extends FutureTask<Map<K, E>>
+    {
+        /** Flag used to ensure that the permit is given back only once. */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Creates a search task to run a search.
+         *
+         * @param callable The search to run.
+         */
+        public SearchTask(Callable<Map<K, E>> callable)
+        {
+            super(callable);
+        }
+
+        /** Gives back the permit of this search, if it has not already been given back. */
+        public void releasePermit()
+        {
+            if (released.compareAndSet(false, true))
+            {
+                permits.release();
+            }
+        }
+
+        /** {@inheritDoc} */
+        protected void done()
+        {
+            releasePermit();
+        }
+    }
+
+    /** Creates daemon threads for running searches on, so that a searcher does not hold up JVM shutdown. */
+    private static class SearchThreadFactory implements ThreadFactory
+    {
+        /** Used to number the search threads. */
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        /**
+         * Creates a new daemon search thread.
+         *
+         * @param  runnable The work for the thread to run.
+         *
+         * @return A new daemon search thread.
+         */
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "index-search-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
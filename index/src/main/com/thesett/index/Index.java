@@ -15,6 +15,7 @@
  */
 package com.thesett.index;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -191,6 +192,17 @@ public interface Index<K, D, E>
      */
     Map<K, E> search(String query);
 
+    /**
+     * Performs a string matching query over the index, restricted to records whose numeric summary fields fall within
+     * all of the specified ranges. The query string is treated as for {@link #search(String)}.
+     *
+     * @param  query   The search string to match against.
+     * @param  filters The ranges that matching records must fall within, may be <tt>null</tt> or empty.
+     *
+     * @return A list of matching data records in order of relevance.
+     */
+    Map<K, E> search(String query, Collection<NumericRange> filters);
+
     /** Removes all records from the index to produce a completely empty index. */
     void clear();
 
@@ -25,9 +25,14 @@ import java.io.Serializable;
  * to be extracted as Strings and indexed and the name of a field on the summary record (E) that is used to extract the
  * records rating for search results ordering.
  *
+ * <p/>The {@link #IndexMapping(String[], String, String[])} method additionally accepts a list of numeric fields on the
+ * summary record (E), whose values are kept by the index so that searches can be restricted to ranges of them with
+ * {@link NumericRange} filters.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Record class, fields to extract and rating field.
+ * <tr><td> Record numeric summary fields to filter on.
  * </table></pre>
  *
  * @author Rupert Smith
@@ -40,6 +45,9 @@ public class IndexMapping implements Serializable
     /** Holds the name of the field to extract the rating from. */
     private final String ratingFieldName;
 
+    /** Holds the names of the numeric summary fields to keep for range filtering. */
+    private final String[] numericFieldNames;
+
     /**
      * Creates an index mapping for the specifeid class, the names of the fields that are to be extracted and indexed
      * and the name of the field that the indexed records rating is to be extracted from.
@@ -48,9 +56,24 @@ public class IndexMapping implements Serializable
      * @param ratingFieldName The name of the field to extract the rating from.
      */
     public IndexMapping(String[] fieldNames, String ratingFieldName)
+    {
+        this(fieldNames, ratingFieldName, new String[0]);
+    }
+
+    /**
+     * Creates an index mapping for the specifeid class, the names of the fields that are to be extracted and indexed,
+     * the name of the field that the indexed records rating is to be extracted from, and the names of the numeric
+     * fields of the summary record to keep for range filtering.
+     *
+     * @param fieldNames        The names of the fields to extract.
+     * @param ratingFieldName   The name of the field to extract the rating from.
+     * @param numericFieldNames The names of the numeric summary fields to keep for range filtering.
+     */
+    public IndexMapping(String[] fieldNames, String ratingFieldName, String[] numericFieldNames)
     {
         this.fieldNames = fieldNames;
         this.ratingFieldName = ratingFieldName;
+        this.numericFieldNames = numericFieldNames;
     }
 
     /**
@@ -72,4 +95,14 @@ public class IndexMapping implements Serializable
     {
         return ratingFieldName;
     }
+
+    /**
+     * Gets the names of the numeric summary fields to keep for range filtering.
+     *
+     * @return The names of the numeric summary fields, empty if there are none.
+     */
+    public String[] getNumericFieldNames()
+    {
+        return numericFieldNames;
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+import com.thesett.common.error.UserReadableRuntimeException;
+
+/**
+ * IndexSearchCancelledException represents the abandonment of a search part way through, either because its deadline
+ * expired or because the thread running it was interrupted.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Represent the cancellation of a search before it completed.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexSearchCancelledException extends UserReadableRuntimeException
+{
+    /**
+     * Creates the IndexSearchCancelledException.
+     *
+     * @param message        The exception message.
+     * @param userMessageKey A key to look up user readable messages with.
+     * @param userMessage    The user readable message or data string.
+     * @param cause          The wrapped exception underlying this one.
+     */
+    public IndexSearchCancelledException(String message, Throwable cause, String userMessageKey, String userMessage)
+    {
+        super(message, cause, userMessageKey, userMessage);
+    }
+}
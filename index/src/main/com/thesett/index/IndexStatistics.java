@@ -0,0 +1,82 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+/**
+ * IndexStatistics provides summary statistics about the terms held in an index. These allow a query planner to
+ * determine cheaply whether a query can match anything in an index, and in which order to evaluate its terms, without
+ * running the query.
+ *
+ * <p/>Terms are the normalized words that the index extracts from records, that is, lower case words with punctuation
+ * removed and stop words excluded.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Report the number of live records and distinct terms in the index.
+ * <tr><td> Report the number of live records containing a term.
+ * <tr><td> Report an upper bound on the rating of the records containing a term.
+ * <tr><td> Check whether a query could match any records in the index.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public interface IndexStatistics
+{
+    /**
+     * Gets the number of live records in the index.
+     *
+     * @return The number of live records in the index.
+     */
+    int getRecordCount();
+
+    /**
+     * Gets the number of distinct terms that live records are indexed against.
+     *
+     * @return The number of distinct terms that live records are indexed against.
+     */
+    int getTermCount();
+
+    /**
+     * Gets the number of live records indexed against a term.
+     *
+     * @param  term The term to get the document frequency of.
+     *
+     * @return The number of live records indexed against the term, zero if there are none.
+     */
+    int getDocumentFrequency(String term);
+
+    /**
+     * Gets an upper bound on the rating of the live records indexed against a term. The bound is exact until records
+     * containing the term are removed or have their ratings lowered, after which it may be higher than the actual
+     * maximum, until the index is cleared.
+     *
+     * @param  term The term to get the maximum rating of.
+     *
+     * @return An upper bound on the rating of the records indexed against the term, or <tt>Float.NEGATIVE_INFINITY</tt>
+     *         if there are none.
+     */
+    float getMaxRating(String term);
+
+    /**
+     * Checks whether a free text query could match any records in the index. This parses and expands the query in the
+     * same way as a search would, then checks that every query term, or at least one of its synonyms, is present.
+     *
+     * @param  query The free text query.
+     *
+     * @return <tt>false</tt> if the query definitely matches nothing, <tt>true</tt> if it may match something.
+     */
+    boolean mightMatch(String query);
+}
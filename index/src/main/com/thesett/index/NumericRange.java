@@ -0,0 +1,155 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+import java.io.Serializable;
+
+/**
+ * NumericRange is a range predicate over a numeric field of the summary records in an index, used to restrict a free
+ * text search to records whose field value falls within the range. The field must have been declared as a numeric
+ * field in the {@link IndexMapping} of the records. Records with no value for the field never match.
+ *
+ * <p/>Either bound may be open, and each bound may be inclusive or exclusive. Values are compared as doubles.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Name the numeric summary field to filter on.
+ * <tr><td> Test whether a field value lies within the range.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class NumericRange implements Serializable
+{
+    /** Holds the name of the numeric summary field to filter on. */
+    private final String fieldName;
+
+    /** Holds the lower bound, negative infinity if there is none. */
+    private final double min;
+
+    /** Holds the upper bound, positive infinity if there is none. */
+    private final double max;
+
+    /** Indicates whether the lower bound is inclusive. */
+    private final boolean minInclusive;
+
+    /** Indicates whether the upper bound is inclusive. */
+    private final boolean maxInclusive;
+
+    /**
+     * Creates a range over a numeric field.
+     *
+     * @param fieldName    The name of the numeric summary field to filter on.
+     * @param min          The lower bound, negative infinity if there is none.
+     * @param minInclusive Whether the lower bound is inclusive.
+     * @param max          The upper bound, positive infinity if there is none.
+     * @param maxInclusive Whether the upper bound is inclusive.
+     */
+    public NumericRange(String fieldName, double min, boolean minInclusive, double max, boolean maxInclusive)
+    {
+        if (fieldName == null)
+        {
+            throw new IllegalArgumentException("The field name must not be null.");
+        }
+
+        if (Double.isNaN(min) || Double.isNaN(max))
+        {
+            throw new IllegalArgumentException("The range bounds must not be NaN.");
+        }
+
+        this.fieldName = fieldName;
+        this.min = min;
+        this.minInclusive = minInclusive;
+        this.max = max;
+        this.maxInclusive = maxInclusive;
+    }
+
+    /**
+     * Creates an inclusive range over a numeric field.
+     *
+     * @param  fieldName The name of the numeric summary field to filter on.
+     * @param  min       The inclusive lower bound.
+     * @param  max       The inclusive upper bound.
+     *
+     * @return An inclusive range over the field.
+     */
+    public static NumericRange between(String fieldName, double min, double max)
+    {
+        return new NumericRange(fieldName, min, true, max, true);
+    }
+
+    /**
+     * Creates a range over a numeric field with an inclusive lower bound and no upper bound.
+     *
+     * @param  fieldName The name of the numeric summary field to filter on.
+     * @param  min       The inclusive lower bound.
+     *
+     * @return A range over the field with only a lower bound.
+     */
+    public static NumericRange atLeast(String fieldName, double min)
+    {
+        return new NumericRange(fieldName, min, true, Double.POSITIVE_INFINITY, true);
+    }
+
+    /**
+     * Creates a range over a numeric field with an inclusive upper bound and no lower bound.
+     *
+     * @param  fieldName The name of the numeric summary field to filter on.
+     * @param  max       The inclusive upper bound.
+     *
+     * @return A range over the field with only an upper bound.
+     */
+    public static NumericRange atMost(String fieldName, double max)
+    {
+        return new NumericRange(fieldName, Double.NEGATIVE_INFINITY, true, max, true);
+    }
+
+    /**
+     * Gets the name of the numeric summary field to filter on.
+     *
+     * @return The name of the numeric summary field to filter on.
+     */
+    public String getFieldName()
+    {
+        return fieldName;
+    }
+
+    /**
+     * Tests whether a field value lies within this range. A missing value, represented as NaN, never does.
+     *
+     * @param  value The field value to test.
+     *
+     * @return <tt>true</tt> if the value lies within this range.
+     */
+    public boolean matches(double value)
+    {
+        // NaN fails every comparison, so missing values drop out here without a separate check.
+        boolean aboveMin = minInclusive ? (value >= min) : (value > min);
+        boolean belowMax = maxInclusive ? (value <= max) : (value < max);
+
+        return aboveMin && belowMax;
+    }
+
+    /**
+     * Generates string representation for debugging.
+     *
+     * @return A string representation for debugging
+     */
+    public String toString()
+    {
+        return fieldName + " in " + (minInclusive ? "[" : "(") + min + ", " + max + (maxInclusive ? "]" : ")");
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+/**
+ * SearchDeadline is a helper class for attaching a deadline to searches run on the current thread. In the same way
+ * that {@link com.thesett.index.tx.IndexTxManager} passes transaction ids to indexes as thread local variables, a
+ * deadline is passed as a thread local so that the {@link Index#search} method does not need to be polluted with extra
+ * parameters.
+ *
+ * <p/>Index implementations call {@link #checkpoint} at convenient points during a search, for example once per query
+ * term within the loop that intersects the results for each term. If the deadline on the current thread has expired,
+ * or the current thread has been interrupted, the checkpoint raises an {@link IndexSearchCancelledException} and the
+ * search is abandoned. Searches run on threads with no deadline attached, or with {@link #NO_DEADLINE} attached, are
+ * only cancelled by interruption. Timeouts too long for their deadline to be compared safely on the
+ * {@link System#nanoTime} clock are treated as no deadline.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Attach and detach search deadlines on the current thread.
+ * <tr><td> Abandon searches that have passed their deadline or been interrupted.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class SearchDeadline
+{
+    /** Used to indicate that no deadline is attached to the current thread. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Defines the longest timeout in milliseconds that is turned into a deadline. Deadlines must lie less than half the
+     * range of the nano second clock from now to be compared with it without overflowing.
+     */
+    public static final long MAX_TIMEOUT_MILLIS = (Long.MAX_VALUE / 2) / 1000000L;
+
+    /** Provides thread local variable assignment of search deadlines, as absolute times in nanoseconds. */
+    private static final ThreadLocal<Long> threadLocalDeadline = new ThreadLocal<Long>();
+
+    /**
+     * Attaches a deadline to the current thread, a specified number of milliseconds from now.
+     *
+     * @param timeoutMillis The time in milliseconds from now after which searches on this thread should be abandoned.
+     */
+    public static void setTimeout(long timeoutMillis)
+    {
+        setDeadline(deadlineAfter(timeoutMillis));
+    }
+
+    /**
+     * Works out the absolute deadline a specified number of milliseconds from now. Negative timeouts give a deadline of
+     * now, and timeouts longer than {@link #MAX_TIMEOUT_MILLIS} give {@link #NO_DEADLINE}.
+     *
+     * @param  timeoutMillis The time in milliseconds from now.
+     *
+     * @return The absolute deadline in nanoseconds on the {@link System#nanoTime} clock, or {@link #NO_DEADLINE}.
+     */
+    public static long deadlineAfter(long timeoutMillis)
+    {
+        if (timeoutMillis > MAX_TIMEOUT_MILLIS)
+        {
+            return NO_DEADLINE;
+        }
+
+        return System.nanoTime() + (Math.max(timeoutMillis, 0L) * 1000000L);
+    }
+
+    /**
+     * Attaches a deadline to the current thread, as an absolute time in nanoseconds on the {@link System#nanoTime}
+     * clock.
+     *
+     * @param deadlineNanos The absolute time in nanoseconds after which searches on this thread should be abandoned.
+     */
+    public static void setDeadline(long deadlineNanos)
+    {
+        threadLocalDeadline.set(deadlineNanos);
+    }
+
+    /**
+     * Gets the deadline attached to the current thread.
+     *
+     * @return The deadline attached to the current thread, or {@link #NO_DEADLINE} if there is none.
+     */
+    public static long getDeadline()
+    {
+        Long deadline = threadLocalDeadline.get();
+
+        return (deadline == null) ? NO_DEADLINE : deadline;
+    }
+
+    /** Removes any deadline attached to the current thread. */
+    public static void clearDeadline()
+    {
+        threadLocalDeadline.remove();
+    }
+
+    /**
+     * Checks if a search running on the current thread should continue.
+     *
+     * @throws IndexSearchCancelledException If the current thread has been interrupted or its deadline has passed.
+     */
+    public static void checkpoint() throws IndexSearchCancelledException
+    {
+        if (Thread.currentThread().isInterrupted())
+        {
+            throw new IndexSearchCancelledException("The search was interrupted.", null, null, null);
+        }
+
+        Long deadline = threadLocalDeadline.get();
+
+        if ((deadline != null) && (deadline != NO_DEADLINE) && ((System.nanoTime() - deadline) > 0))
+        {
+            throw new IndexSearchCancelledException("The search deadline expired.", null, null, null);
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.thesett.index;
 
+import java.io.Serializable;
+
 /**
  * An example record to unit test indexes against.
  *
@@ -107,9 +109,9 @@ public class TestRecord
     }
 
     /**
-     * Describes the summary recrod that will be stored in the index.
+     * Describes the summary recrod that will be stored in the index. It is serializable so that it can be replicated.
      */
-    public static class TestRecordSummary
+    public static class TestRecordSummary implements Serializable
     {
         /** The title. */
         public String title;
@@ -15,9 +15,13 @@
  */
 package com.thesett.index.config;
 
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -40,7 +44,10 @@ import com.thesett.common.util.StringUtils;
 import com.thesett.index.IndexMapping;
 import com.thesett.index.IndexSetup;
 import com.thesett.index.IndexStore;
+import com.thesett.index.prototype.ProtoIndex;
 import com.thesett.index.prototype.ProtoIndexStore;
+import com.thesett.index.replication.IndexReplicationFollower;
+import com.thesett.index.replication.IndexReplicationLeader;
 import com.thesett.index.setup.FieldType;
 import com.thesett.index.setup.IndexConfigurationType;
 import com.thesett.index.setup.IndexConfigurations;
@@ -56,10 +63,17 @@ import com.thesett.index.setup.SynonymsType;
  * file specifies the stop-words, synonyms and type mappings for a set of indexes that are made available in the index
  * store.
  *
+ * <p/>The index store may optionally be replicated between nodes. When the replication role is set to 'leader', every
+ * configured index is streamed to followers that connect to the replication port. When it is set to 'follower', every
+ * configured index is kept up to date from the leader at the replication host and port, and is read only. The leader
+ * and its followers authenticate each other with a shared replication secret, which must be set in either role.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Report succesfull configuration of the index store.
  * <tr><td> Perform configuration of the index store from a parsed configuration file.
+ * <tr><td> Start replication of the index store as a leader or follower.
+ *     <td> {@link IndexReplicationLeader}, {@link IndexReplicationFollower}
  * </table></pre>
  *
  * @author Rupert Smith
@@ -75,12 +89,45 @@ public class IndexStoreConfigBean implements ConfigBean, Serializable
     /** Defines the default resource to use to configure the index. */
     private static final String RESOURCE_NAME = "index-store.xml";
 
+    /** Defines the replication role that streams the index store to followers. */
+    public static final String LEADER_ROLE = "leader";
+
+    /** Defines the replication role that keeps the index store up to date from a leader. */
+    public static final String FOLLOWER_ROLE = "follower";
+
+    /** Defines the maximum number of replication messages that may be queued for a single follower. */
+    private static final int MAX_PENDING_REPLICATION_MESSAGES = 10000;
+
+    /** Defines the delay between attempts by a follower to connect to its leader, in milliseconds. */
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
     /** Holds resource name to use to configure the service locators. */
     private String resourceName = RESOURCE_NAME;
 
     /** Holds the index store that this bean configures. */
     private IndexStore indexStore;
 
+    /** Holds the replication role of the index store, <tt>null</tt> if it is not replicated. */
+    private String replicationRole;
+
+    /** Holds the host name of the replication leader, used by followers only. */
+    private String replicationHost = "localhost";
+
+    /** Holds the port that the replication leader accepts followers on. */
+    private int replicationPort;
+
+    /** Holds the interval between periodic snapshots sent by a leader, in milliseconds, zero to disable them. */
+    private long snapshotInterval;
+
+    /** Holds the shared secret that the replication leader and its followers authenticate each other with. */
+    private String replicationSecret;
+
+    /** Holds the replication leader, when in the leader role. */
+    private transient IndexReplicationLeader replicationLeader;
+
+    /** Holds the replication follower, when in the follower role. */
+    private transient IndexReplicationFollower replicationFollower;
+
     /** Flag to represent configuration status of this configure bean. */
     private final boolean configured = false;
 
@@ -195,11 +242,18 @@ public class IndexStoreConfigBean implements ConfigBean, Serializable
         // Create the index store.
         indexStore = new ProtoIndexStore();
 
+        // Used to hold the names and key classes of all the configured indexes, for replication.
+        Collection<String> indexNames = new ArrayList<String>();
+        Collection<Class> keyClasses = new ArrayList<Class>();
+
         // Loop through all the index configurations adding each one to the index store
         for (IndexConfigurationType nextIndexConfig : indexConfigurations.getIndexConfiguration())
         {
             // Get the index name and create a new index (a proto index, different implementations to be added).
             String indexName = nextIndexConfig.getName();
+            indexNames.add(indexName);
+            keyClasses.add(ReflectionUtils.forName(nextIndexConfig.getKeyBaseClass().getName()));
+
             IndexSetup indexSetup = indexStore.getNamedIndexSetup(indexName);
             //TransactionalIndex index = indexStore.getNamedIndex(indexName);
 
@@ -222,6 +276,16 @@ public class IndexStoreConfigBean implements ConfigBean, Serializable
                 // Get the mapped ratings field.
                 String ratingsField = nextMapping.getSummaryClass().getRatingField().getName();
 
+                // Get the mapped numeric summary fields, if any.
+                String[] numericFieldNames = new String[nextMapping.getSummaryClass().getNumericField().size()];
+
+                i = 0;
+
+                for (FieldType nextField : nextMapping.getSummaryClass().getNumericField())
+                {
+                    numericFieldNames[i++] = nextField.getName();
+                }
+
                 // Get the record class and the summary class.
                 Class recordClass;
                 Class summaryClass;
@@ -241,7 +305,7 @@ public class IndexStoreConfigBean implements ConfigBean, Serializable
                 }
 
                 // Build the mapping object for these classes.
-                IndexMapping mapping = new IndexMapping(fieldNames, ratingsField);
+                IndexMapping mapping = new IndexMapping(fieldNames, ratingsField, numericFieldNames);
 
                 // Add the mapping to the index.
                 indexSetup.addMapping(recordClass, summaryClass, mapping);
@@ -258,6 +322,9 @@ public class IndexStoreConfigBean implements ConfigBean, Serializable
             // Get all the synonyms and add them to the index.
             // Also add any referenced to level synonyms.
         }
+
+        // Start replicating the configured indexes, if a replication role has been set.
+        startReplication(indexNames, keyClasses);
     }
 
     /**
@@ -300,6 +367,221 @@ public class IndexStoreConfigBean implements ConfigBean, Serializable
         return indexStore;
     }
 
+    /**
+     * Gets the replication role of the index store.
+     *
+     * @return The replication role of the index store, <tt>null</tt> if it is not replicated.
+     */
+    public String getReplicationRole()
+    {
+        return replicationRole;
+    }
+
+    /**
+     * Sets the replication role of the index store, either {@link #LEADER_ROLE} or {@link #FOLLOWER_ROLE}.
+     *
+     * @param replicationRole The replication role of the index store, <tt>null</tt> if it is not replicated.
+     */
+    public void setReplicationRole(String replicationRole)
+    {
+        this.replicationRole = replicationRole;
+    }
+
+    /**
+     * Gets the host name of the replication leader.
+     *
+     * @return The host name of the replication leader.
+     */
+    public String getReplicationHost()
+    {
+        return replicationHost;
+    }
+
+    /**
+     * Sets the host name of the replication leader, used by followers only.
+     *
+     * @param replicationHost The host name of the replication leader.
+     */
+    public void setReplicationHost(String replicationHost)
+    {
+        this.replicationHost = replicationHost;
+    }
+
+    /**
+     * Gets the port that the replication leader accepts followers on.
+     *
+     * @return The port that the replication leader accepts followers on.
+     */
+    public int getReplicationPort()
+    {
+        return replicationPort;
+    }
+
+    /**
+     * Sets the port that the replication leader accepts followers on.
+     *
+     * @param replicationPort The port that the replication leader accepts followers on.
+     */
+    public void setReplicationPort(int replicationPort)
+    {
+        this.replicationPort = replicationPort;
+    }
+
+    /**
+     * Gets the interval between periodic snapshots sent by a leader.
+     *
+     * @return The interval between periodic snapshots sent by a leader, in milliseconds.
+     */
+    public long getSnapshotInterval()
+    {
+        return snapshotInterval;
+    }
+
+    /**
+     * Sets the interval between periodic snapshots sent by a leader.
+     *
+     * @param snapshotInterval The interval between periodic snapshots sent by a leader, in milliseconds, zero to
+     *                         disable them.
+     */
+    public void setSnapshotInterval(long snapshotInterval)
+    {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Gets the shared secret that the replication leader and its followers authenticate each other with.
+     *
+     * @return The shared replication secret.
+     */
+    public String getReplicationSecret()
+    {
+        return replicationSecret;
+    }
+
+    /**
+     * Sets the shared secret that the replication leader and its followers authenticate each other with. It must be at
+     * least {@link IndexReplicationLeader#MIN_SECRET_LENGTH} bytes long, and must be the same on every node.
+     *
+     * @param replicationSecret The shared replication secret.
+     */
+    public void setReplicationSecret(String replicationSecret)
+    {
+        this.replicationSecret = replicationSecret;
+    }
+
+    /**
+     * Starts replicating the named indexes as a leader or follower, depending on the replication role. Any replication
+     * started by an earlier configuration is stopped first. Nothing is done if no replication role is set.
+     *
+     * @param  indexNames The names of the indexes to replicate.
+     * @param  keyClasses The key classes of the indexes to replicate, which followers must accept.
+     *
+     * @throws ConfigException If the replication role is not recognized, the replication secret is missing or too
+     *                         short, or the leaders server socket cannot be opened.
+     */
+    protected void startReplication(Collection<String> indexNames, Collection<Class> keyClasses)
+        throws ConfigException
+    {
+        if (replicationLeader != null)
+        {
+            replicationLeader.stop();
+            replicationLeader = null;
+        }
+
+        if (replicationFollower != null)
+        {
+            replicationFollower.stop();
+            replicationFollower = null;
+        }
+
+        if ((replicationRole == null) || "".equals(replicationRole))
+        {
+            return;
+        }
+
+        if (LEADER_ROLE.equals(replicationRole))
+        {
+            byte[] secret = getReplicationSecretBytes();
+
+            try
+            {
+                replicationLeader =
+                    new IndexReplicationLeader(new ServerSocket(replicationPort), secret,
+                        MAX_PENDING_REPLICATION_MESSAGES, snapshotInterval);
+            }
+            catch (IOException e)
+            {
+                throw new ConfigException("The replication port, " + replicationPort + ", cannot be opened.", e, null,
+                    null);
+            }
+
+            for (String indexName : indexNames)
+            {
+                replicationLeader.replicate(indexName, (ProtoIndex) indexStore.getNamedIndex(indexName));
+            }
+
+            replicationLeader.start();
+        }
+        else if (FOLLOWER_ROLE.equals(replicationRole))
+        {
+            byte[] secret = getReplicationSecretBytes();
+
+            replicationFollower =
+                new IndexReplicationFollower(replicationHost, replicationPort, secret, RECONNECT_DELAY_MILLIS);
+
+            for (Class keyClass : keyClasses)
+            {
+                replicationFollower.allowClass(keyClass);
+            }
+
+            for (String indexName : indexNames)
+            {
+                replicationFollower.replicate(indexName, (ProtoIndex) indexStore.getNamedIndex(indexName));
+            }
+
+            replicationFollower.start();
+        }
+        else
+        {
+            throw new ConfigException("The replication role, " + replicationRole + ", is not recognized. It must be " +
+                LEADER_ROLE + " or " + FOLLOWER_ROLE + ".", null, null, null);
+        }
+    }
+
+    /**
+     * Gets the replication secret as bytes, checking that it is long enough.
+     *
+     * @return The replication secret as bytes.
+     *
+     * @throws ConfigException If the replication secret is missing or too short.
+     */
+    private byte[] getReplicationSecretBytes() throws ConfigException
+    {
+        byte[] secret = null;
+
+        if (replicationSecret != null)
+        {
+            try
+            {
+                secret = replicationSecret.getBytes("UTF-8");
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                // UTF-8 is always supported.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        if ((secret == null) || (secret.length < IndexReplicationLeader.MIN_SECRET_LENGTH))
+        {
+            throw new ConfigException("A replication secret of at least " + IndexReplicationLeader.MIN_SECRET_LENGTH +
+                " bytes must be set to run the index store as a replication " + replicationRole + ".", null, null,
+                null);
+        }
+
+        return secret;
+    }
+
     /**
      * Validates the index configurations, returning any error messages in a string.
      *
@@ -17,6 +17,7 @@ package com.thesett.index.prototype;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,8 +38,14 @@ import com.thesett.common.util.ReflectionUtils;
 import com.thesett.index.IndexMapping;
 import com.thesett.index.IndexMappingException;
 import com.thesett.index.IndexSetup;
+import com.thesett.index.IndexStatistics;
 import com.thesett.index.IndexUnknownKeyException;
+import com.thesett.index.NumericRange;
+import com.thesett.index.SearchDeadline;
 import com.thesett.index.TransactionalIndex;
+import com.thesett.index.replication.IndexAlteration;
+import com.thesett.index.replication.IndexAlterationListener;
+import com.thesett.index.replication.IndexSnapshot;
 import com.thesett.index.tx.IndexTxId;
 import com.thesett.index.tx.IndexTxManager;
 
@@ -58,6 +65,21 @@ import com.thesett.index.tx.IndexTxManager;
  * prevented by not requiring read locks to be mutually exclusive. Write deadlocks are prevented by having a single
  * write lock, effectively forcing the locking of all needed resources in a single step.
  *
+ * <p/>Every committed record alteration is numbered and may be published to an {@link IndexAlterationListener}, and a
+ * consistent snapshot of the index may be taken at any point in that sequence. Together these allow the index to be
+ * replicated onto follower indexes, which apply the snapshots and alterations to serve read only searches. Alterations
+ * are applied, numbered and published whilst holding the monitor on the index, so that they are seen in commit order.
+ * A follower index may be made read only, in which case it rejects local changes and only accepts replicated ones.
+ *
+ * <p/>The index keeps a document frequency and maximum rating for every term. Searches use the document frequencies
+ * to evaluate the rarest query terms first, and stop as soon as the intersection of the results becomes empty, or
+ * straight away if any query term matches no records at all.
+ *
+ * <p/>The values of the numeric summary fields named in the index mappings are held in columns of primitive doubles,
+ * one column per field, indexed by a dense document id assigned to each live record. Document ids of removed records
+ * are re-used. Range filters on searches are tested against these columns as each term is looked up, so records
+ * outside of the ranges never enter the intermediate results.
+ *
  * <pre><p/><table id="crc"><caption>CRC Card</caption>
  * <tr><th> Responsibilities <th> Collaborations
  * <tr><td> Index objects by a subset of their fields for string matching.
@@ -67,11 +89,16 @@ import com.thesett.index.tx.IndexTxManager;
  * <tr><td> Accept list of stop words to exclude from indexing.
  * <tr><td> Accept index mappings to determine how to extract data from different record types.
  * <tr><td> Perform house keeping on the index.
+ * <tr><td> Publish committed alterations and take snapshots for replication. <td> {@link IndexAlterationListener}
+ * <tr><td> Apply replicated snapshots and alterations.
+ * <tr><td> Maintain term statistics, and use them to plan searches. <td> {@link IndexStatistics}
+ * <tr><td> Hold numeric summary field values for range filtering of searches. <td> {@link NumericRange}
  * </table></pre>
  *
  * @author Rupert Smith
  */
-public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSetup<D, E>, Serializable
+public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSetup<D, E>, IndexStatistics,
+    Serializable
 {
     /** Used for logging. */
     // private static final Logger log = Logger.getLogger(ProtoIndex.class);
@@ -94,6 +121,24 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
     /** Holds a mapping from the indexed record keys to the index record for quick look up by key. */
     private Map<K, IndexRecord> indexRecordsByKey = new HashMap<K, IndexRecord>();
 
+    /** Holds the statistics for every term that at least one live record is indexed against. */
+    private Map<String, TermStatistics> termStatistics = new HashMap<String, TermStatistics>();
+
+    /** Holds the numeric summary field values of the live records, one column per field, indexed by document id. */
+    private Map<String, double[]> docValues = new HashMap<String, double[]>();
+
+    /** Holds the length of every doc value column. */
+    private int docValuesCapacity;
+
+    /** Holds the next document id that has never been assigned to a record. */
+    private int nextDocId;
+
+    /** Holds a stack of the document ids released by removed records, for re-use. */
+    private int[] freeDocIds = new int[16];
+
+    /** Holds the number of document ids on the free stack. */
+    private int freeDocIdCount;
+
     /** Holds a invalidated records that are pending full removal from the index. */
     // private Collection<IndexRecord> invalidatedRecords = new ArrayList<IndexRecord>();
 
@@ -109,8 +154,17 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
     /** Holds the transaction id of the only transaction that is allowed to use the global write lock. */
     IndexTxId globalWriteLockTxId;
 
-    /** Holds the write-behind cache of changes made by transactions. */
-    private Map<IndexTxId, List<RecordAlteration>> txWrites = new HashMap<IndexTxId, List<RecordAlteration>>();
+    /** Holds the write-behind cache of changes made by transactions. All access to it is synchronized on it. */
+    private final Map<IndexTxId, List<RecordAlteration>> txWrites = new HashMap<IndexTxId, List<RecordAlteration>>();
+
+    /** Holds the sequence number of the last alteration committed to the index. */
+    private long alterationSequence;
+
+    /** Holds the listener to publish committed alterations to, if any. */
+    private transient IndexAlterationListener<K, E> alterationListener;
+
+    /** Flag used to indicate that the index is a read only replica, that may only be changed by replication. */
+    private volatile boolean readOnly;
 
     /** Creates a prototype index. */
     public ProtoIndex()
@@ -200,6 +254,9 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // log.debug("txId on current thread = " + IndexTxManager.getTxIdFromThread());
         // log.debug("isolationLevel = " + isolationLevel);
 
+        // Replicas may only be changed by replication.
+        checkWritable();
+
         // Check if in a higher transactional mode than none and capture the transaction id if so.
         IndexTxId txId = null;
 
@@ -225,19 +282,20 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // Convert the text to be indexed to a set-of-words. Term frequencies are not used in this implementation.
         Set<String> setOfWords = ParsingUtils.toSetOfWords(indexableText, stopWords);
 
-        // Get the new records rating.
+        // Get the new records rating and numeric field values.
         float rating = extractRating(indexEntry);
+        Map<String, Double> numericValues = extractNumericValues(indexEntry);
 
         // Add the record to the index straight away if not in transactional mode.
         if (isolationLevel.equals(IsolationLevel.None))
         {
-            addNewRecord(key, indexEntry, rating, setOfWords);
+            applyRecordAlteration(new AddRecord(key, indexEntry, rating, setOfWords, numericValues));
         }
 
         // Otherwise defer adding the record until transaction commit.
         else
         {
-            RecordAlteration cachedWriteOperation = new AddRecord(key, indexEntry, rating, setOfWords);
+            RecordAlteration cachedWriteOperation = new AddRecord(key, indexEntry, rating, setOfWords, numericValues);
             addCachedWriteOperation(txId, cachedWriteOperation);
         }
     }
@@ -258,6 +316,9 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // log.debug("txId on current thread = " + IndexTxManager.getTxIdFromThread());
         // log.debug("isolationLevel = " + isolationLevel);
 
+        // Replicas may only be changed by replication.
+        checkWritable();
+
         // Check if in a higher transactional mode than none and use write locking if so.
         if (isolationLevel.compareTo(IsolationLevel.None) > 0)
         {
@@ -296,6 +357,9 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // log.debug("txId on current thread = " + IndexTxManager.getTxIdFromThread());
         // log.debug("isolationLevel = " + isolationLevel);
 
+        // Replicas may only be changed by replication.
+        checkWritable();
+
         // Check if in a higher transactional mode than none and capture the transaction id if so.
         IndexTxId txId = null;
 
@@ -323,19 +387,20 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
             throw new IndexUnknownKeyException("The key, " + key + ", cannot be found in the index.", null, null, null);
         }
 
-        // Extract the rating to update.
+        // Extract the rating and numeric field values to update.
         float newRating = extractRating(indexEntry);
+        Map<String, Double> numericValues = extractNumericValues(indexEntry);
 
         // Update the record in the index straight away if not in transactional mode.
         if (isolationLevel.equals(IsolationLevel.None))
         {
-            updateRecord(key, indexEntry, newRating);
+            applyRecordAlteration(new UpdateRecord(key, indexEntry, newRating, numericValues));
         }
 
         // Otherwise defer updating the record until transaction commit.
         else
         {
-            RecordAlteration cachedWriteOperation = new UpdateRecord(key, indexEntry, newRating);
+            RecordAlteration cachedWriteOperation = new UpdateRecord(key, indexEntry, newRating, numericValues);
             addCachedWriteOperation(txId, cachedWriteOperation);
         }
     }
@@ -353,6 +418,9 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // log.debug("txId on current thread = " + IndexTxManager.getTxIdFromThread());
         // log.debug("isolationLevel = " + isolationLevel);
 
+        // Replicas may only be changed by replication.
+        checkWritable();
+
         // Check if in a higher transactional mode than none and capture the transaction id if so.
         IndexTxId txId = null;
 
@@ -383,7 +451,7 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // Remove the record from the index straight away if not in transactional mode.
         if (isolationLevel.equals(IsolationLevel.None))
         {
-            removeRecord(key);
+            applyRecordAlteration(new RemoveRecord(key));
         }
 
         // Otherwise defer removing the record until transaction commit.
@@ -401,6 +469,9 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // log.debug("txId on current thread = " + IndexTxManager.getTxIdFromThread());
         // log.debug("isolationLevel = " + isolationLevel);
 
+        // Replicas may only be changed by replication.
+        checkWritable();
+
         // Check if in a higher transactional mode than none and capture the transaction id if so.
         IndexTxId txId = null;
 
@@ -423,7 +494,7 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // Clear the index straight away if not in transactional mode.
         if (isolationLevel.equals(IsolationLevel.None))
         {
-            clearAllRecords();
+            applyRecordAlteration(new ClearAllRecords());
         }
 
         // Otherwise defer clearing the index until transaction commit time.
@@ -469,7 +540,22 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
      */
     public Map<K, E> search(String query)
     {
-        // log.debug("public Map<K, E> search(String query): called");
+        return search(query, null);
+    }
+
+    /**
+     * Performs a string matching query over the index, restricted to records whose numeric summary fields fall within
+     * all of the specified ranges. The ranges are tested against the doc value columns as the records matching the
+     * first, and rarest, query term are looked up, so records outside of them are never added to the results.
+     *
+     * @param  query   The search string to match against.
+     * @param  filters The ranges that matching records must fall within, may be <tt>null</tt> or empty.
+     *
+     * @return A list of matching data records in order of relevance.
+     */
+    public Map<K, E> search(String query, Collection<NumericRange> filters)
+    {
+        // log.debug("public Map<K, E> search(String query, Collection<NumericRange> filters): called");
         // log.debug("txId on current thread = " + IndexTxManager.getTxIdFromThread());
 
         // Check if in a higher transactional mode than none and capture the transaction id if so.
@@ -489,108 +575,173 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
             acquireGlobalReadLock(txId);
         }
 
-        // Tokenize the query into a set-of-words, dropping all punctuation and splitting on whitespace.
-        Set<String> setOfWords = ParsingUtils.toSetOfWords(query, stopWords);
+        // Use a try block so that the corresponding finally block guarantees release of the global read lock, even
+        // if the search is abandoned part way through.
+        try
+        {
+            // Tokenize the query into a set-of-words, dropping all punctuation and splitting on whitespace.
+            Set<String> setOfWords = ParsingUtils.toSetOfWords(query, stopWords);
 
-        // For each term in the query get the set of matching records and take the intersection of it with the full
-        // query result.
+            // Resolve the range filters onto the doc value columns that they test. A filter on a field that no record
+            // has ever had a value for cannot match anything.
+            NumericRange[] ranges = null;
+            double[][] columns = null;
 
-        // Used to build up the results in.
-        Collection<IndexRecord> result = new HashSet<IndexRecord>();
+            if ((filters != null) && !filters.isEmpty())
+            {
+                ranges = filters.toArray(new NumericRange[filters.size()]);
+                columns = new double[ranges.length][];
 
-        // Used to indicate the search on the first word is in progress. The first words results are added to the result
-        // set and subsequent words results take the intersection with it.
-        boolean firstPass = true;
+                for (int i = 0; i < ranges.length; i++)
+                {
+                    columns[i] = docValues.get(ranges[i].getFieldName());
 
-        // log.debug("result = " + result);
+                    if (columns[i] == null)
+                    {
+                        return new LinkedHashMap<K, E>();
+                    }
+                }
+            }
 
-        for (String word : setOfWords)
-        {
-            // log.debug("word = " + word);
+            // For each term in the query get the set of matching records and take the intersection of it with the full
+            // query result.
+
+            // Used to build up the results in.
+            Collection<IndexRecord> result = new HashSet<IndexRecord>();
+
+            // Used to indicate the search on the first word is in progress. The first words results are added to the
+            // result set and subsequent words results take the intersection with it.
+            boolean firstPass = true;
+
+            // log.debug("result = " + result);
 
-            Collection<IndexRecord> wordResult = new HashSet<IndexRecord>();
+            // Order the query terms so that the rarest are intersected first, keeping the intermediate results small.
+            // If any term matches no records, then nothing can match the whole query.
+            final Map<String, Integer> estimates = new HashMap<String, Integer>();
 
-            // Try to expand the query term using the synonym database.
-            if (synonyms.containsKey(word))
+            for (String word : setOfWords)
             {
-                // log.debug("Synonym matches found for: " + word);
+                int estimate = estimateMatches(word);
 
-                // Query all synonym terms and take the union of their lists of results as the result for the
-                // expanded term.
-                for (String synonym : synonyms.get(word))
+                if (estimate == 0)
                 {
-                    Set<IndexRecord> synonymResult = queryLiveRecords(synonym);
+                    return new LinkedHashMap<K, E>();
+                }
 
-                    // log.debug("synonymResult = " + synonymResult);
+                estimates.put(word, estimate);
+            }
 
-                    if (synonymResult != null)
+            List<String> orderedWords = new ArrayList<String>(setOfWords);
+            Collections.sort(orderedWords, new Comparator<String>()
+                {
+                    public int compare(String word1, String word2)
                     {
-                        wordResult.addAll(synonymResult);
+                        return estimates.get(word1).compareTo(estimates.get(word2));
                     }
-                }
-            }
+                });
 
-            // The word has no synonyms.
-            else
+            for (String word : orderedWords)
             {
-                Set<IndexRecord> tempResult = queryLiveRecords(word);
+                // log.debug("word = " + word);
+
+                // Abandon the search if its deadline has passed or it has been cancelled.
+                SearchDeadline.checkpoint();
+
+                Collection<IndexRecord> wordResult = new HashSet<IndexRecord>();
+
+                // Only the first words results need to be range filtered, as the intersection can only narrow them.
+                NumericRange[] wordRanges = firstPass ? ranges : null;
+
+                // Try to expand the query term using the synonym database.
+                if (synonyms.containsKey(word))
+                {
+                    // log.debug("Synonym matches found for: " + word);
+
+                    // Query all synonym terms and take the union of their lists of results as the result for the
+                    // expanded term.
+                    for (String synonym : synonyms.get(word))
+                    {
+                        Set<IndexRecord> synonymResult = queryLiveRecords(synonym, wordRanges, columns);
 
-                // log.debug("tempResult = " + tempResult);
+                        // log.debug("synonymResult = " + synonymResult);
 
-                if (tempResult != null)
+                        if (synonymResult != null)
+                        {
+                            wordResult.addAll(synonymResult);
+                        }
+                    }
+                }
+
+                // The word has no synonyms.
+                else
                 {
-                    wordResult.addAll(tempResult);
+                    Set<IndexRecord> tempResult = queryLiveRecords(word, wordRanges, columns);
+
+                    // log.debug("tempResult = " + tempResult);
+
+                    if (tempResult != null)
+                    {
+                        wordResult.addAll(tempResult);
+                    }
                 }
-            }
 
-            // log.debug("wordResult = " + wordResult);
+                // log.debug("wordResult = " + wordResult);
 
-            // If on the first word add all its results to the results set.
-            if (firstPass)
-            {
-                firstPass = false;
+                // If on the first word add all its results to the results set.
+                if (firstPass)
+                {
+                    firstPass = false;
 
-                result.addAll(wordResult);
-            }
+                    result.addAll(wordResult);
+                }
 
-            // If on a subsequent word take the intersection of its results with the results set built so far.
-            else
-            {
-                result.retainAll(wordResult);
-            }
+                // If on a subsequent word take the intersection of its results with the results set built so far.
+                else
+                {
+                    result.retainAll(wordResult);
+                }
 
-            // log.debug("result = " + result);
+                // Stop as soon as the intersection is empty, as no further terms can add to it.
+                if (result.isEmpty())
+                {
+                    break;
+                }
 
-            // If any invalidated records are uncovered whilst querying a term then remove them from indexing
-            // against the term.
-        }
+                // log.debug("result = " + result);
+
+                // If any invalidated records are uncovered whilst querying a term then remove them from indexing
+                // against the term.
+            }
 
-        // Sort the search results by their ratings.
-        List<IndexRecord> sortedResults = new ArrayList();
-        sortedResults.addAll(result);
-        Collections.sort(sortedResults, new RatingComparator());
+            // Sort the search results by their ratings.
+            List<IndexRecord> sortedResults = new ArrayList();
+            sortedResults.addAll(result);
+            Collections.sort(sortedResults, new RatingComparator());
 
-        // log.debug("sortedResults = " + sortedResults);
-        // log.debug("sortedResults.size() = " + sortedResults.size());
+            // log.debug("sortedResults = " + sortedResults);
+            // log.debug("sortedResults.size() = " + sortedResults.size());
 
-        // Turn the set of results into a map from keys to summary records (strip out the internal representation of
-        // them into a paired structure).
-        Map<K, E> searchResults = new LinkedHashMap<K, E>();
+            // Turn the set of results into a map from keys to summary records (strip out the internal representation
+            // of them into a paired structure).
+            Map<K, E> searchResults = new LinkedHashMap<K, E>();
 
-        for (IndexRecord record : sortedResults)
-        {
-            searchResults.put(record.key.key, record.summaryRecord);
+            for (IndexRecord record : sortedResults)
+            {
+                searchResults.put(record.key.key, record.summaryRecord);
+            }
+
+            return searchResults;
         }
 
         // Check if in a higher transactional more than read uncommitted and ensure the global read lock
         // acquired at the start of this operation gets released if so.
-        if (isolationLevel.compareTo(IsolationLevel.ReadUncommitted) > 0)
+        finally
         {
-            // Wait until the global write lock can be acquired by this transaction.
-            releaseGlobalReadLock();
+            if (isolationLevel.compareTo(IsolationLevel.ReadUncommitted) > 0)
+            {
+                releaseGlobalReadLock();
+            }
         }
-
-        return searchResults;
     }
 
     /**
@@ -643,26 +794,41 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
                 throw new IllegalStateException("Interrupted whilst waiting for global write lock.", e);
             }
 
-            // Check that this transaction has made changes to be committed.
-            List<RecordAlteration> alterations = txWrites.get(txId);
+            // Take the changes that this transaction has made, clearing them from the write-behind cache, under the
+            // same lock as additions to the cache are made.
+            List<RecordAlteration> alterations;
+
+            synchronized (txWrites)
+            {
+                alterations = txWrites.remove(txId);
+            }
 
+            // Check that this transaction has made changes to be committed.
             if (alterations != null)
             {
-                // Loop through all the writes that the transaction wants to apply to the index.
-                for (RecordAlteration nextAlteration : alterations)
+                // Hold the global lock exclusively whilst applying the writes, so that searches never see a
+                // partially committed transaction.
+                globalLock.writeLock().lock();
+
+                try
                 {
-                    // If a record is to be changed or deleted then require the individual write lock on it.
+                    // Loop through all the writes that the transaction wants to apply to the index.
+                    for (RecordAlteration nextAlteration : alterations)
+                    {
+                        // If a record is to be changed or deleted then require the individual write lock on it.
 
-                    // If a new record is being inserted then create it with the individual write lock on it.
+                        // If a new record is being inserted then create it with the individual write lock on it.
 
-                    // Apply the change and update the term index.
-                    nextAlteration.execute();
+                        // Apply the change and update the term index.
+                        applyRecordAlteration(nextAlteration);
 
-                    // Release the indiviudal record write lock.
+                        // Release the indiviudal record write lock.
+                    }
+                }
+                finally
+                {
+                    globalLock.writeLock().unlock();
                 }
-
-                // Clear the write behind cache for this transaction as its work has been completed.
-                txWrites.remove(txId);
             }
 
             // Release the global write lock.
@@ -697,10 +863,9 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
                 throw new IllegalStateException("Interrupted whilst waiting for global write lock.", e);
             }
 
-            // Check if the current transaction holds the global write lock on this index, otherwise nothing needs to
-            // be done.
+            // Discard all the changes that the transaction was going to make.
+            synchronized (txWrites)
             {
-                // Discard all the changes that the transaction was going to make.
                 txWrites.remove(txId);
             }
 
@@ -709,6 +874,226 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         }
     }
 
+    /**
+     * Sets the listener to publish committed alterations to. Only one listener is supported, setting a new one
+     * replaces any existing listener, and setting <tt>null</tt> stops publication.
+     *
+     * @param alterationListener The listener to publish committed alterations to.
+     */
+    public synchronized void setAlterationListener(IndexAlterationListener<K, E> alterationListener)
+    {
+        this.alterationListener = alterationListener;
+    }
+
+    /**
+     * Sets whether or not this index is a read only replica. A read only replica rejects local adds, updates, removes
+     * and clears with an {@link IllegalStateException}, so that it cannot silently diverge from the index it
+     * replicates. Replicated snapshots and alterations are still applied to it.
+     *
+     * @param readOnly <tt>true</tt> to make this index a read only replica.
+     */
+    public void setReadOnly(boolean readOnly)
+    {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Checks whether this index is a read only replica.
+     *
+     * @return <tt>true</tt> if this index is a read only replica.
+     */
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * Gets the classes of the summary records that this index has mappings for.
+     *
+     * @return The classes of the summary records that this index has mappings for.
+     */
+    public Collection<Class<? extends E>> getSummaryClasses()
+    {
+        return new ArrayList<Class<? extends E>>(summaryMappings.keySet());
+    }
+
+    /**
+     * Gets the sequence number of the last alteration committed to, or replicated onto, this index.
+     *
+     * @return The sequence number of the last alteration committed to, or replicated onto, this index.
+     */
+    public synchronized long getAlterationSequence()
+    {
+        return alterationSequence;
+    }
+
+    /**
+     * Takes a snapshot of all live records in the index, along with its stop words and synonyms. The snapshot is taken
+     * whilst holding the monitor on this index, which is the same monitor under which alterations are published, so a
+     * caller that synchronizes on this index around taking and sending a snapshot will see it ordered correctly with
+     * respect to the published alterations.
+     *
+     * @return A snapshot of all live records in the index.
+     */
+    public synchronized IndexSnapshot<K, E> takeSnapshot()
+    {
+        // Turn each live record into an add alteration for it.
+        List<IndexAlteration<K, E>> records = new ArrayList<IndexAlteration<K, E>>(indexRecordsByKey.size());
+
+        for (IndexRecord record : indexRecordsByKey.values())
+        {
+            records.add(new IndexAlteration<K, E>(alterationSequence, IndexAlteration.Type.Add, record.key.key,
+                    record.summaryRecord, record.rating, new HashSet<String>(record.terms),
+                    getDocValues(record.docId)));
+        }
+
+        return new IndexSnapshot<K, E>(alterationSequence, new HashSet<String>(stopWords),
+            new HashMap<String, Set<String>>(synonyms), records);
+    }
+
+    /**
+     * Replaces the entire contents of this index, including its stop words and synonyms, with a snapshot taken from
+     * another index. The global write lock is held whilst the snapshot is applied, so transactional searches will not
+     * see the index part way through being replaced. Snapshots are not published to the alteration listener.
+     *
+     * @param snapshot The snapshot to apply.
+     */
+    public void applySnapshot(IndexSnapshot<K, E> snapshot)
+    {
+        globalLock.writeLock().lock();
+
+        try
+        {
+            synchronized (this)
+            {
+                clearAllRecords();
+
+                stopWords = new HashSet<String>(snapshot.getStopWords());
+                synonyms = new HashMap<String, Set<String>>(snapshot.getSynonyms());
+
+                for (IndexAlteration<K, E> record : snapshot.getRecords())
+                {
+                    addNewRecord(record.getKey(), record.getIndexEntry(), record.getRating(), record.getTerms(),
+                        record.getNumericValues());
+                }
+
+                alterationSequence = snapshot.getSequence();
+            }
+        }
+        finally
+        {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an alteration replicated from another index. Alterations at or below the sequence number already
+     * reached by this index are ignored, as they are already included in the last snapshot applied. The global write
+     * lock is held whilst the alteration is applied, and replicated alterations are not published to the alteration
+     * listener.
+     *
+     * @param alteration The alteration to apply.
+     */
+    public void applyAlteration(IndexAlteration<K, E> alteration)
+    {
+        globalLock.writeLock().lock();
+
+        try
+        {
+            synchronized (this)
+            {
+                if (alteration.getSequence() <= alterationSequence)
+                {
+                    return;
+                }
+
+                K key = alteration.getKey();
+
+                switch (alteration.getType())
+                {
+                case Add:
+                    addNewRecord(key, alteration.getIndexEntry(), alteration.getRating(), alteration.getTerms(),
+                        alteration.getNumericValues());
+                    break;
+
+                case Update:
+
+                    if (indexRecordsByKey.containsKey(key))
+                    {
+                        updateRecord(key, alteration.getIndexEntry(), alteration.getRating(),
+                            alteration.getNumericValues());
+                    }
+
+                    break;
+
+                case Remove:
+
+                    if (indexRecordsByKey.containsKey(key))
+                    {
+                        removeRecord(key);
+                    }
+
+                    break;
+
+                case Clear:
+                    clearAllRecords();
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown alteration type, " + alteration.getType() + ".");
+                }
+
+                alterationSequence = alteration.getSequence();
+            }
+        }
+        finally
+        {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getRecordCount()
+    {
+        return indexRecordsByKey.size();
+    }
+
+    /** {@inheritDoc} */
+    public int getTermCount()
+    {
+        return termStatistics.size();
+    }
+
+    /** {@inheritDoc} */
+    public int getDocumentFrequency(String term)
+    {
+        TermStatistics statistics = termStatistics.get(term);
+
+        return (statistics == null) ? 0 : statistics.documentFrequency;
+    }
+
+    /** {@inheritDoc} */
+    public float getMaxRating(String term)
+    {
+        TermStatistics statistics = termStatistics.get(term);
+
+        return (statistics == null) ? Float.NEGATIVE_INFINITY : statistics.maxRating;
+    }
+
+    /** {@inheritDoc} */
+    public boolean mightMatch(String query)
+    {
+        for (String word : ParsingUtils.toSetOfWords(query, stopWords))
+        {
+            if (estimateMatches(word) == 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /** Releases the global write lock from being assigned to a transaction. */
     public void releaseGlobalWriteLock()
     {
@@ -740,35 +1125,79 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
     }
 
     /**
-     * Adds a record alteration entry to the transactional write-behind cache for the specified transaction.
+     * Checks that this index may be changed locally.
+     *
+     * @throws IllegalStateException If this index is a read only replica.
+     */
+    private void checkWritable()
+    {
+        if (readOnly)
+        {
+            throw new IllegalStateException(
+                "This index is a read only replica, it may only be changed by replication.");
+        }
+    }
+
+    /**
+     * Adds a record alteration entry to the transactional write-behind cache for the specified transaction. Several
+     * threads may work within the same transaction, so all access to the cache is synchronized on it.
      *
      * @param txId                 The transaction id to store the operation against.
      * @param cachedWriteOperation The write operation to store.
      */
     private void addCachedWriteOperation(IndexTxId txId, RecordAlteration cachedWriteOperation)
     {
-        List<RecordAlteration> writeCache = txWrites.get(txId);
-
-        if (writeCache == null)
+        synchronized (txWrites)
         {
-            writeCache = new ArrayList<RecordAlteration>();
-            txWrites.put(txId, writeCache);
+            List<RecordAlteration> writeCache = txWrites.get(txId);
+
+            if (writeCache == null)
+            {
+                writeCache = new ArrayList<RecordAlteration>();
+                txWrites.put(txId, writeCache);
+            }
+
+            writeCache.add(cachedWriteOperation);
         }
+    }
 
-        writeCache.add(cachedWriteOperation);
+    /**
+     * Applies a record alteration to the index, assigns it the next number in the sequence of committed alterations,
+     * and publishes it to the alteration listener if there is one.
+     *
+     * @param alteration The record alteration to apply.
+     */
+    private synchronized void applyRecordAlteration(RecordAlteration alteration)
+    {
+        alteration.execute();
+        alterationSequence++;
+
+        if (alterationListener != null)
+        {
+            alterationListener.alterationApplied(alteration.toIndexAlteration(alterationSequence));
+        }
     }
 
     /**
      * Adds a new record to the index.
      *
-     * @param key        The new records key.
-     * @param indexEntry The new summary record.
-     * @param rating     The new records rating.
-     * @param setOfWords The set of words to index the new entry against.
+     * @param key           The new records key.
+     * @param indexEntry    The new summary record.
+     * @param rating        The new records rating.
+     * @param setOfWords    The set of words to index the new entry against.
+     * @param numericValues The new records numeric field values.
      */
-    private void addNewRecord(K key, E indexEntry, float rating, Iterable<String> setOfWords)
+    private void addNewRecord(K key, E indexEntry, float rating, Set<String> setOfWords,
+        Map<String, Double> numericValues)
     {
-        // log.debug("private void addNewRecord(K key, E indexEntry, float rating, Set<String> setOfWords): called");
+        // log.debug("private void addNewRecord(K key, E indexEntry, float rating, Set<String> setOfWords, "
+        // + "Map<String, Double> numericValues): called");
+
+        // If a record already exists for the key then remove it first, so that its terms no longer match.
+        if (indexRecordsByKey.containsKey(key))
+        {
+            removeRecord(key);
+        }
 
         // Create a new invalidateable key for the new key to insert.
         InvalidateableKey<K> newKey = new InvalidateableKey<K>(key);
@@ -779,7 +1208,12 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         indexRecord.key = newKey;
         indexRecord.summaryRecord = indexEntry;
         indexRecord.rating = rating;
+        indexRecord.terms = setOfWords;
+        indexRecord.docId = allocateDocId();
         indexRecordsByKey.put(key, indexRecord);
+
+        // Store the records numeric field values in the doc value columns.
+        setDocValues(indexRecord.docId, numericValues);
         // log.debug("Put key, " + key + ", and summary record, " + indexRecord + ", in records by key.");
 
         // For each unique term extracted from the new record, store a reference to the key against that term.
@@ -803,6 +1237,18 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
             }
 
             resultsSet.add(newKey);
+
+            // Count the new record in the term statistics.
+            TermStatistics statistics = termStatistics.get(term);
+
+            if (statistics == null)
+            {
+                statistics = new TermStatistics();
+                termStatistics.put(term, statistics);
+            }
+
+            statistics.documentFrequency++;
+            statistics.maxRating = Math.max(statistics.maxRating, rating);
         }
     }
 
@@ -886,6 +1332,69 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         return rating;
     }
 
+    /**
+     * Extracts the numeric field values from the summary record, for all of the numeric field names specified for the
+     * mappings that match the summary record type. Fields that are null on the summary record are left out.
+     *
+     * @param  indexEntry The summary record to extract the numeric fields from.
+     *
+     * @return The summary records numeric field values by field name.
+     *
+     * @throws IndexMappingException If a numeric field does not exist on the summary record, or is not a number.
+     */
+    private Map<String, Double> extractNumericValues(E indexEntry) throws IndexMappingException
+    {
+        Map<String, Double> numericValues = new HashMap<String, Double>();
+
+        // Wrap the summary record in a bean memento to simplify access to its properties, but only if it has any
+        // numeric fields to extract.
+        Memento indexEntryMemento = null;
+
+        for (Class<? extends E> mappingClass : summaryMappings.keySet())
+        {
+            String[] numericFieldNames = summaryMappings.get(mappingClass).getNumericFieldNames();
+
+            if (mappingClass.isInstance(indexEntry) && (numericFieldNames.length > 0))
+            {
+                if (indexEntryMemento == null)
+                {
+                    indexEntryMemento = new BeanMemento(indexEntry);
+                    indexEntryMemento.capture();
+                }
+
+                for (String numericFieldName : numericFieldNames)
+                {
+                    Object numericValue = null;
+
+                    // Make sure that the numeric field exists on the summary record.
+                    try
+                    {
+                        numericValue = indexEntryMemento.get(null, numericFieldName);
+                    }
+                    catch (NoSuchFieldException e)
+                    {
+                        throw new IndexMappingException("The numeric field, " + numericFieldName +
+                            ", does not exist on the class, " + indexEntry.getClass() + ", of summary records.", e,
+                            null, null);
+                    }
+
+                    // Null fields are left out, as having no value. Anything else must be a number.
+                    if (numericValue instanceof Number)
+                    {
+                        numericValues.put(numericFieldName, ((Number) numericValue).doubleValue());
+                    }
+                    else if (numericValue != null)
+                    {
+                        throw new IndexMappingException("The numeric field, " + numericFieldName + ", is not a number.",
+                            null, null, null);
+                    }
+                }
+            }
+        }
+
+        return numericValues;
+    }
+
     /**
      * Extracts the mapped fields from a record and concatenates them together into a String.
      *
@@ -964,15 +1473,17 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
     }
 
     /**
-     * Updates a summary record and its rating.
+     * Updates a summary record, its rating and its numeric field values.
      *
-     * @param key        The records key.
-     * @param indexEntry The new summary record.
-     * @param newRating  The new record rating.
+     * @param key           The records key.
+     * @param indexEntry    The new summary record.
+     * @param newRating     The new record rating.
+     * @param numericValues The new records numeric field values.
      */
-    private void updateRecord(K key, E indexEntry, float newRating)
+    private void updateRecord(K key, E indexEntry, float newRating, Map<String, Double> numericValues)
     {
-        // log.debug("private void updateRecord(K key, E indexEntry, float newRating): called");
+        // log.debug("private void updateRecord(K key, E indexEntry, float newRating, "
+        // + "Map<String, Double> numericValues): called");
 
         // Look up the indexed record by its key and replace the summary record with the new one.
         IndexRecord indexRecord = indexRecordsByKey.get(key);
@@ -981,6 +1492,14 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         // Update the summary record and also the rating value in the indexed record.
         indexRecord.summaryRecord = indexEntry;
         indexRecord.rating = newRating;
+        setDocValues(indexRecord.docId, numericValues);
+
+        // Raise the maximum rating of the records terms, if the new rating is higher.
+        for (String term : indexRecord.terms)
+        {
+            TermStatistics statistics = termStatistics.get(term);
+            statistics.maxRating = Math.max(statistics.maxRating, newRating);
+        }
     }
 
     /**
@@ -997,6 +1516,20 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         IndexRecord indexRecord = indexRecordsByKey.remove(key);
         indexRecord.key.invalidated = true;
 
+        // Release the records document id for re-use, clearing its doc values.
+        releaseDocId(indexRecord.docId);
+
+        // Discount the record from the term statistics, dropping any terms that no longer match any records.
+        for (String term : indexRecord.terms)
+        {
+            TermStatistics statistics = termStatistics.get(term);
+
+            if (--statistics.documentFrequency == 0)
+            {
+                termStatistics.remove(term);
+            }
+        }
+
         // invalidatedRecords.add(indexRecord);
         // log.debug("Removed record, " + indexRecord + ", for key, " + key
         // + ", from records by key, invalidated it and added it to invalidated records.");
@@ -1009,6 +1542,11 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
 
         index.clear();
         indexRecordsByKey.clear();
+        termStatistics.clear();
+        docValues.clear();
+        docValuesCapacity = 0;
+        nextDocId = 0;
+        freeDocIdCount = 0;
         // invalidatedRecords.clear();
         // log.debug("Cleared records by key.");
     }
@@ -1017,14 +1555,18 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
      * Queries the index for a term. The index maps terms onto keys, and the keys matched must be looked up in the look
      * up map from keys to index records. If records have been deleted they will have been removed from the look up map,
      * so they are not returned by this method. Any dangling keys detected by this method are cleaned out of the index.
+     * Live records that fall outside of any of the range filters are not returned either.
      *
-     * @param  term The term to search for.
+     * @param  term    The term to search for.
+     * @param  ranges  The range filters to apply, <tt>null</tt> for none.
+     * @param  columns The doc value columns of the fields that the range filters test, in the same order.
      *
      * @return A set of matching index records.
      */
-    private Set<IndexRecord> queryLiveRecords(String term)
+    private Set<IndexRecord> queryLiveRecords(String term, NumericRange[] ranges, double[][] columns)
     {
-        // log.debug("private Set<IndexRecord> queryLiveRecords(String term): called");
+        // log.debug("private Set<IndexRecord> queryLiveRecords(String term, NumericRange[] ranges, "
+        // + "double[][] columns): called");
 
         Set<IndexRecord> results = new HashSet<IndexRecord>();
 
@@ -1047,9 +1589,13 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
                 }
                 else
                 {
-                    // Try to get a live record for the key.
+                    // Try to get a live record for the key, and keep it if it falls within the range filters.
                     IndexRecord record = indexRecordsByKey.get(key.key);
-                    results.add(record);
+
+                    if (matchesRanges(record.docId, ranges, columns))
+                    {
+                        results.add(record);
+                    }
                 }
             }
 
@@ -1061,6 +1607,167 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         return results;
     }
 
+    /**
+     * Checks if a record falls within all of a set of range filters.
+     *
+     * @param  docId   The document id of the record.
+     * @param  ranges  The range filters to apply, <tt>null</tt> for none.
+     * @param  columns The doc value columns of the fields that the range filters test, in the same order.
+     *
+     * @return <tt>true</tt> if the record falls within all of the ranges.
+     */
+    private boolean matchesRanges(int docId, NumericRange[] ranges, double[][] columns)
+    {
+        if (ranges != null)
+        {
+            for (int i = 0; i < ranges.length; i++)
+            {
+                if (!ranges[i].matches(columns[i][docId]))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Assigns a document id to a new record, re-using a released one if possible. The doc value columns are grown to
+     * hold the new document id if necessary.
+     *
+     * @return A free document id.
+     */
+    private int allocateDocId()
+    {
+        int docId = (freeDocIdCount > 0) ? freeDocIds[--freeDocIdCount] : nextDocId++;
+
+        if (docId >= docValuesCapacity)
+        {
+            int newCapacity = Math.max(16, docValuesCapacity * 2);
+
+            for (Map.Entry<String, double[]> entry : docValues.entrySet())
+            {
+                double[] column = entry.getValue();
+                double[] grownColumn = new double[newCapacity];
+
+                System.arraycopy(column, 0, grownColumn, 0, column.length);
+                Arrays.fill(grownColumn, column.length, newCapacity, Double.NaN);
+                entry.setValue(grownColumn);
+            }
+
+            docValuesCapacity = newCapacity;
+        }
+
+        return docId;
+    }
+
+    /**
+     * Releases the document id of a removed record for re-use, clearing its doc values.
+     *
+     * @param docId The document id to release.
+     */
+    private void releaseDocId(int docId)
+    {
+        for (double[] column : docValues.values())
+        {
+            column[docId] = Double.NaN;
+        }
+
+        if (freeDocIdCount == freeDocIds.length)
+        {
+            int[] grownFreeDocIds = new int[freeDocIds.length * 2];
+            System.arraycopy(freeDocIds, 0, grownFreeDocIds, 0, freeDocIdCount);
+            freeDocIds = grownFreeDocIds;
+        }
+
+        freeDocIds[freeDocIdCount++] = docId;
+    }
+
+    /**
+     * Replaces the doc values of a record. Fields with no value are held as NaN. A new column is created for any field
+     * that has not had a value before.
+     *
+     * @param docId         The document id of the record.
+     * @param numericValues The records numeric field values by field name, may be <tt>null</tt>.
+     */
+    private void setDocValues(int docId, Map<String, Double> numericValues)
+    {
+        for (double[] column : docValues.values())
+        {
+            column[docId] = Double.NaN;
+        }
+
+        if (numericValues != null)
+        {
+            for (Map.Entry<String, Double> entry : numericValues.entrySet())
+            {
+                double[] column = docValues.get(entry.getKey());
+
+                if (column == null)
+                {
+                    column = new double[docValuesCapacity];
+                    Arrays.fill(column, Double.NaN);
+                    docValues.put(entry.getKey(), column);
+                }
+
+                column[docId] = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Reads the doc values of a record back out of the doc value columns.
+     *
+     * @param  docId The document id of the record.
+     *
+     * @return The records numeric field values by field name.
+     */
+    private Map<String, Double> getDocValues(int docId)
+    {
+        Map<String, Double> numericValues = new HashMap<String, Double>();
+
+        for (Map.Entry<String, double[]> entry : docValues.entrySet())
+        {
+            double value = entry.getValue()[docId];
+
+            if (!Double.isNaN(value))
+            {
+                numericValues.put(entry.getKey(), value);
+            }
+        }
+
+        return numericValues;
+    }
+
+    /**
+     * Estimates the number of records that a query term will match, taking account of its synonym expansion. The
+     * estimate for a term with synonyms is the sum of the document frequencies of the synonyms, which is an upper
+     * bound, as records may contain more than one of them. A term with no synonyms is estimated exactly.
+     *
+     * @param  word The query term.
+     *
+     * @return An upper bound on the number of records that the term will match, zero only if it matches none.
+     */
+    private int estimateMatches(String word)
+    {
+        if (synonyms.containsKey(word))
+        {
+            int estimate = 0;
+
+            for (String synonym : synonyms.get(word))
+            {
+                estimate += getDocumentFrequency(synonym);
+            }
+
+            return estimate;
+        }
+        else
+        {
+            return getDocumentFrequency(word);
+        }
+    }
+
     /**
      * Waits until the global write lock can be acquired by the specified transaction.
      *
@@ -1203,6 +1910,12 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         /** Holds the record rating, extrcated for convenience from the summary record. */
         public float rating;
 
+        /** Holds the set of terms that the record is indexed against. */
+        public Set<String> terms;
+
+        /** Holds the document id of the record, locating its numeric field values in the doc value columns. */
+        public int docId;
+
         /** The write lock for this record that allows concurrent reads. */
         public ReadWriteLock writeLock = new ReentrantReadWriteLock();
 
@@ -1260,6 +1973,15 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
     {
         /** Applies the write-behind cached operation to the index. */
         public abstract void execute();
+
+        /**
+         * Describes the operation as an alteration that can be replicated onto another index.
+         *
+         * @param  sequence The sequence number assigned to the operation when it was applied.
+         *
+         * @return The operation as a replicable alteration.
+         */
+        public abstract IndexAlteration<K, E> toIndexAlteration(long sequence);
     }
 
     /**
@@ -1279,25 +2001,37 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         /** The new rating. */
         private float rating;
 
+        /** The new numeric field values. */
+        private Map<String, Double> numericValues;
+
         /**
          * Creates a cached write-behind entry for updating a record.
          *
-         * @param key        The key of the record to modify.
-         * @param indexEntry The new summary record.
-         * @param rating     The new records rating.
+         * @param key           The key of the record to modify.
+         * @param indexEntry    The new summary record.
+         * @param rating        The new records rating.
+         * @param numericValues The new records numeric field values.
          */
-        public UpdateRecord(K key, E indexEntry, float rating)
+        public UpdateRecord(K key, E indexEntry, float rating, Map<String, Double> numericValues)
         {
             this.key = key;
             this.indexEntry = indexEntry;
             this.rating = rating;
+            this.numericValues = numericValues;
         }
 
         /** Applies the cached write-behind operation to the index, updating the record. */
         public void execute()
         {
             // log.debug("public void execute(): called");
-            updateRecord(key, indexEntry, rating);
+            updateRecord(key, indexEntry, rating, numericValues);
+        }
+
+        /** {@inheritDoc} */
+        public IndexAlteration<K, E> toIndexAlteration(long sequence)
+        {
+            return new IndexAlteration<K, E>(sequence, IndexAlteration.Type.Update, key, indexEntry, rating, null,
+                    numericValues);
         }
     }
 
@@ -1328,6 +2062,12 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
             // log.debug("public void execute(): called");
             removeRecord(key);
         }
+
+        /** {@inheritDoc} */
+        public IndexAlteration<K, E> toIndexAlteration(long sequence)
+        {
+            return new IndexAlteration<K, E>(sequence, IndexAlteration.Type.Remove, key, null, 0.0f, null, null);
+        }
     }
 
     /**
@@ -1349,6 +2089,12 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
             // log.debug("public void execute(): called");
             clearAllRecords();
         }
+
+        /** {@inheritDoc} */
+        public IndexAlteration<K, E> toIndexAlteration(long sequence)
+        {
+            return new IndexAlteration<K, E>(sequence, IndexAlteration.Type.Clear, null, null, 0.0f, null, null);
+        }
     }
 
     /**
@@ -1371,30 +2117,54 @@ public class ProtoIndex<K, D, E> implements TransactionalIndex<K, D, E>, IndexSe
         /** The set of words to index the new record against. */
         Set<String> setOfWords;
 
+        /** The new records numeric field values. */
+        Map<String, Double> numericValues;
+
         /**
          * Creates a cached transaction write-behind operation to add a new record to the index.
          *
-         * @param key        The new records key.
-         * @param indexEntry The new summary record.
-         * @param rating     The new records rating.
-         * @param setOfWords The set of words to index the new record against.
+         * @param key           The new records key.
+         * @param indexEntry    The new summary record.
+         * @param rating        The new records rating.
+         * @param setOfWords    The set of words to index the new record against.
+         * @param numericValues The new records numeric field values.
          */
-        public AddRecord(K key, E indexEntry, float rating, Set<String> setOfWords)
+        public AddRecord(K key, E indexEntry, float rating, Set<String> setOfWords, Map<String, Double> numericValues)
         {
             this.key = key;
             this.indexEntry = indexEntry;
             this.rating = rating;
             this.setOfWords = setOfWords;
+            this.numericValues = numericValues;
         }
 
         /** Executes the cached transaction write-behind operation, adding a new record to the index. */
         public void execute()
         {
             // log.debug("public void execute(): called");
-            addNewRecord(key, indexEntry, rating, setOfWords);
+            addNewRecord(key, indexEntry, rating, setOfWords, numericValues);
+        }
+
+        /** {@inheritDoc} */
+        public IndexAlteration<K, E> toIndexAlteration(long sequence)
+        {
+            return new IndexAlteration<K, E>(sequence, IndexAlteration.Type.Add, key, indexEntry, rating, setOfWords,
+                    numericValues);
         }
     }
 
+    /**
+     * TermStatistics holds the number of live records indexed against a term, and an upper bound on their ratings.
+     */
+    private static class TermStatistics
+    {
+        /** The number of live records indexed against the term. */
+        int documentFrequency;
+
+        /** An upper bound on the ratings of the live records indexed against the term. */
+        float maxRating = Float.NEGATIVE_INFINITY;
+    }
+
     /**
      * This comparator is used to compare index records by their ratings to facilitate the ordering of search results by
      * their ratings.
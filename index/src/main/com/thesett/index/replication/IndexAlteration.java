@@ -0,0 +1,177 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * IndexAlteration is a record of a single committed change to an index. Alterations are numbered in the order in
+ * which they were applied to the index that produced them, so that a follower applying them in sequence order ends up
+ * holding the same records as the index they were taken from. An alteration carries the terms, rating and numeric
+ * field values that were extracted from the record when it was indexed, so a follower does not need the full record or
+ * its type mappings in order to apply it.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Describe a committed add, update, remove or clear of index records.
+ * <tr><td> Record the position of the change in the sequence of changes to an index.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexAlteration<K, E>
+{
+    /** Enumerates the kinds of alteration that can be made to an index. */
+    public enum Type
+    {
+        /** A new record was added, replacing any existing record with the same key. */
+        Add,
+
+        /** The summary record and rating of an existing record were changed, without re-indexing it. */
+        Update,
+
+        /** A record was removed. */
+        Remove,
+
+        /** All records were removed. */
+        Clear
+    }
+
+    /** Holds the position of this alteration in the sequence of alterations applied to its index. */
+    private final long sequence;
+
+    /** Holds the kind of alteration. */
+    private final Type type;
+
+    /** Holds the key of the altered record, <tt>null</tt> for a clear. */
+    private final K key;
+
+    /** Holds the summary record, for adds and updates only. */
+    private final E indexEntry;
+
+    /** Holds the records rating, for adds and updates only. */
+    private final float rating;
+
+    /** Holds the set of terms the record is indexed against, for adds only. */
+    private final Set<String> terms;
+
+    /** Holds the values of the records numeric summary fields, for adds and updates only. */
+    private final Map<String, Double> numericValues;
+
+    /**
+     * Creates a record of an alteration to an index.
+     *
+     * @param sequence      The position of the alteration in the sequence of alterations applied to its index.
+     * @param type          The kind of alteration.
+     * @param key           The key of the altered record, <tt>null</tt> for a clear.
+     * @param indexEntry    The summary record, for adds and updates only.
+     * @param rating        The records rating, for adds and updates only.
+     * @param terms         The set of terms the record is indexed against, for adds only.
+     * @param numericValues The values of the records numeric summary fields, for adds and updates only.
+     */
+    public IndexAlteration(long sequence, Type type, K key, E indexEntry, float rating, Set<String> terms,
+        Map<String, Double> numericValues)
+    {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.indexEntry = indexEntry;
+        this.rating = rating;
+        this.terms = terms;
+        this.numericValues = numericValues;
+    }
+
+    /**
+     * Gets the position of this alteration in the sequence of alterations applied to its index.
+     *
+     * @return The position of this alteration in the sequence of alterations applied to its index.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the kind of alteration.
+     *
+     * @return The kind of alteration.
+     */
+    public Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * Gets the key of the altered record.
+     *
+     * @return The key of the altered record, <tt>null</tt> for a clear.
+     */
+    public K getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Gets the summary record.
+     *
+     * @return The summary record, <tt>null</tt> for removes and clears.
+     */
+    public E getIndexEntry()
+    {
+        return indexEntry;
+    }
+
+    /**
+     * Gets the records rating.
+     *
+     * @return The records rating.
+     */
+    public float getRating()
+    {
+        return rating;
+    }
+
+    /**
+     * Gets the set of terms the record is indexed against.
+     *
+     * @return The set of terms the record is indexed against, <tt>null</tt> for anything other than an add.
+     */
+    public Set<String> getTerms()
+    {
+        return terms;
+    }
+
+    /**
+     * Gets the values of the records numeric summary fields.
+     *
+     * @return The values of the records numeric summary fields, <tt>null</tt> for removes and clears.
+     */
+    public Map<String, Double> getNumericValues()
+    {
+        return numericValues;
+    }
+
+    /**
+     * Generates string representation for debugging.
+     *
+     * @return A string representation for debugging
+     */
+    public String toString()
+    {
+        return "sequence: " + sequence + ", type: " + type + ", key: [" + key + "], rating: " + rating;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+/**
+ * IndexAlterationListener is notified of every alteration as it is committed to an index. Notifications are made in
+ * sequence order, from the thread applying the alteration and whilst the index holds its alteration monitor, so
+ * implementations must hand the alteration off quickly and must not call back into the index.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Accept notification of committed index alterations. <td> {@link IndexAlteration}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public interface IndexAlterationListener<K, E>
+{
+    /**
+     * Notifies the listener of an alteration that has just been committed to an index.
+     *
+     * @param alteration The committed alteration.
+     */
+    void alterationApplied(IndexAlteration<K, E> alteration);
+}
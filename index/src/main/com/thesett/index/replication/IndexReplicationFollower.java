@@ -0,0 +1,283 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.thesett.index.TransactionalIndex;
+import com.thesett.index.prototype.ProtoIndex;
+
+/**
+ * IndexReplicationFollower connects to an {@link IndexReplicationLeader} and applies the snapshots and alterations
+ * that it streams onto local copies of the leaders indexes, which may then be used to serve searches. The local indexes
+ * are put into read committed mode, so that searches are not run against an index whilst a snapshot or alteration is
+ * being applied to it. The local indexes are also made read only, so that local changes, which would be overwritten by
+ * the next snapshot from the leader and would make the follower diverge from the leader until then, are rejected.
+ *
+ * <p/>The leader must prove that it holds the shared replication secret before anything it sends is applied, and the
+ * follower proves the same to the leader. Keys and summary records are only deserialized as the summary record classes
+ * mapped by the local indexes, standard value types, or classes explicitly allowed with {@link #allowClass}. A message
+ * naming any other class is rejected, and the follower reconnects.
+ *
+ * <p/>If the connection to the leader is lost, or cannot be made, the follower keeps trying to reconnect after a
+ * delay, and continues to serve searches from the last state it received in the mean time. On reconnecting, the
+ * leader sends a fresh snapshot of each index.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Maintain an authenticated connection to the replication leader. <td> {@link ReplicationChannel}
+ * <tr><td> Restrict the classes that replicated records may be deserialized as. <td> {@link ReplicationClassFilter}
+ * <tr><td> Apply replicated snapshots and alterations to local indexes. <td> {@link ProtoIndex}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexReplicationFollower implements Runnable
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(IndexReplicationFollower.class);
+
+    /** Holds the host name of the leader. */
+    private final String host;
+
+    /** Holds the port that the leader accepts followers on. */
+    private final int port;
+
+    /** Holds the shared secret that the leader and followers authenticate each other with. */
+    private final byte[] secret;
+
+    /** Holds the classes that replicated keys and summary records may be deserialized as. */
+    private final ReplicationClassFilter classFilter = new ReplicationClassFilter();
+
+    /** Holds the delay between attempts to connect to the leader in milliseconds. */
+    private final long reconnectDelayMillis;
+
+    /** Holds the local indexes by name. */
+    private final Map<String, ProtoIndex> indexes = new ConcurrentHashMap<String, ProtoIndex>();
+
+    /** Holds the thread that receives messages from the leader. */
+    private Thread receiver;
+
+    /** Holds the socket currently connected to the leader, if any. */
+    private volatile Socket socket;
+
+    /** Flag used to indicate that the follower is running. */
+    private volatile boolean running;
+
+    /**
+     * Creates a follower of the replication leader on the specified host and port.
+     *
+     * @param host                 The host name of the leader.
+     * @param port                 The port that the leader accepts followers on.
+     * @param secret               The shared secret that the leader and followers authenticate each other with, at
+     *                             least {@link IndexReplicationLeader#MIN_SECRET_LENGTH} bytes long.
+     * @param reconnectDelayMillis The delay between attempts to connect to the leader in milliseconds.
+     */
+    public IndexReplicationFollower(String host, int port, byte[] secret, long reconnectDelayMillis)
+    {
+        if ((secret == null) || (secret.length < IndexReplicationLeader.MIN_SECRET_LENGTH))
+        {
+            throw new IllegalArgumentException("The replication secret must be at least " +
+                IndexReplicationLeader.MIN_SECRET_LENGTH + " bytes long.");
+        }
+
+        this.host = host;
+        this.port = port;
+        this.secret = secret.clone();
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    /**
+     * Adds a local index to receive the replicated contents of the leaders index with the same name. The index is put
+     * into read committed mode and made read only, and the summary record classes it has mappings for are allowed in
+     * replicated records. Snapshots and alterations for indexes with no local copy are ignored.
+     *
+     * @param indexName The name of the index on the leader.
+     * @param index     The local index to apply its contents to.
+     */
+    public void replicate(String indexName, ProtoIndex<?, ?, ?> index)
+    {
+        index.setTransactionalMode(TransactionalIndex.IsolationLevel.ReadCommitted);
+        index.setReadOnly(true);
+
+        for (Class<?> summaryClass : index.getSummaryClasses())
+        {
+            classFilter.allow(summaryClass);
+        }
+
+        indexes.put(indexName, index);
+    }
+
+    /**
+     * Allows a further class, such as a key class or the class of a summary record field, to be deserialized from
+     * replicated records. Summary record classes, boxed primitives, strings, big numbers and dates are allowed already.
+     *
+     * @param cls The class to allow.
+     */
+    public void allowClass(Class<?> cls)
+    {
+        classFilter.allow(cls);
+    }
+
+    /** Starts connecting to the leader and applying what it sends. */
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+
+        running = true;
+
+        receiver = new Thread(this, "index-replication-follower");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Disconnects from the leader and stops applying what it sends. The local indexes keep their contents, and are no
+     * longer read only.
+     */
+    public synchronized void stop()
+    {
+        running = false;
+
+        for (ProtoIndex index : indexes.values())
+        {
+            index.setReadOnly(false);
+        }
+
+        if (receiver != null)
+        {
+            receiver.interrupt();
+        }
+
+        closeSocket();
+    }
+
+    /**
+     * Checks whether the follower is currently connected to the leader.
+     *
+     * @return <tt>true</tt> if the follower is currently connected to the leader.
+     */
+    public boolean isConnected()
+    {
+        Socket current = socket;
+
+        return (current != null) && current.isConnected() && !current.isClosed();
+    }
+
+    /** Connects to the leader and applies what it sends, reconnecting after a delay whenever the connection fails. */
+    public void run()
+    {
+        while (running)
+        {
+            try
+            {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port));
+
+                ReplicationChannel channel = ReplicationChannel.connectToLeader(socket, secret);
+
+                log.info("Connected to the replication leader at " + host + ":" + port + ".");
+
+                while (running)
+                {
+                    apply(channel.readMessage(classFilter));
+                }
+            }
+            catch (IOException e)
+            {
+                if (running)
+                {
+                    log.warn("Lost or failed to make the connection to the replication leader at " + host + ":" +
+                        port + ".", e);
+                }
+            }
+            catch (ClassNotFoundException e)
+            {
+                log.warn("Received a replication message for a class that is not available locally.", e);
+            }
+            finally
+            {
+                closeSocket();
+            }
+
+            if (running)
+            {
+                try
+                {
+                    Thread.sleep(reconnectDelayMillis);
+                }
+                catch (InterruptedException e)
+                {
+                    // Interruption is used to stop this thread, so restore the flag and drop out of the loop.
+                    Thread.currentThread().interrupt();
+
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a snapshot or alteration to the local copy of the index that it is addressed to.
+     *
+     * @param message The message to apply.
+     */
+    private void apply(ReplicationMessage message)
+    {
+        ProtoIndex index = indexes.get(message.getIndexName());
+
+        if (index == null)
+        {
+            return;
+        }
+
+        if (message.getSnapshot() != null)
+        {
+            index.applySnapshot(message.getSnapshot());
+        }
+        else
+        {
+            index.applyAlteration(message.getAlteration());
+        }
+    }
+
+    /** Closes the socket to the leader, if there is one. */
+    private void closeSocket()
+    {
+        Socket current = socket;
+
+        if (current != null)
+        {
+            try
+            {
+                current.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("Failed to close the replication socket.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import com.thesett.index.prototype.ProtoIndex;
+
+/**
+ * IndexReplicationLeader streams the committed alterations of a set of named indexes to follower nodes, so that the
+ * followers can serve searches without each one building its own index from the database. Followers connect to the
+ * leaders server socket. Upon connecting, a follower is sent a snapshot of every replicated index, followed by each
+ * alteration as it is committed. Fresh snapshots may also be sent to all followers periodically, or on demand, to bring
+ * them back to a known state.
+ *
+ * <p/>Followers must authenticate themselves with the shared replication secret, and the leader authenticates itself
+ * to them in return, before anything is sent. Messages are sent over an authenticated {@link ReplicationChannel}.
+ *
+ * <p/>Each follower connection has a bounded queue of pending messages and its own sending thread, so that a slow
+ * follower never holds up commits to the leaders indexes. A follower that falls so far behind that its queue
+ * overflows is disconnected. It will catch up again from a fresh snapshot when it reconnects.
+ *
+ * <p/>Snapshots and alterations for an index are queued whilst holding the monitor on that index, which is also the
+ * monitor under which its alterations are published. This ensures that a follower never sees an alteration that is
+ * already included in a snapshot ahead of that snapshot, and so never loses an alteration to an older snapshot.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Accept and authenticate follower connections. <td> {@link ReplicationChannel}
+ * <tr><td> Send an initial snapshot of every replicated index to new followers. <td> {@link ProtoIndex}
+ * <tr><td> Stream committed alterations to all followers. <td> {@link IndexAlterationListener}
+ * <tr><td> Periodically send fresh snapshots to all followers.
+ * <tr><td> Disconnect followers that fall too far behind.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexReplicationLeader
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(IndexReplicationLeader.class);
+
+    /** Defines the minimum length of the shared replication secret, in bytes. */
+    public static final int MIN_SECRET_LENGTH = ReplicationChannel.MIN_SECRET_LENGTH;
+
+    /** Holds the server socket that followers connect to. */
+    private final ServerSocket serverSocket;
+
+    /** Holds the shared secret that the leader and followers authenticate each other with. */
+    private final byte[] secret;
+
+    /** Holds the maximum number of messages that may be queued for a single follower. */
+    private final int maxPendingMessages;
+
+    /** Holds the interval between periodic snapshots in milliseconds, zero or less to disable them. */
+    private final long snapshotIntervalMillis;
+
+    /** Holds the replicated indexes by name. */
+    private final Map<String, ProtoIndex<?, ?, ?>> indexes = new ConcurrentHashMap<String, ProtoIndex<?, ?, ?>>();
+
+    /** Holds the currently connected followers. */
+    private final Collection<FollowerConnection> connections = new CopyOnWriteArrayList<FollowerConnection>();
+
+    /** Holds the thread that accepts follower connections. */
+    private Thread acceptThread;
+
+    /** Holds the thread that sends periodic snapshots, if they are enabled. */
+    private Thread snapshotThread;
+
+    /** Flag used to indicate that the leader is running. */
+    private volatile boolean running;
+
+    /**
+     * Creates a replication leader that accepts followers on the specified server socket.
+     *
+     * @param serverSocket           The server socket that followers connect to.
+     * @param secret                 The shared secret that the leader and followers authenticate each other with, at
+     *                               least {@link #MIN_SECRET_LENGTH} bytes long.
+     * @param maxPendingMessages     The maximum number of messages that may be queued for a single follower.
+     * @param snapshotIntervalMillis The interval between periodic snapshots in milliseconds, zero or less to disable
+     *                               them.
+     */
+    public IndexReplicationLeader(ServerSocket serverSocket, byte[] secret, int maxPendingMessages,
+        long snapshotIntervalMillis)
+    {
+        if ((secret == null) || (secret.length < MIN_SECRET_LENGTH))
+        {
+            throw new IllegalArgumentException("The replication secret must be at least " + MIN_SECRET_LENGTH +
+                " bytes long.");
+        }
+
+        if (maxPendingMessages < 1)
+        {
+            throw new IllegalArgumentException("The maximum number of pending messages must be at least one.");
+        }
+
+        this.serverSocket = serverSocket;
+        this.secret = secret.clone();
+        this.maxPendingMessages = maxPendingMessages;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Adds an index to the set of indexes replicated by this leader. Any followers that are already connected are sent
+     * a snapshot of it. The leader becomes the alteration listener of the index.
+     *
+     * @param indexName The name that followers know the index by.
+     * @param index     The index to replicate.
+     */
+    public <K, E> void replicate(final String indexName, ProtoIndex<K, ?, E> index)
+    {
+        synchronized (index)
+        {
+            indexes.put(indexName, index);
+
+            index.setAlterationListener(new IndexAlterationListener<K, E>()
+                {
+                    public void alterationApplied(IndexAlteration<K, E> alteration)
+                    {
+                        ReplicationMessage message = new ReplicationMessage(indexName, alteration);
+
+                        for (FollowerConnection connection : connections)
+                        {
+                            connection.send(message);
+                        }
+                    }
+                });
+
+            for (FollowerConnection connection : connections)
+            {
+                sendSnapshot(connection, indexName, index);
+            }
+        }
+    }
+
+    /** Starts accepting followers and, if enabled, sending periodic snapshots. */
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+
+        running = true;
+
+        acceptThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    acceptFollowers();
+                }
+            }, "index-replication-leader");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        if (snapshotIntervalMillis > 0)
+        {
+            snapshotThread = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        sendPeriodicSnapshots();
+                    }
+                }, "index-replication-snapshots");
+            snapshotThread.setDaemon(true);
+            snapshotThread.start();
+        }
+    }
+
+    /** Stops accepting followers, closes the server socket and disconnects all followers. */
+    public synchronized void stop()
+    {
+        running = false;
+
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to close the replication server socket.", e);
+        }
+
+        if (snapshotThread != null)
+        {
+            snapshotThread.interrupt();
+        }
+
+        for (FollowerConnection connection : connections)
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Sends a fresh snapshot of every replicated index to every connected follower.
+     */
+    public void publishSnapshots()
+    {
+        for (Map.Entry<String, ProtoIndex<?, ?, ?>> entry : indexes.entrySet())
+        {
+            for (FollowerConnection connection : connections)
+            {
+                sendSnapshot(connection, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of currently connected and authenticated followers.
+     *
+     * @return The number of currently connected and authenticated followers.
+     */
+    public int getFollowerCount()
+    {
+        int count = 0;
+
+        for (FollowerConnection connection : connections)
+        {
+            if (connection.authenticated)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Accepts followers until the leader is stopped. Each new follower is authenticated and sent a snapshot of every
+     * index by its own connection thread, so that a follower that is slow to authenticate does not hold up others.
+     */
+    private void acceptFollowers()
+    {
+        while (running)
+        {
+            Socket socket;
+
+            try
+            {
+                socket = serverSocket.accept();
+            }
+            catch (IOException e)
+            {
+                // The server socket is closed to stop the leader, so this is only a problem if still running.
+                if (running)
+                {
+                    log.warn("Failed to accept a replication follower.", e);
+                }
+
+                continue;
+            }
+
+            FollowerConnection connection = new FollowerConnection(socket);
+            connections.add(connection);
+            connection.start();
+        }
+    }
+
+    /** Sends fresh snapshots to all followers at the snapshot interval, until the leader is stopped. */
+    private void sendPeriodicSnapshots()
+    {
+        while (running)
+        {
+            try
+            {
+                Thread.sleep(snapshotIntervalMillis);
+            }
+            catch (InterruptedException e)
+            {
+                // Interruption is used to stop this thread, so restore the flag and drop out of the loop.
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+
+            publishSnapshots();
+        }
+    }
+
+    /**
+     * Takes a snapshot of an index and queues it for a follower, whilst holding the monitor on the index so that it is
+     * correctly ordered with respect to the alterations of that index.
+     *
+     * @param connection The follower to send the snapshot to.
+     * @param indexName  The name of the index.
+     * @param index      The index to take the snapshot of.
+     */
+    private void sendSnapshot(FollowerConnection connection, String indexName, ProtoIndex<?, ?, ?> index)
+    {
+        synchronized (index)
+        {
+            connection.send(new ReplicationMessage(indexName, index.takeSnapshot()));
+        }
+    }
+
+    /**
+     * Closes a socket, logging rather than raising any error in doing so.
+     *
+     * @param socket The socket to close.
+     */
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Failed to close a replication socket.", e);
+        }
+    }
+
+    /**
+     * FollowerConnection holds the queue of messages pending for a single follower, and the thread that authenticates
+     * the follower and then writes the messages to its socket. Nothing is queued for a follower until it has been
+     * authenticated.
+     */
+    private class FollowerConnection implements Runnable
+    {
+        /** Holds the socket connected to the follower. */
+        private final Socket socket;
+
+        /** Holds the messages waiting to be written to the follower. */
+        private final BlockingQueue<ReplicationMessage> pending =
+            new LinkedBlockingQueue<ReplicationMessage>(maxPendingMessages);
+
+        /** Holds the thread that writes pending messages to the follower. */
+        private final Thread sender;
+
+        /** Flag used to indicate that the follower has been authenticated. */
+        private volatile boolean authenticated;
+
+        /** Flag used to indicate that the connection has been closed. */
+        private volatile boolean closed;
+
+        /**
+         * Creates a connection to a follower.
+         *
+         * @param socket The socket connected to the follower.
+         */
+        FollowerConnection(Socket socket)
+        {
+            this.socket = socket;
+            this.sender = new Thread(this, "index-replication-sender-" + socket.getRemoteSocketAddress());
+            this.sender.setDaemon(true);
+        }
+
+        /** Starts the thread that authenticates the follower and writes pending messages to it. */
+        void start()
+        {
+            sender.start();
+        }
+
+        /**
+         * Queues a message for the follower, disconnecting it if it has fallen too far behind to accept it.
+         *
+         * @param message The message to queue.
+         */
+        void send(ReplicationMessage message)
+        {
+            if (closed || !authenticated)
+            {
+                return;
+            }
+
+            if (!pending.offer(message))
+            {
+                log.warn("Replication follower at " + socket.getRemoteSocketAddress() + " has more than " +
+                    maxPendingMessages + " pending messages, disconnecting it.");
+                close();
+            }
+        }
+
+        /** Disconnects the follower, discarding any pending messages. */
+        void close()
+        {
+            closed = true;
+            connections.remove(this);
+            pending.clear();
+            sender.interrupt();
+            closeQuietly(socket);
+        }
+
+        /**
+         * Authenticates the follower, queues a snapshot of every index for it, then writes pending messages to it until
+         * the connection is closed.
+         */
+        public void run()
+        {
+            try
+            {
+                ReplicationChannel channel;
+
+                try
+                {
+                    channel = ReplicationChannel.acceptFollower(socket, secret);
+                }
+                catch (IOException e)
+                {
+                    if (!closed)
+                    {
+                        log.warn("Replication follower at " + socket.getRemoteSocketAddress() +
+                            " failed to authenticate.", e);
+                    }
+
+                    return;
+                }
+
+                // Start accepting alterations before taking the snapshots, so that no alteration committed after a
+                // snapshot can be missed.
+                authenticated = true;
+
+                for (Map.Entry<String, ProtoIndex<?, ?, ?>> entry : indexes.entrySet())
+                {
+                    sendSnapshot(this, entry.getKey(), entry.getValue());
+                }
+
+                log.info("Replication follower connected from " + socket.getRemoteSocketAddress() + ".");
+
+                while (!closed)
+                {
+                    ReplicationMessage message = pending.take();
+                    channel.writeMessage(message);
+
+                    // Only flush once the queue has drained, so that bursts of alterations are sent together.
+                    if (pending.isEmpty())
+                    {
+                        channel.flush();
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Interruption is used to close the connection, so restore the flag and drop out.
+                Thread.currentThread().interrupt();
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                {
+                    log.warn("Lost connection to the replication follower at " + socket.getRemoteSocketAddress() +
+                        ".", e);
+                }
+            }
+            finally
+            {
+                close();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * IndexSnapshot is a copy of the full contents of an index at a point in its sequence of alterations. The records are
+ * held as a list of add alterations, so applying a snapshot to an empty index and then applying every alteration with
+ * a higher sequence number reproduces the index it was taken from. The stop words and synonyms are carried along with
+ * the records, as a follower needs them to parse queries in the same way.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Hold all live records of an index as add alterations. <td> {@link IndexAlteration}
+ * <tr><td> Hold the query parsing set up of an index.
+ * <tr><td> Record the last alteration included in the snapshot.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexSnapshot<K, E>
+{
+    /** Holds the sequence number of the last alteration included in this snapshot. */
+    private final long sequence;
+
+    /** Holds the stop words of the index. */
+    private final Set<String> stopWords;
+
+    /** Holds the synonyms of the index. */
+    private final Map<String, Set<String>> synonyms;
+
+    /** Holds every live record of the index as an add alteration. */
+    private final List<IndexAlteration<K, E>> records;
+
+    /**
+     * Creates a snapshot of an index.
+     *
+     * @param sequence  The sequence number of the last alteration included in this snapshot.
+     * @param stopWords The stop words of the index.
+     * @param synonyms  The synonyms of the index.
+     * @param records   Every live record of the index as an add alteration.
+     */
+    public IndexSnapshot(long sequence, Set<String> stopWords, Map<String, Set<String>> synonyms,
+        List<IndexAlteration<K, E>> records)
+    {
+        this.sequence = sequence;
+        this.stopWords = stopWords;
+        this.synonyms = synonyms;
+        this.records = records;
+    }
+
+    /**
+     * Gets the sequence number of the last alteration included in this snapshot.
+     *
+     * @return The sequence number of the last alteration included in this snapshot.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the stop words of the index.
+     *
+     * @return The stop words of the index.
+     */
+    public Set<String> getStopWords()
+    {
+        return stopWords;
+    }
+
+    /**
+     * Gets the synonyms of the index.
+     *
+     * @return The synonyms of the index.
+     */
+    public Map<String, Set<String>> getSynonyms()
+    {
+        return synonyms;
+    }
+
+    /**
+     * Gets every live record of the index as an add alteration.
+     *
+     * @return Every live record of the index as an add alteration.
+     */
+    public List<IndexAlteration<K, E>> getRecords()
+    {
+        return records;
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * ReplicationChannel is one end of an authenticated connection between a replication leader and a follower, over
+ * which the leader sends {@link ReplicationMessage}s to the follower.
+ *
+ * <p/>When a connection is opened, the leader and follower each prove to the other that they hold the shared
+ * replication secret, by returning an HMAC-SHA256 of a fresh random challenge from each side. Neither side sends or
+ * accepts any index data until this succeeds. A session key is then derived from the secret and both challenges, and
+ * every message frame carries an HMAC of its contents and its position in the stream under that key, so that frames
+ * cannot be forged, altered, replayed or re-ordered. The contents of frames are not encrypted.
+ *
+ * <p/>Messages are written in an explicit format: the structure of snapshots and alterations is written field by
+ * field, so that only the keys and summary records of the index are serialized as Java objects. These are read back
+ * through a {@link ReplicationClassFilter}, which refuses any class that the follower has not allowed.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Mutually authenticate a leader and follower against a shared secret.
+ * <tr><td> Write and read authenticated message frames.
+ * <tr><td> Encode and decode snapshots and alterations. <td> {@link IndexSnapshot}, {@link IndexAlteration}
+ * <tr><td> Only deserialize allowed classes. <td> {@link ReplicationClassFilter}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class ReplicationChannel
+{
+    /** Defines the minimum length of the shared replication secret, in bytes. */
+    public static final int MIN_SECRET_LENGTH = 16;
+
+    /** Identifies the replication protocol at the start of a connection. */
+    private static final int MAGIC = 0x49445852;
+
+    /** Defines the version of the replication protocol. */
+    private static final int VERSION = 1;
+
+    /** Defines the length of the random challenges exchanged when connecting. */
+    private static final int CHALLENGE_LENGTH = 16;
+
+    /** Defines the MAC algorithm used to authenticate connections and frames. */
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** Defines the length of a MAC, in bytes. */
+    private static final int MAC_LENGTH = 32;
+
+    /** Defines the time allowed for the other end of a connection to authenticate itself, in milliseconds. */
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+    /** Defines the size of the chunks that frames are read in, so that a frame length alone allocates nothing. */
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+    /** Marks a message carrying an alteration. */
+    private static final byte ALTERATION_MESSAGE = 1;
+
+    /** Marks a message carrying a snapshot. */
+    private static final byte SNAPSHOT_MESSAGE = 2;
+
+    /** Used to generate challenges. */
+    private static final SecureRandom random = new SecureRandom();
+
+    /** Holds the stream that frames are read from. */
+    private final DataInputStream in;
+
+    /** Holds the stream that frames are written to. */
+    private final DataOutputStream out;
+
+    /** Holds the MAC used to authenticate frames, keyed with the session key. */
+    private final Mac frameMac;
+
+    /** Holds the position of the next frame in the stream. */
+    private long frameCount;
+
+    /**
+     * Creates an authenticated channel over a connection.
+     *
+     * @param in         The stream that frames are read from.
+     * @param out        The stream that frames are written to.
+     * @param sessionKey The session key that frames are authenticated with.
+     */
+    private ReplicationChannel(DataInputStream in, DataOutputStream out, byte[] sessionKey)
+    {
+        this.in = in;
+        this.out = out;
+        this.frameMac = createMac(sessionKey);
+    }
+
+    /**
+     * Authenticates a newly accepted follower connection, from the leaders side.
+     *
+     * @param  socket The socket connected to the follower.
+     * @param  secret The shared replication secret.
+     *
+     * @return A channel for sending messages to the follower.
+     *
+     * @throws IOException If the follower fails to authenticate itself, or the connection fails.
+     */
+    public static ReplicationChannel acceptFollower(Socket socket, byte[] secret) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+
+        readHeader(in);
+
+        byte[] followerChallenge = new byte[CHALLENGE_LENGTH];
+        in.readFully(followerChallenge);
+
+        byte[] leaderChallenge = newChallenge();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(leaderChallenge);
+        out.write(proof(secret, "leader", followerChallenge, leaderChallenge));
+        out.flush();
+
+        byte[] followerProof = new byte[MAC_LENGTH];
+        in.readFully(followerProof);
+
+        if (!isEqual(followerProof, proof(secret, "follower", followerChallenge, leaderChallenge)))
+        {
+            throw new IOException("The follower failed to authenticate with the replication secret.");
+        }
+
+        socket.setSoTimeout(0);
+
+        return new ReplicationChannel(in, out, proof(secret, "session", followerChallenge, leaderChallenge));
+    }
+
+    /**
+     * Authenticates a connection to a leader, from the followers side.
+     *
+     * @param  socket The socket connected to the leader.
+     * @param  secret The shared replication secret.
+     *
+     * @return A channel for receiving messages from the leader.
+     *
+     * @throws IOException If the leader fails to authenticate itself, or the connection fails.
+     */
+    public static ReplicationChannel connectToLeader(Socket socket, byte[] secret) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+
+        byte[] followerChallenge = newChallenge();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(followerChallenge);
+        out.flush();
+
+        readHeader(in);
+
+        byte[] leaderChallenge = new byte[CHALLENGE_LENGTH];
+        in.readFully(leaderChallenge);
+
+        byte[] leaderProof = new byte[MAC_LENGTH];
+        in.readFully(leaderProof);
+
+        if (!isEqual(leaderProof, proof(secret, "leader", followerChallenge, leaderChallenge)))
+        {
+            throw new IOException("The leader failed to authenticate with the replication secret.");
+        }
+
+        out.write(proof(secret, "follower", followerChallenge, leaderChallenge));
+        out.flush();
+
+        socket.setSoTimeout(0);
+
+        return new ReplicationChannel(in, out, proof(secret, "session", followerChallenge, leaderChallenge));
+    }
+
+    /**
+     * Writes a message as an authenticated frame. The frame is buffered, and is not sent until {@link #flush} is
+     * called.
+     *
+     * @param  message The message to write.
+     *
+     * @throws IOException If the message cannot be written.
+     */
+    public void writeMessage(ReplicationMessage message) throws IOException
+    {
+        byte[] payload = encode(message);
+
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.write(frameMac(payload));
+    }
+
+    /**
+     * Sends any buffered frames.
+     *
+     * @throws IOException If the frames cannot be sent.
+     */
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    /**
+     * Reads the next message, checking that its frame is authentic.
+     *
+     * @param  filter The classes that keys and summary records may be deserialized as.
+     *
+     * @return The next message.
+     *
+     * @throws IOException            If the frame is not authentic, is malformed, names a class that is not allowed,
+     *                                or the connection fails.
+     * @throws ClassNotFoundException If an allowed class named in the message cannot be found.
+     */
+    public ReplicationMessage readMessage(ReplicationClassFilter filter) throws IOException, ClassNotFoundException
+    {
+        int length = in.readInt();
+
+        if (length < 0)
+        {
+            throw new StreamCorruptedException("Negative replication frame length, " + length + ".");
+        }
+
+        // Read the frame in chunks, so that memory is only taken up by data that has actually arrived.
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(length, READ_CHUNK_SIZE));
+        byte[] chunk = new byte[Math.min(length, READ_CHUNK_SIZE)];
+
+        for (int remaining = length; remaining > 0;)
+        {
+            int count = Math.min(remaining, chunk.length);
+            in.readFully(chunk, 0, count);
+            buffer.write(chunk, 0, count);
+            remaining -= count;
+        }
+
+        byte[] payload = buffer.toByteArray();
+        byte[] mac = new byte[MAC_LENGTH];
+        in.readFully(mac);
+
+        if (!isEqual(mac, frameMac(payload)))
+        {
+            throw new IOException("A replication frame failed authentication.");
+        }
+
+        return decode(payload, filter);
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param  message The message to encode.
+     *
+     * @return The encoded message.
+     *
+     * @throws IOException If a key or summary record cannot be serialized.
+     */
+    private static byte[] encode(ReplicationMessage message) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream data = new ObjectOutputStream(bytes);
+
+        data.writeUTF(message.getIndexName());
+
+        if (message.getSnapshot() != null)
+        {
+            IndexSnapshot<?, ?> snapshot = message.getSnapshot();
+
+            data.writeByte(SNAPSHOT_MESSAGE);
+            data.writeLong(snapshot.getSequence());
+            writeStrings(data, snapshot.getStopWords());
+
+            Map<String, Set<String>> synonyms = snapshot.getSynonyms();
+            data.writeInt(synonyms.size());
+
+            for (Map.Entry<String, Set<String>> entry : synonyms.entrySet())
+            {
+                data.writeUTF(entry.getKey());
+                writeStrings(data, entry.getValue());
+            }
+
+            data.writeInt(snapshot.getRecords().size());
+
+            for (IndexAlteration<?, ?> record : snapshot.getRecords())
+            {
+                writeAlteration(data, record);
+            }
+        }
+        else
+        {
+            data.writeByte(ALTERATION_MESSAGE);
+            writeAlteration(data, message.getAlteration());
+        }
+
+        data.close();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @param  payload The encoded message.
+     * @param  filter  The classes that keys and summary records may be deserialized as.
+     *
+     * @return The decoded message.
+     *
+     * @throws IOException            If the message is malformed or names a class that is not allowed.
+     * @throws ClassNotFoundException If an allowed class named in the message cannot be found.
+     */
+    private static ReplicationMessage decode(byte[] payload, ReplicationClassFilter filter) throws IOException,
+        ClassNotFoundException
+    {
+        ObjectInputStream data = filter.createInputStream(new ByteArrayInputStream(payload));
+
+        String indexName = data.readUTF();
+        byte kind = data.readByte();
+
+        if (kind == SNAPSHOT_MESSAGE)
+        {
+            return new ReplicationMessage(indexName, readSnapshot(data));
+        }
+        else if (kind == ALTERATION_MESSAGE)
+        {
+            return new ReplicationMessage(indexName, readAlteration(data));
+        }
+        else
+        {
+            throw new StreamCorruptedException("Unknown replication message kind, " + kind + ".");
+        }
+    }
+
+    /**
+     * Reads a snapshot.
+     *
+     * @param  data The stream to read from.
+     *
+     * @return The snapshot.
+     *
+     * @throws IOException            If the snapshot is malformed or names a class that is not allowed.
+     * @throws ClassNotFoundException If an allowed class named in the snapshot cannot be found.
+     */
+    private static IndexSnapshot<Object, Object> readSnapshot(ObjectInputStream data) throws IOException,
+        ClassNotFoundException
+    {
+        long sequence = data.readLong();
+        Set<String> stopWords = readStrings(data);
+
+        int synonymCount = readCount(data);
+        Map<String, Set<String>> synonyms = new HashMap<String, Set<String>>();
+
+        for (int i = 0; i < synonymCount; i++)
+        {
+            synonyms.put(data.readUTF(), readStrings(data));
+        }
+
+        int recordCount = readCount(data);
+        List<IndexAlteration<Object, Object>> records = new ArrayList<IndexAlteration<Object, Object>>();
+
+        for (int i = 0; i < recordCount; i++)
+        {
+            records.add(readAlteration(data));
+        }
+
+        return new IndexSnapshot<Object, Object>(sequence, stopWords, synonyms, records);
+    }
+
+    /**
+     * Writes an alteration.
+     *
+     * @param  data       The stream to write to.
+     * @param  alteration The alteration to write.
+     *
+     * @throws IOException If the key or summary record cannot be serialized.
+     */
+    private static void writeAlteration(ObjectOutputStream data, IndexAlteration<?, ?> alteration) throws IOException
+    {
+        data.writeLong(alteration.getSequence());
+        data.writeByte(alteration.getType().ordinal());
+        data.writeObject(alteration.getKey());
+        data.writeObject(alteration.getIndexEntry());
+        data.writeFloat(alteration.getRating());
+        writeStrings(data, alteration.getTerms());
+
+        Map<String, Double> numericValues = alteration.getNumericValues();
+
+        if (numericValues == null)
+        {
+            data.writeInt(-1);
+        }
+        else
+        {
+            data.writeInt(numericValues.size());
+
+            for (Map.Entry<String, Double> entry : numericValues.entrySet())
+            {
+                data.writeUTF(entry.getKey());
+                data.writeDouble(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads an alteration.
+     *
+     * @param  data The stream to read from.
+     *
+     * @return The alteration.
+     *
+     * @throws IOException            If the alteration is malformed or names a class that is not allowed.
+     * @throws ClassNotFoundException If an allowed class named in the alteration cannot be found.
+     */
+    private static IndexAlteration<Object, Object> readAlteration(ObjectInputStream data) throws IOException,
+        ClassNotFoundException
+    {
+        long sequence = data.readLong();
+        int typeOrdinal = data.readByte();
+        IndexAlteration.Type[] types = IndexAlteration.Type.values();
+
+        if ((typeOrdinal < 0) || (typeOrdinal >= types.length))
+        {
+            throw new StreamCorruptedException("Unknown alteration type, " + typeOrdinal + ".");
+        }
+
+        Object key = data.readObject();
+        Object indexEntry = data.readObject();
+        float rating = data.readFloat();
+        Set<String> terms = readStrings(data);
+
+        Map<String, Double> numericValues = null;
+        int numericCount = data.readInt();
+
+        if (numericCount >= 0)
+        {
+            numericValues = new HashMap<String, Double>();
+
+            for (int i = 0; i < numericCount; i++)
+            {
+                numericValues.put(data.readUTF(), data.readDouble());
+            }
+        }
+
+        return new IndexAlteration<Object, Object>(sequence, types[typeOrdinal], key, indexEntry, rating, terms,
+                numericValues);
+    }
+
+    /**
+     * Writes a collection of strings, which may be <tt>null</tt>.
+     *
+     * @param  data    The stream to write to.
+     * @param  strings The strings to write.
+     *
+     * @throws IOException If the strings cannot be written.
+     */
+    private static void writeStrings(ObjectOutputStream data, Collection<String> strings) throws IOException
+    {
+        if (strings == null)
+        {
+            data.writeInt(-1);
+
+            return;
+        }
+
+        data.writeInt(strings.size());
+
+        for (String string : strings)
+        {
+            data.writeUTF(string);
+        }
+    }
+
+    /**
+     * Reads a set of strings, which may be <tt>null</tt>.
+     *
+     * @param  data The stream to read from.
+     *
+     * @return The set of strings, or <tt>null</tt>.
+     *
+     * @throws IOException If the strings cannot be read.
+     */
+    private static Set<String> readStrings(ObjectInputStream data) throws IOException
+    {
+        int count = data.readInt();
+
+        if (count < 0)
+        {
+            return null;
+        }
+
+        Set<String> strings = new HashSet<String>();
+
+        for (int i = 0; i < count; i++)
+        {
+            strings.add(data.readUTF());
+        }
+
+        return strings;
+    }
+
+    /**
+     * Reads a count, which must not be negative.
+     *
+     * @param  data The stream to read from.
+     *
+     * @return The count.
+     *
+     * @throws IOException If the count is negative or cannot be read.
+     */
+    private static int readCount(ObjectInputStream data) throws IOException
+    {
+        int count = data.readInt();
+
+        if (count < 0)
+        {
+            throw new StreamCorruptedException("Negative count, " + count + ", in a replication message.");
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads and checks the protocol header sent by the other end of a connection.
+     *
+     * @param  in The stream to read from.
+     *
+     * @throws IOException If the header is not that of this version of the replication protocol.
+     */
+    private static void readHeader(DataInputStream in) throws IOException
+    {
+        int magic = in.readInt();
+        int version = in.readInt();
+
+        if ((magic != MAGIC) || (version != VERSION))
+        {
+            throw new StreamCorruptedException("The connection does not speak version " + VERSION +
+                " of the replication protocol.");
+        }
+    }
+
+    /**
+     * Computes the MAC of the next frame, which covers its position in the stream as well as its contents, and moves
+     * on to the next position.
+     *
+     * @param  payload The contents of the frame.
+     *
+     * @return The MAC of the frame.
+     */
+    private byte[] frameMac(byte[] payload)
+    {
+        long position = frameCount++;
+
+        for (int i = 56; i >= 0; i -= 8)
+        {
+            frameMac.update((byte) (position >>> i));
+        }
+
+        return frameMac.doFinal(payload);
+    }
+
+    /**
+     * Creates a fresh random challenge.
+     *
+     * @return A fresh random challenge.
+     */
+    private static byte[] newChallenge()
+    {
+        byte[] challenge = new byte[CHALLENGE_LENGTH];
+        random.nextBytes(challenge);
+
+        return challenge;
+    }
+
+    /**
+     * Computes a proof of holding the secret, for a given purpose, over both challenges of a connection.
+     *
+     * @param  secret            The shared replication secret.
+     * @param  purpose           The purpose of the proof, which ensures that proofs for one purpose are not valid for
+     *                           another.
+     * @param  followerChallenge The followers challenge.
+     * @param  leaderChallenge   The leaders challenge.
+     *
+     * @return The proof.
+     */
+    private static byte[] proof(byte[] secret, String purpose, byte[] followerChallenge, byte[] leaderChallenge)
+    {
+        Mac mac = createMac(secret);
+
+        for (int i = 0; i < purpose.length(); i++)
+        {
+            mac.update((byte) purpose.charAt(i));
+        }
+
+        mac.update(followerChallenge);
+
+        return mac.doFinal(leaderChallenge);
+    }
+
+    /**
+     * Creates a MAC keyed with a key.
+     *
+     * @param  key The key.
+     *
+     * @return A MAC keyed with the key.
+     */
+    private static Mac createMac(byte[] key)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+
+            return mac;
+        }
+        catch (GeneralSecurityException e)
+        {
+            // HmacSHA256 is always available, and any key length is valid for it.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compares two byte arrays in time that does not depend on where they differ.
+     *
+     * @param  a The first array.
+     * @param  b The second array.
+     *
+     * @return <tt>true</tt> if the arrays are equal.
+     */
+    private static boolean isEqual(byte[] a, byte[] b)
+    {
+        if (a.length != b.length)
+        {
+            return false;
+        }
+
+        int difference = 0;
+
+        for (int i = 0; i < a.length; i++)
+        {
+            difference |= a[i] ^ b[i];
+        }
+
+        return difference == 0;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * ReplicationClassFilter holds the set of classes that a follower will accept, when deserializing the keys and summary
+ * records carried in replication messages. Any other class named in a message is rejected before it is loaded, so that
+ * a replication connection cannot be used to instantiate arbitrary serializable classes on the follower.
+ *
+ * <p/>The boxed primitive types, strings, big numbers, dates and arrays of primitives are always allowed, as these are
+ * the usual types of keys and of summary record fields. Any other class must be allowed explicitly; allowing a class
+ * also allows its serializable super classes, as these are named in the serialized form too.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Hold the classes that may be deserialized from replication messages.
+ * <tr><td> Provide object input streams that reject all other classes.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class ReplicationClassFilter
+{
+    /** Defines the classes that are always allowed. */
+    private static final Class[] STANDARD_CLASSES =
+        new Class[]
+        {
+            String.class, Number.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class,
+            Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class, Date.class, Enum.class,
+            boolean[].class, char[].class, byte[].class, short[].class, int[].class, long[].class, float[].class,
+            double[].class
+        };
+
+    /** Holds the names of the allowed classes. */
+    private final Set<String> allowedClassNames = new CopyOnWriteArraySet<String>();
+
+    /** Creates a class filter that allows the standard classes only. */
+    ReplicationClassFilter()
+    {
+        for (Class cls : STANDARD_CLASSES)
+        {
+            allowedClassNames.add(cls.getName());
+        }
+    }
+
+    /**
+     * Allows a class, and its serializable super classes, to be deserialized from replication messages.
+     *
+     * @param cls The class to allow.
+     */
+    public void allow(Class<?> cls)
+    {
+        for (Class<?> next = cls; (next != null) && Serializable.class.isAssignableFrom(next);
+                next = next.getSuperclass())
+        {
+            allowedClassNames.add(next.getName());
+        }
+    }
+
+    /**
+     * Checks if a class may be deserialized from replication messages.
+     *
+     * @param  className The name of the class.
+     *
+     * @return <tt>true</tt> if the class may be deserialized from replication messages.
+     */
+    public boolean isAllowed(String className)
+    {
+        return allowedClassNames.contains(className);
+    }
+
+    /**
+     * Creates an object input stream that only deserializes the allowed classes.
+     *
+     * @param  in The stream to read serialized objects from.
+     *
+     * @return An object input stream that only deserializes the allowed classes.
+     *
+     * @throws IOException If the stream header cannot be read.
+     */
+    public ObjectInputStream createInputStream(InputStream in) throws IOException
+    {
+        return new FilteringObjectInputStream(in);
+    }
+
+    /**
+     * FilteringObjectInputStream is an object input stream that refuses to resolve any class that is not allowed by
+     * the filter, and refuses to resolve dynamic proxy classes altogether.
+     */
+    private class FilteringObjectInputStream extends ObjectInputStream
+    {
+        /**
+         * Creates a filtering object input stream.
+         *
+         * @param  in The stream to read serialized objects from.
+         *
+         * @throws IOException If the stream header cannot be read.
+         */
+        public FilteringObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        /** {@inheritDoc} */
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+        {
+            if (!isAllowed(desc.getName()))
+            {
+                throw new InvalidClassException(desc.getName(), "Class is not allowed in replication messages.");
+            }
+
+            return super.resolveClass(desc);
+        }
+
+        /** {@inheritDoc} */
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException
+        {
+            throw new InvalidClassException("Proxy classes are not allowed in replication messages.");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+/**
+ * ReplicationMessage is the unit sent from a replication leader to its followers. Each message names the index that it
+ * applies to, and carries either a single alteration or a full snapshot of that index. Messages are written to and
+ * read from the connection by a {@link ReplicationChannel}.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Address an alteration or snapshot to a named index. <td> {@link IndexAlteration}, {@link IndexSnapshot}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+class ReplicationMessage
+{
+    /** Holds the name of the index that the message applies to. */
+    private final String indexName;
+
+    /** Holds the alteration to apply, <tt>null</tt> if this message carries a snapshot. */
+    private final IndexAlteration<?, ?> alteration;
+
+    /** Holds the snapshot to apply, <tt>null</tt> if this message carries an alteration. */
+    private final IndexSnapshot<?, ?> snapshot;
+
+    /**
+     * Creates a message carrying an alteration to a named index.
+     *
+     * @param indexName  The name of the index that the alteration applies to.
+     * @param alteration The alteration.
+     */
+    ReplicationMessage(String indexName, IndexAlteration<?, ?> alteration)
+    {
+        this.indexName = indexName;
+        this.alteration = alteration;
+        this.snapshot = null;
+    }
+
+    /**
+     * Creates a message carrying a snapshot of a named index.
+     *
+     * @param indexName The name of the index that the snapshot was taken from.
+     * @param snapshot  The snapshot.
+     */
+    ReplicationMessage(String indexName, IndexSnapshot<?, ?> snapshot)
+    {
+        this.indexName = indexName;
+        this.alteration = null;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Gets the name of the index that the message applies to.
+     *
+     * @return The name of the index that the message applies to.
+     */
+    public String getIndexName()
+    {
+        return indexName;
+    }
+
+    /**
+     * Gets the alteration to apply.
+     *
+     * @return The alteration to apply, <tt>null</tt> if this message carries a snapshot.
+     */
+    public IndexAlteration<?, ?> getAlteration()
+    {
+        return alteration;
+    }
+
+    /**
+     * Gets the snapshot to apply.
+     *
+     * @return The snapshot to apply, <tt>null</tt> if this message carries an alteration.
+     */
+    public IndexSnapshot<?, ?> getSnapshot()
+    {
+        return snapshot;
+    }
+}
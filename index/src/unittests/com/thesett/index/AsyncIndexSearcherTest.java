@@ -0,0 +1,385 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+import com.thesett.index.prototype.ProtoIndex;
+
+/**
+ * AsyncIndexSearcherTest is a pure unit test class for {@link AsyncIndexSearcher}.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that asynchronous searches return the same results as synchronous ones.
+ * <tr><td> Check that searches are rejected when the searcher is saturated.
+ * <tr><td> Check that completed searches give back their admission to the searcher.
+ * <tr><td> Check that searches cancelled before they run give back their admission to the searcher.
+ * <tr><td> Check that a caller supplied executor is not shut down by the searcher.
+ * <tr><td> Check that searches with no deadline, or a very long timeout, are not abandoned.
+ * <tr><td> Check that a search past its deadline is abandoned inside the index.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class AsyncIndexSearcherTest extends TestCase
+{
+    /** The index to search. */
+    ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary> testIndex;
+
+    /**
+     * Creates the named test.
+     *
+     * @param testName The name of the test.
+     */
+    public AsyncIndexSearcherTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * Check that asynchronous searches return the same results as synchronous ones.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testAsyncSearchMatchesSyncSearch() throws Exception
+    {
+        AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary> searcher =
+            new AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary>(testIndex, 2,
+                AsyncIndexSearcher.NO_TIMEOUT);
+
+        Map<Long, TestRecord.TestRecordSummary> expected = testIndex.search("quick fox");
+        Map<Long, TestRecord.TestRecordSummary> actual = searcher.search("quick fox").get(10, TimeUnit.SECONDS);
+
+        searcher.shutdown();
+
+        assertEquals("Asynchronous search results differ from synchronous ones.", expected, actual);
+    }
+
+    /**
+     * Check that searches are rejected when the searcher is saturated, rather than queued.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testSaturatedSearcherRejects() throws Exception
+    {
+        BlockingIndex blockingIndex = new BlockingIndex();
+
+        AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary> searcher =
+            new AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary>(blockingIndex, 1,
+                AsyncIndexSearcher.NO_TIMEOUT);
+
+        Future<Map<Long, TestRecord.TestRecordSummary>> first = searcher.search("fox");
+        boolean rejected = false;
+
+        try
+        {
+            searcher.search("dog");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Exception noted, this is the expected outcome.
+            rejected = true;
+        }
+
+        blockingIndex.release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        searcher.shutdown();
+
+        assertTrue("Second search should have been rejected whilst the first was in progress.", rejected);
+    }
+
+    /**
+     * Check that completed searches give back their admission to the searcher.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCompletedSearchesReleaseAdmission() throws Exception
+    {
+        AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary> searcher =
+            new AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary>(testIndex, 1,
+                AsyncIndexSearcher.NO_TIMEOUT);
+
+        for (int i = 0; i < 10; i++)
+        {
+            Future<Map<Long, TestRecord.TestRecordSummary>> result = searcher.search("fox");
+            result.get(10, TimeUnit.SECONDS);
+
+            // The permit is given back just after the result is set, so wait briefly for it to reappear.
+            for (int j = 0; (j < 100) && (searcher.getAvailableSearches() == 0); j++)
+            {
+                Thread.sleep(10);
+            }
+        }
+
+        searcher.shutdown();
+
+        assertEquals("All searches should have been released.", 1, searcher.getAvailableSearches());
+    }
+
+    /**
+     * Check that searches cancelled whilst waiting for a thread give back their admission to the searcher, and that a
+     * caller supplied executor is left running when the searcher is shut down.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCancelledQueuedSearchReleasesAdmission() throws Exception
+    {
+        BlockingIndex blockingIndex = new BlockingIndex();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary> searcher =
+            new AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary>(blockingIndex, executor, 2,
+                AsyncIndexSearcher.NO_TIMEOUT);
+
+        // The first search holds the only thread, so the second waits in the executor queue.
+        Future<Map<Long, TestRecord.TestRecordSummary>> first = searcher.search("fox");
+        Future<Map<Long, TestRecord.TestRecordSummary>> second = searcher.search("dog");
+
+        second.cancel(false);
+
+        int availableAfterCancel = searcher.getAvailableSearches();
+
+        blockingIndex.release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+
+        for (int j = 0; (j < 100) && (searcher.getAvailableSearches() < 2); j++)
+        {
+            Thread.sleep(10);
+        }
+
+        searcher.shutdown();
+        boolean executorShutdown = executor.isShutdown();
+        executor.shutdown();
+
+        assertEquals("The cancelled search should have given back its admission.", 1, availableAfterCancel);
+        assertEquals("All searches should have been released.", 2, searcher.getAvailableSearches());
+        assertFalse("The caller supplied executor should not have been shut down.", executorShutdown);
+    }
+
+    /**
+     * Check that searches with no deadline, or with a timeout too long to be turned into a deadline, are not abandoned.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testNoDeadlineAndLongTimeoutNeverExpire() throws Exception
+    {
+        try
+        {
+            SearchDeadline.setDeadline(SearchDeadline.NO_DEADLINE);
+            assertEquals("A search with no deadline should complete.", 2, testIndex.search("fox").size());
+
+            SearchDeadline.setTimeout(Long.MAX_VALUE);
+            assertEquals("The longest timeout should be treated as no deadline.", SearchDeadline.NO_DEADLINE,
+                SearchDeadline.getDeadline());
+            assertEquals("A search with the longest timeout should complete.", 2, testIndex.search("fox").size());
+
+            SearchDeadline.setTimeout(SearchDeadline.MAX_TIMEOUT_MILLIS);
+            assertEquals("A search with a long timeout should complete.", 2, testIndex.search("fox").size());
+        }
+        finally
+        {
+            SearchDeadline.clearDeadline();
+        }
+
+        AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary> searcher =
+            new AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary>(testIndex, 1,
+                AsyncIndexSearcher.NO_TIMEOUT);
+
+        try
+        {
+            assertEquals("A search with a very long timeout should complete.", 2,
+                searcher.search("fox", Long.MAX_VALUE).get(10, TimeUnit.SECONDS).size());
+        }
+        finally
+        {
+            searcher.shutdown();
+        }
+    }
+
+    /**
+     * Check that a search past its deadline is abandoned by the index.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testExpiredDeadlineAbandonsSearch() throws Exception
+    {
+        boolean cancelled = false;
+
+        SearchDeadline.setDeadline(System.nanoTime() - 1L);
+
+        try
+        {
+            testIndex.search("quick fox");
+        }
+        catch (IndexSearchCancelledException e)
+        {
+            // Exception noted, this is the expected outcome.
+            cancelled = true;
+        }
+        finally
+        {
+            SearchDeadline.clearDeadline();
+        }
+
+        assertTrue("The search should have been abandoned once past its deadline.", cancelled);
+
+        // Check that the index is still usable after the abandoned search.
+        assertEquals("The index should still be searchable.", 2, testIndex.search("fox").size());
+    }
+
+    /**
+     * Check that an asynchronous search past its deadline completes with a cancellation.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testExpiredAsyncSearchFails() throws Exception
+    {
+        BlockingIndex blockingIndex = new BlockingIndex();
+
+        AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary> searcher =
+            new AsyncIndexSearcher<Long, TestRecord, TestRecord.TestRecordSummary>(blockingIndex, 1, 1L);
+
+        Future<Map<Long, TestRecord.TestRecordSummary>> result = searcher.search("fox");
+
+        // Hold the search up until well past its deadline.
+        Thread.sleep(50);
+        blockingIndex.release.countDown();
+
+        Throwable cause = null;
+
+        try
+        {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            cause = e.getCause();
+        }
+
+        searcher.shutdown();
+
+        assertTrue("The search should have failed with a cancellation, but got " + cause + ".",
+            cause instanceof IndexSearchCancelledException);
+    }
+
+    /**
+     * Sets up an index with some sample records in it.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        testIndex = new ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary>();
+
+        IndexMapping mapping = new IndexMapping(new String[] { "text" }, "rating");
+        testIndex.addMapping(TestRecord.class, TestRecord.TestRecordSummary.class, mapping);
+
+        TestRecord record1 = new TestRecord(1L, "The quick brown fox jumped over the lazy dogs.", "Record1", 1.0f);
+        TestRecord record2 = new TestRecord(2L, "The slow red fox walked past the lazy dogs.", "Record2", 0.5f);
+
+        testIndex.add(record1.getKey(), record1, record1.getSummaryRecord());
+        testIndex.add(record2.getKey(), record2, record2.getSummaryRecord());
+    }
+
+    /**
+     * No test specific tear down to do.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * BlockingIndex is an index stub whose searches wait until released, then pass through a deadline checkpoint in the
+     * same way that a real index would.
+     */
+    private static class BlockingIndex implements Index<Long, TestRecord, TestRecord.TestRecordSummary>
+    {
+        /** Used to hold searches up until the test releases them. */
+        CountDownLatch release = new CountDownLatch(1);
+
+        /** {@inheritDoc} */
+        public void add(Long key, TestRecord fullRecord, TestRecord.TestRecordSummary indexEntry)
+        {
+        }
+
+        /** {@inheritDoc} */
+        public void update(Long key, TestRecord fullRecord, TestRecord.TestRecordSummary indexEntry)
+        {
+        }
+
+        /** {@inheritDoc} */
+        public void update(Long key, TestRecord.TestRecordSummary indexEntry)
+        {
+        }
+
+        /** {@inheritDoc} */
+        public void remove(Long key)
+        {
+        }
+
+        /** {@inheritDoc} */
+        public Map<Long, TestRecord.TestRecordSummary> search(String query)
+        {
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            SearchDeadline.checkpoint();
+
+            return new HashMap<Long, TestRecord.TestRecordSummary>();
+        }
+
+        /** {@inheritDoc} */
+        public Map<Long, TestRecord.TestRecordSummary> search(String query, Collection<NumericRange> filters)
+        {
+            return search(query);
+        }
+
+        /** {@inheritDoc} */
+        public void clear()
+        {
+        }
+
+        /** {@inheritDoc} */
+        public void cleanup()
+        {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index;
+
+/**
+ * SampleRecords is a test fixture that sets up an index with a sample mapping of {@link TestRecord}s, and two sample
+ * records, for tests that need a small populated index to work on.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Set up an index with a sample mapping and sample records. <td> {@link IndexSetup}, {@link Index}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class SampleRecords
+{
+    /**
+     * Adds the sample mapping to an index, which indexes the text of test records and rates them by their rating.
+     *
+     * @param setup The index to add the mapping to.
+     */
+    public static void addSampleMapping(IndexSetup<TestRecord, TestRecord.TestRecordSummary> setup)
+    {
+        IndexMapping mapping = new IndexMapping(new String[] { "text" }, "rating");
+        setup.addMapping(TestRecord.class, TestRecord.TestRecordSummary.class, mapping);
+    }
+
+    /**
+     * Adds the two sample records to an index. Both records mention a fox and lazy dogs; only the first, which is rated
+     * highest, is quick. The records have the keys 1 and 2.
+     *
+     * @param index The index to add the sample records to.
+     */
+    public static void addSampleRecords(Index<Long, TestRecord, TestRecord.TestRecordSummary> index)
+    {
+        TestRecord record1 = new TestRecord(1L, "The quick brown fox jumped over the lazy dogs.", "Record1", 1.0f);
+        TestRecord record2 = new TestRecord(2L, "The slow red fox walked past the lazy dogs.", "Record2", 0.5f);
+
+        index.add(record1.getKey(), record1, record1.getSummaryRecord());
+        index.add(record2.getKey(), record2, record2.getSummaryRecord());
+    }
+}
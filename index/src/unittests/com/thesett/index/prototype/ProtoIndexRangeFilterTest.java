@@ -0,0 +1,204 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.prototype;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+import com.thesett.index.IndexMapping;
+import com.thesett.index.NumericRange;
+import com.thesett.index.TestRecord;
+import com.thesett.index.replication.IndexAlteration;
+import com.thesett.index.replication.IndexSnapshot;
+
+/**
+ * ProtoIndexRangeFilterTest is a pure unit test class for range filtered searches over the numeric summary fields kept
+ * by {@link ProtoIndex}.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that range filters restrict text search results.
+ * <tr><td> Check that range filters follow updates and removes, including re-used document ids.
+ * <tr><td> Check that filters on unknown fields match nothing.
+ * <tr><td> Check that numeric field values are carried in snapshots.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ProtoIndexRangeFilterTest extends TestCase
+{
+    /** The index to test. */
+    ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary> testIndex;
+
+    /**
+     * Creates the named test.
+     *
+     * @param testName The name of the test.
+     */
+    public ProtoIndexRangeFilterTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * Check that range filters restrict text search results to records within the range, honouring open and exclusive
+     * bounds, and that all ranges must match.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testRangeFiltersRestrictResults() throws Exception
+    {
+        assertEquals("Unfiltered search should match all records.", 3, testIndex.search("fox").size());
+        assertEquals("Null filters should not restrict the search.", 3, testIndex.search("fox", null).size());
+
+        assertKeys("Wrong results for inclusive range.", new Long[] { 1L },
+            testIndex.search("fox", filters(NumericRange.between("rating", 0.5, 1.0))));
+        assertKeys("Wrong results for lower bound only.", new Long[] { 3L, 2L },
+            testIndex.search("fox", filters(NumericRange.atLeast("rating", 2.0))));
+        assertKeys("Wrong results for upper bound only.", new Long[] { 1L },
+            testIndex.search("fox", filters(NumericRange.atMost("rating", 0.5))));
+        assertKeys("Wrong results for exclusive bounds.", new Long[] { 2L },
+            testIndex.search("fox", filters(new NumericRange("rating", 0.5, false, 3.0, false))));
+        assertKeys("Wrong results for two ranges.", new Long[] { 2L, 1L },
+            testIndex.search("fox",
+                filters(NumericRange.atLeast("rating", 0.5), NumericRange.atMost("rating", 2.5))));
+        assertKeys("Wrong results for range with a second term.", new Long[] { 3L },
+            testIndex.search("fox lazy", filters(NumericRange.atLeast("rating", 2.0))));
+    }
+
+    /**
+     * Check that range filters follow updated values, and that a removed records document id does not leak its values
+     * to the record that re-uses it.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testRangeFiltersFollowAlterations() throws Exception
+    {
+        Collection<NumericRange> high = filters(NumericRange.atLeast("rating", 5.0));
+
+        testIndex.update(1L, new TestRecord.TestRecordSummary("Record1", 6.0f));
+        assertKeys("Updated value should be filtered on.", new Long[] { 1L }, testIndex.search("fox", high));
+
+        testIndex.remove(1L);
+        assertTrue("Removed record should not match.", testIndex.search("fox", high).isEmpty());
+
+        TestRecord record4 = new TestRecord(4L, "A fox in a box.", "Record4", 1.5f);
+        testIndex.add(record4.getKey(), record4, record4.getSummaryRecord());
+        assertTrue("New record should not inherit old values.", testIndex.search("fox", high).isEmpty());
+        assertKeys("New record should be filtered on its own value.", new Long[] { 4L },
+            testIndex.search("box", filters(NumericRange.between("rating", 1.5, 1.5))));
+
+        testIndex.clear();
+        assertTrue("Cleared index should match nothing.",
+            testIndex.search("fox", filters(NumericRange.atLeast("rating", 0.0))).isEmpty());
+    }
+
+    /**
+     * Check that a filter on a field that is not held as a numeric field matches nothing.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFilterOnUnknownFieldMatchesNothing() throws Exception
+    {
+        assertTrue("Filter on an unknown field should match nothing.",
+            testIndex.search("fox", filters(NumericRange.atLeast("price", 0.0))).isEmpty());
+    }
+
+    /**
+     * Check that numeric field values are carried in snapshots, and can be filtered on once applied to another index.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testNumericValuesInSnapshot() throws Exception
+    {
+        IndexSnapshot<Long, TestRecord.TestRecordSummary> snapshot = testIndex.takeSnapshot();
+
+        for (IndexAlteration<Long, TestRecord.TestRecordSummary> record : snapshot.getRecords())
+        {
+            assertEquals("Snapshot should carry the rating as a numeric value.",
+                (double) record.getRating(), record.getNumericValues().get("rating"));
+        }
+
+        ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary> copy =
+            new ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary>();
+        copy.applySnapshot(snapshot);
+
+        assertKeys("Wrong results from snapshot copy.", new Long[] { 3L, 2L },
+            copy.search("fox", filters(NumericRange.atLeast("rating", 2.0))));
+    }
+
+    /**
+     * Sets up an index with some test records in it, holding their ratings as a numeric field.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        testIndex = new ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary>();
+
+        IndexMapping mapping = new IndexMapping(new String[] { "text" }, "rating", new String[] { "rating" });
+        testIndex.addMapping(TestRecord.class, TestRecord.TestRecordSummary.class, mapping);
+
+        TestRecord record1 = new TestRecord(1L, "The quick brown fox.", "Record1", 0.5f);
+        TestRecord record2 = new TestRecord(2L, "The slow red fox.", "Record2", 2.0f);
+        TestRecord record3 = new TestRecord(3L, "The lazy grey fox.", "Record3", 3.0f);
+
+        testIndex.add(record1.getKey(), record1, record1.getSummaryRecord());
+        testIndex.add(record2.getKey(), record2, record2.getSummaryRecord());
+        testIndex.add(record3.getKey(), record3, record3.getSummaryRecord());
+    }
+
+    /**
+     * No test specific tear down to do.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Collects range filters together for a search.
+     *
+     * @param  ranges The range filters.
+     *
+     * @return The range filters as a collection.
+     */
+    private static Collection<NumericRange> filters(NumericRange... ranges)
+    {
+        return Arrays.asList(ranges);
+    }
+
+    /**
+     * Checks that search results hold exactly the expected keys, in order.
+     *
+     * @param message  The failure message.
+     * @param expected The expected keys in order.
+     * @param results  The search results.
+     */
+    private static void assertKeys(String message, Long[] expected, Map<Long, TestRecord.TestRecordSummary> results)
+    {
+        assertEquals(message, Arrays.asList(expected), Arrays.asList(results.keySet().toArray(new Long[0])));
+    }
+}
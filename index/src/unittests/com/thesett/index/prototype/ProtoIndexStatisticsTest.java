@@ -0,0 +1,164 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.prototype;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+import com.thesett.index.IndexMapping;
+import com.thesett.index.TestRecord;
+
+/**
+ * ProtoIndexStatisticsTest is a pure unit test class for the term statistics kept by {@link ProtoIndex}.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that document frequencies and maximum ratings follow adds, updates and removes.
+ * <tr><td> Check that queries containing an unknown term are known not to match.
+ * <tr><td> Check that searches with terms in any order still return all matches.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ProtoIndexStatisticsTest extends TestCase
+{
+    /** The index to test. */
+    ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary> testIndex;
+
+    /**
+     * Creates the named test.
+     *
+     * @param testName The name of the test.
+     */
+    public ProtoIndexStatisticsTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * Check that document frequencies and maximum ratings follow adds, updates and removes.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testStatisticsFollowAlterations() throws Exception
+    {
+        assertEquals("Wrong record count.", 2, testIndex.getRecordCount());
+        assertEquals("Wrong document frequency for 'fox'.", 2, testIndex.getDocumentFrequency("fox"));
+        assertEquals("Wrong document frequency for 'quick'.", 1, testIndex.getDocumentFrequency("quick"));
+        assertEquals("Wrong max rating for 'fox'.", 1.0f, testIndex.getMaxRating("fox"));
+        assertEquals("Stop words should not be counted.", 0, testIndex.getDocumentFrequency("the"));
+
+        testIndex.update(2L, new TestRecord.TestRecordSummary("Record2", 3.0f));
+        assertEquals("Max rating should rise with an updated rating.", 3.0f, testIndex.getMaxRating("slow"));
+
+        testIndex.remove(1L);
+        assertEquals("Wrong record count after removal.", 1, testIndex.getRecordCount());
+        assertEquals("Wrong document frequency for 'fox' after removal.", 1, testIndex.getDocumentFrequency("fox"));
+        assertEquals("Removed term should have no documents.", 0, testIndex.getDocumentFrequency("quick"));
+        assertEquals("Removed term should have no max rating.", Float.NEGATIVE_INFINITY,
+            testIndex.getMaxRating("quick"));
+
+        testIndex.clear();
+        assertEquals("Cleared index should have no terms.", 0, testIndex.getTermCount());
+    }
+
+    /**
+     * Check that re-adding an existing key replaces its terms rather than counting them twice.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testReAddReplacesTerms() throws Exception
+    {
+        TestRecord replacement = new TestRecord(1L, "A grey wolf.", "Record1", 1.0f);
+        testIndex.add(replacement.getKey(), replacement, replacement.getSummaryRecord());
+
+        assertEquals("Wrong record count.", 2, testIndex.getRecordCount());
+        assertEquals("Old term should have been discounted.", 0, testIndex.getDocumentFrequency("quick"));
+        assertEquals("New term should have been counted.", 1, testIndex.getDocumentFrequency("wolf"));
+        assertFalse("Old term should no longer match.", testIndex.search("quick").containsKey(1L));
+    }
+
+    /**
+     * Check that queries containing an unknown term, or a term with no known synonyms, are known not to match.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testMightMatch() throws Exception
+    {
+        Map<String, Set<String>> synonyms = new HashMap<String, Set<String>>();
+        synonyms.put("vulpine", new HashSet<String>(Arrays.asList(new String[] { "fox" })));
+        synonyms.put("feline", new HashSet<String>(Arrays.asList(new String[] { "cat" })));
+        testIndex.setSynonyms(synonyms);
+
+        assertTrue("Query of indexed terms might match.", testIndex.mightMatch("quick fox"));
+        assertTrue("Query of a synonym of an indexed term might match.", testIndex.mightMatch("vulpine"));
+        assertFalse("Query with an unknown term cannot match.", testIndex.mightMatch("quick zebra"));
+        assertFalse("Query with a synonym of an unknown term cannot match.", testIndex.mightMatch("feline fox"));
+        assertTrue("Search for an unknown term should find nothing.", testIndex.search("quick zebra").isEmpty());
+    }
+
+    /**
+     * Check that searches return all matches in rating order, whatever the relative frequencies of their terms.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testSearchIndependentOfTermOrder() throws Exception
+    {
+        assertEquals("Wrong results for common then rare term.", Arrays.asList(new Long[] { 1L }),
+            Arrays.asList(testIndex.search("fox quick").keySet().toArray(new Long[0])));
+        assertEquals("Wrong results for two common terms.", Arrays.asList(new Long[] { 1L, 2L }),
+            Arrays.asList(testIndex.search("dogs fox").keySet().toArray(new Long[0])));
+    }
+
+    /**
+     * Sets up an index with some test records in it.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        testIndex = new ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary>();
+
+        IndexMapping mapping = new IndexMapping(new String[] { "text" }, "rating");
+        testIndex.addMapping(TestRecord.class, TestRecord.TestRecordSummary.class, mapping);
+        testIndex.setStopWords(Arrays.asList(new String[] { "the" }));
+
+        TestRecord record1 = new TestRecord(1L, "The quick brown fox jumped over the lazy dogs.", "Record1", 1.0f);
+        TestRecord record2 = new TestRecord(2L, "The slow red fox walked past the lazy dogs.", "Record2", 0.5f);
+
+        testIndex.add(record1.getKey(), record1, record1.getSummaryRecord());
+        testIndex.add(record2.getKey(), record2, record2.getSummaryRecord());
+    }
+
+    /**
+     * No test specific tear down to do.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+}
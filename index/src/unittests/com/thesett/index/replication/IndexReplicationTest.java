@@ -0,0 +1,383 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.index.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+import com.thesett.index.SampleRecords;
+import com.thesett.index.TestRecord;
+import com.thesett.index.prototype.ProtoIndex;
+
+/**
+ * IndexReplicationTest is a pure unit test class for replicating a {@link ProtoIndex} from a leader to a follower, both
+ * directly and over a loopback connection between an {@link IndexReplicationLeader} and an
+ * {@link IndexReplicationFollower}.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that a follower given a snapshot returns the same search results as the leader.
+ * <tr><td> Check that published alterations applied in order keep a follower in step with the leader.
+ * <tr><td> Check that alterations already included in a snapshot are not applied again.
+ * <tr><td> Check that a follower connected over a loopback socket catches up with and follows the leader.
+ * <tr><td> Check that a follower with the wrong secret is refused by the leader.
+ * <tr><td> Check that a follower rejects local changes to its indexes.
+ * <tr><td> Check that only allowed classes are deserialized from replication messages.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class IndexReplicationTest extends TestCase
+{
+    /** The shared replication secret used by the tests. */
+    private static final byte[] SECRET = "test-replication-secret".getBytes();
+
+    /** The index to replicate from. */
+    ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary> leaderIndex;
+
+    /** The index to replicate onto. */
+    ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary> followerIndex;
+
+    /**
+     * Creates the named test.
+     *
+     * @param testName The name of the test.
+     */
+    public IndexReplicationTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * Check that a follower given a snapshot returns the same search results as the leader, including the effects of
+     * the leaders stop words.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testSnapshotMatchesLeader() throws Exception
+    {
+        followerIndex.applySnapshot(leaderIndex.takeSnapshot());
+
+        assertSameResults("fox");
+        assertSameResults("quick fox");
+        assertSameResults("the lazy dogs");
+        assertEquals("Follower should have reached the leaders sequence number.", leaderIndex.getAlterationSequence(),
+            followerIndex.getAlterationSequence());
+    }
+
+    /**
+     * Check that published alterations applied in order keep a follower in step with the leader.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testAlterationsKeepFollowerInStep() throws Exception
+    {
+        final List<IndexAlteration<Long, TestRecord.TestRecordSummary>> published =
+            new ArrayList<IndexAlteration<Long, TestRecord.TestRecordSummary>>();
+
+        followerIndex.applySnapshot(leaderIndex.takeSnapshot());
+        leaderIndex.setAlterationListener(new IndexAlterationListener<Long, TestRecord.TestRecordSummary>()
+            {
+                public void alterationApplied(IndexAlteration<Long, TestRecord.TestRecordSummary> alteration)
+                {
+                    published.add(alteration);
+                }
+            });
+
+        TestRecord record3 = new TestRecord(3L, "A quick grey fox hid from the hounds.", "Record3", 2.0f);
+        leaderIndex.add(record3.getKey(), record3, record3.getSummaryRecord());
+        leaderIndex.update(2L, new TestRecord.TestRecordSummary("Record2", 3.0f));
+        leaderIndex.remove(1L);
+
+        for (IndexAlteration<Long, TestRecord.TestRecordSummary> alteration : published)
+        {
+            followerIndex.applyAlteration(alteration);
+        }
+
+        assertEquals("Expected one published alteration per change.", 3, published.size());
+        assertSameResults("fox");
+        assertSameResults("quick");
+        assertSameResults("lazy dogs");
+    }
+
+    /**
+     * Check that alterations already included in a snapshot are not applied again.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testAlterationsInSnapshotNotReapplied() throws Exception
+    {
+        final List<IndexAlteration<Long, TestRecord.TestRecordSummary>> published =
+            new ArrayList<IndexAlteration<Long, TestRecord.TestRecordSummary>>();
+
+        leaderIndex.setAlterationListener(new IndexAlterationListener<Long, TestRecord.TestRecordSummary>()
+            {
+                public void alterationApplied(IndexAlteration<Long, TestRecord.TestRecordSummary> alteration)
+                {
+                    published.add(alteration);
+                }
+            });
+
+        TestRecord record3 = new TestRecord(3L, "A quick grey fox hid from the hounds.", "Record3", 2.0f);
+        leaderIndex.add(record3.getKey(), record3, record3.getSummaryRecord());
+        followerIndex.applySnapshot(leaderIndex.takeSnapshot());
+        leaderIndex.remove(3L);
+
+        // Apply the removal, then replay the add that the snapshot already included.
+        followerIndex.applyAlteration(published.get(1));
+        followerIndex.applyAlteration(published.get(0));
+
+        assertFalse("Alteration included in the snapshot should not have been applied again.",
+            followerIndex.search("hounds").containsKey(3L));
+        assertSameResults("fox");
+    }
+
+    /**
+     * Check that a follower connected over a loopback socket catches up with the leader from a snapshot, and then
+     * follows the alterations committed on the leader.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testLoopbackFollowerFollowsLeader() throws Exception
+    {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        IndexReplicationLeader leader = new IndexReplicationLeader(serverSocket, SECRET, 1000, 0);
+        leader.replicate("test", leaderIndex);
+        leader.start();
+
+        IndexReplicationFollower follower =
+            new IndexReplicationFollower("127.0.0.1", serverSocket.getLocalPort(), SECRET, 100);
+        follower.replicate("test", followerIndex);
+        follower.start();
+
+        try
+        {
+            waitForFollower();
+            assertSameResults("fox");
+
+            TestRecord record3 = new TestRecord(3L, "A quick grey fox hid from the hounds.", "Record3", 2.0f);
+            leaderIndex.add(record3.getKey(), record3, record3.getSummaryRecord());
+            leaderIndex.remove(2L);
+
+            waitForFollower();
+            assertSameResults("fox");
+            assertSameResults("quick hounds");
+        }
+        finally
+        {
+            follower.stop();
+            leader.stop();
+        }
+    }
+
+    /**
+     * Check that a follower that does not hold the leaders secret is refused, and is sent nothing.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFollowerWithWrongSecretRefused() throws Exception
+    {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        IndexReplicationLeader leader = new IndexReplicationLeader(serverSocket, SECRET, 1000, 0);
+        leader.replicate("test", leaderIndex);
+        leader.start();
+
+        IndexReplicationFollower follower =
+            new IndexReplicationFollower("127.0.0.1", serverSocket.getLocalPort(),
+                "not-the-replication-secret".getBytes(), 100);
+        follower.replicate("test", followerIndex);
+        follower.start();
+
+        try
+        {
+            // Give the follower time to make several attempts to connect.
+            Thread.sleep(500);
+
+            assertEquals("The leader should not have accepted the follower.", 0, leader.getFollowerCount());
+            assertEquals("The follower should not have received anything.", 0L, followerIndex.getAlterationSequence());
+            assertTrue("The follower should not have received any records.", followerIndex.search("fox").isEmpty());
+        }
+        finally
+        {
+            follower.stop();
+            leader.stop();
+        }
+    }
+
+    /**
+     * Check that the indexes of a follower reject local changes, but still accept replicated ones.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testFollowerRejectsLocalChanges() throws Exception
+    {
+        IndexReplicationFollower follower = new IndexReplicationFollower("127.0.0.1", 0, SECRET, 100);
+        follower.replicate("test", followerIndex);
+
+        TestRecord record3 = new TestRecord(3L, "A quick grey fox hid from the hounds.", "Record3", 2.0f);
+        boolean rejected = false;
+
+        try
+        {
+            followerIndex.add(record3.getKey(), record3, record3.getSummaryRecord());
+        }
+        catch (IllegalStateException e)
+        {
+            // Exception noted, this is the expected outcome.
+            rejected = true;
+        }
+
+        assertTrue("A local add to a follower index should have been rejected.", rejected);
+
+        followerIndex.applySnapshot(leaderIndex.takeSnapshot());
+        assertSameResults("fox");
+
+        rejected = false;
+
+        try
+        {
+            followerIndex.remove(1L);
+        }
+        catch (IllegalStateException e)
+        {
+            // Exception noted, this is the expected outcome.
+            rejected = true;
+        }
+
+        assertTrue("A local remove from a follower index should have been rejected.", rejected);
+        assertSameResults("fox");
+    }
+
+    /**
+     * Check that only the allowed classes are deserialized from replication messages.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testOnlyAllowedClassesDeserialized() throws Exception
+    {
+        ReplicationClassFilter filter = new ReplicationClassFilter();
+        filter.allow(TestRecord.TestRecordSummary.class);
+
+        Object summary = filter.createInputStream(serialize(new TestRecord.TestRecordSummary("Record1", 1.0f)))
+            .readObject();
+        assertTrue("An allowed class should have been deserialized.", summary instanceof TestRecord.TestRecordSummary);
+
+        boolean rejected = false;
+
+        try
+        {
+            filter.createInputStream(serialize(new ArrayList<Long>())).readObject();
+        }
+        catch (InvalidClassException e)
+        {
+            // Exception noted, this is the expected outcome.
+            rejected = true;
+        }
+
+        assertTrue("A class that is not allowed should have been rejected.", rejected);
+    }
+
+    /**
+     * Sets up two indexes with the same mappings and stop words, and adds some records to the leader.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        leaderIndex = new ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary>();
+        followerIndex = new ProtoIndex<Long, TestRecord, TestRecord.TestRecordSummary>();
+
+        SampleRecords.addSampleMapping(leaderIndex);
+        SampleRecords.addSampleMapping(followerIndex);
+        leaderIndex.setStopWords(Arrays.asList(new String[] { "the" }));
+
+        SampleRecords.addSampleRecords(leaderIndex);
+    }
+
+    /**
+     * No test specific tear down to do.
+     *
+     * @throws Exception Any exceptions fall through this method and fail the test.
+     */
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+
+    /**
+     * Serializes an object.
+     *
+     * @param  object The object to serialize.
+     *
+     * @return A stream to read the serialized object from.
+     *
+     * @throws Exception If the object cannot be serialized.
+     */
+    private ByteArrayInputStream serialize(Object object) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    /**
+     * Checks that the leader and follower return the same keys, in the same order, for a query.
+     *
+     * @param query The query to run against both indexes.
+     */
+    private void assertSameResults(String query)
+    {
+        List<Long> expected = new ArrayList<Long>(leaderIndex.search(query).keySet());
+        List<Long> actual = new ArrayList<Long>(followerIndex.search(query).keySet());
+
+        assertEquals("Follower results differ from the leaders for the query '" + query + "'.", expected, actual);
+    }
+
+    /**
+     * Waits for the follower to reach the leaders sequence number, failing the test if it does not do so in time.
+     *
+     * @throws InterruptedException If interrupted whilst waiting.
+     */
+    private void waitForFollower() throws InterruptedException
+    {
+        for (int i = 0; (i < 1000) && (followerIndex.getAlterationSequence() != leaderIndex.getAlterationSequence());
+                i++)
+        {
+            Thread.sleep(10);
+        }
+
+        assertEquals("Follower did not catch up with the leader.", leaderIndex.getAlterationSequence(),
+            followerIndex.getAlterationSequence());
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.customtypes;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.type.LongType;
+import org.hibernate.type.Type;
+
+/**
+ * CompactExternalIdGenerator is a Hibernate identifier generator for external ids, that allocates 64-bit numeric ids
+ * from a database sequence in blocks, and renders them as short strings. It is an alternative to the 32 character
+ * 'uuid.hex' scheme; the resulting keys are less than half the length, and are allocated in increasing order, which
+ * keeps inserts into the primary key index, and any indexes referencing it, at the right hand edge of the index.
+ *
+ * <p/>Ids are allocated through a {@link SequenceStyleGenerator}, so on databases without sequences a table is used
+ * instead. The 'pooled-lo' optimizer is used by default, meaning that only one round trip to the database is needed
+ * for each block of ids. The following parameters may be set on the generator in the mapping:
+ *
+ * <pre><p/><table id="params"><caption>Parameters</caption>
+ * <tr><th> Parameter <th> Default <th> Description
+ * <tr><td> sequence_name  <td> external_id_seq <td> The name of the sequence (or table) to allocate from.
+ * <tr><td> increment_size <td> 100             <td> The number of ids to allocate per database round trip.
+ * <tr><td> optimizer      <td> pooled-lo       <td> The optimizer to use to allocate ids in blocks.
+ * <tr><td> format         <td> base32          <td> 'base32' for compact rendering, or 'decimal'.
+ * </table></pre>
+ *
+ * <p/>The base-32 rendering uses the Crockford alphabet in lower case, and is always padded to {@link #BASE32_LENGTH}
+ * characters, so that the string ordering of the ids matches their numeric ordering. Being at most 19 characters long
+ * in either format, the ids never collide with existing 32 character UUIDs, so an existing catalogue may be migrated
+ * onto this generator without re-keying its data. The id column only needs to be widened from 'char(32)' to
+ * 'varchar(32)', and the sequence created, for example:
+ *
+ * <pre>
+ * alter table external_id alter column id type varchar(32);
+ * create sequence external_id_seq start with 1 increment by 100;
+ * </pre>
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Allocate numeric ids in blocks. <td> {@link SequenceStyleGenerator}.
+ * <tr><td> Render numeric ids as compact strings, and parse them back again.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CompactExternalIdGenerator extends SequenceStyleGenerator
+{
+    /** The name of the parameter used to select the rendering of the ids. */
+    public static final String FORMAT_PARAM = "format";
+
+    /** The format parameter value that selects compact base-32 rendering. */
+    public static final String BASE32_FORMAT = "base32";
+
+    /** The format parameter value that selects decimal rendering. */
+    public static final String DECIMAL_FORMAT = "decimal";
+
+    /** The default name of the sequence to allocate external ids from. */
+    public static final String DEFAULT_SEQUENCE_NAME = "external_id_seq";
+
+    /** The default number of ids to allocate in a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+
+    /** The default optimizer used to allocate blocks of ids. */
+    public static final String DEFAULT_OPTIMIZER = "pooled-lo";
+
+    /** The fixed length of a base-32 rendered id; enough for all 64 bits. */
+    public static final int BASE32_LENGTH = 13;
+
+    /** Holds the Crockford base-32 alphabet, in lower case. */
+    private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+
+    /** Holds a reverse lookup table from characters to base-32 digits, -1 marks an illegal character. */
+    private static final int[] DIGITS = new int[128];
+
+    static
+    {
+        for (int i = 0; i < DIGITS.length; i++)
+        {
+            DIGITS[i] = -1;
+        }
+
+        for (int i = 0; i < ALPHABET.length; i++)
+        {
+            DIGITS[ALPHABET[i]] = i;
+            DIGITS[Character.toUpperCase(ALPHABET[i])] = i;
+        }
+
+        // Crockford decoding treats the easily confused letters as the digits they resemble.
+        DIGITS['o'] = 0;
+        DIGITS['O'] = 0;
+        DIGITS['i'] = 1;
+        DIGITS['I'] = 1;
+        DIGITS['l'] = 1;
+        DIGITS['L'] = 1;
+    }
+
+    /** Flag set when ids are to be rendered in base-32, otherwise they are rendered in decimal. */
+    private boolean base32 = true;
+
+    /** {@inheritDoc} */
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException
+    {
+        String format = params.getProperty(FORMAT_PARAM, BASE32_FORMAT);
+
+        if (BASE32_FORMAT.equals(format))
+        {
+            base32 = true;
+        }
+        else if (DECIMAL_FORMAT.equals(format))
+        {
+            base32 = false;
+        }
+        else
+        {
+            throw new MappingException("Unknown external id format '" + format + "'.");
+        }
+
+        Properties allocatorParams = new Properties();
+        allocatorParams.putAll(params);
+        setDefault(allocatorParams, SEQUENCE_PARAM, DEFAULT_SEQUENCE_NAME);
+        setDefault(allocatorParams, INCREMENT_PARAM, Integer.toString(DEFAULT_BLOCK_SIZE));
+        setDefault(allocatorParams, OPT_PARAM, DEFAULT_OPTIMIZER);
+
+        // The ids are allocated as longs, whatever the type of the id property they are rendered into.
+        super.configure(LongType.INSTANCE, allocatorParams, dialect);
+    }
+
+    /** {@inheritDoc} */
+    public Serializable generate(SessionImplementor session, Object object) throws HibernateException
+    {
+        long id = ((Number) super.generate(session, object)).longValue();
+
+        return base32 ? toBase32(id) : Long.toString(id);
+    }
+
+    /**
+     * Renders a 64-bit value as a fixed length base-32 string. The value is treated as unsigned.
+     *
+     * @param  value The value to render.
+     *
+     * @return The value rendered in base-32.
+     */
+    public static String toBase32(long value)
+    {
+        char[] result = new char[BASE32_LENGTH];
+
+        for (int i = BASE32_LENGTH - 1; i >= 0; i--)
+        {
+            result[i] = ALPHABET[(int) (value & 0x1f)];
+            value >>>= 5;
+        }
+
+        return new String(result);
+    }
+
+    /**
+     * Parses a base-32 string, as produced by {@link #toBase32}, back into a 64-bit value. Upper case characters are
+     * accepted, and shorter strings are treated as if they were padded with leading zeros.
+     *
+     * @param  id The base-32 string to parse.
+     *
+     * @return The value of the base-32 string.
+     *
+     * @throws IllegalArgumentException If the string is not a valid base-32 rendering of a 64-bit value.
+     */
+    public static long fromBase32(String id)
+    {
+        int length = id.length();
+
+        if ((length == 0) || (length > BASE32_LENGTH))
+        {
+            throw new IllegalArgumentException("The id '" + id + "' is not a base-32 external id.");
+        }
+
+        long result = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = id.charAt(i);
+            int digit = (c < DIGITS.length) ? DIGITS[c] : -1;
+
+            // The leading digit of a full length id only holds the top 4 bits.
+            if ((digit < 0) || ((i == 0) && (length == BASE32_LENGTH) && (digit > 0xf)))
+            {
+                throw new IllegalArgumentException("The id '" + id + "' is not a base-32 external id.");
+            }
+
+            result = (result << 5) | digit;
+        }
+
+        return result;
+    }
+
+    /**
+     * Sets a property to a default value, if it has not already been set.
+     *
+     * @param properties The properties to set the default in.
+     * @param name       The name of the property.
+     * @param value      The default value of the property.
+     */
+    private static void setDefault(Properties properties, String name, String value)
+    {
+        if (properties.getProperty(name) == null)
+        {
+            properties.setProperty(name, value);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.customtypes;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.NDC;
+
+/**
+ * Tests the base-32 rendering of compact external ids by {@link CompactExternalIdGenerator}.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Check that compact ids are of fixed length, ordered and can be parsed back again.
+ *     <td> {@link CompactExternalIdGenerator}
+ * <tr><td> Check that the easily confused letters are parsed as the digits they resemble.
+ * <tr><td> Check that strings that are not compact ids are rejected.
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class CompactExternalIdGeneratorTest extends TestCase
+{
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public CompactExternalIdGeneratorTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Check that compact ids are of fixed length, sort in the same order as the values they are allocated from, and
+     * parse back to them.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCompactIdsOrderedAndReversible() throws Exception
+    {
+        long[] values = { 0L, 1L, 31L, 32L, 1000000L, Integer.MAX_VALUE, Long.MAX_VALUE, -1L };
+
+        String previous = null;
+
+        for (long value : values)
+        {
+            String id = CompactExternalIdGenerator.toBase32(value);
+
+            assertEquals("Compact ids should be of fixed length.", CompactExternalIdGenerator.BASE32_LENGTH,
+                id.length());
+            assertEquals("Compact ids should parse back to their value.", value,
+                CompactExternalIdGenerator.fromBase32(id));
+            assertEquals("Compact ids should parse back from upper case.", value,
+                CompactExternalIdGenerator.fromBase32(id.toUpperCase()));
+
+            if (previous != null)
+            {
+                assertTrue("Compact ids should sort in allocation order.", previous.compareTo(id) < 0);
+            }
+
+            previous = id;
+        }
+    }
+
+    /**
+     * Check that the letters 'o', 'i' and 'l' are parsed as the digits they resemble, and that shorter ids are parsed
+     * as if padded with leading zeros.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testConfusedLettersParsedAsDigits() throws Exception
+    {
+        assertEquals("Expected 'o' to be parsed as zero.", 0L, CompactExternalIdGenerator.fromBase32("o"));
+        assertEquals("Expected 'I' to be parsed as one.", 1L, CompactExternalIdGenerator.fromBase32("I"));
+        assertEquals("Expected 'l' to be parsed as one.", 33L, CompactExternalIdGenerator.fromBase32("1l"));
+    }
+
+    /**
+     * Check that empty, over long, out of range and illegal ids are rejected.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testInvalidIdsRejected() throws Exception
+    {
+        String[] invalidIds = { "", "00000000000000", "g000000000000", "u", "0-1", "\u00e9" };
+
+        for (String id : invalidIds)
+        {
+            try
+            {
+                CompactExternalIdGenerator.fromBase32(id);
+                fail("Expected the id '" + id + "' to be rejected.");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // Expected.
+            }
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+    }
+
+    protected void tearDown() throws Exception
+    {
+        NDC.pop();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright The Sett Ltd, 2005 to 2014.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thesett.catalogue.customtypes;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.NDC;
+import org.hibernate.id.UUIDHexGenerator;
+
+/**
+ * Compares the database insert and lookup throughput of external ids allocated as UUIDs, against compact external ids
+ * allocated by {@link CompactExternalIdGenerator}. The ids are inserted into, and looked up by, the primary key of an
+ * external id table in an in-memory HSQL database. The compact ids are allocated from a counter, as the pooled
+ * optimizer does between round trips to the database sequence.
+ *
+ * <pre><p/><table id="crc"><caption>CRC Card</caption>
+ * <tr><th> Responsibilities <th> Collaborations
+ * <tr><td> Measure database insert and lookup throughput of UUID external ids.
+ * <tr><td> Measure database insert and lookup throughput of compact external ids.
+ *     <td> {@link CompactExternalIdGenerator}
+ * </table></pre>
+ *
+ * @author Rupert Smith
+ */
+public class ExternalIdSchemeTestPerf extends TestCase
+{
+    /** Used for logging. */
+    private static final Logger log = Logger.getLogger(ExternalIdSchemeTestPerf.class);
+
+    /** Holds the url of the in-memory test database. */
+    private static final String TEST_URL = "jdbc:hsqldb:mem:externalidperf";
+
+    /** The number of ids to insert and look up in each run. */
+    private static final int NUM_IDS = 100000;
+
+    /** The number of inserts to send to the database in each JDBC batch. */
+    private static final int BATCH_SIZE = 100;
+
+    /** The number of times to repeat each run, the first of which warms up the JVM. */
+    private static final int NUM_RUNS = 5;
+
+    /** Holds the connection to the test database. */
+    private Connection connection;
+
+    /**
+     * Creates a test with the specified name.
+     *
+     * @param name The name of the test to create.
+     */
+    public ExternalIdSchemeTestPerf(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Measures the database insert and lookup throughput of UUID external ids.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testUuidThroughput() throws Exception
+    {
+        UUIDHexGenerator generator = new UUIDHexGenerator();
+
+        for (int run = 0; run < NUM_RUNS; run++)
+        {
+            List<String> ids = new ArrayList<String>(NUM_IDS);
+
+            for (int i = 0; i < NUM_IDS; i++)
+            {
+                ids.add((String) generator.generate(null, null));
+            }
+
+            measure("uuid.hex", ids);
+        }
+    }
+
+    /**
+     * Measures the database insert and lookup throughput of compact external ids.
+     *
+     * @throws Exception All test exceptions are allowed to fall through.
+     */
+    public void testCompactThroughput() throws Exception
+    {
+        for (int run = 0; run < NUM_RUNS; run++)
+        {
+            List<String> ids = new ArrayList<String>(NUM_IDS);
+
+            for (int i = 0; i < NUM_IDS; i++)
+            {
+                ids.add(CompactExternalIdGenerator.toBase32(i + 1));
+            }
+
+            measure("compact", ids);
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        NDC.push(getName());
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection(TEST_URL, "sa", "");
+        connection.setAutoCommit(false);
+    }
+
+    protected void tearDown() throws Exception
+    {
+        Statement statement = connection.createStatement();
+        statement.execute("SHUTDOWN");
+        statement.close();
+        connection.close();
+
+        NDC.pop();
+    }
+
+    /**
+     * Inserts a list of ids into an empty external id table, then looks them all up again by primary key, and logs the
+     * throughput of each.
+     *
+     * @param  scheme The name of the id scheme being measured.
+     * @param  ids    The ids to insert and look up, in allocation order.
+     *
+     * @throws SQLException If the database fails to insert or look up the ids.
+     */
+    private void measure(String scheme, List<String> ids) throws SQLException
+    {
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE external_id IF EXISTS");
+        statement.execute("CREATE TABLE external_id (id VARCHAR(32) NOT NULL PRIMARY KEY, resource VARCHAR(64))");
+        statement.close();
+        connection.commit();
+
+        long start = System.nanoTime();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO external_id (id, resource) VALUES (?, ?)");
+        int count = 0;
+
+        for (String id : ids)
+        {
+            insert.setString(1, id);
+            insert.setString(2, scheme);
+            insert.addBatch();
+
+            if ((++count % BATCH_SIZE) == 0)
+            {
+                insert.executeBatch();
+            }
+        }
+
+        insert.executeBatch();
+        insert.close();
+        connection.commit();
+
+        long inserted = System.nanoTime();
+
+        PreparedStatement select = connection.prepareStatement("SELECT resource FROM external_id WHERE id = ?");
+
+        for (String id : ids)
+        {
+            select.setString(1, id);
+
+            ResultSet resultSet = select.executeQuery();
+            assertTrue("Expected the id " + id + " to be found.", resultSet.next());
+            resultSet.close();
+        }
+
+        select.close();
+        connection.commit();
+
+        long lookedUp = System.nanoTime();
+
+        log.info(scheme + ": " + ids.get(0).length() + " characters, " + opsPerSecond(ids.size(), inserted - start) +
+            " inserts/s, " + opsPerSecond(ids.size(), lookedUp - inserted) + " lookups/s.");
+    }
+
+    /**
+     * Calculates a throughput in operations per second.
+     *
+     * @param  ops   The number of operations performed.
+     * @param  nanos The time taken to perform them in nanoseconds.
+     *
+     * @return The throughput in operations per second.
+     */
+    private static long opsPerSecond(int ops, long nanos)
+    {
+        return (nanos == 0) ? 0 : ((ops * 1000000000L) / nanos);
+    }
+}